@@ -1,25 +1,44 @@
 package com.example.android.inventoryappstageone;
 
+import android.annotation.TargetApi;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.print.PrintAttributes;
+import android.print.PrintManager;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.ListView;
+import android.widget.Toast;
 
+import com.example.android.inventoryappstageone.data.InventoryContract;
 import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryDatasetGenerator;
+import com.example.android.inventoryappstageone.label.LabelPrintAdapter;
+
+import java.lang.ref.WeakReference;
 
 /**
  * Displays list of inventories that were entered and stored in the app.
@@ -31,16 +50,85 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
      */
     private static final int INVENTORY_LOADER = 0;
 
+    /**
+     * Keys for the catalog sort mode and filter in the saved instance state
+     */
+    private static final String STATE_SORT_MODE = "sort_mode";
+    private static final String STATE_IN_STOCK_ONLY = "in_stock_only";
+    private static final String STATE_SEARCH_QUERY = "search_query";
+
+    /**
+     * Time the search waits for the next keystroke before it queries
+     */
+    private static final long SEARCH_DEBOUNCE_MILLIS = 150;
+
+    /**
+     * Seed, supplier count and batch size of the dummy data inserted from the menu
+     */
+    private static final long DUMMY_DATA_SEED = 42;
+    private static final int DUMMY_DATA_SUPPLIERS = 8;
+    private static final int DUMMY_DATA_BATCH = 20;
+
     /**
      * Adapter for the ListView
      */
     InventoryCursorAdapter mCursorAdapter;
 
+    /**
+     * Current sort mode of the catalog (one of the InventoryEntry.SORT_* values), or null for the default order
+     */
+    private String mSortMode;
+
+    /**
+     * Whether the catalog only lists products that are in stock
+     */
+    private boolean mInStockOnly;
+
+    /**
+     * Name prefix the catalog is searched for, or null to list the whole catalog
+     */
+    private String mSearchQuery;
+
+    /**
+     * Restarts the loader once typing pauses. Restarting cancels the query of the previous
+     * keystroke if it's still running.
+     */
+    private final Handler mSearchHandler = new Handler ();
+    private final Runnable mRunSearch = new Runnable () {
+        @Override
+        public void run() {
+            getLoaderManager ().restartLoader (INVENTORY_LOADER, null, CatalogActivity.this);
+        }
+    };
+
+    /**
+     * Generator of the dummy data, created on first use
+     */
+    private InventoryDatasetGenerator mDatasetGenerator;
+
+    /**
+     * Whether the first rows of the catalog were drawn, for the startup trace
+     */
+    private boolean mFirstRowsDrawn;
+
+    /**
+     * Runs database maintenance while the catalog is idle
+     */
+    private MaintenanceIdleHandler mMaintenance;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate (savedInstanceState);
+        StartupTrace.mark (StartupTrace.CATALOG_CREATED);
         setContentView (R.layout.activity_catalog);
 
+        // Restore the sort mode and filter the user picked before a configuration change
+        if (savedInstanceState != null) {
+            mSortMode = savedInstanceState.getString (STATE_SORT_MODE);
+            mInStockOnly = savedInstanceState.getBoolean (STATE_IN_STOCK_ONLY);
+            mSearchQuery = savedInstanceState.getString (STATE_SEARCH_QUERY);
+        }
+
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = findViewById (R.id.fab);
         fab.setOnClickListener (new View.OnClickListener () {
@@ -76,6 +164,16 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 //Set the URI on the data field of the intent
                 intent.setData (currentInventoryUri);
 
+                //Hand over the row we already have loaded, so the editor can show it right away
+                //instead of waiting for its own query to finish.
+                Cursor cursor = (Cursor) mCursorAdapter.getItem (position);
+                if (cursor != null) {
+                    ContentValues values = new ContentValues ();
+                    DatabaseUtils.cursorRowToContentValues (cursor, values);
+                    intent.putExtra (EditorActivity.EXTRA_INVENTORY_VALUES, values);
+                }
+                intent.putExtra (EditorActivity.EXTRA_TAP_TIME, SystemClock.uptimeMillis ());
+
                 //Lauch the {@link EditorActivity} to display the data for the current inventory.
                 startActivity (intent);
 
@@ -84,20 +182,52 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
         //Kick off the loader
         getLoaderManager ().initLoader (INVENTORY_LOADER, null, this);
+
+        mMaintenance = new MaintenanceIdleHandler (getContentResolver ());
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume ();
+        mMaintenance.register ();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause ();
+        mMaintenance.unregister ();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState (outState);
+        outState.putString (STATE_SORT_MODE, mSortMode);
+        outState.putBoolean (STATE_IN_STOCK_ONLY, mInStockOnly);
+        outState.putString (STATE_SEARCH_QUERY, mSearchQuery);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy ();
+        mSearchHandler.removeCallbacks (mRunSearch);
+        // Stop decoding thumbnails for rows that are gone
+        mCursorAdapter.shutdown ();
+        // Let the maintenance thread end
+        mMaintenance.shutdown ();
     }
 
     /*
      * Helper method to insert inventory data into the database. For debugging purposes only.
      */
     private void insertInventory() {
-        // Create a ContentValues object where column names are the keys,
-        // and inventory attributes from the editor are the values.
-        ContentValues values = new ContentValues ();
-        values.put (InventoryEntry.COLUMN_PRODUCT_NAME, "");
-        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, "");
-        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, "");
-        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "");
-        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "");
+        // Generate a batch of realistic products. The generator is seeded, so every run of the
+        // app inserts the same sequence of products.
+        if (mDatasetGenerator == null) {
+            mDatasetGenerator = new InventoryDatasetGenerator (DUMMY_DATA_SEED, DUMMY_DATA_SUPPLIERS);
+        }
+        ContentValues[] values = mDatasetGenerator.next (DUMMY_DATA_BATCH);
+        int rowsInserted = getContentResolver ().bulkInsert (InventoryEntry.CONTENT_URI, values);
+        Log.v ("CatalogActivity", rowsInserted + " rows inserted into inventory database");
     }
 
 
@@ -106,12 +236,116 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         Log.v ("CatalogActivity", rowsDeleted + " rows deleted from inventory database");
     }
 
+    /**
+     * Undo the latest change to the inventories, or redo the latest undone one, off the main
+     * thread. The catalog reloads by itself.
+     */
+    private void undoOrRedo(boolean undo) {
+        new UndoTask (this, undo).execute ();
+    }
+
+    /**
+     * Undoes or redoes the latest change, off the main thread, and tells the user how it went.
+     */
+    private static class UndoTask extends AsyncTask<Void, Void, Bundle> {
+
+        private final WeakReference<CatalogActivity> mActivity;
+        private final ContentResolver mResolver;
+        private final boolean mUndo;
+
+        UndoTask(CatalogActivity activity, boolean undo) {
+            mActivity = new WeakReference<> (activity);
+            mResolver = activity.getContentResolver ();
+            mUndo = undo;
+        }
+
+        @Override
+        protected Bundle doInBackground(Void... voids) {
+            String method = mUndo ? InventoryContract.METHOD_UNDO : InventoryContract.METHOD_REDO;
+            return mResolver.call (InventoryEntry.CONTENT_URI, method, null, null);
+        }
+
+        @Override
+        protected void onPostExecute(Bundle result) {
+            CatalogActivity activity = mActivity.get ();
+            if (activity != null && !activity.isFinishing ()) {
+                activity.showUndoResult (mUndo, result);
+            }
+        }
+    }
+
+    /**
+     * Tell the user whether the undo or redo went through.
+     */
+    private void showUndoResult(boolean undo, Bundle result) {
+        int message;
+        if (result.getInt (InventoryContract.EXTRA_COMMAND_KIND) == 0) {
+            message = undo ? R.string.undo_nothing : R.string.redo_nothing;
+        } else if (result.getBoolean (InventoryContract.EXTRA_COMMITTED)) {
+            message = undo ? R.string.undo_successful : R.string.redo_successful;
+        } else {
+            message = R.string.undo_failed;
+        }
+        Toast.makeText (this, getString (message), Toast.LENGTH_SHORT).show ();
+    }
+
+    /**
+     * Print the shelf labels of the products the catalog lists. The print framework shows a
+     * preview and renders the labels in the background.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void printLabels() {
+        PrintManager printManager = (PrintManager) getSystemService (Context.PRINT_SERVICE);
+        String jobName = getString (R.string.label_print_job);
+        PrintAttributes attributes = new PrintAttributes.Builder ()
+                .setMediaSize (PrintAttributes.MediaSize.ISO_A4)
+                .setColorMode (PrintAttributes.COLOR_MODE_MONOCHROME)
+                .build ();
+        printManager.print (jobName, new LabelPrintAdapter (getContentResolver (), catalogUri (), jobName, getString (R.string.unit_product_price)), attributes);
+    }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater ().inflate (R.menu.menu_catalog, menu);
+
+        // Reflect the current sort mode and filter in the menu
+        menu.findItem (sortMenuItemId (mSortMode)).setChecked (true);
+        menu.findItem (R.id.action_in_stock_only).setChecked (mInStockOnly);
+
+        // Printing needs the print framework of KitKat
+        menu.findItem (R.id.action_print_labels).setVisible (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT);
+
+        // Search as you type, restoring a search that was open before a configuration change
+        MenuItem searchItem = menu.findItem (R.id.action_search);
+        final SearchView searchView = (SearchView) searchItem.getActionView ();
+        if (!TextUtils.isEmpty (mSearchQuery)) {
+            searchItem.expandActionView ();
+            searchView.setQuery (mSearchQuery, false);
+        }
+        searchView.setOnQueryTextListener (new SearchView.OnQueryTextListener () {
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String query = newText.trim ();
+                if (TextUtils.equals (query, mSearchQuery == null ? "" : mSearchQuery)) {
+                    return true;
+                }
+                mSearchQuery = query;
+                mSearchHandler.removeCallbacks (mRunSearch);
+                mSearchHandler.postDelayed (mRunSearch, SEARCH_DEBOUNCE_MILLIS);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // No need to wait for more keystrokes
+                mSearchHandler.removeCallbacks (mRunSearch);
+                mRunSearch.run ();
+                searchView.clearFocus ();
+                return true;
+            }
+        });
         return true;
     }
 
@@ -119,6 +353,17 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId ()) {
+            // Respond to a click on the "Undo" and "Redo" menu options
+            case R.id.action_undo:
+                undoOrRedo (true);
+                return true;
+            case R.id.action_redo:
+                undoOrRedo (false);
+                return true;
+            // Respond to a click on the "Print labels" menu option
+            case R.id.action_print_labels:
+                printLabels ();
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertInventory ();
@@ -127,29 +372,109 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_delete_all_entries:
                 deleteAllInvenotires ();
                 return true;
+            // Respond to a click on one of the "Sort by" options
+            case R.id.action_sort_default:
+                changeSortMode (item, null);
+                return true;
+            case R.id.action_sort_name:
+                changeSortMode (item, InventoryEntry.SORT_NAME);
+                return true;
+            case R.id.action_sort_price:
+                changeSortMode (item, InventoryEntry.SORT_PRICE);
+                return true;
+            case R.id.action_sort_quantity:
+                changeSortMode (item, InventoryEntry.SORT_QUANTITY);
+                return true;
+            case R.id.action_sort_supplier:
+                changeSortMode (item, InventoryEntry.SORT_SUPPLIER);
+                return true;
+            // Respond to a click on the "In stock only" option
+            case R.id.action_in_stock_only:
+                mInStockOnly = !item.isChecked ();
+                item.setChecked (mInStockOnly);
+                getLoaderManager ().restartLoader (INVENTORY_LOADER, null, this);
+                return true;
         }
         return super.onOptionsItemSelected (item);
     }
 
+    /**
+     * Switch the catalog to the given sort mode and reload it.
+     */
+    private void changeSortMode(MenuItem item, String sortMode) {
+        item.setChecked (true);
+        mSortMode = sortMode;
+        getLoaderManager ().restartLoader (INVENTORY_LOADER, null, this);
+    }
+
+    /**
+     * Return the id of the "Sort by" menu option for the given sort mode.
+     */
+    private static int sortMenuItemId(String sortMode) {
+        if (sortMode == null) {
+            return R.id.action_sort_default;
+        }
+        switch (sortMode) {
+            case InventoryEntry.SORT_NAME:
+                return R.id.action_sort_name;
+            case InventoryEntry.SORT_PRICE:
+                return R.id.action_sort_price;
+            case InventoryEntry.SORT_QUANTITY:
+                return R.id.action_sort_quantity;
+            case InventoryEntry.SORT_SUPPLIER:
+                return R.id.action_sort_supplier;
+            default:
+                return R.id.action_sort_default;
+        }
+    }
+
+    /**
+     * Return the content URI of what the catalog lists. The sort mode and filter travel as typed
+     * query parameters on the URI. A search lists the first matches by name instead.
+     */
+    private Uri catalogUri() {
+        if (TextUtils.isEmpty (mSearchQuery)) {
+            return InventoryEntry.buildCatalogUri (mSortMode, mInStockOnly, -1, -1, null);
+        }
+        return InventoryEntry.buildSearchUri (mSearchQuery, InventoryEntry.SEARCH_DEFAULT_LIMIT);
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         // Define a projection that specifies which columns from the database
         // you will actually use after this query.
-        String[] projection = {InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_NAME, InventoryEntry.COLUMN_PRODUCT_PRICE, InventoryEntry.COLUMN_PRODUCT_QUANTITY, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER};
+        String[] projection = InventoryEntry.CATALOG_PROJECTION;
 
         // This loader will execute the ContentProvider's quary method on a background thread
         return new CursorLoader (this,    // Parent activity context
-                InventoryEntry.CONTENT_URI, // Provider content URI to query
+                catalogUri (), // Provider content URI to query
                 projection,     // Columns to include in the resulting Cursor
                 null,       // No selection clause
                 null,   // No selection arguments
-                null);      // Default sort order
+                null);      // Sort order comes from the URI
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         //Update (@link InventoryCursorAdapter will this cursor containing updated inventory data
         mCursorAdapter.swapCursor (data);
+
+        // Mark the first time rows are actually drawn, which is the end of a cold start
+        if (data != null && data.getCount () > 0 && !mFirstRowsDrawn) {
+            mFirstRowsDrawn = true;
+            final View list = findViewById (R.id.list);
+            list.getViewTreeObserver ().addOnPreDrawListener (new ViewTreeObserver.OnPreDrawListener () {
+                @Override
+                public boolean onPreDraw() {
+                    list.getViewTreeObserver ().removeOnPreDrawListener (this);
+                    StartupTrace.mark (StartupTrace.FIRST_CATALOG_ROW);
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                        reportFullyDrawn ();
+                    }
+                    return true;
+                }
+            });
+        }
     }
 
     @Override
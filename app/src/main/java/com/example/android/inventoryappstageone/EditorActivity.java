@@ -1,5 +1,7 @@
 package com.example.android.inventoryappstageone;
 
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
@@ -9,28 +11,70 @@ import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventoryappstageone.data.ImageStore;
+import com.example.android.inventoryappstageone.data.InventoryContract;
+import com.example.android.inventoryappstageone.data.InventoryContract.DemandEntry;
 import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryValidator;
+import com.example.android.inventoryappstageone.data.SalesVelocity;
+import com.example.android.inventoryappstageone.report.ReorderPlanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.List;
 
 
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
+    public static final String LOG_TAG = EditorActivity.class.getSimpleName ();
+
+    /**
+     * Intent extra with the {@link ContentValues} of the inventory as already loaded by the caller.
+     * When present the form is filled in immediately and only reconciled with the database later.
+     */
+    public static final String EXTRA_INVENTORY_VALUES = "inventory_values";
+
+    /**
+     * Intent extra with the {@link SystemClock#uptimeMillis()} at which the user tapped the
+     * inventory, used to log the time from tap to populated form.
+     */
+    public static final String EXTRA_TAP_TIME = "tap_time";
+
     /**
      * Identifier for the inventory data loader
      */
     private static final int EXISTING_INVENTORY_LOADER = 0;
+    /**
+     * Request code of the image picker
+     */
+    private static final int PICK_IMAGE_REQUEST = 1;
+    /**
+     * Saved instance state key of the picked image
+     */
+    private static final String STATE_PICKED_IMAGE = "picked_image";
+    /**
+     * Saved instance state keys of the values last filled into the form and of the quantity
+     */
+    private static final String STATE_DISPLAYED_VALUES = "displayed_values";
+    private static final String STATE_QUANTITY = "quantity";
     /**
      * Product quantity
      */
@@ -43,6 +87,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      * EditText field to enter the product's name
      */
     private EditText mProductName;
+    /**
+     * EditText field to enter the product's SKU (barcode)
+     */
+    private EditText mProductSku;
     /**
      * EditText field to enter the product's price
      */
@@ -59,10 +107,33 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      * EditText field to enter the supplier phone number
      */
     private EditText mSupplierPhoneNumber;
+    /**
+     * ImageView showing the product's image, tapped to pick another one
+     */
+    private ImageView mProductImage;
+    /**
+     * Decodes the thumbnail of the product's image off the main thread
+     */
+    private ThumbnailLoader mThumbnailLoader;
+    /**
+     * Name of the image the user picked and that is stored but not saved with the inventory yet,
+     * or null if the image wasn't changed
+     */
+    private String mPickedImageName;
     /**
      * Boolean flag that keeps track of whether the inventory has been edited (true) or not (false)
      */
     private boolean mInventoryHasChanged = false;
+    /**
+     * Inventory attributes as last filled into the form, or null before it was filled. A field
+     * whose text no longer matches was edited by the user, and is left alone when the loader
+     * delivers newer values.
+     */
+    private ContentValues mDisplayedValues;
+    /**
+     * Uptime at which the user tapped the inventory in the catalog, or 0 if unknown
+     */
+    private long mTapTime;
     /**
      * OnTouchListener that listens for any user touches on a View, implying that they are modifying
      * the view, and we change the mPetHasChanged boolean to true.
@@ -85,15 +156,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         order.setOnClickListener (new View.OnClickListener () {
             @Override
             public void onClick(View view) {
-                String supplierPhoneNumberString = mSupplierPhoneNumber.getText ().toString ().trim ();
-                // Otherwise, the insertion was successful and we can display a toast.
-                if (supplierPhoneNumberString != "") {
-                    String uri = "tel:" + supplierPhoneNumberString ;
-                    Intent intent = new Intent (Intent.ACTION_CALL);
-                    intent.setData (Uri.parse (uri));
-                }
-                else {
-
+                if (TextUtils.isEmpty (mSupplierPhoneNumber.getText ().toString ().trim ())) {
+                    Toast.makeText (EditorActivity.this, getString (R.string.unknown_supplierPhoneNumber), Toast.LENGTH_SHORT).show ();
+                } else if (mCurrentInventoryUri == null) {
+                    // A new product hasn't sold yet, so there's nothing to suggest
+                    callSupplier ();
+                } else {
+                    new SuggestOrderTask (EditorActivity.this, ContentUris.parseId (mCurrentInventoryUri)).execute ();
                 }
             }
         });
@@ -122,28 +191,272 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
         // Find all relevant views that we will need to read user input from
         mProductName = (EditText) findViewById (R.id.edit_product_name);
+        mProductSku = (EditText) findViewById (R.id.edit_product_sku);
         mProductPrice = (EditText) findViewById (R.id.edit_product_price);
         mProductQuantity = (TextView) findViewById (R.id.edit_product_quantity);
         mSupplierName = (EditText) findViewById (R.id.edit_supplier_name);
         mSupplierPhoneNumber = (EditText) findViewById (R.id.edit_supplier_phone_number);
+        mProductImage = (ImageView) findViewById (R.id.edit_product_image);
+        mThumbnailLoader = new ThumbnailLoader (getContentResolver (), android.R.drawable.ic_menu_gallery);
+
+        // Tapping the image opens the picker
+        mProductImage.setOnClickListener (new View.OnClickListener () {
+            @Override
+            public void onClick(View view) {
+                Intent pickImage = new Intent (Intent.ACTION_GET_CONTENT);
+                pickImage.setType ("image/*");
+                startActivityForResult (Intent.createChooser (pickImage, getString (R.string.pick_image)), PICK_IMAGE_REQUEST);
+            }
+        });
+        if (savedInstanceState != null) {
+            mPickedImageName = savedInstanceState.getString (STATE_PICKED_IMAGE);
+            if (mPickedImageName != null) {
+                displayPickedImage ();
+            }
+            mDisplayedValues = savedInstanceState.getParcelable (STATE_DISPLAYED_VALUES);
+            quantity = savedInstanceState.getInt (STATE_QUANTITY);
+            displayQuantity (quantity);
+        }
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
         // or not, if the user tries to leave the editor without saving.
         mProductName.setOnTouchListener (mTouchListener);
+        mProductSku.setOnTouchListener (mTouchListener);
         mProductPrice.setOnTouchListener (mTouchListener);
         mProductQuantity.setOnTouchListener (mTouchListener);
         mSupplierName.setOnTouchListener (mTouchListener);
         mSupplierPhoneNumber.setOnTouchListener (mTouchListener);
+
+        // If the catalog handed over the row it had already loaded, show it right away.
+        // The loader started above still runs and reconciles the form with the database.
+        mTapTime = intent.getLongExtra (EXTRA_TAP_TIME, 0);
+        ContentValues prefetched = intent.getParcelableExtra (EXTRA_INVENTORY_VALUES);
+        if (mCurrentInventoryUri != null && prefetched != null && savedInstanceState == null) {
+            Integer productPrice = prefetched.getAsInteger (InventoryEntry.COLUMN_PRODUCT_PRICE);
+            Integer productQuantity = prefetched.getAsInteger (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
+            displayInventory (prefetched.getAsString (InventoryEntry.COLUMN_PRODUCT_NAME),
+                    prefetched.getAsString (InventoryEntry.COLUMN_PRODUCT_SKU),
+                    productPrice == null ? 0 : productPrice,
+                    productQuantity == null ? 0 : productQuantity,
+                    prefetched.getAsString (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME),
+                    prefetched.getAsString (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER));
+            logTapToForm ("prefetched");
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState (outState);
+        outState.putString (STATE_PICKED_IMAGE, mPickedImageName);
+        outState.putParcelable (STATE_DISPLAYED_VALUES, mDisplayedValues);
+        outState.putInt (STATE_QUANTITY, quantity);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy ();
+        mThumbnailLoader.shutdown ();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult (requestCode, resultCode, data);
+        if (requestCode == PICK_IMAGE_REQUEST && resultCode == RESULT_OK && data != null && data.getData () != null) {
+            mInventoryHasChanged = true;
+            new StoreImageTask (this, data.getData ()).execute ();
+        }
+    }
+
+    /**
+     * Show the thumbnail of the image the user picked.
+     */
+    private void displayPickedImage() {
+        mThumbnailLoader.bind (mProductImage, Uri.fromFile (new ImageStore (this).thumbnailFile (mPickedImageName)), mPickedImageName);
+    }
+
+    /**
+     * Called once the picked image has been stored and its thumbnail generated.
+     */
+    private void onImageStored(String imageName) {
+        if (imageName == null) {
+            Toast.makeText (this, getString (R.string.editor_image_failed), Toast.LENGTH_SHORT).show ();
+            return;
+        }
+        // A previously picked image that was never saved isn't referenced by anything
+        if (mPickedImageName != null) {
+            new ImageStore (this).delete (mPickedImageName);
+        }
+        mPickedImageName = imageName;
+        displayPickedImage ();
+    }
+
+    /**
+     * Copies a picked image into the {@link ImageStore} and generates its thumbnail, off the main thread.
+     */
+    private static class StoreImageTask extends AsyncTask<Void, Void, String> {
+
+        private final WeakReference<EditorActivity> mActivity;
+        private final ContentResolver mResolver;
+        private final ImageStore mImageStore;
+        private final Uri mSource;
+
+        StoreImageTask(EditorActivity activity, Uri source) {
+            mActivity = new WeakReference<> (activity);
+            mResolver = activity.getContentResolver ();
+            mImageStore = new ImageStore (activity);
+            mSource = source;
+        }
+
+        @Override
+        protected String doInBackground(Void... voids) {
+            try {
+                InputStream in = mResolver.openInputStream (mSource);
+                if (in == null) {
+                    return null;
+                }
+                try {
+                    return mImageStore.save (in);
+                } finally {
+                    in.close ();
+                }
+            } catch (IOException e) {
+                Log.e (LOG_TAG, "Cannot store image " + mSource, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String imageName) {
+            EditorActivity activity = mActivity.get ();
+            if (activity == null || activity.isFinishing ()) {
+                if (imageName != null) {
+                    mImageStore.delete (imageName);
+                }
+                return;
+            }
+            activity.onImageStored (imageName);
+        }
+    }
+
+    /**
+     * Reads the sales velocity of the inventory, off the main thread, for the order suggestion.
+     */
+    private static class SuggestOrderTask extends AsyncTask<Void, Void, Double> {
+
+        private final WeakReference<EditorActivity> mActivity;
+        private final ContentResolver mResolver;
+        private final long mInventoryId;
+
+        SuggestOrderTask(EditorActivity activity, long inventoryId) {
+            mActivity = new WeakReference<> (activity);
+            mResolver = activity.getContentResolver ();
+            mInventoryId = inventoryId;
+        }
+
+        @Override
+        protected Double doInBackground(Void... voids) {
+            Cursor cursor = mResolver.query (DemandEntry.CONTENT_URI, new String[]{DemandEntry.COLUMN_VELOCITY, DemandEntry.COLUMN_UPDATED_AT}, DemandEntry.COLUMN_INVENTORY_ID + "=?", new String[]{String.valueOf (mInventoryId)}, null);
+            if (cursor == null) {
+                return 0.0;
+            }
+            try {
+                return cursor.moveToFirst () ? SalesVelocity.decay (cursor.getDouble (0), cursor.getLong (1), System.currentTimeMillis ()) : 0.0;
+            } finally {
+                cursor.close ();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Double velocity) {
+            EditorActivity activity = mActivity.get ();
+            if (activity != null && !activity.isFinishing ()) {
+                activity.showOrderDialog (velocity);
+            }
+        }
+    }
+
+    /**
+     * Show how much to order given the product's sales velocity, with the option to call the supplier.
+     */
+    private void showOrderDialog(double velocity) {
+        int suggested = ReorderPlanner.suggestedQuantity (velocity, quantity, ReorderPlanner.DEFAULT_COVER_DAYS);
+        AlertDialog.Builder builder = new AlertDialog.Builder (this);
+        builder.setMessage (getString (R.string.order_dialog_msg, suggested, velocity, ReorderPlanner.DEFAULT_COVER_DAYS));
+        builder.setPositiveButton (R.string.call_supplier, new DialogInterface.OnClickListener () {
+            public void onClick(DialogInterface dialog, int id) {
+                callSupplier ();
+            }
+        });
+        builder.setNegativeButton (R.string.cancel, null);
+        builder.create ().show ();
     }
 
     /**
-     * Get user input from editor and save inventory into database.
+     * Open the dialer with the supplier's phone number.
      */
-    private void saveInventory() {
+    private void callSupplier() {
+        Intent intent = new Intent (Intent.ACTION_DIAL);
+        intent.setData (Uri.parse ("tel:" + mSupplierPhoneNumber.getText ().toString ().trim ()));
+        if (intent.resolveActivity (getPackageManager ()) != null) {
+            startActivity (intent);
+        }
+    }
+
+    /**
+     * Fill the form with the given inventory attributes. Fields the user edited since the form
+     * was last filled keep the user's value, so the loader reconciling the prefetched values, or
+     * delivering a change made elsewhere, never throws away what was typed.
+     */
+    private void displayInventory(String productName, String productSku, int productPrice, int productQuantity, String supplierName, String supplierPhoneNumber) {
+        ContentValues displayed = new ContentValues ();
+        displayUnlessEdited (mProductName, InventoryEntry.COLUMN_PRODUCT_NAME, productName, displayed);
+        displayUnlessEdited (mProductSku, InventoryEntry.COLUMN_PRODUCT_SKU, productSku, displayed);
+        displayUnlessEdited (mProductPrice, InventoryEntry.COLUMN_PRODUCT_PRICE, Integer.toString (productPrice), displayed);
+        displayUnlessEdited (mSupplierName, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplierName, displayed);
+        displayUnlessEdited (mSupplierPhoneNumber, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, supplierPhoneNumber, displayed);
+
+        // The quantity is changed with the buttons rather than typed. The taps are kept on top
+        // of the new quantity, so a sale made elsewhere shows, and saving only sends the taps.
+        Integer displayedQuantity = mDisplayedValues == null ? null : mDisplayedValues.getAsInteger (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
+        quantity = displayedQuantity == null ? productQuantity : productQuantity + quantity - displayedQuantity;
+        displayQuantity (quantity);
+        displayed.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, productQuantity);
+        mDisplayedValues = displayed;
+    }
+
+    /**
+     * Set the text of the field to the given value of the column, unless the user edited the
+     * field since it was last filled. Record the value the field was filled with in displayed.
+     */
+    private void displayUnlessEdited(EditText field, String column, String value, ContentValues displayed) {
+        String previous = mDisplayedValues == null ? null : mDisplayedValues.getAsString (column);
+        if (mDisplayedValues == null || TextUtils.equals (field.getText ().toString (), previous == null ? "" : previous)) {
+            field.setText (value);
+            displayed.put (column, value);
+        } else {
+            displayed.put (column, previous);
+        }
+    }
+
+    /**
+     * Log the time from the tap in the catalog until the form was populated from the given source.
+     */
+    private void logTapToForm(String source) {
+        if (mTapTime != 0) {
+            Log.d (LOG_TAG, "Tap to populated form (" + source + "): " + (SystemClock.uptimeMillis () - mTapTime) + " ms");
+        }
+    }
+
+    /**
+     * Get user input from editor and save inventory into database. Return false if the input is
+     * invalid, and the editor shows why.
+     */
+    boolean saveInventory() {
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
         String productNameString = mProductName.getText ().toString ().trim ();
+        String productSkuString = mProductSku.getText ().toString ().trim ();
         String productPriceString = mProductPrice.getText ().toString ().trim ();
         String productQuantityString = Integer.toString (quantity);
         String supplierNameString = mSupplierName.getText ().toString ().trim ();
@@ -151,33 +464,43 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
         // Check if this is supposed to be a new inventory
         // and check if all the fields in the editor are blank
-        if (mCurrentInventoryUri == null && TextUtils.isEmpty (productNameString) && TextUtils.isEmpty (productPriceString) && TextUtils.isEmpty (productQuantityString) && TextUtils.isEmpty (supplierNameString) && TextUtils.isEmpty (supplierPhoneNumberString)) {
+        if (mCurrentInventoryUri == null && TextUtils.isEmpty (productNameString) && TextUtils.isEmpty (productSkuString) && TextUtils.isEmpty (productPriceString) && TextUtils.isEmpty (productQuantityString) && TextUtils.isEmpty (supplierNameString) && TextUtils.isEmpty (supplierPhoneNumberString)) {
             // Since no fields were modified, we can return early without creating a new inventory.
             // No need to create ContentValues and no need to do any ContentProvider operations.
-            return;
+            return true;
         }
         // Create a ContentValues object where column names are the keys,
         // and inventory attributes from the editor are the values.
         ContentValues values = new ContentValues ();
         values.put (InventoryEntry.COLUMN_PRODUCT_NAME, productNameString);
+        // The SKU is optional, and must be null rather than empty to stay unique
+        if (TextUtils.isEmpty (productSkuString)) {
+            values.putNull (InventoryEntry.COLUMN_PRODUCT_SKU);
+        } else {
+            values.put (InventoryEntry.COLUMN_PRODUCT_SKU, productSkuString);
+        }
         values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplierNameString);
+        // Only a newly picked image is written, the provider deletes the one it replaces
+        if (mPickedImageName != null) {
+            values.put (InventoryEntry.COLUMN_PRODUCT_IMAGE, mPickedImageName);
+        }
         values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, supplierPhoneNumberString);
 
-        // If the weight is not provided by the user, don't try to parse the string into an
-        // integer value. Use 0 by default.
-        int productPrice = 0;
-        if (!TextUtils.isEmpty (productPriceString)) {
-            productPrice = Integer.parseInt (productPriceString);
-        }
-        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, productPrice);
+        // The price is checked as typed, and 0 if it's left empty
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, TextUtils.isEmpty (productPriceString) ? "0" : productPriceString);
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, quantity);
 
-        // If the weight is not provided by the user, don't try to parse the string into an
-        // integer value. Use 0 by default.
-        int productQuantity = 0;
-        if (!TextUtils.isEmpty (productQuantityString)) {
-            productQuantity = Integer.parseInt (productQuantityString);
+        // Check the values against the rules the provider applies, and show every error on its
+        // field rather than saving
+        List<InventoryValidator.FieldError> errors = InventoryValidator.forInventory ().validate (values, false);
+        if (!errors.isEmpty ()) {
+            for (InventoryValidator.FieldError error : errors) {
+                showError (error);
+            }
+            return false;
         }
-        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, productQuantity);
+        // Valid, so the price is a number now
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, Integer.parseInt (values.getAsString (InventoryEntry.COLUMN_PRODUCT_PRICE)));
 
         // Determine if this is a new or existing inventory by checking if mCurrentPetUri is null or not
         if (mCurrentInventoryUri == null) {
@@ -195,11 +518,15 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
         } else {
 
-            // Otherwise this is an EXISTING inventory, so update the inventory with content URI: mCurrentPetUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentPetUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver ().update (mCurrentInventoryUri, values, null, null);
+            // Otherwise this is an EXISTING inventory. Only send the fields that were edited, and
+            // the quantity as the change the buttons made, so edits and sales made elsewhere
+            // since the form was filled are kept. A change of the quantity here is a correction,
+            // not a sale.
+            ContentValues update = mDisplayedValues == null ? values : InventoryEntry.buildEditValues (mDisplayedValues, values);
+            if (update.size () == 0) {
+                return true;
+            }
+            int rowsAffected = getContentResolver ().update (InventoryEntry.buildCorrectionUri (mCurrentInventoryUri), update, null, null);
             // Show a toast message depending on whether or not the update was successful.
             if (rowsAffected == 0) {
                 // If no rows were affected, then there was an error with the update.
@@ -209,6 +536,55 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 Toast.makeText (this, getString (R.string.editor_update_inventory_successful), Toast.LENGTH_SHORT).show ();
             }
         }
+        return true;
+    }
+
+    /**
+     * Show a validation error on the field of its column.
+     */
+    private void showError(InventoryValidator.FieldError error) {
+        int message;
+        switch (error.error) {
+            case InventoryContract.ERROR_REQUIRED:
+                message = R.string.error_required;
+                break;
+            case InventoryContract.ERROR_NOT_A_NUMBER:
+                message = R.string.error_not_a_number;
+                break;
+            case InventoryContract.ERROR_OUT_OF_RANGE:
+                message = R.string.error_out_of_range;
+                break;
+            case InventoryContract.ERROR_TOO_LONG:
+                message = R.string.error_too_long;
+                break;
+            default:
+                message = R.string.error_invalid_phone_number;
+                break;
+        }
+
+        EditText field;
+        switch (error.column) {
+            case InventoryEntry.COLUMN_PRODUCT_NAME:
+                field = mProductName;
+                break;
+            case InventoryEntry.COLUMN_PRODUCT_SKU:
+                field = mProductSku;
+                break;
+            case InventoryEntry.COLUMN_PRODUCT_PRICE:
+                field = mProductPrice;
+                break;
+            case InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME:
+                field = mSupplierName;
+                break;
+            case InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER:
+                field = mSupplierPhoneNumber;
+                break;
+            default:
+                // The quantity is set with the buttons, it has no field
+                Toast.makeText (this, getString (message), Toast.LENGTH_SHORT).show ();
+                return;
+        }
+        field.setError (getString (message));
     }
 
     @Override
@@ -236,10 +612,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         switch (item.getItemId ()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save inventory to database
-                saveInventory ();
-                // Exit activity
-                finish ();
+                // Save inventory to database, and exit activity unless the input is invalid
+                if (saveInventory ()) {
+                    finish ();
+                }
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
@@ -300,7 +676,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     public Loader<Cursor> onCreateLoader(int id, Bundle bundle) {
         // Since the editor shows all inventory attributes, define a projection that contains
         // all columns from the inventory table
-        String[] projection = {InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_NAME, InventoryEntry.COLUMN_PRODUCT_PRICE, InventoryEntry.COLUMN_PRODUCT_QUANTITY, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER};
+        String[] projection = {InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_NAME, InventoryEntry.COLUMN_PRODUCT_PRICE, InventoryEntry.COLUMN_PRODUCT_QUANTITY, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, InventoryEntry.COLUMN_PRODUCT_SKU, InventoryEntry.COLUMN_PRODUCT_IMAGE};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader (this,  // Parent activity context
@@ -323,6 +699,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         if (cursor.moveToFirst ()) {
             // Find the columns of inventory attributes that we're interested in
             int productNameColumnIndex = cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_NAME);
+            int productSkuColumnIndex = cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_SKU);
             int productPriceColumnIndex = cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_PRICE);
             int productQuantityColumnIndex = cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
             int supplierNameColumnIndex = cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
@@ -330,17 +707,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
             // Extract out the value from the Cursor for the given column index
             String productName = cursor.getString (productNameColumnIndex);
+            String productSku = cursor.getString (productSkuColumnIndex);
             int productPrice = cursor.getInt (productPriceColumnIndex);
             int productQuantity = cursor.getInt (productQuantityColumnIndex);
             String supplierName = cursor.getString (supplierNameColumnIndex);
             String supplierPhoneNumber = cursor.getString (supplierPhoneNumberColumnIndex);
 
-            // Update the views on the screen with the values from the database
-            mProductName.setText (productName);
-            mProductPrice.setText (Integer.toString (productPrice));
-            mProductQuantity.setText (Integer.toString (productQuantity));
-            mSupplierName.setText (supplierName);
-            mSupplierPhoneNumber.setText (supplierPhoneNumber);
+            // Update the views on the screen with the values from the database, except the
+            // ones the user already changed over the prefetched values
+            displayInventory (productName, productSku, productPrice, productQuantity, supplierName, supplierPhoneNumber);
+
+            // Show the thumbnail once it's decoded in the background, unless another image was picked
+            if (mPickedImageName == null) {
+                String imageName = cursor.getString (cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_IMAGE));
+                mThumbnailLoader.bind (mProductImage, ContentUris.parseId (mCurrentInventoryUri), imageName);
+            }
+            logTapToForm ("loaded");
+            mTapTime = 0;
         }
     }
 
@@ -348,10 +731,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     public void onLoaderReset(Loader<Cursor> loader) {
         // If the loader is invalidated, clear out all the data from the input fields.
         mProductName.setText ("");
+        mProductSku.setText ("");
         mProductPrice.setText ("");
         mProductQuantity.setText ("");
         mSupplierName.setText ("");
         mSupplierPhoneNumber.setText ("");
+        mProductImage.setImageResource (android.R.drawable.ic_menu_gallery);
+        mDisplayedValues = null;
     }
 
     /**
@@ -445,6 +831,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             return;
         }
         quantity = quantity + 1;
+        mInventoryHasChanged = true;
         displayQuantity (quantity);
     }
 
@@ -459,6 +846,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             return;
         }
         quantity = quantity - 1;
+        mInventoryHasChanged = true;
         displayQuantity (quantity);
     }
 
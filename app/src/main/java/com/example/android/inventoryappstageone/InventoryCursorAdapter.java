@@ -7,6 +7,7 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CursorAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
@@ -14,6 +15,11 @@ import com.example.android.inventoryappstageone.data.InventoryContract.Inventory
 
 public class InventoryCursorAdapter extends CursorAdapter {
 
+    /**
+     * Loads the row thumbnails in the background
+     */
+    private final ThumbnailLoader mThumbnailLoader;
+
     /**
      * Constructs a new {@link InventoryCursorAdapter}.
      *
@@ -22,6 +28,14 @@ public class InventoryCursorAdapter extends CursorAdapter {
      */
     public InventoryCursorAdapter(Context context, Cursor c) {
         super (context, c, 0 /* flags */);
+        mThumbnailLoader = new ThumbnailLoader (context.getContentResolver (), android.R.drawable.ic_menu_gallery);
+    }
+
+    /**
+     * Stop loading thumbnails. Call it when the list goes away.
+     */
+    public void shutdown() {
+        mThumbnailLoader.shutdown ();
     }
 
     /**
@@ -44,11 +58,14 @@ public class InventoryCursorAdapter extends CursorAdapter {
         TextView productName = (TextView) view.findViewById (R.id.name);
         TextView productPrice = (TextView) view.findViewById (R.id.price);
         TextView productQuantity = (TextView) view.findViewById (R.id.quantity);
+        ImageView thumbnail = (ImageView) view.findViewById (R.id.thumbnail);
 
         // Find the columns of inventory attributes that we're interested in
         int productNameColumnIndex = cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_NAME);
         int productPriceColumnIndex = cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_PRICE);
         int productQuantityColumnIndex = cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
+        int idColumnIndex = cursor.getColumnIndex (InventoryEntry._ID);
+        int imageColumnIndex = cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_IMAGE);
 
         // Read the inventory attributes from the Cursor for the current inventory
         String inventoryProductName = cursor.getString (productNameColumnIndex);
@@ -67,5 +84,9 @@ public class InventoryCursorAdapter extends CursorAdapter {
         productName.setText (inventoryProductName);
         productPrice.setText (inventoryProductPrice);
         productQuantity.setText (inventoryProductQuantity);
+
+        // The thumbnail comes from the memory cache, or is decoded in the background
+        String imageName = imageColumnIndex == -1 ? null : cursor.getString (imageColumnIndex);
+        mThumbnailLoader.bind (thumbnail, cursor.getLong (idColumnIndex), imageName);
     }
 }
\ No newline at end of file
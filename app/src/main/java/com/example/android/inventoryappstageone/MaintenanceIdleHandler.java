@@ -0,0 +1,96 @@
+package com.example.android.inventoryappstageone;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.inventoryappstageone.data.InventoryContract;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the database maintenance steps (see {@link InventoryContract#METHOD_MAINTAIN}) whenever
+ * the main thread goes idle. The steps run on a background thread, at most a few per idle
+ * period and at most once per {@link #MIN_INTERVAL_MILLIS}, so maintenance never competes with
+ * the user for long.
+ */
+class MaintenanceIdleHandler implements MessageQueue.IdleHandler {
+
+    private static final String LOG_TAG = MaintenanceIdleHandler.class.getSimpleName ();
+
+    /**
+     * Shortest time between two maintenance runs
+     */
+    private static final long MIN_INTERVAL_MILLIS = 60 * 1000;
+
+    /**
+     * Most steps one run takes; the rest waits for the next idle period
+     */
+    private static final int MAX_STEPS_PER_RUN = 8;
+
+    private final ContentResolver mResolver;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor ();
+    private final AtomicBoolean mRunning = new AtomicBoolean ();
+    private long mLastRunMillis = -MIN_INTERVAL_MILLIS;
+
+    MaintenanceIdleHandler(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Start running maintenance when the main thread is idle.
+     */
+    void register() {
+        Looper.myQueue ().addIdleHandler (this);
+    }
+
+    /**
+     * Stop running maintenance. A step already running finishes.
+     */
+    void unregister() {
+        Looper.myQueue ().removeIdleHandler (this);
+    }
+
+    /**
+     * Stop running maintenance for good and let the background thread end once a step already
+     * running finishes. Call it when the activity that registered it is destroyed.
+     */
+    void shutdown() {
+        unregister ();
+        mExecutor.shutdown ();
+    }
+
+    @Override
+    public boolean queueIdle() {
+        long now = SystemClock.elapsedRealtime ();
+        if (now - mLastRunMillis < MIN_INTERVAL_MILLIS || !mRunning.compareAndSet (false, true)) {
+            // Stay registered for the next idle period
+            return true;
+        }
+        mLastRunMillis = now;
+        mExecutor.execute (new Runnable () {
+            @Override
+            public void run() {
+                try {
+                    for (int step = 0; step < MAX_STEPS_PER_RUN; step++) {
+                        Bundle result = mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_MAINTAIN, null, null);
+                        if (result == null || !result.getBoolean (InventoryContract.EXTRA_MORE_WORK)) {
+                            break;
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    Log.w (LOG_TAG, "Database maintenance failed", e);
+                } finally {
+                    mRunning.set (false);
+                }
+            }
+        });
+        return true;
+    }
+}
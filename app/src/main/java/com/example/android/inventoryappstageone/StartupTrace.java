@@ -0,0 +1,56 @@
+package com.example.android.inventoryappstageone;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Cold start timing markers. Each marker is logged once per process, with the time elapsed
+ * since the process started, under the "StartupTrace" tag:
+ * <pre>
+ * adb logcat -s StartupTrace
+ * </pre>
+ * See scripts/startup_benchmark.sh for a repeatable measurement.
+ */
+public final class StartupTrace {
+
+    private static final String LOG_TAG = "StartupTrace";
+
+    /**
+     * Markers along the cold start path, in the order they are normally reached
+     */
+    public static final String PROVIDER_CREATED = "provider_created";
+    public static final String DATABASE_OPEN = "database_open";
+    public static final String CATALOG_WARM = "catalog_warm";
+    public static final String CATALOG_CREATED = "catalog_created";
+    public static final String FIRST_CATALOG_ROW = "first_catalog_row";
+
+    /**
+     * Process start time in the {@link SystemClock#elapsedRealtime()} base. Before API 24 the
+     * process start isn't known, so the first class to use the trace stands in for it; the
+     * provider is created before any activity, which makes that the earliest app code.
+     */
+    private static final long sProcessStart = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? Process.getStartElapsedRealtime () : SystemClock.elapsedRealtime ();
+
+    private static final Set<String> sMarked = new HashSet<> ();
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Log the given marker, unless it was already logged in this process.
+     */
+    public static void mark(String marker) {
+        long elapsed = SystemClock.elapsedRealtime () - sProcessStart;
+        synchronized (sMarked) {
+            if (!sMarked.add (marker)) {
+                return;
+            }
+        }
+        Log.i (LOG_TAG, marker + ": " + elapsed + " ms");
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.android.inventoryappstageone;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads product thumbnails into list rows and the editor without blocking the main thread. Thumbnails are
+ * cached on two levels: decoded bitmaps in a memory LRU cache, and the downsampled thumbnail
+ * files the provider pre-generates on disk. A row whose thumbnail is in memory is bound
+ * synchronously; any other row shows the placeholder until its thumbnail has been decoded in
+ * the background.
+ */
+class ThumbnailLoader {
+
+    private static final String LOG_TAG = ThumbnailLoader.class.getSimpleName ();
+
+    /**
+     * Share of the heap the memory cache may use
+     */
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    /**
+     * Number of threads decoding thumbnails. Decoding is mostly disk bound, so a couple is plenty.
+     */
+    private static final int DECODE_THREADS = 2;
+
+    /**
+     * Shared by every list, so a thumbnail decoded once stays warm across activities
+     */
+    private static LruCache<String, Bitmap> sMemoryCache;
+
+    private final ContentResolver mResolver;
+    private final int mPlaceholderResId;
+    private final Handler mMainHandler = new Handler (Looper.getMainLooper ());
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool (DECODE_THREADS);
+
+    ThumbnailLoader(ContentResolver resolver, int placeholderResId) {
+        mResolver = resolver;
+        mPlaceholderResId = placeholderResId;
+        synchronized (ThumbnailLoader.class) {
+            if (sMemoryCache == null) {
+                int maxKilobytes = (int) (Runtime.getRuntime ().maxMemory () / 1024);
+                sMemoryCache = new LruCache<String, Bitmap> (maxKilobytes / MEMORY_CACHE_FRACTION) {
+                    @Override
+                    protected int sizeOf(String key, Bitmap bitmap) {
+                        return bitmap.getRowBytes () * bitmap.getHeight () / 1024;
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * Show the thumbnail of the given inventory in the image view. The image name is the cache
+     * key, so replacing a product image never shows the stale thumbnail.
+     *
+     * @param imageName value of {@link InventoryEntry#COLUMN_PRODUCT_IMAGE}, may be null
+     */
+    void bind(ImageView imageView, long inventoryId, String imageName) {
+        bind (imageView, InventoryEntry.buildThumbnailUri (inventoryId), imageName);
+    }
+
+    /**
+     * Show the thumbnail read from the given URI in the image view, such as the thumbnail file of
+     * an image that no inventory references yet.
+     *
+     * @param imageName name of the image the thumbnail belongs to, the cache key; may be null
+     */
+    void bind(final ImageView imageView, final Uri thumbnailUri, final String imageName) {
+        // Tag the view with what it should show, so a recycled row ignores late results
+        imageView.setTag (R.id.thumbnail, imageName);
+
+        if (imageName == null) {
+            imageView.setImageResource (mPlaceholderResId);
+            return;
+        }
+
+        Bitmap cached = sMemoryCache.get (imageName);
+        if (cached != null) {
+            imageView.setImageBitmap (cached);
+            return;
+        }
+
+        imageView.setImageResource (mPlaceholderResId);
+        mExecutor.execute (new Runnable () {
+            @Override
+            public void run() {
+                final Bitmap bitmap = decode (thumbnailUri);
+                if (bitmap == null) {
+                    return;
+                }
+                sMemoryCache.put (imageName, bitmap);
+                mMainHandler.post (new Runnable () {
+                    @Override
+                    public void run() {
+                        if (imageName.equals (imageView.getTag (R.id.thumbnail))) {
+                            imageView.setImageBitmap (bitmap);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stop decoding. Thumbnails already decoded stay in the memory cache.
+     */
+    void shutdown() {
+        mExecutor.shutdownNow ();
+    }
+
+    /**
+     * Decode the thumbnail at the given URI. Return null if it can't be read.
+     */
+    private Bitmap decode(Uri thumbnailUri) {
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = mResolver.openFileDescriptor (thumbnailUri, "r");
+            return descriptor == null ? null : BitmapFactory.decodeFileDescriptor (descriptor.getFileDescriptor ());
+        } catch (IOException e) {
+            Log.w (LOG_TAG, "Cannot read the thumbnail " + thumbnailUri, e);
+            return null;
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close ();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.ChangeEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.CommandEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+/**
+ * The undo log of {@link InventoryProvider}: the latest inventory changes, persisted with the
+ * values their rows held before, the before-image.
+ * <p>
+ * Undoing and redoing a command swap images: its rows get the stored values back, and the values
+ * they held are stored in their place, ready for the way back. A command only stores the columns
+ * it changed, so undoing a price edit leaves a later sale alone. An insert stores that the row
+ * didn't exist, a delete the whole row. An adjustment, or an update by a quantity delta, stores
+ * the delta instead of the quantity, and is undone by the opposite delta, stock checked like any
+ * sale, so undoing it keeps the sales made since.
+ * <p>
+ * Logging is part of the write's transaction, and costs an insert for the command and one for
+ * each row: the before-image comes from the read the write does anyway. Old commands are pruned a
+ * capacity's worth at a time, so the log holds up to twice its capacity. Undone commands are
+ * dropped when the command before them is undone, rather than on every write.
+ * <p>
+ * Every method must be called inside a transaction.
+ */
+final class CommandLog {
+
+    /**
+     * The inventory columns a command can change. Bit i of a command's column mask stands for
+     * COLUMNS[i], the same mask as the change feed's.
+     */
+    static final String[] COLUMNS = ChangeEntry.CHANGED_COLUMNS;
+    static final int ALL_COLUMNS = (1 << COLUMNS.length) - 1;
+
+    /**
+     * Commands larger than this many rows aren't logged, see {@link #isLoggable}
+     */
+    static final int MAX_ROWS = 1000;
+
+    static final int QUANTITY_COLUMN_BIT = 1 << 2;
+    private static final int IMAGE_COLUMN_BIT = 1 << 6;
+
+    private final int mCapacity;
+    private final ImageStore mImageStore;
+
+    /**
+     * @param capacity   number of commands that can be undone
+     * @param imageStore the image files; an image that's gone can't be restored
+     */
+    CommandLog(int capacity, ImageStore imageStore) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException ("Capacity must be positive");
+        }
+        mCapacity = capacity;
+        mImageStore = imageStore;
+    }
+
+    /**
+     * Return the mask of the columns the given values change. A quantity delta changes the
+     * quantity.
+     */
+    static int columnsOf(ContentValues values) {
+        int columns = 0;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (values.containsKey (COLUMNS[i])) {
+                columns |= 1 << i;
+            }
+        }
+        if (values.containsKey (InventoryEntry.QUANTITY_DELTA)) {
+            columns |= QUANTITY_COLUMN_BIT;
+        }
+        return columns;
+    }
+
+    /**
+     * Return the names of the columns of the mask, in mask order.
+     */
+    static String[] namesOf(int columns) {
+        String[] names = new String[Integer.bitCount (columns)];
+        int next = 0;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if ((columns & (1 << i)) != 0) {
+                names[next++] = COLUMNS[i];
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Return true if a command changing the given number of rows is logged. Logging a larger one
+     * would cost as much as the write, so the log is cleared instead: the commands before it
+     * may not apply any more.
+     */
+    static boolean isLoggable(int rows) {
+        return rows <= MAX_ROWS;
+    }
+
+    /**
+     * Start logging a command. Return its id, to log its rows with.
+     */
+    long begin(SQLiteDatabase database, int kind, int columns) {
+        ContentValues command = new ContentValues (2);
+        command.put (CommandEntry.COLUMN_KIND, kind);
+        command.put (CommandEntry.COLUMN_COLUMNS, columns);
+        long commandId = database.insert (CommandEntry.TABLE_NAME, null, command);
+
+        // Prune a capacity's worth at a time, rather than a command on every write
+        if (commandId % mCapacity == 0) {
+            String[] pruneArgs = {String.valueOf (commandId - mCapacity)};
+            database.delete (CommandEntry.ROWS_TABLE_NAME, CommandEntry.COLUMN_COMMAND_ID + "<=?", pruneArgs);
+            database.delete (CommandEntry.TABLE_NAME, CommandEntry._ID + "<=?", pruneArgs);
+        }
+        return commandId;
+    }
+
+    /**
+     * Log the before-image of a row of the command: the cursor's current row holds the values
+     * of the command's columns, in mask order from the given column on. An update that changed
+     * the quantity by a delta logs the delta instead of the quantity.
+     *
+     * @param quantityDelta the quantity change of the row, or null
+     */
+    void logRow(SQLiteDatabase database, long commandId, long inventoryId, Cursor before, int firstColumn, Integer quantityDelta) {
+        ContentValues row = new ContentValues ();
+        row.put (CommandEntry.COLUMN_COMMAND_ID, commandId);
+        row.put (CommandEntry.COLUMN_INVENTORY_ID, inventoryId);
+        row.put (CommandEntry.COLUMN_ROW_EXISTS, 1);
+        for (int i = firstColumn; i < before.getColumnCount (); i++) {
+            putValue (row, before.getColumnName (i), before, i);
+        }
+        if (quantityDelta != null) {
+            row.put (CommandEntry.COLUMN_QUANTITY_DELTA, quantityDelta);
+        }
+        database.insert (CommandEntry.ROWS_TABLE_NAME, null, row);
+    }
+
+    /**
+     * Log that the row of the command didn't exist before it: the command inserted it.
+     */
+    void logInsertedRow(SQLiteDatabase database, long commandId, long inventoryId) {
+        ContentValues row = new ContentValues (3);
+        row.put (CommandEntry.COLUMN_COMMAND_ID, commandId);
+        row.put (CommandEntry.COLUMN_INVENTORY_ID, inventoryId);
+        row.put (CommandEntry.COLUMN_ROW_EXISTS, 0);
+        database.insert (CommandEntry.ROWS_TABLE_NAME, null, row);
+    }
+
+    /**
+     * Log the quantity change of an adjustment.
+     */
+    void logAdjustedRow(SQLiteDatabase database, long commandId, long inventoryId, int quantityDelta) {
+        ContentValues row = new ContentValues (4);
+        row.put (CommandEntry.COLUMN_COMMAND_ID, commandId);
+        row.put (CommandEntry.COLUMN_INVENTORY_ID, inventoryId);
+        row.put (CommandEntry.COLUMN_ROW_EXISTS, 1);
+        row.put (CommandEntry.COLUMN_QUANTITY_DELTA, quantityDelta);
+        database.insert (CommandEntry.ROWS_TABLE_NAME, null, row);
+    }
+
+    /**
+     * Forget every command, after a change the log can't follow.
+     */
+    void clear(SQLiteDatabase database) {
+        database.delete (CommandEntry.ROWS_TABLE_NAME, null, null);
+        database.delete (CommandEntry.TABLE_NAME, null, null);
+    }
+
+    /**
+     * Undo the latest command that isn't undone. Return its kind, negated if it can't be applied,
+     * or 0 if there's none. The caller rolls the transaction back unless the result is positive.
+     */
+    int undo(SQLiteDatabase database) {
+        Cursor command = database.query (CommandEntry.TABLE_NAME, new String[]{CommandEntry._ID, CommandEntry.COLUMN_KIND, CommandEntry.COLUMN_COLUMNS}, CommandEntry.COLUMN_UNDONE + "=0", null, null, null, CommandEntry._ID + " DESC", "1");
+        try {
+            if (!command.moveToFirst ()) {
+                return 0;
+            }
+            // Undone commands before this one were undone before it was logged: nothing can
+            // redo them any more
+            String[] staleArgs = {command.getString (0)};
+            database.delete (CommandEntry.ROWS_TABLE_NAME, CommandEntry.COLUMN_COMMAND_ID + " IN (SELECT " + CommandEntry._ID + " FROM " + CommandEntry.TABLE_NAME + " WHERE " + CommandEntry.COLUMN_UNDONE + "=1 AND " + CommandEntry._ID + "<?)", staleArgs);
+            database.delete (CommandEntry.TABLE_NAME, CommandEntry.COLUMN_UNDONE + "=1 AND " + CommandEntry._ID + "<?", staleArgs);
+            return apply (database, command.getLong (0), command.getInt (1), command.getInt (2), true);
+        } finally {
+            command.close ();
+        }
+    }
+
+    /**
+     * Redo the earliest undone command after the commands that are done. Return its kind,
+     * negated if it can't be applied, or 0 if there's none. The caller rolls the transaction back
+     * unless the result is positive.
+     */
+    int redo(SQLiteDatabase database) {
+        String selection = CommandEntry.COLUMN_UNDONE + "=1 AND " + CommandEntry._ID + ">(SELECT IFNULL(MAX(" + CommandEntry._ID + "), 0) FROM " + CommandEntry.TABLE_NAME + " WHERE " + CommandEntry.COLUMN_UNDONE + "=0)";
+        Cursor command = database.query (CommandEntry.TABLE_NAME, new String[]{CommandEntry._ID, CommandEntry.COLUMN_KIND, CommandEntry.COLUMN_COLUMNS}, selection, null, null, null, CommandEntry._ID + " ASC", "1");
+        try {
+            if (!command.moveToFirst ()) {
+                return 0;
+            }
+            return apply (database, command.getLong (0), command.getInt (1), command.getInt (2), false);
+        } finally {
+            command.close ();
+        }
+    }
+
+    /**
+     * Apply the compensating writes of a command, recording them in the change feed, and flip
+     * it between done and undone.
+     */
+    private int apply(SQLiteDatabase database, long commandId, int kind, int columns, boolean undo) {
+        String[] commandArgs = {String.valueOf (commandId)};
+        String[] imageColumns = namesOf (columns);
+        String[] rowColumns = new String[imageColumns.length + 3];
+        rowColumns[0] = CommandEntry.COLUMN_INVENTORY_ID;
+        rowColumns[1] = CommandEntry.COLUMN_ROW_EXISTS;
+        rowColumns[2] = CommandEntry.COLUMN_QUANTITY_DELTA;
+        System.arraycopy (imageColumns, 0, rowColumns, 3, imageColumns.length);
+
+        Cursor rows = database.query (CommandEntry.ROWS_TABLE_NAME, rowColumns, CommandEntry.COLUMN_COMMAND_ID + "=?", commandArgs, null, null, null);
+        try {
+            while (rows.moveToNext ()) {
+                long inventoryId = rows.getLong (0);
+                // An adjustment only has a quantity delta, an update may have both
+                if (imageColumns.length > 0 && !swap (database, commandId, inventoryId, columns, imageColumns, rows)) {
+                    return -kind;
+                }
+                if (!rows.isNull (2) && !adjust (database, inventoryId, undo ? -rows.getInt (2) : rows.getInt (2))) {
+                    return -kind;
+                }
+            }
+        } finally {
+            rows.close ();
+        }
+
+        ContentValues state = new ContentValues (1);
+        state.put (CommandEntry.COLUMN_UNDONE, undo ? 1 : 0);
+        database.update (CommandEntry.TABLE_NAME, state, CommandEntry._ID + "=?", commandArgs);
+        return kind;
+    }
+
+    /**
+     * Change the quantity of an inventory by the delta, unless it would go below 0. Return true
+     * if it changed.
+     */
+    private static boolean adjust(SQLiteDatabase database, long inventoryId, int quantityDelta) {
+        SQLiteStatement adjust = database.compileStatement ("UPDATE " + InventoryEntry.TABLE_NAME + " SET " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "=" + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "+? WHERE " + InventoryEntry._ID + "=? AND " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "+?>=0");
+        try {
+            adjust.bindLong (1, quantityDelta);
+            adjust.bindLong (2, inventoryId);
+            adjust.bindLong (3, quantityDelta);
+            if (adjust.executeUpdateDelete () == 0) {
+                return false;
+            }
+        } finally {
+            adjust.close ();
+        }
+        InventoryProvider.recordChange (database, inventoryId, ChangeEntry.OPERATION_UPDATE, QUANTITY_COLUMN_BIT, quantityDelta);
+        return true;
+    }
+
+    /**
+     * Write the stored image of a row, and store the values it replaced in its place. The cursor
+     * is at the row's image, whose columns start at column 3. Return false if the image can't be
+     * written: it's only part of a row that no longer exists.
+     */
+    private boolean swap(SQLiteDatabase database, long commandId, long inventoryId, int columns, String[] imageColumns, Cursor stored) {
+        String[] rowArgs = {String.valueOf (inventoryId)};
+        ContentValues current = null;
+        Cursor cursor = database.query (InventoryEntry.TABLE_NAME, imageColumns, InventoryEntry._ID + "=?", rowArgs, null, null, null);
+        try {
+            if (cursor.moveToFirst ()) {
+                current = new ContentValues ();
+                for (int i = 0; i < imageColumns.length; i++) {
+                    putValue (current, imageColumns[i], cursor, i);
+                }
+            }
+        } finally {
+            cursor.close ();
+        }
+
+        Integer currentQuantity = current == null ? null : current.getAsInteger (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
+        if (stored.getInt (1) != 0) {
+            ContentValues image = new ContentValues ();
+            for (int i = 0; i < imageColumns.length; i++) {
+                putValue (image, imageColumns[i], stored, i + 3);
+            }
+            // The files of replaced and deleted images are deleted with them
+            if ((columns & IMAGE_COLUMN_BIT) != 0) {
+                String imageName = image.getAsString (InventoryEntry.COLUMN_PRODUCT_IMAGE);
+                if (imageName != null && !mImageStore.imageFile (imageName).exists ()) {
+                    image.putNull (InventoryEntry.COLUMN_PRODUCT_IMAGE);
+                }
+            }
+            Integer quantity = image.getAsInteger (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
+            if (current != null) {
+                database.update (InventoryEntry.TABLE_NAME, image, InventoryEntry._ID + "=?", rowArgs);
+                int quantityDelta = quantity == null || currentQuantity == null ? 0 : quantity - currentQuantity;
+                InventoryProvider.recordChange (database, inventoryId, ChangeEntry.OPERATION_UPDATE, columns, quantityDelta);
+            } else if (columns == ALL_COLUMNS) {
+                image.put (InventoryEntry._ID, inventoryId);
+                database.insert (InventoryEntry.TABLE_NAME, null, image);
+                InventoryProvider.recordChange (database, inventoryId, ChangeEntry.OPERATION_INSERT, ALL_COLUMNS, quantity == null ? 0 : quantity);
+            } else {
+                return false;
+            }
+        } else if (current != null) {
+            InventoryProvider.recordChange (database, inventoryId, ChangeEntry.OPERATION_DELETE, ALL_COLUMNS, currentQuantity == null ? 0 : -currentQuantity);
+            database.delete (InventoryEntry.TABLE_NAME, InventoryEntry._ID + "=?", rowArgs);
+        }
+
+        // Store the replaced values, for the way back
+        ContentValues replaced = current == null ? new ContentValues () : current;
+        if (current == null) {
+            for (String column : imageColumns) {
+                replaced.putNull (column);
+            }
+        }
+        replaced.put (CommandEntry.COLUMN_ROW_EXISTS, current == null ? 0 : 1);
+        database.update (CommandEntry.ROWS_TABLE_NAME, replaced, CommandEntry.COLUMN_COMMAND_ID + "=? AND " + CommandEntry.COLUMN_INVENTORY_ID + "=?", new String[]{String.valueOf (commandId), String.valueOf (inventoryId)});
+        return true;
+    }
+
+    /**
+     * Copy a cursor value into the values with its own type.
+     */
+    private static void putValue(ContentValues values, String key, Cursor cursor, int column) {
+        switch (cursor.getType (column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                values.putNull (key);
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                values.put (key, cursor.getLong (column));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                values.put (key, cursor.getDouble (column));
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                values.put (key, cursor.getBlob (column));
+                break;
+            default:
+                values.put (key, cursor.getString (column));
+                break;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Arrays;
+
+/**
+ * Immutable in-memory copy of a query result. A snapshot can hand out any number of independent
+ * {@link MatrixCursor}s, so one database read can be shared by several consumers.
+ */
+public final class CursorSnapshot {
+
+    /**
+     * Estimated heap of a boxed Long or Double, a String without its characters, and an array
+     * without its elements
+     */
+    private static final int BOXED_BYTES = 16;
+    private static final int STRING_BYTES = 40;
+    private static final int ARRAY_BYTES = 16;
+
+    /**
+     * Names of the columns in the snapshot, in cursor order
+     */
+    private final String[] mColumnNames;
+
+    /**
+     * Row values, one Object[] per row (Long, Double, String, byte[] or null)
+     */
+    private final Object[][] mRows;
+
+    /**
+     * Estimated heap taken by the rows, see {@link #getByteCount()}
+     */
+    private final long mByteCount;
+
+    private CursorSnapshot(String[] columnNames, Object[][] rows, long byteCount) {
+        mColumnNames = columnNames;
+        mRows = rows;
+        mByteCount = byteCount;
+    }
+
+    /**
+     * Copy the given cursor into a new snapshot. Returns null (and leaves the cursor before the
+     * first row) if the cursor holds more than maxRows rows, since such results are too large
+     * to keep in memory.
+     */
+    public static CursorSnapshot of(Cursor cursor, int maxRows) {
+        return of (cursor, maxRows, Long.MAX_VALUE);
+    }
+
+    /**
+     * Copy the given cursor into a new snapshot, like {@link #of(Cursor, int)}, but also give up
+     * as soon as the copy takes more than maxBytes of heap.
+     */
+    public static CursorSnapshot of(Cursor cursor, int maxRows, long maxBytes) {
+        int count = cursor.getCount ();
+        if (count > maxRows) {
+            return null;
+        }
+
+        String[] columnNames = cursor.getColumnNames ();
+        int columnCount = columnNames.length;
+        Object[][] rows = new Object[count][];
+        long byteCount = 16 + 4L * count;
+
+        cursor.moveToPosition (-1);
+        int position = 0;
+        while (cursor.moveToNext ()) {
+            Object[] row = new Object[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                switch (cursor.getType (column)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[column] = cursor.getLong (column);
+                        byteCount += BOXED_BYTES;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[column] = cursor.getDouble (column);
+                        byteCount += BOXED_BYTES;
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        String string = cursor.getString (column);
+                        row[column] = string;
+                        byteCount += STRING_BYTES + 2L * string.length ();
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob (column);
+                        row[column] = blob;
+                        byteCount += ARRAY_BYTES + blob.length;
+                        break;
+                    default:
+                        row[column] = null;
+                        break;
+                }
+            }
+            rows[position++] = row;
+            byteCount += ARRAY_BYTES + 4L * columnCount;
+            if (byteCount > maxBytes) {
+                cursor.moveToPosition (-1);
+                return null;
+            }
+        }
+        cursor.moveToPosition (-1);
+
+        return new CursorSnapshot (columnNames, rows, byteCount);
+    }
+
+    /**
+     * Estimated heap the rows of the snapshot take, in bytes: the values and the arrays holding
+     * them, with the usual object header and field sizes.
+     */
+    public long getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * Number of rows in the snapshot.
+     */
+    public int getCount() {
+        return mRows.length;
+    }
+
+    /**
+     * Create a new cursor over the snapshot. The caller owns (and must close) the returned cursor.
+     */
+    public MatrixCursor newCursor() {
+        MatrixCursor cursor = new MatrixCursor (mColumnNames, mRows.length);
+        for (Object[] row : mRows) {
+            cursor.addRow (row);
+        }
+        return cursor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CursorSnapshot)) {
+            return false;
+        }
+        CursorSnapshot other = (CursorSnapshot) o;
+        return Arrays.equals (mColumnNames, other.mColumnNames) && Arrays.deepEquals (mRows, other.mRows);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode (mColumnNames) + Arrays.deepHashCode (mRows);
+    }
+}
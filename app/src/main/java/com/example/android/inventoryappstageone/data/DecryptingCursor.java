@@ -0,0 +1,56 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * Inventory cursor showing one column decrypted with a {@link FieldCipher}. A value is decrypted
+ * when it's read, and kept while the cursor stays on its row, as adapters read it more than once.
+ */
+final class DecryptingCursor extends CursorWrapper {
+
+    private final FieldCipher mCipher;
+    private final int mColumn;
+
+    /**
+     * Row of the value decrypted last, -1 before the first
+     */
+    private int mDecryptedPosition = -1;
+    private String mDecrypted;
+
+    /**
+     * Wrap a cursor holding the given column.
+     */
+    DecryptingCursor(Cursor cursor, FieldCipher cipher, String column) {
+        super (cursor);
+        mCipher = cipher;
+        mColumn = cursor.getColumnIndexOrThrow (column);
+    }
+
+    private String decrypted() {
+        int position = getPosition ();
+        if (position != mDecryptedPosition) {
+            mDecrypted = mCipher.decrypt (super.getString (mColumn));
+            mDecryptedPosition = position;
+        }
+        return mDecrypted;
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return columnIndex == mColumn ? decrypted () : super.getString (columnIndex);
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        if (columnIndex != mColumn) {
+            return super.getType (columnIndex);
+        }
+        return decrypted () == null ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return columnIndex == mColumn ? decrypted () == null : super.isNull (columnIndex);
+    }
+}
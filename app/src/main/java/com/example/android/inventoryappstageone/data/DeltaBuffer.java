@@ -0,0 +1,131 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.support.v4.util.LongSparseArray;
+
+/**
+ * Quantity deltas accepted by {@link InventoryProvider} but not yet written to the database,
+ * summed per inventory.
+ * <p>
+ * Reads combine a database result with the pending deltas. A flush writes the deltas and then
+ * drops them, and a read racing it could count a delta twice or not at all, so every flush
+ * bumps a generation: a read takes {@link #awaitGeneration()} before querying, and only gets
+ * the deltas from {@link #pendingSince} if no flush happened meanwhile. A write-behind
+ * adjustment is stock checked the same way, in {@link #addIfInStock}.
+ */
+final class DeltaBuffer {
+
+    /**
+     * Pending delta of every inventory
+     */
+    private final LongSparseArray<Integer> mDeltas = new LongSparseArray<> ();
+
+    /**
+     * Adjustments buffered since the last flush
+     */
+    private int mAdjustments;
+
+    /**
+     * Flush generation, and whether a flush is writing right now
+     */
+    private long mGeneration;
+    private boolean mFlushing;
+
+    /**
+     * Add a delta for the given inventory unless it takes its quantity below 0: the stored
+     * quantity, read after {@link #awaitGeneration()} returned the given generation, plus the
+     * pending delta. The check and the add are atomic, so concurrent adjustments can't both take
+     * the last units. Returns the number of adjustments now buffered, 0 if the inventory doesn't
+     * hold enough, or -1 if a flush started since, and the stored quantity has to be read again.
+     */
+    synchronized int addIfInStock(long generation, long id, int delta, long storedQuantity) {
+        if (mFlushing || mGeneration != generation) {
+            return -1;
+        }
+        Integer pending = mDeltas.get (id);
+        int total = pending == null ? delta : pending + delta;
+        if (storedQuantity + total < 0) {
+            return 0;
+        }
+        mDeltas.put (id, total);
+        return ++mAdjustments;
+    }
+
+    /**
+     * Pending delta of the given inventory.
+     */
+    synchronized int pending(long id) {
+        Integer pending = mDeltas.get (id);
+        return pending == null ? 0 : pending;
+    }
+
+    /**
+     * Number of inventories with a pending delta.
+     */
+    synchronized int pendingCount() {
+        return mDeltas.size ();
+    }
+
+    synchronized boolean isEmpty() {
+        return mDeltas.size () == 0;
+    }
+
+    /**
+     * Wait for a running flush to finish, then return the current generation.
+     */
+    synchronized long awaitGeneration() {
+        boolean interrupted = false;
+        while (mFlushing) {
+            try {
+                wait ();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread ().interrupt ();
+        }
+        return mGeneration;
+    }
+
+    /**
+     * Return a copy of the pending deltas, or null if a flush started since the given generation.
+     */
+    synchronized LongSparseArray<Integer> pendingSince(long generation) {
+        if (mFlushing || mGeneration != generation) {
+            return null;
+        }
+        return mDeltas.clone ();
+    }
+
+    /**
+     * Start a flush: return a copy of the deltas to write. Every call must be followed by
+     * {@link #endFlush}.
+     */
+    synchronized LongSparseArray<Integer> beginFlush() {
+        mFlushing = true;
+        mGeneration++;
+        return mDeltas.clone ();
+    }
+
+    /**
+     * Finish a flush. If the flushed deltas were written, drop them; deltas added meanwhile
+     * stay pending.
+     */
+    synchronized void endFlush(LongSparseArray<Integer> flushed, boolean written) {
+        if (written) {
+            for (int i = 0; i < flushed.size (); i++) {
+                long id = flushed.keyAt (i);
+                int remaining = pending (id) - flushed.valueAt (i);
+                if (remaining == 0) {
+                    mDeltas.remove (id);
+                } else {
+                    mDeltas.put (id, remaining);
+                }
+            }
+            mAdjustments = mDeltas.size ();
+        }
+        mFlushing = false;
+        mGeneration++;
+        notifyAll ();
+    }
+}
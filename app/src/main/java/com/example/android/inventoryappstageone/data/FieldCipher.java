@@ -0,0 +1,147 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.util.Base64;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts single column values: AES-CBC with a random IV, then an HMAC-SHA256 over the IV and
+ * the ciphertext, so a changed value is detected rather than decrypted to garbage. GCM would do
+ * both at once but needs API 19. The encryption and MAC keys are derived from one key.
+ * <p>
+ * An encrypted value is text starting with {@link #PREFIX}. Values without it are plaintext from
+ * before encryption was turned on, and read as they are.
+ */
+final class FieldCipher {
+
+    static final String PREFIX = "enc1:";
+
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final Charset UTF_8 = Charset.forName ("UTF-8");
+
+    private final SecretKeySpec mEncryptionKey;
+    private final SecretKeySpec mMacKey;
+    private final SecureRandom mRandom = new SecureRandom ();
+
+    /**
+     * Cipher and MAC instances aren't thread safe, and are costly to get, so every thread keeps
+     * its own
+     */
+    private final ThreadLocal<Cipher> mCipher = new ThreadLocal<Cipher> () {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance ("AES/CBC/PKCS5Padding");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException (e);
+            }
+        }
+    };
+    private final ThreadLocal<Mac> mMac = new ThreadLocal<Mac> () {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance ("HmacSHA256");
+                mac.init (mMacKey);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException (e);
+            }
+        }
+    };
+
+    FieldCipher(byte[] key) {
+        if (key == null || key.length != KeyProvider.KEY_LENGTH) {
+            throw new IllegalArgumentException ("Key must be " + KeyProvider.KEY_LENGTH + " bytes");
+        }
+        // AES-128: the key is sure to be usable on every JVM the tests run on
+        mEncryptionKey = new SecretKeySpec (Arrays.copyOf (derive (key, "encryption"), 16), "AES");
+        mMacKey = new SecretKeySpec (derive (key, "authentication"), "HmacSHA256");
+    }
+
+    /**
+     * Return true if the value is encrypted.
+     */
+    static boolean isEncrypted(String value) {
+        return value != null && value.startsWith (PREFIX);
+    }
+
+    /**
+     * Encrypt the value. Null stays null.
+     */
+    String encrypt(String plaintext) {
+        if (plaintext == null) {
+            return null;
+        }
+        byte[] iv = new byte[IV_LENGTH];
+        mRandom.nextBytes (iv);
+        try {
+            Cipher cipher = mCipher.get ();
+            cipher.init (Cipher.ENCRYPT_MODE, mEncryptionKey, new IvParameterSpec (iv));
+            byte[] ciphertext = cipher.doFinal (plaintext.getBytes (UTF_8));
+
+            byte[] sealed = new byte[IV_LENGTH + ciphertext.length + MAC_LENGTH];
+            System.arraycopy (iv, 0, sealed, 0, IV_LENGTH);
+            System.arraycopy (ciphertext, 0, sealed, IV_LENGTH, ciphertext.length);
+            Mac mac = mMac.get ();
+            mac.update (sealed, 0, IV_LENGTH + ciphertext.length);
+            mac.doFinal (sealed, IV_LENGTH + ciphertext.length);
+            return PREFIX + Base64.encodeToString (sealed, Base64.NO_WRAP);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException (e);
+        }
+    }
+
+    /**
+     * Decrypt the value. A plaintext value is returned as it is, and a value that was changed or
+     * encrypted with another key as null.
+     */
+    String decrypt(String value) {
+        if (!isEncrypted (value)) {
+            return value;
+        }
+        byte[] sealed;
+        try {
+            sealed = Base64.decode (value.substring (PREFIX.length ()), Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int ciphertextLength = sealed.length - IV_LENGTH - MAC_LENGTH;
+        if (ciphertextLength <= 0) {
+            return null;
+        }
+        try {
+            Mac mac = mMac.get ();
+            mac.update (sealed, 0, IV_LENGTH + ciphertextLength);
+            byte[] expected = mac.doFinal ();
+            if (!MessageDigest.isEqual (expected, Arrays.copyOfRange (sealed, IV_LENGTH + ciphertextLength, sealed.length))) {
+                return null;
+            }
+            Cipher cipher = mCipher.get ();
+            cipher.init (Cipher.DECRYPT_MODE, mEncryptionKey, new IvParameterSpec (sealed, 0, IV_LENGTH));
+            return new String (cipher.doFinal (sealed, IV_LENGTH, ciphertextLength), UTF_8);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    private static byte[] derive(byte[] key, String purpose) {
+        try {
+            Mac mac = Mac.getInstance ("HmacSHA256");
+            mac.init (new SecretKeySpec (key, "HmacSHA256"));
+            return mac.doFinal (purpose.getBytes (UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException (e);
+        }
+    }
+}
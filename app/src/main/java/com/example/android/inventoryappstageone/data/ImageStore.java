@@ -0,0 +1,144 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Stores product images as files in the app's private storage, next to a pre-generated square
+ * thumbnail of each. The inventory table only references images by file name (see
+ * {@link InventoryContract.InventoryEntry#COLUMN_PRODUCT_IMAGE}), so image bytes never end up in
+ * the cursors the catalog loads.
+ */
+public final class ImageStore {
+
+    /**
+     * Edge length in pixels of the square thumbnails shown in the catalog
+     */
+    public static final int THUMBNAIL_SIZE = 160;
+
+    /**
+     * JPEG quality of the stored images and thumbnails
+     */
+    private static final int JPEG_QUALITY = 85;
+
+    /**
+     * Longest edge of a stored image. Larger pictures are downsampled when they are saved.
+     */
+    static final int MAX_IMAGE_SIZE = 1280;
+
+    private final File mImageDir;
+    private final File mThumbnailDir;
+
+    public ImageStore(Context context) {
+        mImageDir = new File (context.getFilesDir (), "images");
+        mThumbnailDir = new File (context.getFilesDir (), "thumbnails");
+    }
+
+    /**
+     * Store the image read from the given stream and generate its thumbnail. Does disk I/O and
+     * decoding, so never call it on the main thread. Return the file name to put in
+     * {@link InventoryContract.InventoryEntry#COLUMN_PRODUCT_IMAGE}.
+     */
+    public String save(InputStream source) throws IOException {
+        if (!mImageDir.isDirectory () && !mImageDir.mkdirs ()) {
+            throw new IOException ("Cannot create " + mImageDir);
+        }
+        if (!mThumbnailDir.isDirectory () && !mThumbnailDir.mkdirs ()) {
+            throw new IOException ("Cannot create " + mThumbnailDir);
+        }
+
+        String name = UUID.randomUUID () + ".jpg";
+        File image = imageFile (name);
+
+        // Copy the original first, so it can be decoded twice: once for its bounds, once for real
+        File original = new File (mImageDir, name + ".tmp");
+        OutputStream out = new FileOutputStream (original);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = source.read (buffer)) != -1) {
+                out.write (buffer, 0, read);
+            }
+        } finally {
+            out.close ();
+        }
+
+        try {
+            Bitmap bitmap = decodeSampled (original, MAX_IMAGE_SIZE);
+            if (bitmap == null) {
+                throw new IOException ("Not an image");
+            }
+            write (bitmap, image);
+
+            Bitmap thumbnail = ThumbnailUtils.extractThumbnail (bitmap, THUMBNAIL_SIZE, THUMBNAIL_SIZE, ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+            write (thumbnail, thumbnailFile (name));
+            thumbnail.recycle ();
+        } finally {
+            original.delete ();
+        }
+        return name;
+    }
+
+    /**
+     * Delete the image with the given name and its thumbnail.
+     */
+    public void delete(String name) {
+        imageFile (name).delete ();
+        thumbnailFile (name).delete ();
+    }
+
+    public File imageFile(String name) {
+        return new File (mImageDir, name);
+    }
+
+    public File thumbnailFile(String name) {
+        return new File (mThumbnailDir, name);
+    }
+
+    /**
+     * Decode the given file, subsampled by {@link #sampleSize}. Only the subsampled pixels are
+     * ever allocated.
+     */
+    private static Bitmap decodeSampled(File file, int maxSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options ();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile (file.getPath (), options);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize (options.outWidth, options.outHeight, maxSize);
+        return BitmapFactory.decodeFile (file.getPath (), options);
+    }
+
+    /**
+     * Return the largest power of 2 to subsample an image of the given size by that keeps its
+     * longest edge at least maxSize pixels.
+     */
+    static int sampleSize(int width, int height, int maxSize) {
+        int longestEdge = Math.max (width, height);
+        int sampleSize = 1;
+        while (longestEdge / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static void write(Bitmap bitmap, File file) throws IOException {
+        OutputStream out = new FileOutputStream (file);
+        try {
+            if (!bitmap.compress (Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                throw new IOException ("Cannot write " + file);
+            }
+        } finally {
+            out.close ();
+        }
+    }
+}
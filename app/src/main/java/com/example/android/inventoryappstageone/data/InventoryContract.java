@@ -1,7 +1,10 @@
 package com.example.android.inventoryappstageone.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 
 /**
@@ -25,12 +28,318 @@ public final class InventoryContract {
      * Possible path (appended to base content URI for possible URI's)
      */
     public static final String PATH_INVENTORIES = "inventories";
+    /**
+     * Possible path for the change feed of the inventories table
+     */
+    public static final String PATH_CHANGES = "changes";
+    /**
+     * Possible path (appended to the inventories path) for looking an inventory up by its SKU
+     */
+    public static final String PATH_SKU = "sku";
+    /**
+     * Possible path (appended to the inventories path) for searching inventories by name prefix
+     */
+    public static final String PATH_SEARCH = "search";
+    /**
+     * Possible paths (appended to a single inventory URI) for the product image and its thumbnail
+     */
+    public static final String PATH_IMAGE = "image";
+    public static final String PATH_THUMBNAIL = "thumbnail";
+    /**
+     * Possible path for the storage diagnostics of the database
+     */
+    public static final String PATH_DIAGNOSTICS = "diagnostics";
+    /**
+     * Possible path for the locations (warehouse and shops) that hold stock
+     */
+    public static final String PATH_LOCATIONS = "locations";
+    /**
+     * Possible path (appended to a single inventory or location URI) for its per-location stock
+     */
+    public static final String PATH_STOCK = "stock";
+    /**
+     * Possible path (appended to a single inventory URI) for its price history
+     */
+    public static final String PATH_PRICES = "prices";
+    /**
+     * Possible path for the sales velocity of the inventories
+     */
+    public static final String PATH_DEMAND = "demand";
+
+    /**
+     * Query parameter a sync adapter appends (with the value "true") to its content URIs, so
+     * that the changes it applies are not recorded in the change feed and pushed back again.
+     */
+    public static final String CALLER_IS_SYNC_ADAPTER = "caller_is_sync_adapter";
+
+    /**
+     * Query parameter an update appends (with the value "true") when its
+     * {@link InventoryEntry#QUANTITY_DELTA} corrects the stock rather than selling it, such as a
+     * change made in the editor, so it doesn't count as a sale in the sales velocities.
+     */
+    public static final String IS_CORRECTION = "is_correction";
+
+    /**
+     * Permission other apps need to use the provider, such as the point of sale and the label
+     * printer. It's a signature permission, so only apps signed with the same key get it.
+     */
+    public static final String PERMISSION_ACCESS_INVENTORY = "com.example.android.inventoryappstageone.permission.ACCESS_INVENTORY";
+
+    /**
+     * Provider method (see {@link ContentResolver#call}) that applies a checkout: a list of
+     * quantity changes to many inventories, in one transaction with one notification. It's also
+     * the bulk quantity adjustment for other apps: one call for the whole list, with partial
+     * allowed to apply every line that can be.
+     * Build its extras with {@link #buildCheckoutExtras}. The result holds
+     * {@link #EXTRA_LINE_RESULTS} and {@link #EXTRA_COMMITTED}.
+     */
+    public static final String METHOD_CHECKOUT = "checkout";
+
+    /**
+     * Checkout extras: the inventory ids (long[]) and the quantity change of each (int[],
+     * negative for a sale), and whether lines that can't be applied may be skipped (boolean).
+     * Without it the checkout is all-or-nothing.
+     */
+    public static final String EXTRA_INVENTORY_IDS = "inventory_ids";
+    public static final String EXTRA_QUANTITY_DELTAS = "quantity_deltas";
+    public static final String EXTRA_ALLOW_PARTIAL = "allow_partial";
+
+    /**
+     * Checkout result: the outcome of each line (int[], one of the LINE_* values), and whether
+     * the checkout was committed (boolean).
+     */
+    public static final String EXTRA_LINE_RESULTS = "line_results";
+    public static final String EXTRA_COMMITTED = "committed";
+
+    /**
+     * Possible outcomes of a checkout line.
+     */
+    public static final int LINE_APPLIED = 0;
+    public static final int LINE_INSUFFICIENT_STOCK = 1;
+    public static final int LINE_NOT_FOUND = 2;
+
+    /**
+     * Provider method that moves stock of one inventory from one location to another, in one
+     * transaction. Build its extras with {@link #buildTransferExtras}. The result holds
+     * {@link #EXTRA_COMMITTED}, false when the source location doesn't hold enough stock.
+     * The inventory's total quantity doesn't change.
+     */
+    public static final String METHOD_TRANSFER = "transfer";
+
+    /**
+     * Transfer extras: the inventory id (long), the source and destination location ids (long),
+     * and the quantity to move (int).
+     */
+    public static final String EXTRA_INVENTORY_ID = "inventory_id";
+    public static final String EXTRA_FROM_LOCATION_ID = "from_location_id";
+    public static final String EXTRA_TO_LOCATION_ID = "to_location_id";
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /**
+     * Provider method that changes the quantity of one inventory by a delta, stock checked like
+     * a checkout line. Build its extras with {@link #buildAdjustExtras}. The result holds
+     * {@link #EXTRA_COMMITTED}, false when the inventory doesn't exist or doesn't hold enough.
+     * <p>
+     * With {@link #EXTRA_WRITE_BEHIND} the delta is only buffered in memory, and written together
+     * with the other buffered deltas in one transaction after a short interval or once enough are
+     * buffered. Queries show buffered deltas right away, but observers are only notified once
+     * they're written. Call {@link #METHOD_FLUSH} to write them before relying on them surviving
+     * the process.
+     */
+    public static final String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+
+    /**
+     * Adjust extras: the inventory id ({@link #EXTRA_INVENTORY_ID}), the quantity change (int,
+     * negative for a sale) and whether to buffer it (boolean).
+     */
+    public static final String EXTRA_QUANTITY_DELTA = "quantity_delta";
+    public static final String EXTRA_WRITE_BEHIND = "write_behind";
+
+    /**
+     * Provider methods that undo the latest change in the undo log, and redo the latest undone
+     * one, see {@link CommandEntry}. Either applies in one transaction with one notification. The
+     * result holds {@link #EXTRA_COMMITTED}, and {@link #EXTRA_COMMAND_KIND}: the kind of the
+     * command, or 0 if there was nothing to undo or redo. A command that can't be applied any
+     * more, because a row it changed was deleted since or a quantity would go below 0, isn't
+     * committed.
+     */
+    public static final String METHOD_UNDO = "undo";
+    public static final String METHOD_REDO = "redo";
+    public static final String EXTRA_COMMAND_KIND = "command_kind";
+
+    /**
+     * Provider method that reads many inventories by id in one call, rather than one query each.
+     * Its extras hold the ids ({@link #EXTRA_INVENTORY_IDS}), at most {@link #BULK_GET_MAX_IDS};
+     * build them with {@link #buildBulkGetExtras}. The result holds the inventories found, in the
+     * order they were asked for, as one array per column: {@link #EXTRA_INVENTORY_IDS} and the
+     * arrays below. Ids that don't exist are left out.
+     */
+    public static final String METHOD_BULK_GET = "bulk_get";
+
+    /**
+     * Most ids one {@link #METHOD_BULK_GET} call reads, so the result stays well within the
+     * Binder transaction limit
+     */
+    public static final int BULK_GET_MAX_IDS = 1000;
+
+    /**
+     * Bulk get result: the names, SKUs, prices (int[]), quantities (int[]), supplier names and
+     * supplier phone numbers of the inventories
+     */
+    public static final String EXTRA_NAMES = "names";
+    public static final String EXTRA_SKUS = "skus";
+    public static final String EXTRA_PRICES = "prices";
+    public static final String EXTRA_QUANTITIES = "quantities";
+    public static final String EXTRA_SUPPLIER_NAMES = "supplier_names";
+    public static final String EXTRA_SUPPLIER_PHONE_NUMBERS = "supplier_phone_numbers";
+
+    /**
+     * Provider method that writes every buffered {@link #METHOD_ADJUST_QUANTITY} delta before
+     * returning.
+     */
+    public static final String METHOD_FLUSH = "flush";
+
+    /**
+     * Provider method that runs one bounded step of database maintenance: pruning read changes
+     * from the change feed, an incremental vacuum of a few pages, or an ANALYZE of one table once
+     * enough rows changed. Call it when the app is idle, until the result's
+     * {@link #EXTRA_MORE_WORK} is false.
+     */
+    public static final String METHOD_MAINTAIN = "maintain";
+
+    /**
+     * Maintenance result: whether another step has work to do (boolean).
+     */
+    public static final String EXTRA_MORE_WORK = "more_work";
+
+    /**
+     * Provider method that records how far a reader of the change feed has read it. Maintenance
+     * prunes the changes every reader has read, or the whole feed while it has no readers, so
+     * a reader sees the changes recorded after it first acknowledges. Build its extras with
+     * {@link #buildAcknowledgeChangesExtras}.
+     */
+    public static final String METHOD_ACKNOWLEDGE_CHANGES = "acknowledge_changes";
+
+    /**
+     * Acknowledge extras: the name of the reader (String), and the sequence number of the last
+     * change it read (long), or a negative one to remove the reader.
+     */
+    public static final String EXTRA_READER = "reader";
+    public static final String EXTRA_SEQUENCE = "sequence";
+
+    /**
+     * Provider method that checks inventory values against the rules the provider applies, without
+     * writing anything. Build its extras with {@link #buildValidateExtras}. The result holds
+     * {@link #EXTRA_ERROR_COLUMNS} and {@link #EXTRA_ERROR_CODES}, empty if the values are valid.
+     * <p>
+     * Invalid values are never written: an insert of them returns null, an update 0, and a bulk
+     * insert skips them.
+     */
+    public static final String METHOD_VALIDATE = "validate";
+
+    /**
+     * Validate extras: the values (ContentValues), and whether they're an update that holds only
+     * the columns it changes (boolean).
+     */
+    public static final String EXTRA_VALUES = "values";
+    public static final String EXTRA_PARTIAL = "partial";
+
+    /**
+     * Validate result: the invalid columns (String[]) and the error of each (int[], one of the
+     * ERROR_* values).
+     */
+    public static final String EXTRA_ERROR_COLUMNS = "error_columns";
+    public static final String EXTRA_ERROR_CODES = "error_codes";
+
+    /**
+     * Possible errors of a column.
+     */
+    public static final int ERROR_NONE = 0;
+    public static final int ERROR_REQUIRED = 1;
+    public static final int ERROR_NOT_A_NUMBER = 2;
+    public static final int ERROR_OUT_OF_RANGE = 3;
+    public static final int ERROR_TOO_LONG = 4;
+    public static final int ERROR_INVALID_PHONE_NUMBER = 5;
 
     // To prevent someone from accidentally instantiating the contract class,
     // make the constructor private.
     private InventoryContract() {
     }
 
+    /**
+     * Build the extras of a {@link #METHOD_CHECKOUT} call.
+     *
+     * @param inventoryIds   ids of the inventories in the basket
+     * @param quantityDeltas change of the quantity of each inventory, negative for a sale
+     * @param allowPartial   true to skip lines that can't be applied, false for all-or-nothing
+     */
+    public static Bundle buildCheckoutExtras(long[] inventoryIds, int[] quantityDeltas, boolean allowPartial) {
+        Bundle extras = new Bundle ();
+        extras.putLongArray (EXTRA_INVENTORY_IDS, inventoryIds);
+        extras.putIntArray (EXTRA_QUANTITY_DELTAS, quantityDeltas);
+        extras.putBoolean (EXTRA_ALLOW_PARTIAL, allowPartial);
+        return extras;
+    }
+
+    /**
+     * Build the extras of a {@link #METHOD_ACKNOWLEDGE_CHANGES} call.
+     *
+     * @param reader   name of the reader, the same on every call
+     * @param sequence sequence number of the last change read, or -1 to stop reading the feed
+     */
+    public static Bundle buildAcknowledgeChangesExtras(String reader, long sequence) {
+        Bundle extras = new Bundle ();
+        extras.putString (EXTRA_READER, reader);
+        extras.putLong (EXTRA_SEQUENCE, sequence);
+        return extras;
+    }
+
+    /**
+     * Build the extras of a {@link #METHOD_BULK_GET} call.
+     */
+    public static Bundle buildBulkGetExtras(long[] inventoryIds) {
+        Bundle extras = new Bundle ();
+        extras.putLongArray (EXTRA_INVENTORY_IDS, inventoryIds);
+        return extras;
+    }
+
+    /**
+     * Build the extras of a {@link #METHOD_TRANSFER} call.
+     */
+    public static Bundle buildTransferExtras(long inventoryId, long fromLocationId, long toLocationId, int quantity) {
+        Bundle extras = new Bundle ();
+        extras.putLong (EXTRA_INVENTORY_ID, inventoryId);
+        extras.putLong (EXTRA_FROM_LOCATION_ID, fromLocationId);
+        extras.putLong (EXTRA_TO_LOCATION_ID, toLocationId);
+        extras.putInt (EXTRA_QUANTITY, quantity);
+        return extras;
+    }
+
+    /**
+     * Build the extras of a {@link #METHOD_VALIDATE} call.
+     *
+     * @param partial true if the values are an update, false if they're a new inventory
+     */
+    public static Bundle buildValidateExtras(ContentValues values, boolean partial) {
+        Bundle extras = new Bundle ();
+        extras.putParcelable (EXTRA_VALUES, values);
+        extras.putBoolean (EXTRA_PARTIAL, partial);
+        return extras;
+    }
+
+    /**
+     * Build the extras of a {@link #METHOD_ADJUST_QUANTITY} call.
+     *
+     * @param writeBehind true to buffer the change and write it later with others
+     */
+    public static Bundle buildAdjustExtras(long inventoryId, int quantityDelta, boolean writeBehind) {
+        Bundle extras = new Bundle ();
+        extras.putLong (EXTRA_INVENTORY_ID, inventoryId);
+        extras.putInt (EXTRA_QUANTITY_DELTA, quantityDelta);
+        extras.putBoolean (EXTRA_WRITE_BEHIND, writeBehind);
+        return extras;
+    }
+
     /* Inner class that defines the table contents */
     public static final class InventoryEntry implements BaseColumns {
 
@@ -73,7 +382,10 @@ public final class InventoryContract {
         public static final String COLUMN_PRODUCT_PRICE = "price";
 
         /**
-         * Quantity of the product.
+         * Quantity of the product: the total over every location in {@link StockEntry}, kept up
+         * to date by the database. Writing it directly moves the stock by the difference: an
+         * increase goes to the default location, a decrease is taken from the locations that
+         * hold stock, the default location first. It can't go below 0.
          * Type: INTEGER
          */
         public static final String COLUMN_PRODUCT_QUANTITY = "quantity";
@@ -89,5 +401,654 @@ public final class InventoryContract {
          * Type: INTEGER
          */
         public static final String COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER = "supplier_phone_number";
+
+        /**
+         * Stock keeping unit (usually the barcode) of the product. Unique, but may be null.
+         * Type: TEXT
+         */
+        public static final String COLUMN_PRODUCT_SKU = "sku";
+
+        /**
+         * File name of the product image in the app's private storage (see {@link ImageStore}),
+         * or null if the product has no image. Read the image through {@link #buildImageUri}
+         * or {@link #buildThumbnailUri}.
+         * Type: TEXT
+         */
+        public static final String COLUMN_PRODUCT_IMAGE = "image";
+
+        /**
+         * Identity of the product on every till of the store, unlike the _id, which each device
+         * assigns on its own (see {@link com.example.android.inventoryappstageone.sync.SyncEngine}).
+         * Generated by the database when an inventory is inserted without one. Only a sync
+         * adapter may change it.
+         * Type: TEXT
+         */
+        public static final String COLUMN_PRODUCT_UID = "uid";
+
+        /**
+         * The MIME type of the image and thumbnail URIs.
+         */
+        public static final String IMAGE_TYPE = "image/jpeg";
+
+        /**
+         * Key of an update value that changes {@link #COLUMN_PRODUCT_QUANTITY} by the given amount
+         * instead of setting it, so concurrent sales and restocks don't overwrite each other.
+         * Rows whose quantity would drop below 0 are left unchanged. Not a column of the table.
+         * Type: INTEGER
+         */
+        public static final String QUANTITY_DELTA = "quantity_delta";
+
+        /**
+         * Columns of the catalog list. The provider warms its cache with this exact projection
+         * at startup, so the first catalog query doesn't have to touch the database.
+         */
+        public static final String[] CATALOG_PROJECTION = {_ID, COLUMN_PRODUCT_NAME, COLUMN_PRODUCT_PRICE, COLUMN_PRODUCT_QUANTITY, COLUMN_PRODUCT_SUPPLIER_NAME, COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, COLUMN_PRODUCT_SKU, COLUMN_PRODUCT_IMAGE};
+
+        /**
+         * Return the update for an edit of an inventory: the values of edited that differ from
+         * loaded, the values the edit started from. A changed quantity becomes a
+         * {@link #QUANTITY_DELTA}, so sales made meanwhile, here or on another till, are kept,
+         * and unchanged columns are left out, so they don't overwrite edits made elsewhere. A
+         * null and an empty text are the same.
+         */
+        public static ContentValues buildEditValues(ContentValues loaded, ContentValues edited) {
+            ContentValues update = new ContentValues (edited);
+            for (String column : edited.keySet ()) {
+                if (!loaded.containsKey (column)) {
+                    continue;
+                }
+                if (column.equals (COLUMN_PRODUCT_QUANTITY)) {
+                    update.remove (column);
+                    int delta = edited.getAsInteger (column) - loaded.getAsInteger (column);
+                    if (delta != 0) {
+                        update.put (QUANTITY_DELTA, delta);
+                    }
+                    continue;
+                }
+                String before = loaded.getAsString (column);
+                String after = edited.getAsString (column);
+                if ((before == null ? "" : before).equals (after == null ? "" : after)) {
+                    update.remove (column);
+                }
+            }
+            return update;
+        }
+
+        /**
+         * Build the URI to update the given inventory URI with a quantity correction rather than
+         * a sale, see {@link InventoryContract#IS_CORRECTION}.
+         */
+        public static Uri buildCorrectionUri(Uri uri) {
+            return uri.buildUpon ().appendQueryParameter (IS_CORRECTION, "true").build ();
+        }
+
+        /**
+         * Build the content URI of the inventory with the given SKU, of the form
+         * "content://com.example.android.inventoryappstageone/inventories/sku/5901234123457".
+         */
+        public static Uri buildSkuUri(String sku) {
+            return CONTENT_URI.buildUpon ().appendPath (PATH_SKU).appendPath (sku).build ();
+        }
+
+        /**
+         * Build the content URI of the inventories whose name starts with the given prefix, in
+         * any case, of the form "content://com.example.android.inventoryappstageone/inventories/search/cof".
+         * The result is sorted by name and holds at most limit rows, at most
+         * {@link #SEARCH_MAX_LIMIT}.
+         */
+        public static Uri buildSearchUri(String prefix, int limit) {
+            return CONTENT_URI.buildUpon ().appendPath (PATH_SEARCH).appendPath (prefix).appendQueryParameter (QUERY_PARAMETER_LIMIT, String.valueOf (limit)).build ();
+        }
+
+        /**
+         * Build the content URI of the full size image of the given inventory, of the form
+         * "content://com.example.android.inventoryappstageone/inventories/3/image".
+         */
+        public static Uri buildImageUri(long id) {
+            return ContentUris.withAppendedId (CONTENT_URI, id).buildUpon ().appendPath (PATH_IMAGE).build ();
+        }
+
+        /**
+         * Build the content URI of the per-location stock of the given inventory, of the form
+         * "content://com.example.android.inventoryappstageone/inventories/3/stock".
+         */
+        public static Uri buildStockUri(long id) {
+            return ContentUris.withAppendedId (CONTENT_URI, id).buildUpon ().appendPath (PATH_STOCK).build ();
+        }
+
+        /**
+         * Build the content URI of the stock of the given inventory at one location, of the form
+         * "content://com.example.android.inventoryappstageone/inventories/3/stock/2". Update it
+         * with a {@link StockEntry#COLUMN_QUANTITY} to set that stock.
+         */
+        public static Uri buildStockUri(long id, long locationId) {
+            return ContentUris.withAppendedId (buildStockUri (id), locationId);
+        }
+
+        /**
+         * Build the content URI of the price history of the given inventory, of the form
+         * "content://com.example.android.inventoryappstageone/inventories/3/prices?from=...".
+         *
+         * @param resolution one of the PriceHistoryEntry.RESOLUTION_* values, or null to pick one
+         *                   that keeps the number of points small for the range
+         * @param fromMillis start of the range, inclusive, or -1 for the beginning of the history
+         * @param toMillis   end of the range, exclusive, or -1 for now
+         */
+        public static Uri buildPriceHistoryUri(long id, String resolution, long fromMillis, long toMillis) {
+            Uri.Builder builder = ContentUris.withAppendedId (CONTENT_URI, id).buildUpon ().appendPath (PATH_PRICES);
+            if (resolution != null) {
+                builder.appendQueryParameter (PriceHistoryEntry.QUERY_PARAMETER_RESOLUTION, resolution);
+            }
+            if (fromMillis >= 0) {
+                builder.appendQueryParameter (PriceHistoryEntry.QUERY_PARAMETER_FROM, String.valueOf (fromMillis));
+            }
+            if (toMillis >= 0) {
+                builder.appendQueryParameter (PriceHistoryEntry.QUERY_PARAMETER_TO, String.valueOf (toMillis));
+            }
+            return builder.build ();
+        }
+
+        /**
+         * Build the content URI of the thumbnail of the given inventory, of the form
+         * "content://com.example.android.inventoryappstageone/inventories/3/thumbnail".
+         */
+        public static Uri buildThumbnailUri(long id) {
+            return ContentUris.withAppendedId (CONTENT_URI, id).buildUpon ().appendPath (PATH_THUMBNAIL).build ();
+        }
+
+        /**
+         * Query parameter selecting the sort order of the {@link #CONTENT_URI} list.
+         * One of {@link #SORT_NAME}, {@link #SORT_PRICE}, {@link #SORT_QUANTITY} or {@link #SORT_SUPPLIER}.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /**
+         * Possible values for {@link #QUERY_PARAMETER_SORT}.
+         */
+        public static final String SORT_NAME = "name";
+        public static final String SORT_PRICE = "price";
+        public static final String SORT_QUANTITY = "quantity";
+        public static final String SORT_SUPPLIER = "supplier";
+
+        /**
+         * Query parameter that limits the list to products with a quantity above 0 when "true".
+         */
+        public static final String QUERY_PARAMETER_IN_STOCK = "in_stock";
+
+        /**
+         * Query parameters that limit the list to products priced within the given (inclusive) range.
+         */
+        public static final String QUERY_PARAMETER_MIN_PRICE = "min_price";
+        public static final String QUERY_PARAMETER_MAX_PRICE = "max_price";
+
+        /**
+         * Query parameter that limits the list to products of the given supplier.
+         */
+        public static final String QUERY_PARAMETER_SUPPLIER = "supplier";
+
+        /**
+         * Query parameter of a search URI that limits the number of rows, see {@link #buildSearchUri}.
+         * Without it a search returns at most {@link #SEARCH_DEFAULT_LIMIT} rows.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        public static final int SEARCH_DEFAULT_LIMIT = 50;
+        public static final int SEARCH_MAX_LIMIT = 500;
+
+        /**
+         * Build a {@link #CONTENT_URI} for a sorted and filtered catalog list.
+         *
+         * @param sortMode    one of the SORT_* values, or null for the default order
+         * @param inStockOnly true to only list products with a quantity above 0
+         * @param minPrice    lowest price to list, or -1 for no lower bound
+         * @param maxPrice    highest price to list, or -1 for no upper bound
+         * @param supplier    supplier name to list, or null for every supplier
+         */
+        public static Uri buildCatalogUri(String sortMode, boolean inStockOnly, int minPrice, int maxPrice, String supplier) {
+            Uri.Builder builder = CONTENT_URI.buildUpon ();
+            if (sortMode != null) {
+                builder.appendQueryParameter (QUERY_PARAMETER_SORT, sortMode);
+            }
+            if (inStockOnly) {
+                builder.appendQueryParameter (QUERY_PARAMETER_IN_STOCK, "true");
+            }
+            if (minPrice >= 0) {
+                builder.appendQueryParameter (QUERY_PARAMETER_MIN_PRICE, String.valueOf (minPrice));
+            }
+            if (maxPrice >= 0) {
+                builder.appendQueryParameter (QUERY_PARAMETER_MAX_PRICE, String.valueOf (maxPrice));
+            }
+            if (supplier != null) {
+                builder.appendQueryParameter (QUERY_PARAMETER_SUPPLIER, supplier);
+            }
+            return builder.build ();
+        }
+    }
+
+    /* Inner class that defines the locations table contents */
+    public static final class LocationEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the locations in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath (BASE_CONTENT_URI, PATH_LOCATIONS);
+
+        /**
+         * The MIME types of the {@link #CONTENT_URI} for a list of locations and a single location.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /**
+         * Name of database table for locations
+         */
+        public static final String TABLE_NAME = "locations";
+
+        /**
+         * Unique ID number for the location.
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the location, unique.
+         * Type: TEXT
+         */
+        public static final String COLUMN_LOCATION_NAME = "location_name";
+
+        /**
+         * Id of the location that always exists, and that receives the stock added through
+         * {@link InventoryEntry#COLUMN_PRODUCT_QUANTITY}
+         */
+        public static final long DEFAULT_LOCATION_ID = 1;
+
+        /**
+         * Build the content URI of the stock held at the given location, of the form
+         * "content://com.example.android.inventoryappstageone/locations/2/stock".
+         */
+        public static Uri buildStockUri(long locationId) {
+            return ContentUris.withAppendedId (CONTENT_URI, locationId).buildUpon ().appendPath (PATH_STOCK).build ();
+        }
+    }
+
+    /* Inner class that defines the per-location stock table contents */
+    public static final class StockEntry {
+
+        /**
+         * The MIME type of a list of stock rows.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK;
+
+        /**
+         * The MIME type of a single stock row.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK;
+
+        /**
+         * Name of database table for stock
+         */
+        public static final String TABLE_NAME = "stock";
+
+        /**
+         * Id of the inventory.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_INVENTORY_ID = "inventory_id";
+
+        /**
+         * Id of the location holding the stock.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
+        /**
+         * Quantity of the inventory at the location.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_QUANTITY = "quantity";
+
+        private StockEntry() {
+        }
+    }
+
+    /* Inner class that defines the storage diagnostics of the database */
+    public static final class DiagnosticsEntry {
+
+        /**
+         * The content URI to read the diagnostics. Every query computes them afresh.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath (BASE_CONTENT_URI, PATH_DIAGNOSTICS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DIAGNOSTICS;
+
+        /**
+         * What the row describes, one of the KIND_* values.
+         * Type: TEXT
+         */
+        public static final String COLUMN_KIND = "kind";
+
+        /**
+         * Name of the pragma, table or index.
+         * Type: TEXT
+         */
+        public static final String COLUMN_NAME = "name";
+
+        /**
+         * Value of the pragma, or the number of pages used by the table or index.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_VALUE = "value";
+
+        /**
+         * Possible kinds of diagnostics. The database rows are the page_size, page_count and
+         * freelist_count pragmas, then write_behind_pending, the number of inventories with a
+         * buffered quantity change, write_behind_flushes, the number of write-behind
+         * transactions so far, and write_behind_shortfall, the units buffered changes couldn't
+         * take because the stock was lowered after they were checked. Table and index rows are only reported where SQLite is built
+         * with the dbstat virtual table.
+         */
+        public static final String KIND_DATABASE = "database";
+        public static final String KIND_TABLE = "table";
+        public static final String KIND_INDEX = "index";
+
+        private DiagnosticsEntry() {
+        }
+    }
+
+    /**
+     * Price history of the inventories. Every price an inventory is created with or changed to is
+     * recorded with its time, and rolled up per day and per week as it's recorded, so that a
+     * chart over years of history reads a few hundred rollup rows.
+     * <p>
+     * A price history query (see {@link InventoryEntry#buildPriceHistoryUri}) returns one row per
+     * point: {@link #COLUMN_BUCKET_START}, {@link #COLUMN_MIN_PRICE}, {@link #COLUMN_MAX_PRICE},
+     * {@link #COLUMN_AVG_PRICE} and {@link #COLUMN_PRICE_COUNT}, oldest first. At the raw
+     * resolution every point is a single recorded price. Days and weeks are UTC; weeks start
+     * on Monday.
+     */
+    public static final class PriceHistoryEntry implements BaseColumns {
+
+        /**
+         * The MIME type of a price history.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRICES;
+
+        /**
+         * Names of the database tables for the recorded prices and their rollups
+         */
+        public static final String TABLE_NAME = "price_history";
+        public static final String ROLLUP_TABLE_NAME = "price_rollups";
+
+        /**
+         * Id of the inventory.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_INVENTORY_ID = "inventory_id";
+
+        /**
+         * The recorded price.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PRICE = "price";
+
+        /**
+         * Time the price was set, in milliseconds since the epoch.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_CHANGED_AT = "changed_at";
+
+        /**
+         * Rollup columns: the length of the bucket in milliseconds, and the sum of the prices in
+         * it, from which the average is computed.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BUCKET_MILLIS = "bucket_millis";
+        public static final String COLUMN_PRICE_SUM = "price_sum";
+
+        /**
+         * Columns of a price history point, all but the average also columns of the rollups.
+         * The start of the bucket, in milliseconds since the epoch (Type: INTEGER); the lowest,
+         * highest and average price recorded in it (Type: INTEGER, INTEGER, REAL); and the
+         * number of prices recorded in it (Type: INTEGER).
+         */
+        public static final String COLUMN_BUCKET_START = "bucket_start";
+        public static final String COLUMN_MIN_PRICE = "min_price";
+        public static final String COLUMN_MAX_PRICE = "max_price";
+        public static final String COLUMN_AVG_PRICE = "avg_price";
+        public static final String COLUMN_PRICE_COUNT = "price_count";
+
+        /**
+         * Query parameters of a price history: the range in milliseconds since the epoch, start
+         * inclusive and end exclusive, and one of the RESOLUTION_* values
+         */
+        public static final String QUERY_PARAMETER_FROM = "from";
+        public static final String QUERY_PARAMETER_TO = "to";
+        public static final String QUERY_PARAMETER_RESOLUTION = "resolution";
+
+        /**
+         * Possible values for {@link #QUERY_PARAMETER_RESOLUTION}.
+         */
+        public static final String RESOLUTION_RAW = "raw";
+        public static final String RESOLUTION_DAY = "day";
+        public static final String RESOLUTION_WEEK = "week";
+
+        /**
+         * Length of a day and of a week, in milliseconds
+         */
+        public static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+        public static final long WEEK_MILLIS = 7 * DAY_MILLIS;
+
+        private PriceHistoryEntry() {
+        }
+    }
+
+    /**
+     * Sales velocity of every inventory that has sold, see {@link SalesVelocity}. The provider
+     * updates it on every sale: a checkout, a quantity adjustment, or a decrease by a quantity
+     * delta that isn't a correction (see {@link InventoryContract#IS_CORRECTION}). Deletes, edits
+     * of the quantity, stock counts, undo and synced changes don't count. Read-only.
+     */
+    public static final class DemandEntry {
+
+        /**
+         * The content URI to read the sales velocities
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath (BASE_CONTENT_URI, PATH_DEMAND);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DEMAND;
+
+        /**
+         * Name of database table for the sales velocities
+         */
+        public static final String TABLE_NAME = "demand";
+
+        /**
+         * Id of the inventory.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_INVENTORY_ID = "inventory_id";
+
+        /**
+         * Units sold per day, as of {@link #COLUMN_UPDATED_AT}. Decay it to the current time with
+         * {@link SalesVelocity#decay}.
+         * Type: REAL
+         */
+        public static final String COLUMN_VELOCITY = "velocity";
+
+        /**
+         * Time of the last sale, in milliseconds since the epoch.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_UPDATED_AT = "updated_at";
+
+        private DemandEntry() {
+        }
+    }
+
+    /**
+     * The undo log: the latest inventory changes made through insert, update, delete and
+     * {@link InventoryContract#METHOD_ADJUST_QUANTITY}, each with the values its rows held
+     * before, see {@link InventoryContract#METHOD_UNDO}. Bulk imports, checkouts, write-behind
+     * adjustments and sync adapter changes aren't logged. Internal to the provider.
+     */
+    public static final class CommandEntry implements BaseColumns {
+
+        /**
+         * Name of the database table for the commands, and for the rows they changed
+         */
+        public static final String TABLE_NAME = "commands";
+        public static final String ROWS_TABLE_NAME = "command_rows";
+
+        /**
+         * Sequence number of the command. Increases monotonically with every logged command.
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Kind of command, one of the KIND_* values.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_KIND = "kind";
+
+        /**
+         * Bit mask of the inventory columns the command changed, see {@link CommandLog}.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_COLUMNS = "columns";
+
+        /**
+         * 1 if the command is undone, 0 if it isn't.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_UNDONE = "undone";
+
+        /**
+         * Row table: the command and the inventory the row belongs to.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_COMMAND_ID = "command_id";
+        public static final String COLUMN_INVENTORY_ID = "inventory_id";
+
+        /**
+         * Row table: 1 if the image holds the inventory's values, 0 if the inventory didn't
+         * exist. The values are in columns named after the inventory columns.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_ROW_EXISTS = "row_exists";
+
+        /**
+         * Row table: the quantity change of an adjustment, or of an update by a quantity delta,
+         * null for any other command.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_QUANTITY_DELTA = "quantity_delta";
+
+        /**
+         * Possible kinds of a command.
+         */
+        public static final int KIND_INSERT = 1;
+        public static final int KIND_UPDATE = 2;
+        public static final int KIND_DELETE = 3;
+        public static final int KIND_ADJUST = 4;
+
+        private CommandEntry() {
+        }
+    }
+
+    /* Inner class that defines the change feed of the inventories table */
+    public static final class ChangeEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the change feed in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath (BASE_CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /**
+         * Name of database table for changes, and for how far every reader has read them (see
+         * {@link InventoryContract#METHOD_ACKNOWLEDGE_CHANGES})
+         */
+        public static final String TABLE_NAME = "changes";
+        public static final String READERS_TABLE_NAME = "change_readers";
+
+        /**
+         * Sequence number of the change. Increases monotonically with every recorded change.
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Id of the changed inventory.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_INVENTORY_ID = "inventory_id";
+
+        /**
+         * Kind of change, one of {@link #OPERATION_INSERT}, {@link #OPERATION_UPDATE} or {@link #OPERATION_DELETE}.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /**
+         * Amount the quantity changed by. For an insert, the initial quantity.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_QUANTITY_DELTA = "quantity_delta";
+
+        /**
+         * {@link InventoryEntry#COLUMN_PRODUCT_UID} of the deleted inventory for a delete, which
+         * leaves nothing else to tell other devices which product it was; null otherwise.
+         * Type: TEXT
+         */
+        public static final String COLUMN_UID = "uid";
+
+        /**
+         * Mask of the inventory columns the change set: bit i stands for
+         * {@link #CHANGED_COLUMNS}[i]. A change to the quantity sets its bit. Changes recorded
+         * before the mask existed have all bits set.
+         * Type: INTEGER
+         */
+        public static final String COLUMN_COLUMNS = "columns";
+
+        /**
+         * The inventory columns of the bits of {@link #COLUMN_COLUMNS}, in bit order.
+         */
+        public static final String[] CHANGED_COLUMNS = {InventoryEntry.COLUMN_PRODUCT_NAME, InventoryEntry.COLUMN_PRODUCT_PRICE, InventoryEntry.COLUMN_PRODUCT_QUANTITY, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, InventoryEntry.COLUMN_PRODUCT_SKU, InventoryEntry.COLUMN_PRODUCT_IMAGE};
+
+        /**
+         * Readers table: the name of the reader, and the sequence number of the last change it read.
+         * Type: TEXT, INTEGER
+         */
+        public static final String COLUMN_READER = "reader";
+        public static final String COLUMN_SEQUENCE = "sequence";
+
+        /**
+         * Possible values for the operation of a change.
+         */
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+
+        /**
+         * Query parameter limiting the feed to changes with a sequence number above the given one.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * Build a {@link #CONTENT_URI} for the changes recorded after the given sequence number.
+         */
+        public static Uri buildChangesSinceUri(long sequence) {
+            return CONTENT_URI.buildUpon ().appendQueryParameter (QUERY_PARAMETER_SINCE, String.valueOf (sequence)).build ();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,133 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Deterministic generator of realistic inventory data. The same seed always produces the same
+ * sequence of products, so datasets can be reproduced exactly between runs and devices.
+ * <p>
+ * Supplier popularity is skewed: a few suppliers deliver most of the products, following a
+ * Zipf distribution. Prices are log-normally distributed around a typical shop price. SKUs are
+ * numbered in generation order, so re-importing a dataset upserts the same rows.
+ */
+public final class InventoryDatasetGenerator {
+
+    /**
+     * Words used to build product names
+     */
+    private static final String[] ADJECTIVES = {"Small", "Large", "Red", "Blue", "Green", "Organic", "Classic", "Premium", "Light", "Strong", "Fresh", "Dry", "Soft", "Crispy", "Sweet", "Spicy"};
+    private static final String[] NOUNS = {"Apple", "Bread", "Coffee", "Tea", "Juice", "Milk", "Cheese", "Butter", "Pasta", "Rice", "Soap", "Towel", "Battery", "Candle", "Notebook", "Pen", "Cup", "Plate"};
+
+    /**
+     * Zipf exponent of the supplier popularity
+     */
+    private static final double SUPPLIER_SKEW = 1.1;
+
+    private final Random mRandom;
+
+    /**
+     * Names and phone numbers of the suppliers, by popularity rank
+     */
+    private final String[] mSupplierNames;
+    private final String[] mSupplierPhoneNumbers;
+
+    /**
+     * Zipf distribution over the supplier ranks
+     */
+    private final Zipf mSupplierPopularity;
+
+    /**
+     * Number of products generated so far, used to keep product names unique
+     */
+    private int mGenerated;
+
+    /**
+     * Constructs a new {@link InventoryDatasetGenerator}.
+     *
+     * @param seed          seed of the generator; equal seeds give equal datasets
+     * @param supplierCount number of distinct suppliers to spread the products over
+     */
+    public InventoryDatasetGenerator(long seed, int supplierCount) {
+        mRandom = new Random (seed);
+        mSupplierNames = new String[supplierCount];
+        mSupplierPhoneNumbers = new String[supplierCount];
+        for (int i = 0; i < supplierCount; i++) {
+            mSupplierNames[i] = "Supplier " + (i + 1);
+            mSupplierPhoneNumbers[i] = String.valueOf (500000000 + mRandom.nextInt (400000000));
+        }
+        mSupplierPopularity = new Zipf (supplierCount, SUPPLIER_SKEW);
+    }
+
+    /**
+     * Generate the next product.
+     */
+    public ContentValues next() {
+        String adjective = ADJECTIVES[mRandom.nextInt (ADJECTIVES.length)];
+        String noun = NOUNS[mRandom.nextInt (NOUNS.length)];
+        int supplier = mSupplierPopularity.sample (mRandom);
+
+        // Log-normal price around 20 zł, most products between 5 and 80 zł
+        int price = (int) Math.max (1, Math.round (Math.exp (3.0 + 0.7 * mRandom.nextGaussian ())));
+
+        // Most shelves are partly stocked, some are empty
+        int quantity = mRandom.nextInt (10) == 0 ? 0 : mRandom.nextInt (100);
+
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_NAME, adjective + " " + noun + " " + (++mGenerated));
+        values.put (InventoryEntry.COLUMN_PRODUCT_SKU, String.format (Locale.US, "590%010d", mGenerated));
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, mSupplierNames[supplier]);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, mSupplierPhoneNumbers[supplier]);
+        return values;
+    }
+
+    /**
+     * Generate the given number of products.
+     */
+    public ContentValues[] next(int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = next ();
+        }
+        return values;
+    }
+
+    /**
+     * Zipf distribution over the ranks 0..n-1, where rank 0 is the most popular.
+     * Sampling is a binary search over the precomputed cumulative probabilities.
+     */
+    public static final class Zipf {
+
+        private final double[] mCumulative;
+
+        public Zipf(int n, double skew) {
+            mCumulative = new double[n];
+            double sum = 0;
+            for (int rank = 0; rank < n; rank++) {
+                sum += 1.0 / Math.pow (rank + 1, skew);
+                mCumulative[rank] = sum;
+            }
+            for (int rank = 0; rank < n; rank++) {
+                mCumulative[rank] /= sum;
+            }
+        }
+
+        /**
+         * Draw a rank from the distribution.
+         */
+        public int sample(Random random) {
+            int index = Arrays.binarySearch (mCumulative, random.nextDouble ());
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return Math.min (index, mCumulative.length - 1);
+        }
+    }
+}
@@ -1,10 +1,18 @@
 package com.example.android.inventoryappstageone.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
+import com.example.android.inventoryappstageone.data.InventoryContract.ChangeEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.CommandEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.DemandEntry;
 import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.LocationEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.PriceHistoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.StockEntry;
 
 public class InventoryDbHelper extends SQLiteOpenHelper {
 
@@ -18,7 +26,177 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 12;
+
+    /**
+     * Value of PRAGMA auto_vacuum in incremental mode
+     */
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Indexes backing the catalog sort orders and filters (see {@link InventoryProvider}).
+     * Name and supplier are indexed case-insensitively, matching the NOCASE sort orders.
+     */
+    private static final String[] SQL_CREATE_CATALOG_INDEXES = {
+            "CREATE INDEX inventory_name_idx ON " + InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE);",
+            "CREATE INDEX inventory_price_idx ON " + InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_PRODUCT_PRICE + ");",
+            "CREATE INDEX inventory_quantity_idx ON " + InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_PRODUCT_QUANTITY + ");",
+            "CREATE INDEX inventory_supplier_idx ON " + InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " COLLATE NOCASE, " + InventoryEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE);"};
+
+    /**
+     * Unique index on the SKU, used for scanner lookups and upserts by SKU. Rows without a SKU
+     * don't conflict, since SQLite treats every NULL as distinct.
+     */
+    private static final String SQL_CREATE_SKU_INDEX = "CREATE UNIQUE INDEX inventory_sku_idx ON " + InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_PRODUCT_SKU + ");";
+
+    /**
+     * Unique index on the uid, which the sync engine matches the products of other tills by, and
+     * the trigger giving every inserted inventory without a uid a random one. A trigger rather
+     * than a column default, since a column added to an existing table can't have one.
+     */
+    private static final String SQL_CREATE_UID_INDEX = "CREATE UNIQUE INDEX inventory_uid_idx ON " + InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_PRODUCT_UID + ");";
+    private static final String SQL_NEW_UID = "lower(hex(randomblob(16)))";
+    private static final String SQL_CREATE_UID_TRIGGER = "CREATE TRIGGER inventory_uid_insert AFTER INSERT ON " + InventoryEntry.TABLE_NAME + " WHEN NEW." + InventoryEntry.COLUMN_PRODUCT_UID + " IS NULL BEGIN "
+            + "UPDATE " + InventoryEntry.TABLE_NAME + " SET " + InventoryEntry.COLUMN_PRODUCT_UID + "=" + SQL_NEW_UID + " WHERE " + InventoryEntry._ID + "=NEW." + InventoryEntry._ID + "; END;";
+
+    /**
+     * The change feed. AUTOINCREMENT keeps sequence numbers monotonic even after old changes are pruned.
+     */
+    private static final String SQL_CREATE_CHANGES_TABLE = "CREATE TABLE " + ChangeEntry.TABLE_NAME + " (" + ChangeEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + ChangeEntry.COLUMN_INVENTORY_ID + " INTEGER NOT NULL, " + ChangeEntry.COLUMN_OPERATION + " INTEGER NOT NULL, " + ChangeEntry.COLUMN_QUANTITY_DELTA + " INTEGER NOT NULL DEFAULT 0, " + ChangeEntry.COLUMN_UID + " TEXT, " + ChangeEntry.COLUMN_COLUMNS + " INTEGER NOT NULL DEFAULT -1);";
+
+    /**
+     * How far every reader has read the change feed
+     */
+    private static final String SQL_CREATE_CHANGE_READERS_TABLE = "CREATE TABLE " + ChangeEntry.READERS_TABLE_NAME + " (" + ChangeEntry.COLUMN_READER + " TEXT PRIMARY KEY, " + ChangeEntry.COLUMN_SEQUENCE + " INTEGER NOT NULL);";
+
+    /**
+     * The locations, and the stock of every inventory at every location. The primary key of the
+     * stock table also serves the lookups of one inventory's stock.
+     */
+    private static final String SQL_CREATE_LOCATIONS_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + LocationEntry.COLUMN_LOCATION_NAME + " TEXT NOT NULL UNIQUE);";
+    private static final String SQL_CREATE_STOCK_TABLE = "CREATE TABLE " + StockEntry.TABLE_NAME + " (" + StockEntry.COLUMN_INVENTORY_ID + " INTEGER NOT NULL, " + StockEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, " + StockEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0, PRIMARY KEY (" + StockEntry.COLUMN_INVENTORY_ID + ", " + StockEntry.COLUMN_LOCATION_ID + "));";
+    private static final String SQL_CREATE_STOCK_LOCATION_INDEX = "CREATE INDEX stock_location_idx ON " + StockEntry.TABLE_NAME + " (" + StockEntry.COLUMN_LOCATION_ID + ");";
+
+    /**
+     * Total of the stock of the inventory OLD or NEW, in trigger bodies
+     */
+    private static final String SQL_STOCK_TOTAL = "(SELECT IFNULL(SUM(" + StockEntry.COLUMN_QUANTITY + "), 0) FROM " + StockEntry.TABLE_NAME + " WHERE " + StockEntry.COLUMN_INVENTORY_ID + "=%s)";
+
+    /**
+     * Statement setting the total quantity of an inventory, in trigger bodies
+     */
+    private static final String SQL_SET_TOTAL = "UPDATE " + InventoryEntry.TABLE_NAME + " SET " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "=" + SQL_STOCK_TOTAL + " WHERE " + InventoryEntry._ID + "=%1$s;";
+
+    /**
+     * Stock held by the inventory being updated, read per row as an UPDATE of the stock table
+     * goes, in trigger bodies
+     */
+    private static final String SQL_STOCK_HELD = "(SELECT SUM(held." + StockEntry.COLUMN_QUANTITY + ") FROM " + StockEntry.TABLE_NAME + " AS held WHERE held." + StockEntry.COLUMN_INVENTORY_ID + "=" + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_INVENTORY_ID + ")";
+
+    /**
+     * The trigger moving the stock by a direct write of inventory.quantity, and the triggers
+     * keeping every stock row at 0 or above, see {@link #SQL_CREATE_STOCK_TRIGGERS}
+     */
+    private static final String SQL_CREATE_QUANTITY_UPDATE_TRIGGER = "CREATE TRIGGER inventory_quantity_update AFTER UPDATE OF " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + " ON " + InventoryEntry.TABLE_NAME
+            + " WHEN NEW." + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "<>" + String.format (SQL_STOCK_TOTAL, "NEW." + InventoryEntry._ID) + " BEGIN "
+            + "INSERT OR IGNORE INTO " + StockEntry.TABLE_NAME + " (" + StockEntry.COLUMN_INVENTORY_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ") SELECT NEW." + InventoryEntry._ID + ", " + LocationEntry.DEFAULT_LOCATION_ID + " WHERE NEW." + InventoryEntry.COLUMN_PRODUCT_QUANTITY + ">" + String.format (SQL_STOCK_TOTAL, "NEW." + InventoryEntry._ID) + "; "
+            + "UPDATE " + StockEntry.TABLE_NAME + " SET " + StockEntry.COLUMN_QUANTITY + "=" + StockEntry.COLUMN_QUANTITY + "+NEW." + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "-" + String.format (SQL_STOCK_TOTAL, "NEW." + InventoryEntry._ID)
+            + " WHERE " + StockEntry.COLUMN_INVENTORY_ID + "=NEW." + InventoryEntry._ID + " AND " + StockEntry.COLUMN_LOCATION_ID + "=" + LocationEntry.DEFAULT_LOCATION_ID + " AND NEW." + InventoryEntry.COLUMN_PRODUCT_QUANTITY + ">" + String.format (SQL_STOCK_TOTAL, "NEW." + InventoryEntry._ID) + "; "
+            + "UPDATE " + StockEntry.TABLE_NAME + " SET " + StockEntry.COLUMN_QUANTITY + "=" + StockEntry.COLUMN_QUANTITY + "-MIN(" + StockEntry.COLUMN_QUANTITY + ", MAX(0, " + SQL_STOCK_HELD + "-NEW." + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "))"
+            + " WHERE " + StockEntry.COLUMN_INVENTORY_ID + "=NEW." + InventoryEntry._ID + " AND " + StockEntry.COLUMN_QUANTITY + ">0 AND NEW." + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "<" + String.format (SQL_STOCK_TOTAL, "NEW." + InventoryEntry._ID) + "; "
+            + "SELECT RAISE(ABORT, 'Not enough stock') WHERE NEW." + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "<>" + String.format (SQL_STOCK_TOTAL, "NEW." + InventoryEntry._ID) + "; END;";
+    private static final String SQL_CREATE_STOCK_INSERT_CHECK = "CREATE TRIGGER stock_insert_check BEFORE INSERT ON " + StockEntry.TABLE_NAME + " WHEN NEW." + StockEntry.COLUMN_QUANTITY + "<0 BEGIN SELECT RAISE(ABORT, 'Stock can''t go below 0'); END;";
+    private static final String SQL_CREATE_STOCK_UPDATE_CHECK = "CREATE TRIGGER stock_update_check BEFORE UPDATE OF " + StockEntry.COLUMN_QUANTITY + " ON " + StockEntry.TABLE_NAME + " WHEN NEW." + StockEntry.COLUMN_QUANTITY + "<0 BEGIN SELECT RAISE(ABORT, 'Stock can''t go below 0'); END;";
+
+    /**
+     * Triggers keeping inventory.quantity equal to the inventory's total stock, so the catalog
+     * keeps reading a single indexed column.
+     * <ul>
+     * <li>Any change to the stock table recomputes the total of that inventory. Recomputing
+     * rather than adding the difference keeps the triggers idempotent.</li>
+     * <li>A direct write of inventory.quantity (the editor, sales, the sync adapter) moves the
+     * stock by the difference, which then recomputes the same total. An increase goes to the
+     * default location. A decrease is taken from the locations holding stock, the default
+     * location first: each gives what the inventory still holds above the new quantity, or all
+     * it has, so no location goes below 0. A quantity below 0 aborts. The WHEN clause stops the
+     * updates of the total from cascading any further.</li>
+     * <li>A new inventory's quantity starts out at the default location, and a deleted
+     * inventory's stock goes with it.</li>
+     * <li>No stock row can go below 0.</li>
+     * </ul>
+     */
+    private static final String[] SQL_CREATE_STOCK_TRIGGERS = {
+            "CREATE TRIGGER stock_insert AFTER INSERT ON " + StockEntry.TABLE_NAME + " BEGIN " + String.format (SQL_SET_TOTAL, "NEW." + StockEntry.COLUMN_INVENTORY_ID) + " END;",
+            "CREATE TRIGGER stock_update AFTER UPDATE ON " + StockEntry.TABLE_NAME + " BEGIN " + String.format (SQL_SET_TOTAL, "NEW." + StockEntry.COLUMN_INVENTORY_ID) + " END;",
+            "CREATE TRIGGER stock_delete AFTER DELETE ON " + StockEntry.TABLE_NAME + " BEGIN " + String.format (SQL_SET_TOTAL, "OLD." + StockEntry.COLUMN_INVENTORY_ID) + " END;",
+            SQL_CREATE_QUANTITY_UPDATE_TRIGGER,
+            "CREATE TRIGGER inventory_insert AFTER INSERT ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                    + "INSERT INTO " + StockEntry.TABLE_NAME + " (" + StockEntry.COLUMN_INVENTORY_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ", " + StockEntry.COLUMN_QUANTITY + ") VALUES (NEW." + InventoryEntry._ID + ", " + LocationEntry.DEFAULT_LOCATION_ID + ", NEW." + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "); END;",
+            "CREATE TRIGGER inventory_delete AFTER DELETE ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                    + "DELETE FROM " + StockEntry.TABLE_NAME + " WHERE " + StockEntry.COLUMN_INVENTORY_ID + "=OLD." + InventoryEntry._ID + "; END;",
+            SQL_CREATE_STOCK_INSERT_CHECK,
+            SQL_CREATE_STOCK_UPDATE_CHECK};
+
+    /**
+     * The recorded prices, and their day and week rollups. The index and the rollup primary key
+     * serve the range queries of one inventory's history.
+     */
+    private static final String SQL_CREATE_PRICE_HISTORY_TABLE = "CREATE TABLE " + PriceHistoryEntry.TABLE_NAME + " (" + PriceHistoryEntry._ID + " INTEGER PRIMARY KEY, " + PriceHistoryEntry.COLUMN_INVENTORY_ID + " INTEGER NOT NULL, " + PriceHistoryEntry.COLUMN_PRICE + " INTEGER NOT NULL, " + PriceHistoryEntry.COLUMN_CHANGED_AT + " INTEGER NOT NULL);";
+    private static final String SQL_CREATE_PRICE_HISTORY_INDEX = "CREATE INDEX price_history_idx ON " + PriceHistoryEntry.TABLE_NAME + " (" + PriceHistoryEntry.COLUMN_INVENTORY_ID + ", " + PriceHistoryEntry.COLUMN_CHANGED_AT + ");";
+    private static final String SQL_CREATE_PRICE_ROLLUPS_TABLE = "CREATE TABLE " + PriceHistoryEntry.ROLLUP_TABLE_NAME + " (" + PriceHistoryEntry.COLUMN_INVENTORY_ID + " INTEGER NOT NULL, " + PriceHistoryEntry.COLUMN_BUCKET_MILLIS + " INTEGER NOT NULL, " + PriceHistoryEntry.COLUMN_BUCKET_START + " INTEGER NOT NULL, "
+            + PriceHistoryEntry.COLUMN_MIN_PRICE + " INTEGER NOT NULL, " + PriceHistoryEntry.COLUMN_MAX_PRICE + " INTEGER NOT NULL, " + PriceHistoryEntry.COLUMN_PRICE_SUM + " INTEGER NOT NULL DEFAULT 0, " + PriceHistoryEntry.COLUMN_PRICE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + "PRIMARY KEY (" + PriceHistoryEntry.COLUMN_INVENTORY_ID + ", " + PriceHistoryEntry.COLUMN_BUCKET_MILLIS + ", " + PriceHistoryEntry.COLUMN_BUCKET_START + "));";
+
+    /**
+     * Current time in milliseconds, in trigger bodies
+     */
+    private static final String SQL_NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /**
+     * Statements adding the price NEW to its rollup of the given bucket length, in trigger
+     * bodies. The bucket start is formatted in as the third argument.
+     */
+    private static final String SQL_ROLL_UP_PRICE = "INSERT OR IGNORE INTO " + PriceHistoryEntry.ROLLUP_TABLE_NAME + " (" + PriceHistoryEntry.COLUMN_INVENTORY_ID + ", " + PriceHistoryEntry.COLUMN_BUCKET_MILLIS + ", " + PriceHistoryEntry.COLUMN_BUCKET_START + ", " + PriceHistoryEntry.COLUMN_MIN_PRICE + ", " + PriceHistoryEntry.COLUMN_MAX_PRICE + ") "
+            + "VALUES (NEW." + PriceHistoryEntry.COLUMN_INVENTORY_ID + ", %1$d, %2$s, NEW." + PriceHistoryEntry.COLUMN_PRICE + ", NEW." + PriceHistoryEntry.COLUMN_PRICE + "); "
+            + "UPDATE " + PriceHistoryEntry.ROLLUP_TABLE_NAME + " SET " + PriceHistoryEntry.COLUMN_MIN_PRICE + "=MIN(" + PriceHistoryEntry.COLUMN_MIN_PRICE + ", NEW." + PriceHistoryEntry.COLUMN_PRICE + "), " + PriceHistoryEntry.COLUMN_MAX_PRICE + "=MAX(" + PriceHistoryEntry.COLUMN_MAX_PRICE + ", NEW." + PriceHistoryEntry.COLUMN_PRICE + "), "
+            + PriceHistoryEntry.COLUMN_PRICE_SUM + "=" + PriceHistoryEntry.COLUMN_PRICE_SUM + "+NEW." + PriceHistoryEntry.COLUMN_PRICE + ", " + PriceHistoryEntry.COLUMN_PRICE_COUNT + "=" + PriceHistoryEntry.COLUMN_PRICE_COUNT + "+1 "
+            + "WHERE " + PriceHistoryEntry.COLUMN_INVENTORY_ID + "=NEW." + PriceHistoryEntry.COLUMN_INVENTORY_ID + " AND " + PriceHistoryEntry.COLUMN_BUCKET_MILLIS + "=%1$d AND " + PriceHistoryEntry.COLUMN_BUCKET_START + "=%2$s; ";
+
+    /**
+     * Statement recording the price of the inventory NEW, in trigger bodies
+     */
+    private static final String SQL_RECORD_PRICE = "INSERT INTO " + PriceHistoryEntry.TABLE_NAME + " (" + PriceHistoryEntry.COLUMN_INVENTORY_ID + ", " + PriceHistoryEntry.COLUMN_PRICE + ", " + PriceHistoryEntry.COLUMN_CHANGED_AT + ") VALUES (NEW." + InventoryEntry._ID + ", NEW." + InventoryEntry.COLUMN_PRODUCT_PRICE + ", " + SQL_NOW_MILLIS + ");";
+
+    /**
+     * Triggers recording every price an inventory is created with or changed to, and keeping
+     * the rollups current as prices are recorded. The epoch was a Thursday, so weeks are
+     * shifted by three days to start on Monday.
+     */
+    private static final String[] SQL_CREATE_PRICE_TRIGGERS = {
+            "CREATE TRIGGER price_history_insert AFTER INSERT ON " + PriceHistoryEntry.TABLE_NAME + " BEGIN "
+                    + String.format (SQL_ROLL_UP_PRICE, PriceHistoryEntry.DAY_MILLIS, "NEW." + PriceHistoryEntry.COLUMN_CHANGED_AT + "-NEW." + PriceHistoryEntry.COLUMN_CHANGED_AT + "%" + PriceHistoryEntry.DAY_MILLIS)
+                    + String.format (SQL_ROLL_UP_PRICE, PriceHistoryEntry.WEEK_MILLIS, "NEW." + PriceHistoryEntry.COLUMN_CHANGED_AT + "-(NEW." + PriceHistoryEntry.COLUMN_CHANGED_AT + "+" + 3 * PriceHistoryEntry.DAY_MILLIS + ")%" + PriceHistoryEntry.WEEK_MILLIS) + "END;",
+            "CREATE TRIGGER inventory_price_insert AFTER INSERT ON " + InventoryEntry.TABLE_NAME + " BEGIN " + SQL_RECORD_PRICE + " END;",
+            "CREATE TRIGGER inventory_price_update AFTER UPDATE OF " + InventoryEntry.COLUMN_PRODUCT_PRICE + " ON " + InventoryEntry.TABLE_NAME + " WHEN NEW." + InventoryEntry.COLUMN_PRODUCT_PRICE + "<>OLD." + InventoryEntry.COLUMN_PRODUCT_PRICE + " BEGIN " + SQL_RECORD_PRICE + " END;",
+            "CREATE TRIGGER inventory_price_delete AFTER DELETE ON " + InventoryEntry.TABLE_NAME + " BEGIN "
+                    + "DELETE FROM " + PriceHistoryEntry.TABLE_NAME + " WHERE " + PriceHistoryEntry.COLUMN_INVENTORY_ID + "=OLD." + InventoryEntry._ID + "; "
+                    + "DELETE FROM " + PriceHistoryEntry.ROLLUP_TABLE_NAME + " WHERE " + PriceHistoryEntry.COLUMN_INVENTORY_ID + "=OLD." + InventoryEntry._ID + "; END;"};
+
+    /**
+     * The sales velocities, one row per inventory that has sold, deleted with the inventory
+     */
+    private static final String SQL_CREATE_DEMAND_TABLE = "CREATE TABLE " + DemandEntry.TABLE_NAME + " (" + DemandEntry.COLUMN_INVENTORY_ID + " INTEGER PRIMARY KEY, " + DemandEntry.COLUMN_VELOCITY + " REAL NOT NULL, " + DemandEntry.COLUMN_UPDATED_AT + " INTEGER NOT NULL);";
+    private static final String SQL_CREATE_DEMAND_TRIGGER = "CREATE TRIGGER inventory_demand_delete AFTER DELETE ON " + InventoryEntry.TABLE_NAME + " BEGIN DELETE FROM " + DemandEntry.TABLE_NAME + " WHERE " + DemandEntry.COLUMN_INVENTORY_ID + "=OLD." + InventoryEntry._ID + "; END;";
+
+    /**
+     * The undo log: the commands, and the image of every row they changed. The image columns
+     * mirror the inventory columns, typeless so they take whatever the row held. The primary key
+     * serves both the reads of a command's rows and the pruning of old commands.
+     */
+    private static final String SQL_CREATE_COMMANDS_TABLE = "CREATE TABLE " + CommandEntry.TABLE_NAME + " (" + CommandEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + CommandEntry.COLUMN_KIND + " INTEGER NOT NULL, " + CommandEntry.COLUMN_COLUMNS + " INTEGER NOT NULL, " + CommandEntry.COLUMN_UNDONE + " INTEGER NOT NULL DEFAULT 0);";
+    private static final String SQL_CREATE_COMMAND_ROWS_TABLE = "CREATE TABLE " + CommandEntry.ROWS_TABLE_NAME + " (" + CommandEntry.COLUMN_COMMAND_ID + " INTEGER NOT NULL, " + CommandEntry.COLUMN_INVENTORY_ID + " INTEGER NOT NULL, " + CommandEntry.COLUMN_ROW_EXISTS + " INTEGER NOT NULL, " + CommandEntry.COLUMN_QUANTITY_DELTA + " INTEGER NOT NULL DEFAULT 0, "
+            + InventoryEntry.COLUMN_PRODUCT_NAME + ", " + InventoryEntry.COLUMN_PRODUCT_PRICE + ", " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + ", " + InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ", " + InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + ", " + InventoryEntry.COLUMN_PRODUCT_SKU + ", " + InventoryEntry.COLUMN_PRODUCT_IMAGE + ", "
+            + "PRIMARY KEY (" + CommandEntry.COLUMN_COMMAND_ID + ", " + CommandEntry.COLUMN_INVENTORY_ID + "));";
 
     /**
      * Constructs a new instance of {@link InventoryDbHelper}.
@@ -29,15 +207,143 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        // Let the file shrink after deletes, see onOpen
+        db.execSQL ("PRAGMA auto_vacuum=INCREMENTAL;");
+
         // Create a String that Contains the AQL statement to create the inventories table
         String SQL_CREATE_INVENTORIES_TABLE;
-        SQL_CREATE_INVENTORIES_TABLE = "CREATE TABLE " + InventoryEntry.TABLE_NAME + " (" + InventoryEntry._ID + " " + "INTEGER PRIMARY KEY AUTOINCREMENT, " + InventoryEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, " + InventoryEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL, " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL, " + InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " TEXT NOT NULL, " + InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + " INTEGER NOT NULL);";
+        SQL_CREATE_INVENTORIES_TABLE = "CREATE TABLE " + InventoryEntry.TABLE_NAME + " (" + InventoryEntry._ID + " " + "INTEGER PRIMARY KEY AUTOINCREMENT, " + InventoryEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, " + InventoryEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL, " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL, " + InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " TEXT NOT NULL, " + InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + " INTEGER NOT NULL, " + InventoryEntry.COLUMN_PRODUCT_SKU + " TEXT, " + InventoryEntry.COLUMN_PRODUCT_IMAGE + " TEXT, " + InventoryEntry.COLUMN_PRODUCT_UID + " TEXT);";
         // Execute the SQL statement
         db.execSQL (SQL_CREATE_INVENTORIES_TABLE);
+        createCatalogIndexes (db);
+        db.execSQL (SQL_CREATE_SKU_INDEX);
+        db.execSQL (SQL_CREATE_UID_INDEX);
+        db.execSQL (SQL_CREATE_UID_TRIGGER);
+        db.execSQL (SQL_CREATE_CHANGES_TABLE);
+        db.execSQL (SQL_CREATE_CHANGE_READERS_TABLE);
+        createLocations (db);
+        createPriceHistory (db);
+        db.execSQL (SQL_CREATE_DEMAND_TABLE);
+        db.execSQL (SQL_CREATE_DEMAND_TRIGGER);
+        db.execSQL (SQL_CREATE_COMMANDS_TABLE);
+        db.execSQL (SQL_CREATE_COMMAND_ROWS_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        // Version 2 added the indexes used by the catalog sort orders and filters
+        if (oldVersion < 2) {
+            createCatalogIndexes (db);
+        }
+        // Version 3 added the change feed
+        if (oldVersion < 3) {
+            db.execSQL (SQL_CREATE_CHANGES_TABLE);
+        }
+        // Version 4 added the SKU column
+        if (oldVersion < 4) {
+            db.execSQL ("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN " + InventoryEntry.COLUMN_PRODUCT_SKU + " TEXT;");
+            db.execSQL (SQL_CREATE_SKU_INDEX);
+        }
+        // Version 5 added the image column
+        if (oldVersion < 5) {
+            db.execSQL ("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN " + InventoryEntry.COLUMN_PRODUCT_IMAGE + " TEXT;");
+        }
+        // Version 6 switched to incremental auto-vacuum. The mode of an existing database
+        // only changes with a VACUUM, which can't run in this transaction, see onOpen.
+        if (oldVersion < 6) {
+            db.execSQL ("PRAGMA auto_vacuum=INCREMENTAL;");
+        }
+        // Version 7 added the locations and per-location stock. Every inventory's current
+        // quantity moves to the default location.
+        if (oldVersion < 7) {
+            createLocations (db);
+        }
+        // Version 8 added the price history. It starts with every inventory's current price.
+        if (oldVersion < 8) {
+            createPriceHistory (db);
+        }
+        // Version 9 added the sales velocities. They start out empty and learn from new sales.
+        if (oldVersion < 9) {
+            db.execSQL (SQL_CREATE_DEMAND_TABLE);
+            db.execSQL (SQL_CREATE_DEMAND_TRIGGER);
+        }
+        // Version 10 added the undo log. It starts out empty.
+        if (oldVersion < 10) {
+            db.execSQL (SQL_CREATE_COMMANDS_TABLE);
+            db.execSQL (SQL_CREATE_COMMAND_ROWS_TABLE);
+        }
+        // Version 11 added the uids, the column masks of the changes and the feed readers.
+        // Every existing inventory gets a random uid, and the changes recorded before keep a
+        // null uid and a mask of all columns.
+        if (oldVersion < 11) {
+            db.execSQL ("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN " + InventoryEntry.COLUMN_PRODUCT_UID + " TEXT;");
+            db.execSQL ("UPDATE " + InventoryEntry.TABLE_NAME + " SET " + InventoryEntry.COLUMN_PRODUCT_UID + "=" + SQL_NEW_UID + ";");
+            db.execSQL (SQL_CREATE_UID_INDEX);
+            db.execSQL (SQL_CREATE_UID_TRIGGER);
+            // A feed created by this upgrade already has the columns
+            if (oldVersion >= 3) {
+                db.execSQL ("ALTER TABLE " + ChangeEntry.TABLE_NAME + " ADD COLUMN " + ChangeEntry.COLUMN_UID + " TEXT;");
+                db.execSQL ("ALTER TABLE " + ChangeEntry.TABLE_NAME + " ADD COLUMN " + ChangeEntry.COLUMN_COLUMNS + " INTEGER NOT NULL DEFAULT -1;");
+            }
+            db.execSQL (SQL_CREATE_CHANGE_READERS_TABLE);
+        }
+        // Version 12 takes decreases of the quantity from every location holding stock, not
+        // only the default one, and keeps stock from going below 0
+        if (oldVersion < 12 && oldVersion >= 7) {
+            db.execSQL ("DROP TRIGGER inventory_quantity_update;");
+            db.execSQL (SQL_CREATE_QUANTITY_UPDATE_TRIGGER);
+            db.execSQL (SQL_CREATE_STOCK_INSERT_CHECK);
+            db.execSQL (SQL_CREATE_STOCK_UPDATE_CHECK);
+        }
+    }
+
+    /**
+     * Finish the switch to incremental auto-vacuum started by onCreate or onUpgrade. This rewrites
+     * the whole file once, so it runs here, outside their transaction; the provider opens the
+     * database on a background thread, so it never blocks the main thread.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen (db);
+        if (!db.isReadOnly () && DatabaseUtils.longForQuery (db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            Log.i (LOG_TAG, "Converting database to incremental auto-vacuum");
+            db.execSQL ("PRAGMA auto_vacuum=INCREMENTAL;");
+            db.execSQL ("VACUUM;");
+        }
+    }
+
+    /**
+     * Create the locations and stock tables with their triggers, and the default location holding
+     * the quantity of every existing inventory.
+     */
+    private static void createLocations(SQLiteDatabase db) {
+        db.execSQL (SQL_CREATE_LOCATIONS_TABLE);
+        db.execSQL (SQL_CREATE_STOCK_TABLE);
+        db.execSQL (SQL_CREATE_STOCK_LOCATION_INDEX);
+        db.execSQL ("INSERT INTO " + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_NAME + ") VALUES (" + LocationEntry.DEFAULT_LOCATION_ID + ", 'Default');");
+        db.execSQL ("INSERT INTO " + StockEntry.TABLE_NAME + " SELECT " + InventoryEntry._ID + ", " + LocationEntry.DEFAULT_LOCATION_ID + ", " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + " FROM " + InventoryEntry.TABLE_NAME + ";");
+        for (String sql : SQL_CREATE_STOCK_TRIGGERS) {
+            db.execSQL (sql);
+        }
+    }
+
+    /**
+     * Create the price history and rollup tables with their triggers, and record the current price
+     * of every existing inventory.
+     */
+    private static void createPriceHistory(SQLiteDatabase db) {
+        db.execSQL (SQL_CREATE_PRICE_HISTORY_TABLE);
+        db.execSQL (SQL_CREATE_PRICE_HISTORY_INDEX);
+        db.execSQL (SQL_CREATE_PRICE_ROLLUPS_TABLE);
+        for (String sql : SQL_CREATE_PRICE_TRIGGERS) {
+            db.execSQL (sql);
+        }
+        db.execSQL ("INSERT INTO " + PriceHistoryEntry.TABLE_NAME + " (" + PriceHistoryEntry.COLUMN_INVENTORY_ID + ", " + PriceHistoryEntry.COLUMN_PRICE + ", " + PriceHistoryEntry.COLUMN_CHANGED_AT + ") SELECT " + InventoryEntry._ID + ", " + InventoryEntry.COLUMN_PRODUCT_PRICE + ", " + SQL_NOW_MILLIS + " FROM " + InventoryEntry.TABLE_NAME + ";");
+    }
+
+    private static void createCatalogIndexes(SQLiteDatabase db) {
+        for (String sql : SQL_CREATE_CATALOG_INDEXES) {
+            db.execSQL (sql);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,239 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryDatasetGenerator.Zipf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a mixed read/sale/restock/edit workload against {@link InventoryProvider} and reports
+ * throughput and latency percentiles. Operations target products following a Zipf distribution,
+ * so a few hot products take most of the traffic, as at a real till.
+ * <p>
+ * The workload is deterministic per seed and thread, so runs can be compared with each other.
+ */
+public final class InventoryLoadDriver {
+
+    /**
+     * Zipf exponent of the product popularity
+     */
+    private static final double PRODUCT_SKEW = 1.0;
+
+    private final ContentResolver mResolver;
+    private final long mSeed;
+    private final int mThreads;
+    private final int mOperationsPerThread;
+
+    /**
+     * Relative weights of the operations in the workload
+     */
+    private int mReadWeight = 70;
+    private int mSaleWeight = 20;
+    private int mRestockWeight = 5;
+    private int mEditWeight = 5;
+
+    /**
+     * Constructs a new {@link InventoryLoadDriver}.
+     *
+     * @param resolver            resolver to run the workload through
+     * @param seed                seed of the workload
+     * @param threads             number of threads issuing operations concurrently
+     * @param operationsPerThread number of operations each thread issues
+     */
+    public InventoryLoadDriver(ContentResolver resolver, long seed, int threads, int operationsPerThread) {
+        mResolver = resolver;
+        mSeed = seed;
+        mThreads = threads;
+        mOperationsPerThread = operationsPerThread;
+    }
+
+    /**
+     * Set the relative weights of the operations in the workload.
+     */
+    public void setMix(int read, int sale, int restock, int edit) {
+        if (read < 0 || sale < 0 || restock < 0 || edit < 0 || read + sale + restock + edit == 0) {
+            throw new IllegalArgumentException ("Invalid workload mix");
+        }
+        mReadWeight = read;
+        mSaleWeight = sale;
+        mRestockWeight = restock;
+        mEditWeight = edit;
+    }
+
+    /**
+     * Run the workload and block until every thread has finished.
+     */
+    public Report run() throws Exception {
+        final long[] ids = loadIds ();
+        if (ids.length == 0) {
+            throw new IllegalStateException ("The inventory table is empty");
+        }
+        final Zipf popularity = new Zipf (ids.length, PRODUCT_SKEW);
+
+        ExecutorService executor = Executors.newFixedThreadPool (mThreads);
+        List<Future<long[]>> results = new ArrayList<> ();
+        long start = SystemClock.elapsedRealtime ();
+        try {
+            for (int thread = 0; thread < mThreads; thread++) {
+                final long threadSeed = mSeed * 31 + thread;
+                results.add (executor.submit (new Callable<long[]> () {
+                    @Override
+                    public long[] call() {
+                        return runThread (new Random (threadSeed), ids, popularity);
+                    }
+                }));
+            }
+
+            long[] latencies = new long[mThreads * mOperationsPerThread];
+            int offset = 0;
+            for (Future<long[]> result : results) {
+                long[] threadLatencies = result.get ();
+                System.arraycopy (threadLatencies, 0, latencies, offset, threadLatencies.length);
+                offset += threadLatencies.length;
+            }
+            return new Report (latencies, SystemClock.elapsedRealtime () - start);
+        } finally {
+            executor.shutdown ();
+            executor.awaitTermination (1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Issue this thread's share of the workload, returning the latency of each operation in microseconds.
+     */
+    private long[] runThread(Random random, long[] ids, Zipf popularity) {
+        int totalWeight = mReadWeight + mSaleWeight + mRestockWeight + mEditWeight;
+        long[] latencies = new long[mOperationsPerThread];
+        for (int i = 0; i < mOperationsPerThread; i++) {
+            Uri uri = ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, ids[popularity.sample (random)]);
+            int pick = random.nextInt (totalWeight);
+
+            long start = System.nanoTime ();
+            if (pick < mReadWeight) {
+                read (uri);
+            } else if (pick < mReadWeight + mSaleWeight) {
+                adjustQuantity (uri, -1);
+            } else if (pick < mReadWeight + mSaleWeight + mRestockWeight) {
+                adjustQuantity (uri, 10 + random.nextInt (40));
+            } else {
+                ContentValues values = new ContentValues ();
+                values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 1 + random.nextInt (200));
+                mResolver.update (uri, values, null, null);
+            }
+            latencies[i] = (System.nanoTime () - start) / 1000;
+        }
+        return latencies;
+    }
+
+    private void read(Uri uri) {
+        Cursor cursor = mResolver.query (uri, null, null, null, null);
+        if (cursor != null) {
+            cursor.moveToFirst ();
+            cursor.close ();
+        }
+    }
+
+    /**
+     * Change the quantity of a product by the given amount, never going below 0.
+     */
+    private void adjustQuantity(Uri uri, int delta) {
+        Cursor cursor = mResolver.query (uri, new String[]{InventoryEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst ()) {
+                return;
+            }
+            int quantity = cursor.getInt (0) + delta;
+            if (quantity < 0) {
+                return;
+            }
+            ContentValues values = new ContentValues ();
+            values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+            mResolver.update (uri, values, null, null);
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private long[] loadIds() {
+        Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, new String[]{InventoryEntry._ID}, null, null, null);
+        if (cursor == null) {
+            return new long[0];
+        }
+        try {
+            long[] ids = new long[cursor.getCount ()];
+            int i = 0;
+            while (cursor.moveToNext ()) {
+                ids[i++] = cursor.getLong (0);
+            }
+            return ids;
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    /**
+     * Result of a load test run.
+     */
+    public static final class Report {
+
+        /**
+         * Number of operations issued
+         */
+        public final int operations;
+
+        /**
+         * Operations per second over the whole run
+         */
+        public final double throughput;
+
+        /**
+         * Latency percentiles in microseconds
+         */
+        public final long p50;
+        public final long p95;
+        public final long p99;
+        public final long max;
+
+        Report(long[] latencies, long elapsedMillis) {
+            Arrays.sort (latencies);
+            operations = latencies.length;
+            throughput = elapsedMillis == 0 ? operations * 1000.0 : operations * 1000.0 / elapsedMillis;
+            p50 = percentile (latencies, 50);
+            p95 = percentile (latencies, 95);
+            p99 = percentile (latencies, 99);
+            max = latencies.length == 0 ? 0 : latencies[latencies.length - 1];
+        }
+
+        private static long percentile(long[] sorted, int percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil (percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max (0, index)];
+        }
+
+        @Override
+        public String toString() {
+            return String.format (Locale.US, "%d ops, %.1f ops/s, p50 %d us, p95 %d us, p99 %d us, max %d us", operations, throughput, p50, p95, p99, max);
+        }
+    }
+}
@@ -1,15 +1,54 @@
 package com.example.android.inventoryappstageone.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.support.v4.util.LongSparseArray;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.inventoryappstageone.R;
+import com.example.android.inventoryappstageone.StartupTrace;
+import com.example.android.inventoryappstageone.data.InventoryContract.ChangeEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.CommandEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.DemandEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.DiagnosticsEntry;
 import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.LocationEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.PriceHistoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.StockEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * {@link ContentProvider} for Inventory app.
@@ -31,6 +70,112 @@ public class InventoryProvider extends ContentProvider {
      */
     private static final int INVENTORY_ID = 101;
 
+    /**
+     * URI matcher code for the content URI for a single inventory looked up by its SKU
+     */
+    private static final int INVENTORY_SKU = 102;
+
+    /**
+     * URI matcher codes for the content URIs for the image and the thumbnail of a single inventory
+     */
+    private static final int INVENTORY_IMAGE = 103;
+    private static final int INVENTORY_THUMBNAIL = 104;
+
+    /**
+     * URI matcher codes for the content URIs for the per-location stock of a single inventory,
+     * and for its stock at one location
+     */
+    private static final int INVENTORY_STOCK = 105;
+    private static final int INVENTORY_LOCATION_STOCK = 106;
+
+    /**
+     * URI matcher code for the content URI for the price history of a single inventory
+     */
+    private static final int INVENTORY_PRICES = 107;
+
+    /**
+     * URI matcher code for the content URI for the inventories whose name starts with a prefix
+     */
+    private static final int INVENTORY_SEARCH = 108;
+
+    /**
+     * URI matcher code for the content URI for the change feed
+     */
+    private static final int CHANGES = 200;
+
+    /**
+     * URI matcher code for the content URI for the storage diagnostics
+     */
+    private static final int DIAGNOSTICS = 300;
+
+    /**
+     * URI matcher codes for the content URIs for the locations, a single location, and the
+     * stock held at a single location
+     */
+    private static final int LOCATIONS = 400;
+    private static final int LOCATION_ID = 401;
+    private static final int LOCATION_STOCK = 402;
+
+    /**
+     * URI matcher code for the content URI for the sales velocities
+     */
+    private static final int DEMAND = 500;
+
+    /**
+     * Tables of the stock queries: the stock of an inventory comes with the location names,
+     * the stock at a location with the product names
+     */
+    private static final String INVENTORY_STOCK_TABLES = StockEntry.TABLE_NAME + " JOIN " + LocationEntry.TABLE_NAME + " ON " + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID + "=" + LocationEntry.TABLE_NAME + "." + LocationEntry._ID;
+    private static final String LOCATION_STOCK_TABLES = StockEntry.TABLE_NAME + " JOIN " + InventoryEntry.TABLE_NAME + " ON " + StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_INVENTORY_ID + "=" + InventoryEntry.TABLE_NAME + "." + InventoryEntry._ID;
+
+    /**
+     * Columns of the stock at a location. Both tables have a quantity, so the names are mapped:
+     * _id is the inventory id, quantity the stock at the location.
+     */
+    private static final Map<String, String> sLocationStockProjection = new HashMap<> ();
+
+    static {
+        String stock = StockEntry.TABLE_NAME + ".";
+        String inventory = InventoryEntry.TABLE_NAME + ".";
+        sLocationStockProjection.put (InventoryEntry._ID, inventory + InventoryEntry._ID + " AS " + InventoryEntry._ID);
+        sLocationStockProjection.put (InventoryEntry.COLUMN_PRODUCT_NAME, inventory + InventoryEntry.COLUMN_PRODUCT_NAME);
+        sLocationStockProjection.put (InventoryEntry.COLUMN_PRODUCT_SKU, inventory + InventoryEntry.COLUMN_PRODUCT_SKU);
+        sLocationStockProjection.put (StockEntry.COLUMN_INVENTORY_ID, stock + StockEntry.COLUMN_INVENTORY_ID);
+        sLocationStockProjection.put (StockEntry.COLUMN_LOCATION_ID, stock + StockEntry.COLUMN_LOCATION_ID);
+        sLocationStockProjection.put (StockEntry.COLUMN_QUANTITY, stock + StockEntry.COLUMN_QUANTITY + " AS " + StockEntry.COLUMN_QUANTITY);
+    }
+
+    /**
+     * Pages an incremental vacuum step frees at most. At the default 4 KiB page size, a step
+     * moves at most 1 MiB, which keeps it short enough to run between user interactions.
+     */
+    private static final int VACUUM_PAGES_PER_STEP = 256;
+
+    /**
+     * Rows to change before the query planner statistics are refreshed
+     */
+    private static final int ANALYZE_THRESHOLD = 500;
+
+    /**
+     * Tables analyzed by the maintenance steps, one per step
+     */
+    private static final String[] ANALYZE_TABLES = {InventoryEntry.TABLE_NAME, ChangeEntry.TABLE_NAME};
+
+    /**
+     * Read changes a maintenance step prunes from the change feed at most
+     */
+    private static final int PRUNE_CHANGES_PER_STEP = 1000;
+
+    /**
+     * Plaintext supplier phone numbers a maintenance step encrypts at most, once a key is set
+     */
+    private static final int ENCRYPT_ROWS_PER_STEP = 200;
+
+    /**
+     * Selection of the inventories whose supplier phone number isn't encrypted yet
+     */
+    private static final String PLAINTEXT_CONTACTS_SELECTION = InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + " IS NOT NULL AND substr(" + InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + ", 1, " + FieldCipher.PREFIX.length () + ")!='" + FieldCipher.PREFIX + "'";
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -50,40 +195,304 @@ public class InventoryProvider extends ContentProvider {
         // integer code {@link #INVENTORY_ID). This URI is used to provide access to ONE single row
         // of the inventories table.
         sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_INVENTORIES + "/#", INVENTORY_ID);
+
+        // The content URI of the form "content://com.example.android.inventoryappstageone/inventories/sku/*" will map to the
+        // integer code {@link #INVENTORY_SKU). This URI resolves a scanned barcode straight to its
+        // row through the unique SKU index.
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_INVENTORIES + "/" + InventoryContract.PATH_SKU + "/*", INVENTORY_SKU);
+
+        // The content URI of the form "content://com.example.android.inventoryappstageone/inventories/search/*" will map to the
+        // integer code {@link #INVENTORY_SEARCH). This URI serves search as you type with a range
+        // scan of the name index.
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_INVENTORIES + "/" + InventoryContract.PATH_SEARCH + "/*", INVENTORY_SEARCH);
+
+        // The content URIs of the form "content://com.example.android.inventoryappstageone/inventories/#/image"
+        // and ".../inventories/#/thumbnail" will map to the integer codes {@link #INVENTORY_IMAGE)
+        // and {@link #INVENTORY_THUMBNAIL). They are only opened as files, see {@link #openFile}.
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_INVENTORIES + "/#/" + InventoryContract.PATH_IMAGE, INVENTORY_IMAGE);
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_INVENTORIES + "/#/" + InventoryContract.PATH_THUMBNAIL, INVENTORY_THUMBNAIL);
+
+        // The content URI of the form "content://com.example.android.inventoryappstageone/changes" will map to the
+        // integer code {@link #CHANGES). This URI is used to read and prune the change feed.
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_CHANGES, CHANGES);
+
+        // The content URI of the form "content://com.example.android.inventoryappstageone/diagnostics" will map to the
+        // integer code {@link #DIAGNOSTICS). This URI reports how the database uses its pages.
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_DIAGNOSTICS, DIAGNOSTICS);
+
+        // The content URIs of the form "content://com.example.android.inventoryappstageone/inventories/#/stock"
+        // and ".../inventories/#/stock/#" will map to the integer codes {@link #INVENTORY_STOCK)
+        // and {@link #INVENTORY_LOCATION_STOCK). They access the per-location stock of an inventory.
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_INVENTORIES + "/#/" + InventoryContract.PATH_STOCK, INVENTORY_STOCK);
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_INVENTORIES + "/#/" + InventoryContract.PATH_STOCK + "/#", INVENTORY_LOCATION_STOCK);
+
+        // The content URI of the form "content://com.example.android.inventoryappstageone/inventories/#/prices"
+        // will map to the integer code {@link #INVENTORY_PRICES). It reads the price history of an inventory.
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_INVENTORIES + "/#/" + InventoryContract.PATH_PRICES, INVENTORY_PRICES);
+
+        // The content URIs of the form "content://com.example.android.inventoryappstageone/locations",
+        // ".../locations/#" and ".../locations/#/stock" will map to the integer codes
+        // {@link #LOCATIONS), {@link #LOCATION_ID) and {@link #LOCATION_STOCK).
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_LOCATIONS, LOCATIONS);
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_LOCATIONS + "/#", LOCATION_ID);
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_LOCATIONS + "/#/" + InventoryContract.PATH_STOCK, LOCATION_STOCK);
+
+        // The content URI of the form "content://com.example.android.inventoryappstageone/demand" will map to the
+        // integer code {@link #DEMAND). It reads the sales velocities.
+        sUriMatcher.addURI (InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_DEMAND, DEMAND);
     }
 
     //**Database helper object */
     private InventoryDbHelper mDbHelper;
 
     /**
-     * Initialize the provider and the database helper object.
+     * Cache of recent list query results, invalidated on every write
+     */
+    private final QueryCache mQueryCache = new QueryCache ();
+
+    /**
+     * Files of the product images and their thumbnails
+     */
+    private ImageStore mImageStore;
+
+    /**
+     * Rows inserted or deleted in bulk since the statistics were last refreshed, and the next
+     * table to analyze
+     */
+    private final AtomicInteger mRowsChangedSinceAnalyze = new AtomicInteger ();
+    private int mAnalyzeStep;
+
+    /**
+     * Cipher of the supplier phone numbers, null if they're stored in plaintext. It's set up on
+     * first use, see {@link #fieldCipher()}.
+     */
+    private FieldCipher mFieldCipher;
+    private volatile boolean mFieldCipherReady;
+    private final Object mFieldCipherLock = new Object ();
+
+    /**
+     * The rules inventory values are checked against, and the number of rows they rejected
+     */
+    private final InventoryValidator mValidator = InventoryValidator.forInventory ();
+    private final AtomicInteger mRejectedRows = new AtomicInteger ();
+
+    /**
+     * The undo log of the inventory changes, see {@link InventoryContract#METHOD_UNDO}
+     */
+    private CommandLog mCommandLog;
+    private volatile boolean mCommandLogging = true;
+
+    /**
+     * URIs changed by the batch the current thread is applying, notified once it commits. Null
+     * outside of a batch.
+     */
+    private final ThreadLocal<Set<Uri>> mBatchChanges = new ThreadLocal<> ();
+
+    /**
+     * Quantity deltas accepted in write-behind mode but not yet written, see
+     * {@link InventoryContract#METHOD_ADJUST_QUANTITY}
+     */
+    private final DeltaBuffer mPendingDeltas = new DeltaBuffer ();
+
+    /**
+     * Write-behind settings: the longest a delta stays buffered, and the number of buffered
+     * adjustments that triggers a flush right away
+     */
+    private long mFlushIntervalMillis;
+    private int mFlushSize;
+
+    /**
+     * Thread the buffered deltas are flushed on, whether a flush is queued on it (after the
+     * interval, and right away), the number of flushes so far, and the units buffered deltas
+     * couldn't take, see flushPending. Flushes hold mFlushLock.
+     */
+    private ScheduledExecutorService mFlushExecutor;
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean ();
+    private final AtomicBoolean mFlushQueued = new AtomicBoolean ();
+    private final AtomicInteger mFlushCount = new AtomicInteger ();
+    private final AtomicInteger mShortfall = new AtomicInteger ();
+    private final Object mFlushLock = new Object ();
+
+    private final Runnable mScheduledFlush = new Runnable () {
+        @Override
+        public void run() {
+            mFlushScheduled.set (false);
+            flushPendingSafely ();
+        }
+    };
+
+    private final Runnable mQueuedFlush = new Runnable () {
+        @Override
+        public void run() {
+            mFlushQueued.set (false);
+            flushPendingSafely ();
+        }
+    };
+
+    /**
+     * Initialize the provider and the database helper object. This runs on the main thread at
+     * process start, so the database itself is opened by a background warm-up instead.
      */
     @Override
     public boolean onCreate() {
+        StartupTrace.mark (StartupTrace.PROVIDER_CREATED);
         mDbHelper = new InventoryDbHelper (getContext ());
+        mImageStore = new ImageStore (getContext ());
+        mFlushIntervalMillis = getContext ().getResources ().getInteger (R.integer.write_behind_flush_interval_millis);
+        mFlushSize = getContext ().getResources ().getInteger (R.integer.write_behind_flush_size);
+        mFlushExecutor = Executors.newSingleThreadScheduledExecutor ();
+        mCommandLog = new CommandLog (getContext ().getResources ().getInteger (R.integer.command_log_size), mImageStore);
+
+        Thread warmUp = new Thread (new Runnable () {
+            @Override
+            public void run() {
+                Process.setThreadPriority (Process.THREAD_PRIORITY_BACKGROUND);
+                warmUp ();
+            }
+        }, "InventoryWarmUp");
+        warmUp.start ();
         return true;
     }
 
+    /**
+     * Open the database, running the schema check and any upgrade, then run the default catalog
+     * query. That pulls the table pages into the page cache, compiles the statement, and leaves
+     * the result in the query cache for the catalog's first load. Queries arriving meanwhile
+     * simply wait for the open to finish.
+     */
+    private void warmUp() {
+        try {
+            mDbHelper.getWritableDatabase ();
+            StartupTrace.mark (StartupTrace.DATABASE_OPEN);
+
+            Cursor cursor = queryCatalog (InventoryEntry.buildCatalogUri (null, false, -1, -1, null), InventoryEntry.CATALOG_PROJECTION, null, null, null);
+            cursor.close ();
+            StartupTrace.mark (StartupTrace.CATALOG_WARM);
+        } catch (RuntimeException e) {
+            // Only a head start: the first real query opens the database and reports the error
+            Log.w (LOG_TAG, "Warm-up failed", e);
+        }
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return query (uri, projection, selection, selectionArgs, sortOrder, null);
+    }
 
-        // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase ();
+    /**
+     * Perform the query for the given URI, unless it's canceled first. A loader cancels its query
+     * when it's restarted, as search does on every keystroke.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        Cursor cursor = queryWithPendingDeltas (sUriMatcher.match (uri), uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+
+        // The supplier phone numbers are stored encrypted once a key is set
+        FieldCipher cipher = fieldCipher ();
+        if (cipher != null && cursor != null && cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER) != -1) {
+            return new DecryptingCursor (cursor, cipher, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
+        }
+        return cursor;
+    }
+
+    /**
+     * Query with the buffered write-behind deltas showing in the result.
+     */
+    private Cursor queryWithPendingDeltas(int match, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        if (mPendingDeltas.isEmpty () || !dependsOnQuantity (match)) {
+            return query (match, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        }
+
+        // Buffered quantity deltas must show in the result. If the query can't simply add them
+        // to the quantity of each row, because it filters, sorts or aggregates on the quantity,
+        // write them first.
+        if (!canShowPendingDeltas (match, uri, projection, selection, sortOrder)) {
+            flushPending ();
+            return query (match, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        }
+        while (true) {
+            long generation = mPendingDeltas.awaitGeneration ();
+            Cursor cursor = query (match, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+            // Run the query now, before the deltas are read
+            cursor.getCount ();
+            LongSparseArray<Integer> deltas = mPendingDeltas.pendingSince (generation);
+            if (deltas == null) {
+                // A flush wrote some of the deltas meanwhile
+                cursor.close ();
+                continue;
+            }
+            if (deltas.size () == 0 || cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_QUANTITY) == -1) {
+                return cursor;
+            }
+            return new PendingQuantityCursor (cursor, deltas);
+        }
+    }
+
+    /**
+     * Return true if the result for the given URI matcher code depends on the inventory quantities.
+     */
+    private static boolean dependsOnQuantity(int match) {
+        switch (match) {
+            case INVENTORIES:
+            case INVENTORY_ID:
+            case INVENTORY_SKU:
+            case INVENTORY_SEARCH:
+            case INVENTORY_STOCK:
+            case INVENTORY_LOCATION_STOCK:
+            case LOCATION_STOCK:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Return true if buffered quantity deltas can be added to the rows of the query result, which
+     * needs the rows to hold the _id, and the quantity to be read as is.
+     */
+    private static boolean canShowPendingDeltas(int match, Uri uri, String[] projection, String selection, String sortOrder) {
+        if (match != INVENTORIES && match != INVENTORY_ID && match != INVENTORY_SKU && match != INVENTORY_SEARCH) {
+            return false;
+        }
+        if (Boolean.parseBoolean (uri.getQueryParameter (InventoryEntry.QUERY_PARAMETER_IN_STOCK)) || InventoryEntry.SORT_QUANTITY.equals (uri.getQueryParameter (InventoryEntry.QUERY_PARAMETER_SORT))) {
+            return false;
+        }
+        if (mentionsQuantity (selection) || mentionsQuantity (sortOrder)) {
+            return false;
+        }
+        if (projection == null) {
+            return true;
+        }
+        boolean hasId = false;
+        for (String column : projection) {
+            if (InventoryEntry._ID.equals (column)) {
+                hasId = true;
+            } else if (!InventoryEntry.COLUMN_PRODUCT_QUANTITY.equals (column) && mentionsQuantity (column)) {
+                return false;
+            }
+        }
+        return hasId;
+    }
+
+    private static boolean mentionsQuantity(String sql) {
+        return sql != null && sql.contains (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
+    }
+
+    /**
+     * Query the database for the given URI matcher code.
+     */
+    private Cursor query(int match, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
         // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match (uri);
         switch (match) {
             case INVENTORIES:
-                // For the INVENTORIES code, query the inventories table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the inventories table.
-                cursor = database.query (InventoryEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                cursor = queryCatalog (uri, projection, selection, selectionArgs, sortOrder);
                 break;
             case INVENTORY_ID:
                 // For the INVENTORY_ID code, extract out the ID from the URI.
@@ -99,7 +508,68 @@ public class InventoryProvider extends ContentProvider {
 
                 // This will perform a query on the inventories table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query (InventoryEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                cursor = mDbHelper.getReadableDatabase ().query (InventoryEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case INVENTORY_SKU:
+                // For the INVENTORY_SKU code, the selection will be "sku=?" with the last path
+                // segment of the URI as argument, which is a single lookup in the SKU index.
+                selection = InventoryEntry.COLUMN_PRODUCT_SKU + "=?";
+                selectionArgs = new String[]{uri.getLastPathSegment ()};
+                cursor = mDbHelper.getReadableDatabase ().query (InventoryEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case INVENTORY_SEARCH:
+                cursor = querySearch (uri, projection, cancellationSignal);
+                break;
+            case CHANGES:
+                // For the CHANGES code, return the changes recorded after the "since" sequence
+                // number (all of them if it's missing), oldest first.
+                String since = uri.getQueryParameter (ChangeEntry.QUERY_PARAMETER_SINCE);
+                selection = ChangeEntry._ID + ">?";
+                selectionArgs = new String[]{since == null ? "0" : since};
+                cursor = mDbHelper.getReadableDatabase ().query (ChangeEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, ChangeEntry._ID + " ASC");
+                break;
+            case DIAGNOSTICS:
+                MatrixCursor diagnostics = diagnostics (mDbHelper.getReadableDatabase ());
+                diagnostics.addRow (new Object[]{DiagnosticsEntry.KIND_DATABASE, "write_behind_pending", mPendingDeltas.pendingCount ()});
+                diagnostics.addRow (new Object[]{DiagnosticsEntry.KIND_DATABASE, "write_behind_flushes", mFlushCount.get ()});
+                diagnostics.addRow (new Object[]{DiagnosticsEntry.KIND_DATABASE, "write_behind_shortfall", mShortfall.get ()});
+                diagnostics.addRow (new Object[]{DiagnosticsEntry.KIND_DATABASE, "validation_rejected", mRejectedRows.get ()});
+                cursor = diagnostics;
+                break;
+            case INVENTORY_STOCK:
+            case INVENTORY_LOCATION_STOCK:
+                // For the stock codes, read the stock rows of the inventory in the URI (at the
+                // location in the URI, if any) with the name of each location.
+                SQLiteQueryBuilder inventoryStock = new SQLiteQueryBuilder ();
+                inventoryStock.setTables (INVENTORY_STOCK_TABLES);
+                inventoryStock.appendWhere (StockEntry.COLUMN_INVENTORY_ID + "=" + Long.parseLong (uri.getPathSegments ().get (1)));
+                if (match == INVENTORY_LOCATION_STOCK) {
+                    inventoryStock.appendWhere (" AND " + StockEntry.COLUMN_LOCATION_ID + "=" + ContentUris.parseId (uri));
+                }
+                cursor = inventoryStock.query (mDbHelper.getReadableDatabase (), projection, selection, selectionArgs, null, null, sortOrder == null ? StockEntry.COLUMN_LOCATION_ID + " ASC" : sortOrder);
+                break;
+            case INVENTORY_PRICES:
+                cursor = queryPriceHistory (uri);
+                break;
+            case DEMAND:
+                cursor = mDbHelper.getReadableDatabase ().query (DemandEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case LOCATIONS:
+                cursor = mDbHelper.getReadableDatabase ().query (LocationEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case LOCATION_ID:
+                selection = LocationEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf (ContentUris.parseId (uri))};
+                cursor = mDbHelper.getReadableDatabase ().query (LocationEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case LOCATION_STOCK:
+                // For the LOCATION_STOCK code, read the stock held at the location in the URI
+                // with the name of each product. The stock location index serves the lookup.
+                SQLiteQueryBuilder locationStock = new SQLiteQueryBuilder ();
+                locationStock.setTables (LOCATION_STOCK_TABLES);
+                locationStock.setProjectionMap (sLocationStockProjection);
+                locationStock.appendWhere (StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID + "=" + Long.parseLong (uri.getPathSegments ().get (1)));
+                cursor = locationStock.query (mDbHelper.getReadableDatabase (), projection, selection, selectionArgs, null, null, sortOrder);
                 break;
             default:
                 throw new IllegalArgumentException ("Cannot query unknown URI " + uri);
@@ -115,192 +585,714 @@ public class InventoryProvider extends ContentProvider {
     }
 
     /**
-     * Insert new data into the provider with the given ContentValues.
+     * Query the catalog list, through the query cache.
      */
-    @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match (uri);
-        switch (match) {
-            case INVENTORIES:
-                return insertInventory (uri, contentValues);
-            default:
-                throw new IllegalArgumentException ("Insertion is not supported for " + uri);
+    private Cursor queryCatalog(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        // Turn the catalog query parameters of the URI (sort mode and filters) into
+        // a selection and sort order. Only the parameter names map to SQL; their values
+        // are always bound as selection arguments.
+        List<String> catalogArgs = new ArrayList<> ();
+        if (selectionArgs != null) {
+            catalogArgs.addAll (Arrays.asList (selectionArgs));
         }
-    }
-
-    /**
-     * Insert a inventory into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
-     */
-    private Uri insertInventory(Uri uri, ContentValues values) {
-
-        // Check that the name is not null
-        String name = values.getAsString (InventoryEntry.COLUMN_PRODUCT_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException ("Inventory requires a name");
+        selection = catalogSelection (uri, selection, catalogArgs);
+        selectionArgs = catalogArgs.toArray (new String[catalogArgs.size ()]);
+        if (sortOrder == null) {
+            sortOrder = catalogSortOrder (uri);
         }
 
-        // If the price is provided, check that it's greater than or equal to 0
-        Integer price = values.getAsInteger (InventoryEntry.COLUMN_PRODUCT_PRICE);
-        if (price != null && price < 0) {
-            throw new IllegalArgumentException ("Inventory requires valid price");
+        // Serve the result from the cache if the same query
+        // was already run and the table hasn't been written since.
+        String cacheKey = QueryCache.keyFor (uri, projection, selection, selectionArgs, sortOrder);
+        long generation = mQueryCache.generation ();
+        Cursor cursor = mQueryCache.get (cacheKey);
+        if (cursor != null) {
+            return cursor;
         }
 
-        // If the price is provided, check that it's greater than or equal to 0
-        Integer quantity = values.getAsInteger (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
-        if (quantity != null && quantity < 0) {
-            throw new IllegalArgumentException ("Inventory requires valid quantity");
-        }
+        // Otherwise query the inventories table directly with the given
+        // projection, selection, selection arguments, and sort order. The cursor
+        // could contain multiple rows of the inventories table.
+        cursor = mDbHelper.getReadableDatabase ().query (InventoryEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
 
-        // Check that the name is not null
-        String supplier_name = values.getAsString (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
-        if (supplier_name == null) {
-            throw new IllegalArgumentException ("Inventory requires a supplier name");
+        // Keep a snapshot of results that fit the cache so the next identical query is free.
+        CursorSnapshot snapshot = CursorSnapshot.of (cursor, Integer.MAX_VALUE, QueryCache.MAX_BYTES);
+        if (snapshot != null) {
+            mQueryCache.put (cacheKey, generation, snapshot);
+            cursor.close ();
+            cursor = snapshot.newCursor ();
         }
+        return cursor;
+    }
 
-        // Check that the name is not null
-        String supplier_phone_number = values.getAsString (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
-        if (supplier_phone_number == null) {
-            throw new IllegalArgumentException ("Inventory requires a supplier phone number");
+    /**
+     * Find the inventories whose name starts with the last path segment of the URI, in any case,
+     * sorted by name. The prefix becomes a range on the NOCASE name index, and the limit stops
+     * the scan, so a search reads about as many index entries as it returns rows however large
+     * the table is.
+     */
+    private Cursor querySearch(Uri uri, String[] projection, CancellationSignal cancellationSignal) {
+        String prefix = uri.getLastPathSegment ();
+        int limit = InventoryEntry.SEARCH_DEFAULT_LIMIT;
+        String limitParameter = uri.getQueryParameter (InventoryEntry.QUERY_PARAMETER_LIMIT);
+        if (limitParameter != null) {
+            try {
+                limit = Integer.parseInt (limitParameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException ("Invalid search limit " + limitParameter);
+            }
+            if (limit <= 0 || limit > InventoryEntry.SEARCH_MAX_LIMIT) {
+                throw new IllegalArgumentException ("Search limit must be from 1 to " + InventoryEntry.SEARCH_MAX_LIMIT);
+            }
         }
 
-        // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
-
-        // Insert the new inventory with the given values
-        long id = database.insert (InventoryContract.InventoryEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e (LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        String selection = InventoryEntry.COLUMN_PRODUCT_NAME + ">=? COLLATE NOCASE";
+        String[] selectionArgs;
+        String upperBound = prefixUpperBound (prefix);
+        if (upperBound == null) {
+            selectionArgs = new String[]{prefix};
+        } else {
+            selection += " AND " + InventoryEntry.COLUMN_PRODUCT_NAME + "<? COLLATE NOCASE";
+            selectionArgs = new String[]{prefix, upperBound};
         }
-
-        //Notify all listeners that the data has changed for the inventory content URI
-        getContext ().getContentResolver ().notifyChange (uri, null);
-
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId (uri, id);
+        return mDbHelper.getReadableDatabase ().query (false, InventoryEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, InventoryEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE ASC", String.valueOf (limit), cancellationSignal);
     }
 
     /**
-     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     * Return the least string, in NOCASE order, that's above every string starting with the given
+     * prefix, or null if there's none. NOCASE only folds ASCII letters, to lower case, so neither
+     * does this.
      */
-    @Override
-    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
-        final int match = sUriMatcher.match (uri);
-        switch (match) {
-            case INVENTORIES:
-                return updateInventory (uri, contentValues, selection, selectionArgs);
-            case INVENTORY_ID:
-                // For the PET_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = InventoryEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf (ContentUris.parseId (uri))};
-                return updateInventory (uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException ("Update is not supported for " + uri);
+    private static String prefixUpperBound(String prefix) {
+        char[] bound = prefix.toCharArray ();
+        for (int i = 0; i < bound.length; i++) {
+            if (bound[i] >= 'A' && bound[i] <= 'Z') {
+                bound[i] += 'a' - 'A';
+            }
+        }
+        for (int i = bound.length - 1; i >= 0; i--) {
+            if (bound[i] != Character.MAX_VALUE) {
+                bound[i]++;
+                // Upper case letters sort as lower case, so the next character after @ is [
+                if (bound[i] == 'A') {
+                    bound[i] = 'Z' + 1;
+                }
+                return new String (bound, 0, i + 1);
+            }
         }
+        return null;
     }
 
     /**
-     * Update inventories in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more inventories).
-     * Return the number of rows that were successfully updated.
+     * Read the price history of the inventory in the URI, over the range and at the resolution of
+     * its query parameters. Days and weeks come straight from the rollups, so the cost of the
+     * query depends on the number of points returned, not on the length of the history.
      */
-    private int updateInventory(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private Cursor queryPriceHistory(Uri uri) {
+        String inventoryId = uri.getPathSegments ().get (1);
+        long from = parseMillis (uri, PriceHistoryEntry.QUERY_PARAMETER_FROM, 0);
+        long to = parseMillis (uri, PriceHistoryEntry.QUERY_PARAMETER_TO, System.currentTimeMillis ());
+        String resolution = uri.getQueryParameter (PriceHistoryEntry.QUERY_PARAMETER_RESOLUTION);
+        if (resolution == null) {
+            // Keep a chart of the range to a few hundred points at most
+            long span = to - from;
+            resolution = span <= 31 * PriceHistoryEntry.DAY_MILLIS ? PriceHistoryEntry.RESOLUTION_RAW : span <= 366 * PriceHistoryEntry.DAY_MILLIS ? PriceHistoryEntry.RESOLUTION_DAY : PriceHistoryEntry.RESOLUTION_WEEK;
+        }
 
-        // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey (InventoryEntry.COLUMN_PRODUCT_NAME)) {
-            String name = values.getAsString (InventoryEntry.COLUMN_PRODUCT_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException ("Inventory requires a name");
-            }
+        SQLiteDatabase database = mDbHelper.getReadableDatabase ();
+        switch (resolution) {
+            case PriceHistoryEntry.RESOLUTION_RAW:
+                String price = PriceHistoryEntry.COLUMN_PRICE;
+                return database.query (PriceHistoryEntry.TABLE_NAME, new String[]{PriceHistoryEntry.COLUMN_CHANGED_AT + " AS " + PriceHistoryEntry.COLUMN_BUCKET_START, price + " AS " + PriceHistoryEntry.COLUMN_MIN_PRICE, price + " AS " + PriceHistoryEntry.COLUMN_MAX_PRICE, price + " AS " + PriceHistoryEntry.COLUMN_AVG_PRICE, "1 AS " + PriceHistoryEntry.COLUMN_PRICE_COUNT},
+                        PriceHistoryEntry.COLUMN_INVENTORY_ID + "=? AND " + PriceHistoryEntry.COLUMN_CHANGED_AT + ">=? AND " + PriceHistoryEntry.COLUMN_CHANGED_AT + "<?", new String[]{inventoryId, String.valueOf (from), String.valueOf (to)}, null, null, PriceHistoryEntry.COLUMN_CHANGED_AT + " ASC");
+            case PriceHistoryEntry.RESOLUTION_DAY:
+            case PriceHistoryEntry.RESOLUTION_WEEK:
+                // Every bucket overlapping the range
+                long bucketMillis = PriceHistoryEntry.RESOLUTION_DAY.equals (resolution) ? PriceHistoryEntry.DAY_MILLIS : PriceHistoryEntry.WEEK_MILLIS;
+                return database.query (PriceHistoryEntry.ROLLUP_TABLE_NAME, new String[]{PriceHistoryEntry.COLUMN_BUCKET_START, PriceHistoryEntry.COLUMN_MIN_PRICE, PriceHistoryEntry.COLUMN_MAX_PRICE, PriceHistoryEntry.COLUMN_PRICE_SUM + "*1.0/" + PriceHistoryEntry.COLUMN_PRICE_COUNT + " AS " + PriceHistoryEntry.COLUMN_AVG_PRICE, PriceHistoryEntry.COLUMN_PRICE_COUNT},
+                        PriceHistoryEntry.COLUMN_INVENTORY_ID + "=? AND " + PriceHistoryEntry.COLUMN_BUCKET_MILLIS + "=? AND " + PriceHistoryEntry.COLUMN_BUCKET_START + ">? AND " + PriceHistoryEntry.COLUMN_BUCKET_START + "<?", new String[]{inventoryId, String.valueOf (bucketMillis), String.valueOf (from - bucketMillis), String.valueOf (to)}, null, null, PriceHistoryEntry.COLUMN_BUCKET_START + " ASC");
+            default:
+                throw new IllegalArgumentException ("Unknown price history resolution " + resolution);
         }
+    }
 
-        // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
-        // check that the weight value is valid.
-        if (values.containsKey (InventoryEntry.COLUMN_PRODUCT_PRICE)) {
-            // Check that the weight is greater than or equal to 0 kg
-            Integer price = values.getAsInteger (InventoryEntry.COLUMN_PRODUCT_PRICE);
-            if (price != null && price < 0) {
-                throw new IllegalArgumentException ("Inventory requires valid price");
-            }
+    private static long parseMillis(Uri uri, String parameter, long defaultValue) {
+        String value = uri.getQueryParameter (parameter);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong (value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException ("Invalid " + parameter + " " + value);
         }
+    }
 
-        // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
-        // check that the weight value is valid.
-        if (values.containsKey (InventoryEntry.COLUMN_PRODUCT_QUANTITY)) {
-            // Check that the weight is greater than or equal to 0 kg
-            Integer quantity = values.getAsInteger (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
-            if (quantity != null && quantity < 0) {
-                throw new IllegalArgumentException ("Inventory requires valid quantity");
-            }
+    /**
+     * Build the selection for the catalog filters of the given URI, appending the filter values
+     * to selectionArgs. Each filter is backed by one of the catalog indexes in {@link InventoryDbHelper}.
+     */
+    static String catalogSelection(Uri uri, String selection, List<String> selectionArgs) {
+        StringBuilder where = new StringBuilder ();
+        if (!TextUtils.isEmpty (selection)) {
+            where.append ("(").append (selection).append (")");
         }
 
-        // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME)) {
-            String supplier_name = values.getAsString (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
-            if (supplier_name == null) {
-                throw new IllegalArgumentException ("Inventory requires a supplier name");
-            }
+        // In stock only
+        if (Boolean.parseBoolean (uri.getQueryParameter (InventoryEntry.QUERY_PARAMETER_IN_STOCK))) {
+            appendClause (where, InventoryEntry.COLUMN_PRODUCT_QUANTITY + ">0");
         }
 
-        // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)) {
-            String supplier_phone_number = values.getAsString (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
-            if (supplier_phone_number == null) {
-                throw new IllegalArgumentException ("Inventory requires a supplier phone number");
-            }
+        // Price range
+        String minPrice = uri.getQueryParameter (InventoryEntry.QUERY_PARAMETER_MIN_PRICE);
+        if (minPrice != null) {
+            appendClause (where, InventoryEntry.COLUMN_PRODUCT_PRICE + ">=?");
+            selectionArgs.add (String.valueOf (parsePrice (minPrice)));
+        }
+        String maxPrice = uri.getQueryParameter (InventoryEntry.QUERY_PARAMETER_MAX_PRICE);
+        if (maxPrice != null) {
+            appendClause (where, InventoryEntry.COLUMN_PRODUCT_PRICE + "<=?");
+            selectionArgs.add (String.valueOf (parsePrice (maxPrice)));
         }
 
-        // If there are no values to update, then don't try to update the database
-        if (values.size () == 0) {
-            return 0;
+        // Supplier, compared the same case-insensitive way it is indexed
+        String supplier = uri.getQueryParameter (InventoryEntry.QUERY_PARAMETER_SUPPLIER);
+        if (supplier != null) {
+            appendClause (where, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME + "=? COLLATE NOCASE");
+            selectionArgs.add (supplier);
         }
 
-        // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+        return where.length () == 0 ? null : where.toString ();
+    }
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update (InventoryEntry.TABLE_NAME, values, selection, selectionArgs);
+    private static void appendClause(StringBuilder where, String clause) {
+        if (where.length () > 0) {
+            where.append (" AND ");
+        }
+        where.append (clause);
+    }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsUpdated != 0) {
-            getContext ().getContentResolver ().notifyChange (uri, null);
+    private static int parsePrice(String price) {
+        try {
+            return Integer.parseInt (price);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException ("Invalid price filter " + price);
         }
+    }
 
-        // Return the number of rows updated
-        return rowsUpdated;
+    /**
+     * Map the sort mode of the given URI to an ORDER BY clause that can be read straight from
+     * one of the catalog indexes, without a temporary sort. Returns null for the default order.
+     */
+    static String catalogSortOrder(Uri uri) {
+        String sortMode = uri.getQueryParameter (InventoryEntry.QUERY_PARAMETER_SORT);
+        if (sortMode == null) {
+            return null;
+        }
+        switch (sortMode) {
+            case InventoryEntry.SORT_NAME:
+                return InventoryEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE ASC";
+            case InventoryEntry.SORT_PRICE:
+                return InventoryEntry.COLUMN_PRODUCT_PRICE + " ASC";
+            case InventoryEntry.SORT_QUANTITY:
+                return InventoryEntry.COLUMN_PRODUCT_QUANTITY + " ASC";
+            case InventoryEntry.SORT_SUPPLIER:
+                return InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " COLLATE NOCASE ASC, " + InventoryEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE ASC";
+            default:
+                throw new IllegalArgumentException ("Unknown sort mode " + sortMode);
+        }
     }
 
     /**
-     * Delete the data at the given selection and selection arguments.
+     * Insert new data into the provider with the given ContentValues.
      */
     @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        final int match = sUriMatcher.match (uri);
+        switch (match) {
+            case INVENTORIES:
+                return insertInventory (uri, contentValues);
+            case LOCATIONS:
+                return insertLocation (uri, contentValues);
+            default:
+                throw new IllegalArgumentException ("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Insert a location. Return the new content URI for that location, or null if the
+     * insertion failed (for example because the name is taken).
+     */
+    private Uri insertLocation(Uri uri, ContentValues values) {
+        if (values.getAsString (LocationEntry.COLUMN_LOCATION_NAME) == null) {
+            throw new IllegalArgumentException ("Location requires a name");
+        }
+        long id = mDbHelper.getWritableDatabase ().insert (LocationEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e (LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        notifyChange (uri);
+        return ContentUris.withAppendedId (uri, id);
+    }
+
+    /**
+     * Insert a inventory into the database with the given content values. Return the new content URI
+     * for that specific row in the database, or null if the values are invalid.
+     */
+    private Uri insertInventory(Uri uri, ContentValues values) {
+        if (!isValid (uri, values, false)) {
+            return null;
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+        long id;
+        database.beginTransaction ();
+        try {
+            id = insertInventory (database, uri, values);
+            // Log the insert for undo, in the same transaction
+            if (id != -1 && !isSyncAdapter (uri) && mCommandLogging) {
+                mCommandLog.logInsertedRow (database, mCommandLog.begin (database, CommandEntry.KIND_INSERT, CommandLog.ALL_COLUMNS), id);
+            }
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e (LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // The table changed, so any cached query result is stale now
+        mQueryCache.invalidate ();
+
+        //Notify all listeners that the data has changed for the inventory content URI
+        notifyChange (uri);
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId (uri, id);
+    }
+
+    /**
+     * Insert a validated inventory, recording the insert in the change feed. Listeners are not
+     * notified, so callers writing many rows can notify once. Return the new row ID, or -1 if the
+     * insertion failed.
+     */
+    private long insertInventory(SQLiteDatabase database, Uri uri, ContentValues values) {
+        Integer quantity = values.getAsInteger (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
+
+        // Insert the new inventory with the given values, and record the insert in the change
+        // feed in the same transaction
+        long id;
+        database.beginTransaction ();
+        try {
+            id = database.insert (InventoryContract.InventoryEntry.TABLE_NAME, null, encryptContacts (values));
+            if (id != -1 && !isSyncAdapter (uri)) {
+                recordChange (database, id, ChangeEntry.OPERATION_INSERT, CommandLog.ALL_COLUMNS, quantity == null ? 0 : quantity);
+            }
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+        return id;
+    }
+
+    /**
+     * Return the values with the supplier phone number encrypted, if a key is set.
+     */
+    private ContentValues encryptContacts(ContentValues values) {
+        FieldCipher cipher = fieldCipher ();
+        if (cipher == null || !values.containsKey (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)) {
+            return values;
+        }
+        ContentValues encrypted = new ContentValues (values);
+        encrypted.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, cipher.encrypt (values.getAsString (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER)));
+        return encrypted;
+    }
+
+    /**
+     * Return the cipher of the supplier phone numbers, or null if they're stored in plaintext.
+     * The first call gets the key from the {@link KeyProvider} named in the key_provider_class
+     * config string.
+     */
+    private FieldCipher fieldCipher() {
+        if (!mFieldCipherReady) {
+            synchronized (mFieldCipherLock) {
+                if (!mFieldCipherReady) {
+                    String className = getContext ().getString (R.string.key_provider_class);
+                    if (!TextUtils.isEmpty (className)) {
+                        setKeyProvider (newKeyProvider (className));
+                    }
+                    mFieldCipherReady = true;
+                }
+            }
+        }
+        return mFieldCipher;
+    }
+
+    /**
+     * Encrypt the supplier phone numbers with the key of the given provider from now on, or store
+     * them in plaintext if it has no key. Numbers stored before are encrypted by the maintenance
+     * steps.
+     */
+    void setKeyProvider(KeyProvider keyProvider) {
+        byte[] key = keyProvider == null ? null : keyProvider.getKey (getContext ());
+        synchronized (mFieldCipherLock) {
+            mFieldCipher = key == null ? null : new FieldCipher (key);
+            mFieldCipherReady = true;
+        }
+    }
+
+    /**
+     * Log the inventory changes for undo, or stop logging them. Logging is on by default; the
+     * benchmark turns it off to measure what it costs.
+     */
+    void setCommandLogging(boolean enabled) {
+        mCommandLogging = enabled;
+    }
+
+    private static KeyProvider newKeyProvider(String className) {
+        try {
+            return (KeyProvider) Class.forName (className).newInstance ();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+            // Never fall back to plaintext when encryption was asked for
+            throw new IllegalStateException ("Cannot create key provider " + className, e);
+        }
+    }
+
+    /**
+     * Return true if the inventory values pass the rules of {@link InventoryValidator}. Invalid
+     * values are logged with their errors and counted, never thrown: a caller wanting the errors
+     * asks {@link InventoryContract#METHOD_VALIDATE} for them.
+     */
+    private boolean isValid(Uri uri, ContentValues values, boolean partial) {
+        List<InventoryValidator.FieldError> errors = mValidator.validate (values, partial);
+        if (errors.isEmpty ()) {
+            return true;
+        }
+        mRejectedRows.incrementAndGet ();
+        Log.e (LOG_TAG, "Invalid inventory for " + uri + ": " + errors);
+        return false;
+    }
+
+    /**
+     * Insert many inventories in a single transaction, with one notification at the end. This is
+     * the import path: an inventory whose SKU already exists updates that row instead (upsert by
+     * SKU), so an import can be re-run safely. Invalid rows are skipped. Return the number of rows
+     * inserted or updated.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match (uri);
+        if (match != INVENTORIES) {
+            throw new IllegalArgumentException ("Insertion is not supported for " + uri);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+        int rowsWritten = 0;
+        database.beginTransaction ();
+        try {
+            String[] skuArgs = new String[1];
+            for (ContentValues rowValues : values) {
+                // A row with a SKU may only update the columns it holds
+                String sku = rowValues.getAsString (InventoryEntry.COLUMN_PRODUCT_SKU);
+                if (!isValid (uri, rowValues, sku != null)) {
+                    continue;
+                }
+                if (sku != null) {
+                    skuArgs[0] = sku;
+                    int rowsUpdated = updateInventory (database, uri, rowValues, InventoryEntry.COLUMN_PRODUCT_SKU + "=?", skuArgs, false);
+                    if (rowsUpdated != 0) {
+                        rowsWritten += rowsUpdated;
+                        continue;
+                    }
+                }
+                if (insertInventory (database, uri, rowValues) != -1) {
+                    rowsWritten++;
+                } else {
+                    Log.e (LOG_TAG, "Failed to insert row for " + uri);
+                }
+            }
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+
+        if (rowsWritten != 0) {
+            mRowsChangedSinceAnalyze.addAndGet (rowsWritten);
+            mQueryCache.invalidate ();
+            notifyChange (uri);
+        }
+        return rowsWritten;
+    }
+
+    /**
+     * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     */
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        // Buffered deltas come first, so they apply to the quantity they were checked against
+        flushPending ();
+        final int match = sUriMatcher.match (uri);
+        switch (match) {
+            case INVENTORIES:
+                return updateInventory (uri, contentValues, selection, selectionArgs);
+            case INVENTORY_ID:
+                // For the PET_ID code, extract out the ID from the URI,
+                // so we know which row to update. Selection will be "_id=?" and selection
+                // arguments will be a String array containing the actual ID.
+                selection = InventoryEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf (ContentUris.parseId (uri))};
+                return updateInventory (uri, contentValues, selection, selectionArgs);
+            case INVENTORY_SKU:
+                selection = InventoryEntry.COLUMN_PRODUCT_SKU + "=?";
+                selectionArgs = new String[]{uri.getLastPathSegment ()};
+                return updateInventory (uri, contentValues, selection, selectionArgs);
+            case INVENTORY_LOCATION_STOCK:
+                return updateStock (uri, contentValues);
+            case LOCATION_ID:
+                // Rename a location
+                if (contentValues.containsKey (LocationEntry.COLUMN_LOCATION_NAME) && contentValues.getAsString (LocationEntry.COLUMN_LOCATION_NAME) == null) {
+                    throw new IllegalArgumentException ("Location requires a name");
+                }
+                int rowsUpdated = mDbHelper.getWritableDatabase ().update (LocationEntry.TABLE_NAME, contentValues, LocationEntry._ID + "=?", new String[]{String.valueOf (ContentUris.parseId (uri))});
+                if (rowsUpdated != 0) {
+                    notifyChange (LocationEntry.CONTENT_URI);
+                }
+                return rowsUpdated;
+            default:
+                throw new IllegalArgumentException ("Update is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Set the stock of an inventory at one location. The inventory's total quantity follows
+     * through the stock triggers, and the change of the total is recorded in the change feed.
+     * Return the number of stock rows updated.
+     */
+    private int updateStock(Uri uri, ContentValues values) {
+        long inventoryId = Long.parseLong (uri.getPathSegments ().get (1));
+        long locationId = ContentUris.parseId (uri);
+        Integer quantity = values.getAsInteger (StockEntry.COLUMN_QUANTITY);
+        if (quantity == null || quantity < 0) {
+            throw new IllegalArgumentException ("Stock requires valid quantity");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+        database.beginTransaction ();
+        try {
+            if (!exists (database, inventoryId) || DatabaseUtils.queryNumEntries (database, LocationEntry.TABLE_NAME, LocationEntry._ID + "=?", new String[]{String.valueOf (locationId)}) == 0) {
+                return 0;
+            }
+            long oldTotal = totalQuantity (database, inventoryId);
+
+            ContentValues stock = new ContentValues ();
+            stock.put (StockEntry.COLUMN_INVENTORY_ID, inventoryId);
+            stock.put (StockEntry.COLUMN_LOCATION_ID, locationId);
+            stock.put (StockEntry.COLUMN_QUANTITY, quantity);
+            String[] keyArgs = {String.valueOf (inventoryId), String.valueOf (locationId)};
+            if (database.update (StockEntry.TABLE_NAME, stock, StockEntry.COLUMN_INVENTORY_ID + "=? AND " + StockEntry.COLUMN_LOCATION_ID + "=?", keyArgs) == 0) {
+                database.insert (StockEntry.TABLE_NAME, null, stock);
+            }
+
+            if (!isSyncAdapter (uri)) {
+                recordChange (database, inventoryId, ChangeEntry.OPERATION_UPDATE, CommandLog.QUANTITY_COLUMN_BIT, (int) (totalQuantity (database, inventoryId) - oldTotal));
+            }
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+
+        // The total quantity of the inventory changed too
+        mQueryCache.invalidate ();
+        notifyChange (InventoryEntry.CONTENT_URI);
+        notifyChange (LocationEntry.CONTENT_URI);
+        return 1;
+    }
+
+    /**
+     * Return the total quantity of the given inventory.
+     */
+    private static long totalQuantity(SQLiteDatabase database, long inventoryId) {
+        return DatabaseUtils.longForQuery (database, "SELECT " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + " FROM " + InventoryEntry.TABLE_NAME + " WHERE " + InventoryEntry._ID + "=?", new String[]{String.valueOf (inventoryId)});
+    }
+
+    /**
+     * Update inventories in the database with the given content values. Apply the changes to the rows
+     * specified in the selection and selection arguments (which could be 0 or 1 or more inventories).
+     * Return the number of rows that were successfully updated, 0 if the values are invalid.
+     */
+    private int updateInventory(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // Other tills know the product by its uid, so only the sync adapter may change it
+        if (values.containsKey (InventoryEntry.COLUMN_PRODUCT_UID) && !isSyncAdapter (uri)) {
+            throw new IllegalArgumentException ("The uid of an inventory can't be changed");
+        }
+        if (!isValid (uri, values, true)) {
+            return 0;
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+
+        // Remember the images this update replaces, so their files can be deleted afterwards
+        List<String> replacedImages = null;
+        if (values.containsKey (InventoryEntry.COLUMN_PRODUCT_IMAGE)) {
+            replacedImages = imageNames (database, selection, selectionArgs);
+            replacedImages.remove (values.getAsString (InventoryEntry.COLUMN_PRODUCT_IMAGE));
+        }
+
+        int rowsUpdated = updateInventory (database, uri, values, selection, selectionArgs, true);
+        if (rowsUpdated != 0 && replacedImages != null) {
+            deleteImages (database, replacedImages);
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed
+        if (rowsUpdated != 0) {
+            mQueryCache.invalidate ();
+            notifyChange (uri);
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * Apply a validated update, recording it in the change feed, and if it's undoable in the undo
+     * log. Listeners are not notified, so callers writing many rows can notify once. Return the
+     * number of rows updated.
+     */
+    private int updateInventory(SQLiteDatabase database, Uri uri, ContentValues values, String selection, String[] selectionArgs, boolean undoable) {
+        int columns = CommandLog.columnsOf (values);
+
+        // The quantity delta isn't a column of the table, so take it out of the values
+        Integer quantityDelta = null;
+        if (values.containsKey (InventoryEntry.QUANTITY_DELTA)) {
+            quantityDelta = values.getAsInteger (InventoryEntry.QUANTITY_DELTA);
+            values = new ContentValues (values);
+            values.remove (InventoryEntry.QUANTITY_DELTA);
+        }
+        values = encryptContacts (values);
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size () == 0 && quantityDelta == null) {
+            return 0;
+        }
+
+        boolean syncAdapter = isSyncAdapter (uri);
+        boolean correction = Boolean.parseBoolean (uri.getQueryParameter (InventoryContract.IS_CORRECTION));
+        undoable &= !syncAdapter && mCommandLogging;
+
+        // Perform the update on the database and get the number of rows affected
+        int rowsUpdated = 0;
+        database.beginTransaction ();
+        try {
+            // Read the current quantity of every affected row first, so the quantity delta can be
+            // applied and the change feed can record by how much each quantity changed. For the
+            // undo log the same read takes the before-image of the changed columns.
+            // A quantity delta is logged as a delta, like an adjustment, so undoing the update
+            // leaves the sales made since alone
+            int loggedColumns = quantityDelta == null ? columns : columns & ~CommandLog.QUANTITY_COLUMN_BIT;
+            String[] projection = {InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_QUANTITY};
+            if (undoable) {
+                String[] logged = CommandLog.namesOf (loggedColumns);
+                projection = Arrays.copyOf (projection, 2 + logged.length);
+                System.arraycopy (logged, 0, projection, 2, logged.length);
+            }
+            Cursor cursor = database.query (InventoryEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, null);
+            try {
+                long commandId = -1;
+                if (undoable && !CommandLog.isLoggable (cursor.getCount ())) {
+                    mCommandLog.clear (database);
+                    undoable = false;
+                }
+                while (cursor.moveToNext ()) {
+                    long id = cursor.getLong (0);
+                    int oldQuantity = cursor.getInt (1);
+
+                    ContentValues rowValues = values;
+                    if (quantityDelta != null) {
+                        int newQuantity = oldQuantity + quantityDelta;
+                        // Not enough stock. A sync adapter applies deltas that already
+                        // happened on another device, so it is never refused: tills that
+                        // sold the same last units leave none.
+                        if (newQuantity < 0) {
+                            if (!syncAdapter) {
+                                continue;
+                            }
+                            newQuantity = 0;
+                        }
+                        rowValues = new ContentValues (values);
+                        rowValues.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, newQuantity);
+                    }
+
+                    if (undoable) {
+                        if (commandId == -1) {
+                            commandId = mCommandLog.begin (database, CommandEntry.KIND_UPDATE, loggedColumns);
+                        }
+                        mCommandLog.logRow (database, commandId, id, cursor, 2, quantityDelta == null ? null : rowValues.getAsInteger (InventoryEntry.COLUMN_PRODUCT_QUANTITY) - oldQuantity);
+                    }
+                    rowsUpdated += database.update (InventoryEntry.TABLE_NAME, rowValues, InventoryEntry._ID + "=?", new String[]{String.valueOf (id)});
+
+                    if (!syncAdapter) {
+                        Integer newQuantity = rowValues.getAsInteger (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
+                        recordChange (database, id, ChangeEntry.OPERATION_UPDATE, columns, newQuantity == null ? 0 : newQuantity - oldQuantity);
+                        if (quantityDelta != null && quantityDelta < 0 && !correction) {
+                            recordSale (database, id, -quantityDelta, System.currentTimeMillis ());
+                        }
+                    }
+                }
+            } finally {
+                cursor.close ();
+            }
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the data at the given selection and selection arguments.
+     */
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        flushPending ();
+
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase ();
 
         // Track the number of rows that were deleted
         int rowsDeleted;
 
+        // Images of the deleted inventories, whose files are deleted with them
+        List<String> deletedImages = null;
+
         final int match = sUriMatcher.match (uri);
         switch (match) {
             case INVENTORIES:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete (InventoryEntry.TABLE_NAME, selection, selectionArgs);
+                deletedImages = imageNames (database, selection, selectionArgs);
+                rowsDeleted = deleteInventories (database, uri, selection, selectionArgs);
                 break;
             case INVENTORY_ID:
                 // Delete a single row given by the ID in the URI
                 selection = InventoryEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf (ContentUris.parseId (uri))};
-                rowsDeleted = database.delete (InventoryEntry.TABLE_NAME, selection, selectionArgs);
+                deletedImages = imageNames (database, selection, selectionArgs);
+                rowsDeleted = deleteInventories (database, uri, selection, selectionArgs);
+                break;
+            case INVENTORY_SKU:
+                // Delete a single row given by the SKU in the URI
+                selection = InventoryEntry.COLUMN_PRODUCT_SKU + "=?";
+                selectionArgs = new String[]{uri.getLastPathSegment ()};
+                deletedImages = imageNames (database, selection, selectionArgs);
+                rowsDeleted = deleteInventories (database, uri, selection, selectionArgs);
                 break;
+            case CHANGES:
+                // Prune changes. Maintenance prunes the ones every reader acknowledged; nobody
+                // observes the feed itself, so there's nobody to notify.
+                return database.delete (ChangeEntry.TABLE_NAME, selection, selectionArgs);
+            case LOCATION_ID:
+                return deleteLocation (database, ContentUris.parseId (uri));
             default:
                 throw new IllegalArgumentException ("Deletion is not supported for " + uri);
         }
@@ -308,12 +1300,851 @@ public class InventoryProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext ().getContentResolver ().notifyChange (uri, null);
+            mRowsChangedSinceAnalyze.addAndGet (rowsDeleted);
+            deleteImages (database, deletedImages);
+            mQueryCache.invalidate ();
+            notifyChange (uri);
         }
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Delete a location that no longer holds any stock. The default location can't be deleted.
+     * Return the number of locations deleted.
+     */
+    private int deleteLocation(SQLiteDatabase database, long locationId) {
+        if (locationId == LocationEntry.DEFAULT_LOCATION_ID) {
+            throw new IllegalArgumentException ("The default location can't be deleted");
+        }
+        String[] locationArgs = {String.valueOf (locationId)};
+        int rowsDeleted;
+        database.beginTransaction ();
+        try {
+            if (DatabaseUtils.queryNumEntries (database, StockEntry.TABLE_NAME, StockEntry.COLUMN_LOCATION_ID + "=? AND " + StockEntry.COLUMN_QUANTITY + "<>0", locationArgs) > 0) {
+                throw new IllegalArgumentException ("Location " + locationId + " still holds stock");
+            }
+            database.delete (StockEntry.TABLE_NAME, StockEntry.COLUMN_LOCATION_ID + "=?", locationArgs);
+            rowsDeleted = database.delete (LocationEntry.TABLE_NAME, LocationEntry._ID + "=?", locationArgs);
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+        if (rowsDeleted != 0) {
+            notifyChange (LocationEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Delete the inventories matching the selection, recording each delete in the change feed and
+     * the undo log in the same transaction. Return the number of rows deleted.
+     */
+    private int deleteInventories(SQLiteDatabase database, Uri uri, String selection, String[] selectionArgs) {
+        if (isSyncAdapter (uri)) {
+            return database.delete (InventoryEntry.TABLE_NAME, selection, selectionArgs);
+        }
+
+        int rowsDeleted;
+        database.beginTransaction ();
+        try {
+            // The whole row is the before-image
+            String[] projection = new String[2 + CommandLog.COLUMNS.length];
+            projection[0] = InventoryEntry._ID;
+            projection[1] = InventoryEntry.COLUMN_PRODUCT_QUANTITY;
+            System.arraycopy (CommandLog.COLUMNS, 0, projection, 2, CommandLog.COLUMNS.length);
+            Cursor cursor = database.query (InventoryEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, null);
+            try {
+                boolean undoable = mCommandLogging && CommandLog.isLoggable (cursor.getCount ());
+                if (mCommandLogging && !undoable) {
+                    mCommandLog.clear (database);
+                }
+                long commandId = -1;
+                while (cursor.moveToNext ()) {
+                    recordChange (database, cursor.getLong (0), ChangeEntry.OPERATION_DELETE, CommandLog.ALL_COLUMNS, -cursor.getInt (1));
+                    if (undoable) {
+                        if (commandId == -1) {
+                            commandId = mCommandLog.begin (database, CommandEntry.KIND_DELETE, CommandLog.ALL_COLUMNS);
+                        }
+                        mCommandLog.logRow (database, commandId, cursor.getLong (0), cursor, 2, null);
+                    }
+                }
+            } finally {
+                cursor.close ();
+            }
+            rowsDeleted = database.delete (InventoryEntry.TABLE_NAME, selection, selectionArgs);
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Return the names of the images of the inventories matching the selection.
+     */
+    private static List<String> imageNames(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        List<String> names = new ArrayList<> ();
+        String where = InventoryEntry.COLUMN_PRODUCT_IMAGE + " IS NOT NULL";
+        if (!TextUtils.isEmpty (selection)) {
+            where = "(" + selection + ") AND " + where;
+        }
+        Cursor cursor = database.query (InventoryEntry.TABLE_NAME, new String[]{InventoryEntry.COLUMN_PRODUCT_IMAGE}, where, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext ()) {
+                names.add (cursor.getString (0));
+            }
+        } finally {
+            cursor.close ();
+        }
+        return names;
+    }
+
+    /**
+     * Delete the files of images that are no longer referenced. Inside a batch the rows may
+     * still be rolled back, so the files are kept and merely become unreachable.
+     */
+    private void deleteImages(SQLiteDatabase database, List<String> names) {
+        if (database.inTransaction ()) {
+            return;
+        }
+        for (String name : names) {
+            mImageStore.delete (name);
+        }
+    }
+
+    /**
+     * Append a change to the change feed, with the mask of the columns it set. Must be called
+     * inside the transaction that made the change, and for a delete, before the row is deleted.
+     */
+    static void recordChange(SQLiteDatabase database, long inventoryId, int operation, int columns, int quantityDelta) {
+        ContentValues change = new ContentValues ();
+        change.put (ChangeEntry.COLUMN_INVENTORY_ID, inventoryId);
+        change.put (ChangeEntry.COLUMN_OPERATION, operation);
+        change.put (ChangeEntry.COLUMN_QUANTITY_DELTA, quantityDelta);
+        change.put (ChangeEntry.COLUMN_COLUMNS, columns);
+        if (operation == ChangeEntry.OPERATION_DELETE) {
+            // Keep the uid other devices know the row by, since the row itself goes away
+            change.put (ChangeEntry.COLUMN_UID, DatabaseUtils.stringForQuery (database, "SELECT " + InventoryEntry.COLUMN_PRODUCT_UID + " FROM " + InventoryEntry.TABLE_NAME + " WHERE " + InventoryEntry._ID + "=?", new String[]{String.valueOf (inventoryId)}));
+        }
+        database.insert (ChangeEntry.TABLE_NAME, null, change);
+    }
+
+    /**
+     * Update the sales velocity of an inventory with a sale of the given units. This is the
+     * whole cost of keeping the velocities current: one primary key lookup and one write.
+     * <p>
+     * Only sales count: a checkout, a quantity adjustment or a quantity delta that isn't a
+     * correction (see {@link InventoryContract#IS_CORRECTION}). Deletes, edits of the quantity,
+     * stock counts and undo change the quantity without selling anything.
+     */
+    private static void recordSale(SQLiteDatabase database, long inventoryId, int units, long nowMillis) {
+        double velocity = 0;
+        long updatedAt = nowMillis;
+        Cursor cursor = database.query (DemandEntry.TABLE_NAME, new String[]{DemandEntry.COLUMN_VELOCITY, DemandEntry.COLUMN_UPDATED_AT}, DemandEntry.COLUMN_INVENTORY_ID + "=?", new String[]{String.valueOf (inventoryId)}, null, null, null);
+        try {
+            if (cursor.moveToFirst ()) {
+                velocity = cursor.getDouble (0);
+                updatedAt = cursor.getLong (1);
+            }
+        } finally {
+            cursor.close ();
+        }
+
+        ContentValues demand = new ContentValues ();
+        demand.put (DemandEntry.COLUMN_INVENTORY_ID, inventoryId);
+        demand.put (DemandEntry.COLUMN_VELOCITY, SalesVelocity.recordSale (velocity, updatedAt, units, nowMillis));
+        demand.put (DemandEntry.COLUMN_UPDATED_AT, Math.max (updatedAt, nowMillis));
+        database.replace (DemandEntry.TABLE_NAME, null, demand);
+    }
+
+    /**
+     * Notify the observers of the given URI, or within a batch, note it for when the batch
+     * commits.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchChanges = mBatchChanges.get ();
+        if (batchChanges != null) {
+            // The query parameters don't matter to observers
+            batchChanges.add (uri.buildUpon ().clearQuery ().build ());
+        } else {
+            getContext ().getContentResolver ().notifyChange (uri, null);
+        }
+    }
+
+    /**
+     * Notify the URIs a batch changed, each once. A URI under another changed URI is left out:
+     * notifying a URI reaches the observers of everything under it too.
+     */
+    private void notifyBatchChanges(Set<Uri> changes) {
+        for (Uri uri : changes) {
+            String path = uri.toString ();
+            boolean covered = false;
+            for (Uri other : changes) {
+                if (path.startsWith (other.toString () + "/")) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                getContext ().getContentResolver ().notifyChange (uri, null);
+            }
+        }
+    }
+
+    /**
+     * Return true if the URI was sent by a sync adapter, whose changes must not be recorded.
+     */
+    private static boolean isSyncAdapter(Uri uri) {
+        return Boolean.parseBoolean (uri.getQueryParameter (InventoryContract.CALLER_IS_SYNC_ADAPTER));
+    }
+
+    /**
+     * Apply the batch of operations in a single transaction, so it either fully succeeds or leaves
+     * the database unchanged. Observers hear of the batch once it commits, once per changed URI
+     * rather than once per operation, and not at all if it's rolled back.
+     * <p>
+     * The framework checks the read or write permission of every operation of a batch from
+     * another app before it gets here, so unlike {@link #call} this needs no check of its own.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        // The operations can't flush inside the transaction, see flushPending
+        flushPending ();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+        Set<Uri> changes = new LinkedHashSet<> ();
+        boolean committed = false;
+        mBatchChanges.set (changes);
+        database.beginTransaction ();
+        try {
+            ContentProviderResult[] results = super.applyBatch (operations);
+            database.setTransactionSuccessful ();
+            committed = true;
+            return results;
+        } finally {
+            database.endTransaction ();
+            mBatchChanges.remove ();
+            // Results read inside the transaction may have been rolled back
+            mQueryCache.invalidate ();
+            if (committed) {
+                notifyBatchChanges (changes);
+            }
+        }
+    }
+
+    /**
+     * Check that a caller from another app holds
+     * {@link InventoryContract#PERMISSION_ACCESS_INVENTORY}. The manifest guards the queries,
+     * writes and batches with it, but the framework doesn't check it for {@link #call}. The app's
+     * own processes don't need it.
+     */
+    private void enforceAccessPermission() {
+        if (Binder.getCallingUid () != Process.myUid ()) {
+            getContext ().enforceCallingPermission (InventoryContract.PERMISSION_ACCESS_INVENTORY, "Inventory access requires " + InventoryContract.PERMISSION_ACCESS_INVENTORY);
+        }
+    }
+
+    /**
+     * Handle the provider methods of {@link InventoryContract}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        enforceAccessPermission ();
+        switch (method) {
+            case InventoryContract.METHOD_BULK_GET:
+                return bulkGet (extras);
+            case InventoryContract.METHOD_CHECKOUT:
+                flushPending ();
+                return checkout (extras);
+            case InventoryContract.METHOD_ACKNOWLEDGE_CHANGES:
+                acknowledgeChanges (extras);
+                return null;
+            case InventoryContract.METHOD_ADJUST_QUANTITY:
+                return adjustQuantity (extras);
+            case InventoryContract.METHOD_FLUSH:
+                flushPending ();
+                return null;
+            case InventoryContract.METHOD_MAINTAIN:
+                return maintain ();
+            case InventoryContract.METHOD_TRANSFER:
+                flushPending ();
+                return transfer (extras);
+            case InventoryContract.METHOD_UNDO:
+                return undoOrRedo (true);
+            case InventoryContract.METHOD_REDO:
+                return undoOrRedo (false);
+            case InventoryContract.METHOD_VALIDATE:
+                ContentValues values = extras.getParcelable (InventoryContract.EXTRA_VALUES);
+                return InventoryValidator.toBundle (mValidator.validate (values, extras.getBoolean (InventoryContract.EXTRA_PARTIAL)));
+            default:
+                return super.call (method, arg, extras);
+        }
+    }
+
+    /**
+     * Read many inventories by id in one call, for other apps that would otherwise query them one
+     * at a time, a Binder round trip each. The rows come back as one array per column, not as a
+     * bundle or ContentValues per row, so the payload holds no keys per row and parcels as a few
+     * flat arrays. The quantities include the buffered write-behind deltas, like queries do.
+     */
+    private Bundle bulkGet(Bundle extras) {
+        long[] ids = extras == null ? null : extras.getLongArray (InventoryContract.EXTRA_INVENTORY_IDS);
+        if (ids == null || ids.length > InventoryContract.BULK_GET_MAX_IDS) {
+            throw new IllegalArgumentException ("Bulk get requires at most " + InventoryContract.BULK_GET_MAX_IDS + " inventory ids");
+        }
+
+        // The ids are numbers, so they can go into the SQL as they are, with no bind argument limit
+        StringBuilder selection = new StringBuilder (InventoryEntry._ID + " IN (");
+        for (int i = 0; i < ids.length; i++) {
+            selection.append (i == 0 ? "" : ",").append (ids[i]);
+        }
+        selection.append (')');
+
+        // Read the rows in id order, then lay them out in the order they were asked for
+        LongSparseArray<Integer> rowOfId = new LongSparseArray<> (ids.length);
+        String[] names = new String[ids.length];
+        String[] skus = new String[ids.length];
+        int[] prices = new int[ids.length];
+        int[] quantities = new int[ids.length];
+        String[] supplierNames = new String[ids.length];
+        String[] phoneNumbers = new String[ids.length];
+        FieldCipher cipher = fieldCipher ();
+        String[] columns = {InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_NAME, InventoryEntry.COLUMN_PRODUCT_SKU, InventoryEntry.COLUMN_PRODUCT_PRICE, InventoryEntry.COLUMN_PRODUCT_QUANTITY, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER};
+        Cursor cursor = mDbHelper.getReadableDatabase ().query (InventoryEntry.TABLE_NAME, columns, selection.toString (), null, null, null, null);
+        try {
+            for (int row = 0; cursor.moveToNext (); row++) {
+                long id = cursor.getLong (0);
+                rowOfId.put (id, row);
+                names[row] = cursor.getString (1);
+                skus[row] = cursor.getString (2);
+                prices[row] = cursor.getInt (3);
+                quantities[row] = (int) (cursor.getLong (4) + mPendingDeltas.pending (id));
+                supplierNames[row] = cursor.getString (5);
+                phoneNumbers[row] = cipher == null ? cursor.getString (6) : cipher.decrypt (cursor.getString (6));
+            }
+        } finally {
+            cursor.close ();
+        }
+
+        int found = 0;
+        for (long id : ids) {
+            if (rowOfId.get (id) != null) {
+                found++;
+            }
+        }
+        long[] foundIds = new long[found];
+        String[] foundNames = new String[found];
+        String[] foundSkus = new String[found];
+        int[] foundPrices = new int[found];
+        int[] foundQuantities = new int[found];
+        String[] foundSupplierNames = new String[found];
+        String[] foundPhoneNumbers = new String[found];
+        int next = 0;
+        for (long id : ids) {
+            Integer row = rowOfId.get (id);
+            if (row != null) {
+                foundIds[next] = id;
+                foundNames[next] = names[row];
+                foundSkus[next] = skus[row];
+                foundPrices[next] = prices[row];
+                foundQuantities[next] = quantities[row];
+                foundSupplierNames[next] = supplierNames[row];
+                foundPhoneNumbers[next] = phoneNumbers[row];
+                next++;
+            }
+        }
+
+        Bundle result = new Bundle ();
+        result.putLongArray (InventoryContract.EXTRA_INVENTORY_IDS, foundIds);
+        result.putStringArray (InventoryContract.EXTRA_NAMES, foundNames);
+        result.putStringArray (InventoryContract.EXTRA_SKUS, foundSkus);
+        result.putIntArray (InventoryContract.EXTRA_PRICES, foundPrices);
+        result.putIntArray (InventoryContract.EXTRA_QUANTITIES, foundQuantities);
+        result.putStringArray (InventoryContract.EXTRA_SUPPLIER_NAMES, foundSupplierNames);
+        result.putStringArray (InventoryContract.EXTRA_SUPPLIER_PHONE_NUMBERS, foundPhoneNumbers);
+        return result;
+    }
+
+    /**
+     * Change the quantity of one inventory, either right away as a one line checkout, or in
+     * write-behind mode by buffering the delta. A buffered delta is stock checked against the
+     * quantity queries show, and flushed after the configured interval, or right away once
+     * enough adjustments are buffered.
+     */
+    private Bundle adjustQuantity(Bundle extras) {
+        long id = extras.getLong (InventoryContract.EXTRA_INVENTORY_ID);
+        int delta = extras.getInt (InventoryContract.EXTRA_QUANTITY_DELTA);
+        if (!extras.getBoolean (InventoryContract.EXTRA_WRITE_BEHIND)) {
+            flushPending ();
+            Bundle result = checkout (new long[]{id}, new int[]{delta}, false, mCommandLogging);
+            result.remove (InventoryContract.EXTRA_LINE_RESULTS);
+            return result;
+        }
+
+        int buffered;
+        while (true) {
+            long generation = mPendingDeltas.awaitGeneration ();
+            Cursor cursor = mDbHelper.getReadableDatabase ().query (InventoryEntry.TABLE_NAME, new String[]{InventoryEntry.COLUMN_PRODUCT_QUANTITY}, InventoryEntry._ID + "=?", new String[]{String.valueOf (id)}, null, null, null);
+            try {
+                buffered = cursor.moveToFirst () ? mPendingDeltas.addIfInStock (generation, id, delta, cursor.getLong (0)) : 0;
+            } finally {
+                cursor.close ();
+            }
+            if (buffered != -1) {
+                break;
+            }
+            // A flush wrote some of the deltas meanwhile, so the quantity read is stale
+        }
+
+        boolean committed = buffered > 0;
+        if (committed) {
+            if (buffered >= mFlushSize) {
+                if (mFlushQueued.compareAndSet (false, true)) {
+                    mFlushExecutor.execute (mQueuedFlush);
+                }
+            } else if (mFlushScheduled.compareAndSet (false, true)) {
+                mFlushExecutor.schedule (mScheduledFlush, mFlushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        Bundle result = new Bundle ();
+        result.putBoolean (InventoryContract.EXTRA_COMMITTED, committed);
+        return result;
+    }
+
+    /**
+     * Write every buffered quantity delta in one transaction, then notify listeners once. Each is
+     * recorded in the change feed.
+     * <p>
+     * Deltas were stock checked when buffered, but a quantity another caller wrote since can
+     * leave too few units for them. The quantity then stops at 0, and the units that
+     * couldn't be taken are logged and counted in the diagnostics as write_behind_shortfall.
+     * <p>
+     * Does nothing inside a transaction: a flush waiting for another thread's flush there would
+     * hold the database that flush is waiting for. Batches flush before their transaction.
+     */
+    private void flushPending() {
+        if (mPendingDeltas.isEmpty ()) {
+            return;
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+        if (database.inTransaction ()) {
+            return;
+        }
+
+        boolean written = false;
+        synchronized (mFlushLock) {
+            LongSparseArray<Integer> deltas = mPendingDeltas.beginFlush ();
+            try {
+                database.beginTransaction ();
+                try {
+                    for (int i = 0; i < deltas.size (); i++) {
+                        long id = deltas.keyAt (i);
+                        String[] idArgs = {String.valueOf (id)};
+                        Cursor cursor = database.query (InventoryEntry.TABLE_NAME, new String[]{InventoryEntry.COLUMN_PRODUCT_QUANTITY}, InventoryEntry._ID + "=?", idArgs, null, null, null);
+                        int oldQuantity;
+                        try {
+                            if (!cursor.moveToFirst ()) {
+                                // Deleted since the delta was buffered
+                                continue;
+                            }
+                            oldQuantity = cursor.getInt (0);
+                        } finally {
+                            cursor.close ();
+                        }
+                        int newQuantity = oldQuantity + deltas.valueAt (i);
+                        if (newQuantity < 0) {
+                            Log.w (LOG_TAG, "Buffered quantity changes of inventory " + id + " exceed its stock by " + -newQuantity);
+                            mShortfall.addAndGet (-newQuantity);
+                            newQuantity = 0;
+                        }
+                        ContentValues values = new ContentValues ();
+                        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, newQuantity);
+                        database.update (InventoryEntry.TABLE_NAME, values, InventoryEntry._ID + "=?", idArgs);
+                        recordChange (database, id, ChangeEntry.OPERATION_UPDATE, CommandLog.QUANTITY_COLUMN_BIT, newQuantity - oldQuantity);
+                        if (newQuantity < oldQuantity) {
+                            recordSale (database, id, oldQuantity - newQuantity, System.currentTimeMillis ());
+                        }
+                    }
+                    database.setTransactionSuccessful ();
+                } finally {
+                    database.endTransaction ();
+                }
+                written = deltas.size () != 0;
+            } finally {
+                mPendingDeltas.endFlush (deltas, written);
+            }
+        }
+
+        if (written) {
+            mFlushCount.incrementAndGet ();
+            mQueryCache.invalidate ();
+            notifyChange (InventoryEntry.CONTENT_URI);
+        }
+    }
+
+    /**
+     * Flush on the flush thread, where nobody else would see a failure.
+     */
+    private void flushPendingSafely() {
+        try {
+            flushPending ();
+        } catch (RuntimeException e) {
+            // The deltas stay buffered for the next flush
+            Log.e (LOG_TAG, "Failed to flush buffered quantity changes", e);
+        }
+    }
+
+    /**
+     * Write the buffered deltas while the process is still sure to be around: when its UI goes
+     * to the background, after which it may be killed without further notice.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory (level);
+        if (level >= TRIM_MEMORY_UI_HIDDEN && !mPendingDeltas.isEmpty () && mFlushQueued.compareAndSet (false, true)) {
+            mFlushExecutor.execute (mQueuedFlush);
+        }
+    }
+
+    /**
+     * Write the buffered deltas and stop the flush thread.
+     */
+    @Override
+    public void shutdown() {
+        flushPending ();
+        mFlushExecutor.shutdown ();
+        super.shutdown ();
+    }
+
+    /**
+     * Apply every line of a checkout in a single transaction. Each line is stock checked: a sale
+     * can't take the quantity below 0. If a line fails, the whole checkout is rolled back unless
+     * partial checkouts are allowed, in which case only the failing lines are skipped.
+     * Listeners are notified once for the whole checkout.
+     */
+    private Bundle checkout(Bundle extras) {
+        return checkout (extras.getLongArray (InventoryContract.EXTRA_INVENTORY_IDS), extras.getIntArray (InventoryContract.EXTRA_QUANTITY_DELTAS), extras.getBoolean (InventoryContract.EXTRA_ALLOW_PARTIAL), false);
+    }
+
+    /**
+     * Apply a checkout, logging the lines applied as one adjustment in the undo log if it's
+     * undoable.
+     */
+    private Bundle checkout(long[] ids, int[] deltas, boolean allowPartial, boolean undoable) {
+        if (ids == null || deltas == null || ids.length != deltas.length) {
+            throw new IllegalArgumentException ("Checkout requires one quantity delta per inventory");
+        }
+
+        int[] lineResults = new int[ids.length];
+        boolean committed;
+        int linesApplied = 0;
+        long commandId = -1;
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+        database.beginTransaction ();
+        try {
+            // One compiled statement for the whole basket; the stock check is part of the update
+            SQLiteStatement adjust = database.compileStatement ("UPDATE " + InventoryEntry.TABLE_NAME + " SET " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "=" + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "+? WHERE " + InventoryEntry._ID + "=? AND " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "+?>=0");
+            try {
+                for (int line = 0; line < ids.length; line++) {
+                    adjust.bindLong (1, deltas[line]);
+                    adjust.bindLong (2, ids[line]);
+                    adjust.bindLong (3, deltas[line]);
+                    if (adjust.executeUpdateDelete () == 1) {
+                        recordChange (database, ids[line], ChangeEntry.OPERATION_UPDATE, CommandLog.QUANTITY_COLUMN_BIT, deltas[line]);
+                        if (deltas[line] < 0) {
+                            recordSale (database, ids[line], -deltas[line], System.currentTimeMillis ());
+                        }
+                        if (undoable) {
+                            if (commandId == -1) {
+                                commandId = mCommandLog.begin (database, CommandEntry.KIND_ADJUST, 0);
+                            }
+                            mCommandLog.logAdjustedRow (database, commandId, ids[line], deltas[line]);
+                        }
+                        lineResults[line] = InventoryContract.LINE_APPLIED;
+                        linesApplied++;
+                    } else {
+                        lineResults[line] = exists (database, ids[line]) ? InventoryContract.LINE_INSUFFICIENT_STOCK : InventoryContract.LINE_NOT_FOUND;
+                    }
+                }
+            } finally {
+                adjust.close ();
+            }
+
+            committed = allowPartial || linesApplied == ids.length;
+            if (committed) {
+                database.setTransactionSuccessful ();
+            }
+        } finally {
+            database.endTransaction ();
+        }
+
+        if (committed && linesApplied != 0) {
+            mQueryCache.invalidate ();
+            notifyChange (InventoryEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle ();
+        result.putIntArray (InventoryContract.EXTRA_LINE_RESULTS, lineResults);
+        result.putBoolean (InventoryContract.EXTRA_COMMITTED, committed);
+        return result;
+    }
+
+    /**
+     * Undo the latest command of the undo log, or redo the latest undone one, in one transaction
+     * with one notification. Buffered write-behind deltas are written first, so the command
+     * applies to the current quantities.
+     */
+    private Bundle undoOrRedo(boolean undo) {
+        flushPending ();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+        int kind;
+        database.beginTransaction ();
+        try {
+            kind = undo ? mCommandLog.undo (database) : mCommandLog.redo (database);
+            if (kind > 0) {
+                database.setTransactionSuccessful ();
+            }
+        } finally {
+            database.endTransaction ();
+        }
+
+        if (kind > 0) {
+            mQueryCache.invalidate ();
+            notifyChange (InventoryEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle ();
+        result.putBoolean (InventoryContract.EXTRA_COMMITTED, kind > 0);
+        result.putInt (InventoryContract.EXTRA_COMMAND_KIND, Math.abs (kind));
+        return result;
+    }
+
+    /**
+     * Move stock of an inventory between two locations in one transaction. The source location
+     * must hold enough stock. The total quantity doesn't change, so the catalog cache stays valid
+     * and only the stock views are notified.
+     */
+    private Bundle transfer(Bundle extras) {
+        long inventoryId = extras.getLong (InventoryContract.EXTRA_INVENTORY_ID);
+        long fromLocationId = extras.getLong (InventoryContract.EXTRA_FROM_LOCATION_ID);
+        long toLocationId = extras.getLong (InventoryContract.EXTRA_TO_LOCATION_ID);
+        int quantity = extras.getInt (InventoryContract.EXTRA_QUANTITY);
+        if (quantity <= 0 || fromLocationId == toLocationId) {
+            throw new IllegalArgumentException ("Transfer requires a positive quantity between two locations");
+        }
+
+        boolean committed = false;
+        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+        database.beginTransaction ();
+        try {
+            // Take the stock out of the source, if it holds enough
+            SQLiteStatement take = database.compileStatement ("UPDATE " + StockEntry.TABLE_NAME + " SET " + StockEntry.COLUMN_QUANTITY + "=" + StockEntry.COLUMN_QUANTITY + "-? WHERE " + StockEntry.COLUMN_INVENTORY_ID + "=? AND " + StockEntry.COLUMN_LOCATION_ID + "=? AND " + StockEntry.COLUMN_QUANTITY + ">=?");
+            try {
+                take.bindLong (1, quantity);
+                take.bindLong (2, inventoryId);
+                take.bindLong (3, fromLocationId);
+                take.bindLong (4, quantity);
+                committed = take.executeUpdateDelete () == 1;
+            } finally {
+                take.close ();
+            }
+
+            // Put it into the destination, which may not hold any stock of the inventory yet
+            if (committed && DatabaseUtils.queryNumEntries (database, LocationEntry.TABLE_NAME, LocationEntry._ID + "=?", new String[]{String.valueOf (toLocationId)}) == 1) {
+                String[] keyArgs = {String.valueOf (inventoryId), String.valueOf (toLocationId)};
+                database.execSQL ("INSERT OR IGNORE INTO " + StockEntry.TABLE_NAME + " (" + StockEntry.COLUMN_INVENTORY_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ") VALUES (?, ?)", keyArgs);
+                database.execSQL ("UPDATE " + StockEntry.TABLE_NAME + " SET " + StockEntry.COLUMN_QUANTITY + "=" + StockEntry.COLUMN_QUANTITY + "+" + quantity + " WHERE " + StockEntry.COLUMN_INVENTORY_ID + "=? AND " + StockEntry.COLUMN_LOCATION_ID + "=?", keyArgs);
+                database.setTransactionSuccessful ();
+            } else {
+                committed = false;
+            }
+        } finally {
+            database.endTransaction ();
+        }
+
+        if (committed) {
+            notifyChange (InventoryEntry.buildStockUri (inventoryId));
+            notifyChange (LocationEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle ();
+        result.putBoolean (InventoryContract.EXTRA_COMMITTED, committed);
+        return result;
+    }
+
+    /**
+     * Record the sequence number of the last change a reader of the change feed read, or remove
+     * the reader for a negative one.
+     */
+    private void acknowledgeChanges(Bundle extras) {
+        String reader = extras == null ? null : extras.getString (InventoryContract.EXTRA_READER);
+        if (reader == null || !extras.containsKey (InventoryContract.EXTRA_SEQUENCE)) {
+            throw new IllegalArgumentException ("Acknowledging changes requires a reader and a sequence number");
+        }
+        long sequence = extras.getLong (InventoryContract.EXTRA_SEQUENCE);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+        if (sequence < 0) {
+            database.delete (ChangeEntry.READERS_TABLE_NAME, ChangeEntry.COLUMN_READER + "=?", new String[]{reader});
+            return;
+        }
+        ContentValues values = new ContentValues ();
+        values.put (ChangeEntry.COLUMN_READER, reader);
+        values.put (ChangeEntry.COLUMN_SEQUENCE, sequence);
+        database.replace (ChangeEntry.READERS_TABLE_NAME, null, values);
+    }
+
+    /**
+     * Return the sequence number up to which every reader has read the change feed, the whole
+     * feed if it has no readers, and the first change still in the feed. Changes between the two
+     * can be pruned.
+     */
+    private static long[] prunableChanges(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery ("SELECT IFNULL((SELECT MIN(" + ChangeEntry.COLUMN_SEQUENCE + ") FROM " + ChangeEntry.READERS_TABLE_NAME + "), (SELECT MAX(" + ChangeEntry._ID + ") FROM " + ChangeEntry.TABLE_NAME + ")), (SELECT MIN(" + ChangeEntry._ID + ") FROM " + ChangeEntry.TABLE_NAME + ")", null);
+        try {
+            cursor.moveToFirst ();
+            // An empty feed has nothing to prune
+            if (cursor.isNull (1)) {
+                return new long[]{0, 1};
+            }
+            return new long[]{cursor.getLong (0), cursor.getLong (1)};
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    /**
+     * Run one bounded maintenance step: prune up to {@link #PRUNE_CHANGES_PER_STEP} changes
+     * every reader of the change feed has read, or once there are none left, give up to
+     * {@link #VACUUM_PAGES_PER_STEP} free pages back to the file system, or once there are none
+     * left either and enough rows changed, analyze one table. Otherwise, once a key is set,
+     * encrypt up to {@link #ENCRYPT_ROWS_PER_STEP} supplier phone numbers stored in plaintext.
+     */
+    private synchronized Bundle maintain() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase ();
+        long[] prunable = prunableChanges (database);
+        if (prunable[0] >= prunable[1]) {
+            long upTo = Math.min (prunable[0], prunable[1] + PRUNE_CHANGES_PER_STEP - 1);
+            database.delete (ChangeEntry.TABLE_NAME, ChangeEntry._ID + "<=?", new String[]{String.valueOf (upTo)});
+        } else if (DatabaseUtils.longForQuery (database, "PRAGMA freelist_count", null) > 0) {
+            // The pragma frees one page per step of the statement, and execSQL only steps once,
+            // so run it as a query and read it to the end
+            Cursor cursor = database.rawQuery ("PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_STEP + ")", null);
+            try {
+                cursor.getCount ();
+            } finally {
+                cursor.close ();
+            }
+        } else if (mRowsChangedSinceAnalyze.get () >= ANALYZE_THRESHOLD) {
+            database.execSQL ("ANALYZE " + ANALYZE_TABLES[mAnalyzeStep]);
+            mAnalyzeStep++;
+            if (mAnalyzeStep == ANALYZE_TABLES.length) {
+                mAnalyzeStep = 0;
+                mRowsChangedSinceAnalyze.set (0);
+            }
+        } else if (fieldCipher () != null) {
+            encryptPlaintextContacts (database, fieldCipher ());
+        }
+
+        Bundle result = new Bundle ();
+        prunable = prunableChanges (database);
+        boolean moreWork = prunable[0] >= prunable[1] || DatabaseUtils.longForQuery (database, "PRAGMA freelist_count", null) > 0 || mRowsChangedSinceAnalyze.get () >= ANALYZE_THRESHOLD || (fieldCipher () != null && DatabaseUtils.queryNumEntries (database, InventoryEntry.TABLE_NAME, PLAINTEXT_CONTACTS_SELECTION) > 0);
+        result.putBoolean (InventoryContract.EXTRA_MORE_WORK, moreWork);
+        return result;
+    }
+
+    /**
+     * Encrypt up to {@link #ENCRYPT_ROWS_PER_STEP} supplier phone numbers stored in plaintext, in
+     * one transaction. The values queries return don't change, so nobody is notified.
+     */
+    private static void encryptPlaintextContacts(SQLiteDatabase database, FieldCipher cipher) {
+        database.beginTransaction ();
+        try {
+            Cursor cursor = database.query (InventoryEntry.TABLE_NAME, new String[]{InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER}, PLAINTEXT_CONTACTS_SELECTION, null, null, null, null, String.valueOf (ENCRYPT_ROWS_PER_STEP));
+            SQLiteStatement update = database.compileStatement ("UPDATE " + InventoryEntry.TABLE_NAME + " SET " + InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + "=? WHERE " + InventoryEntry._ID + "=?");
+            try {
+                while (cursor.moveToNext ()) {
+                    update.bindString (1, cipher.encrypt (cursor.getString (1)));
+                    update.bindLong (2, cursor.getLong (0));
+                    update.executeUpdateDelete ();
+                }
+            } finally {
+                cursor.close ();
+                update.close ();
+            }
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+    }
+
+    /**
+     * Report the page size, page count and free page count of the database, and the pages used
+     * by every table and index where SQLite has the dbstat virtual table.
+     */
+    private static MatrixCursor diagnostics(SQLiteDatabase database) {
+        MatrixCursor cursor = new MatrixCursor (new String[]{DiagnosticsEntry.COLUMN_KIND, DiagnosticsEntry.COLUMN_NAME, DiagnosticsEntry.COLUMN_VALUE});
+        for (String pragma : new String[]{"page_size", "page_count", "freelist_count"}) {
+            cursor.addRow (new Object[]{DiagnosticsEntry.KIND_DATABASE, pragma, DatabaseUtils.longForQuery (database, "PRAGMA " + pragma, null)});
+        }
+
+        Cursor pages;
+        try {
+            pages = database.rawQuery ("SELECT m.type, s.name, COUNT(*) FROM dbstat s JOIN sqlite_master m ON m.name=s.name GROUP BY s.name ORDER BY 3 DESC", null);
+        } catch (SQLiteException e) {
+            // Built without SQLITE_ENABLE_DBSTAT_VTAB, like many Android releases
+            return cursor;
+        }
+        try {
+            while (pages.moveToNext ()) {
+                String kind = "index".equals (pages.getString (0)) ? DiagnosticsEntry.KIND_INDEX : DiagnosticsEntry.KIND_TABLE;
+                cursor.addRow (new Object[]{kind, pages.getString (1), pages.getLong (2)});
+            }
+        } finally {
+            pages.close ();
+        }
+        return cursor;
+    }
+
+    /**
+     * Return true if the inventory with the given id exists.
+     */
+    private static boolean exists(SQLiteDatabase database, long id) {
+        return DatabaseUtils.queryNumEntries (database, InventoryEntry.TABLE_NAME, InventoryEntry._ID + "=?", new String[]{String.valueOf (id)}) > 0;
+    }
+
+    /**
+     * Open the image or the thumbnail of an inventory, read-only. Thumbnails are generated when
+     * the image is stored, so opening one never decodes anything.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        final int match = sUriMatcher.match (uri);
+        if (match != INVENTORY_IMAGE && match != INVENTORY_THUMBNAIL) {
+            throw new FileNotFoundException ("No file for " + uri);
+        }
+        if (!"r".equals (mode)) {
+            throw new FileNotFoundException ("Images can only be opened for reading: " + uri);
+        }
+
+        // The id is the segment before "image" or "thumbnail"
+        String id = uri.getPathSegments ().get (1);
+        Cursor cursor = mDbHelper.getReadableDatabase ().query (InventoryEntry.TABLE_NAME, new String[]{InventoryEntry.COLUMN_PRODUCT_IMAGE}, InventoryEntry._ID + "=?", new String[]{id}, null, null, null);
+        String name;
+        try {
+            name = cursor.moveToFirst () ? cursor.getString (0) : null;
+        } finally {
+            cursor.close ();
+        }
+        if (name == null) {
+            throw new FileNotFoundException ("No image for " + uri);
+        }
+
+        File file = match == INVENTORY_IMAGE ? mImageStore.imageFile (name) : mImageStore.thumbnailFile (name);
+        return ParcelFileDescriptor.open (file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -322,9 +2153,31 @@ public class InventoryProvider extends ContentProvider {
         final int match = sUriMatcher.match (uri);
         switch (match) {
             case INVENTORIES:
+            case INVENTORY_SEARCH:
                 return InventoryEntry.CONTENT_LIST_TYPE;
             case INVENTORY_ID:
+            case INVENTORY_SKU:
                 return InventoryEntry.CONTENT_ITEM_TYPE;
+            case INVENTORY_IMAGE:
+            case INVENTORY_THUMBNAIL:
+                return InventoryEntry.IMAGE_TYPE;
+            case CHANGES:
+                return ChangeEntry.CONTENT_LIST_TYPE;
+            case DIAGNOSTICS:
+                return DiagnosticsEntry.CONTENT_LIST_TYPE;
+            case INVENTORY_STOCK:
+            case LOCATION_STOCK:
+                return StockEntry.CONTENT_LIST_TYPE;
+            case INVENTORY_LOCATION_STOCK:
+                return StockEntry.CONTENT_ITEM_TYPE;
+            case INVENTORY_PRICES:
+                return PriceHistoryEntry.CONTENT_LIST_TYPE;
+            case DEMAND:
+                return DemandEntry.CONTENT_LIST_TYPE;
+            case LOCATIONS:
+                return LocationEntry.CONTENT_LIST_TYPE;
+            case LOCATION_ID:
+                return LocationEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException ("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,283 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks inventory values against a set of rules, one per column: its type, whether it's
+ * required, its range or maximum length. The rules are declared once with a {@link Builder} and
+ * compiled into parallel arrays, so checking a row is one loop over the rules with a map lookup
+ * each, and allocates nothing unless the row is invalid.
+ * <p>
+ * Validating returns the errors, one {@link FieldError} per invalid column, rather than throwing,
+ * so the editor can show every error at once and an import can skip the invalid rows.
+ */
+public final class InventoryValidator {
+
+    /**
+     * Rule flags: a required column must be present when inserting, and is never null. A nullable
+     * column may be null. A column with neither may be missing, but isn't null when present.
+     */
+    public static final int REQUIRED = 1;
+    public static final int NULLABLE = 2;
+
+    public static final int MAX_NAME_LENGTH = 100;
+    public static final int MAX_SKU_LENGTH = 64;
+    public static final int MAX_SUPPLIER_NAME_LENGTH = 100;
+    public static final int MAX_PHONE_NUMBER_LENGTH = 20;
+
+    /**
+     * Digits a phone number holds at least: short numbers are fine, there's no country to check
+     * them against
+     */
+    public static final int MIN_PHONE_NUMBER_DIGITS = 3;
+
+    private static final int TYPE_TEXT = 0;
+    private static final int TYPE_INTEGER = 1;
+    private static final int TYPE_PHONE = 2;
+
+    /**
+     * The rules of the inventory columns
+     */
+    private static final InventoryValidator sInventoryValidator = new Builder ()
+            .text (InventoryEntry.COLUMN_PRODUCT_NAME, REQUIRED, MAX_NAME_LENGTH)
+            .text (InventoryEntry.COLUMN_PRODUCT_SKU, NULLABLE, MAX_SKU_LENGTH)
+            .integer (InventoryEntry.COLUMN_PRODUCT_PRICE, REQUIRED, 0, Integer.MAX_VALUE)
+            .integer (InventoryEntry.COLUMN_PRODUCT_QUANTITY, REQUIRED, 0, Integer.MAX_VALUE)
+            .text (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, REQUIRED, MAX_SUPPLIER_NAME_LENGTH)
+            .phone (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, REQUIRED)
+            .integer (InventoryEntry.QUANTITY_DELTA, 0, Integer.MIN_VALUE, Integer.MAX_VALUE)
+            .build ();
+
+    /**
+     * The compiled rules. Rule i checks mColumns[i].
+     */
+    private final String[] mColumns;
+    private final int[] mTypes;
+    private final int[] mFlags;
+    private final long[] mMin;
+    private final long[] mMax;
+    private final int[] mMaxLengths;
+
+    /**
+     * An invalid column and what's wrong with it, one of the ERROR_* values of
+     * {@link InventoryContract}.
+     */
+    public static final class FieldError {
+        public final String column;
+        public final int error;
+
+        FieldError(String column, int error) {
+            this.column = column;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return column + ": error " + error;
+        }
+    }
+
+    /**
+     * Declares the rules of a validator, one column at a time.
+     */
+    public static final class Builder {
+        private final List<String> mColumns = new ArrayList<> ();
+        private int[] mTypes = new int[8];
+        private int[] mFlags = new int[8];
+        private long[] mMin = new long[8];
+        private long[] mMax = new long[8];
+        private int[] mMaxLengths = new int[8];
+
+        /**
+         * Text of at most maxLength characters. Required text isn't blank either.
+         */
+        public Builder text(String column, int flags, int maxLength) {
+            return add (column, TYPE_TEXT, flags, 0, 0, maxLength);
+        }
+
+        /**
+         * A whole number from min to max. Strings holding a number are accepted, like SQLite does.
+         */
+        public Builder integer(String column, int flags, long min, long max) {
+            if (min > max) {
+                throw new IllegalArgumentException ("Empty range for " + column);
+            }
+            return add (column, TYPE_INTEGER, flags, min, max, 0);
+        }
+
+        /**
+         * A phone number: digits, spaces and the separators - . ( ), an optional leading +.
+         */
+        public Builder phone(String column, int flags) {
+            return add (column, TYPE_PHONE, flags, 0, 0, MAX_PHONE_NUMBER_LENGTH);
+        }
+
+        public InventoryValidator build() {
+            return new InventoryValidator (this);
+        }
+
+        private Builder add(String column, int type, int flags, long min, long max, int maxLength) {
+            if (mColumns.contains (column)) {
+                throw new IllegalArgumentException ("Column " + column + " already has a rule");
+            }
+            int rule = mColumns.size ();
+            if (rule == mTypes.length) {
+                int capacity = rule * 2;
+                mTypes = Arrays.copyOf (mTypes, capacity);
+                mFlags = Arrays.copyOf (mFlags, capacity);
+                mMin = Arrays.copyOf (mMin, capacity);
+                mMax = Arrays.copyOf (mMax, capacity);
+                mMaxLengths = Arrays.copyOf (mMaxLengths, capacity);
+            }
+            mColumns.add (column);
+            mTypes[rule] = type;
+            mFlags[rule] = flags;
+            mMin[rule] = min;
+            mMax[rule] = max;
+            mMaxLengths[rule] = maxLength;
+            return this;
+        }
+    }
+
+    private InventoryValidator(Builder builder) {
+        int rules = builder.mColumns.size ();
+        mColumns = builder.mColumns.toArray (new String[rules]);
+        mTypes = Arrays.copyOf (builder.mTypes, rules);
+        mFlags = Arrays.copyOf (builder.mFlags, rules);
+        mMin = Arrays.copyOf (builder.mMin, rules);
+        mMax = Arrays.copyOf (builder.mMax, rules);
+        mMaxLengths = Arrays.copyOf (builder.mMaxLengths, rules);
+    }
+
+    /**
+     * Return the validator of the inventory columns.
+     */
+    public static InventoryValidator forInventory() {
+        return sInventoryValidator;
+    }
+
+    /**
+     * Check the given values. An insert (partial is false) must hold every required column, an
+     * update (partial is true) only the columns it changes. Columns without a rule aren't
+     * checked. Return the errors, an empty list if the values are valid.
+     */
+    public List<FieldError> validate(ContentValues values, boolean partial) {
+        List<FieldError> errors = null;
+        for (int rule = 0; rule < mColumns.length; rule++) {
+            int error = check (rule, values, partial);
+            if (error != InventoryContract.ERROR_NONE) {
+                if (errors == null) {
+                    errors = new ArrayList<> ();
+                }
+                errors.add (new FieldError (mColumns[rule], error));
+            }
+        }
+        return errors == null ? Collections.<FieldError>emptyList () : errors;
+    }
+
+    /**
+     * Put the given errors into a bundle, as {@link InventoryContract#EXTRA_ERROR_COLUMNS} and
+     * {@link InventoryContract#EXTRA_ERROR_CODES}.
+     */
+    public static Bundle toBundle(List<FieldError> errors) {
+        String[] columns = new String[errors.size ()];
+        int[] codes = new int[errors.size ()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = errors.get (i).column;
+            codes[i] = errors.get (i).error;
+        }
+        Bundle bundle = new Bundle ();
+        bundle.putStringArray (InventoryContract.EXTRA_ERROR_COLUMNS, columns);
+        bundle.putIntArray (InventoryContract.EXTRA_ERROR_CODES, codes);
+        return bundle;
+    }
+
+    private int check(int rule, ContentValues values, boolean partial) {
+        String column = mColumns[rule];
+        int flags = mFlags[rule];
+        if (!values.containsKey (column)) {
+            return !partial && (flags & REQUIRED) != 0 ? InventoryContract.ERROR_REQUIRED : InventoryContract.ERROR_NONE;
+        }
+        Object value = values.get (column);
+        if (value == null) {
+            return (flags & NULLABLE) != 0 ? InventoryContract.ERROR_NONE : InventoryContract.ERROR_REQUIRED;
+        }
+
+        switch (mTypes[rule]) {
+            case TYPE_INTEGER:
+                long number;
+                if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                    number = ((Number) value).longValue ();
+                } else if (value instanceof String) {
+                    String text = (String) value;
+                    if (!isInteger (text)) {
+                        return InventoryContract.ERROR_NOT_A_NUMBER;
+                    }
+                    number = Long.parseLong (text);
+                } else {
+                    return InventoryContract.ERROR_NOT_A_NUMBER;
+                }
+                return number < mMin[rule] || number > mMax[rule] ? InventoryContract.ERROR_OUT_OF_RANGE : InventoryContract.ERROR_NONE;
+            case TYPE_PHONE:
+                // The column has integer affinity, so synced numbers may come back as numbers
+                if (!(value instanceof String || value instanceof Integer || value instanceof Long)) {
+                    return InventoryContract.ERROR_INVALID_PHONE_NUMBER;
+                }
+                String phoneNumber = value.toString ();
+                if (phoneNumber.length () > mMaxLengths[rule]) {
+                    return InventoryContract.ERROR_TOO_LONG;
+                }
+                return isPhoneNumber (phoneNumber) ? InventoryContract.ERROR_NONE : InventoryContract.ERROR_INVALID_PHONE_NUMBER;
+            default:
+                String text = value.toString ();
+                if ((flags & REQUIRED) != 0 && text.trim ().isEmpty ()) {
+                    return InventoryContract.ERROR_REQUIRED;
+                }
+                return text.length () > mMaxLengths[rule] ? InventoryContract.ERROR_TOO_LONG : InventoryContract.ERROR_NONE;
+        }
+    }
+
+    /**
+     * Return true if the text is a whole number that fits a long: an optional sign and at most 18
+     * digits, plenty for any integer column.
+     */
+    private static boolean isInteger(String text) {
+        int start = text.startsWith ("-") || text.startsWith ("+") ? 1 : 0;
+        int length = text.length ();
+        if (length == start || length - start > 18) {
+            return false;
+        }
+        for (int i = start; i < length; i++) {
+            char c = text.charAt (i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPhoneNumber(String text) {
+        int digits = 0;
+        for (int i = 0; i < text.length (); i++) {
+            char c = text.charAt (i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '+') {
+                if (i != 0) {
+                    return false;
+                }
+            } else if (c != ' ' && c != '-' && c != '.' && c != '(' && c != ')') {
+                return false;
+            }
+        }
+        return digits >= MIN_PHONE_NUMBER_DIGITS;
+    }
+}
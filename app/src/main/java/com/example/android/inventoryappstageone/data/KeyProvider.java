@@ -0,0 +1,23 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.Context;
+
+/**
+ * Source of the key {@link InventoryProvider} encrypts the supplier contacts with. The app names
+ * its implementation in the key_provider_class config string; it needs a public constructor
+ * without arguments. Where the key comes from (a device management policy, the keystore, a
+ * login) is up to the implementation, so it never shows in the contract.
+ */
+public interface KeyProvider {
+
+    /**
+     * Length of the key, in bytes
+     */
+    int KEY_LENGTH = 32;
+
+    /**
+     * Return the key, {@link #KEY_LENGTH} bytes, or null to store the contacts in
+     * plaintext. Called once, the first time the provider reads or writes a contact.
+     */
+    byte[] getKey(Context context);
+}
@@ -0,0 +1,378 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Observable queries over the {@link InventoryContract} URIs, a lifecycle-free alternative to
+ * CursorLoader. A subscriber gets the current result and then every result that differs from
+ * the one before.
+ * <ul>
+ * <li>Identical queries share one observer, one database read and one result, however many
+ * subscribers they have.</li>
+ * <li>Change notifications are debounced: a burst of writes causes one query once it quiets
+ * down, or after {@link #MAX_DELAY_MILLIS} if it never does.</li>
+ * <li>Queries run on a small bounded pool, at most one run per query at a time.</li>
+ * <li>A result equal to the previous one isn't emitted.</li>
+ * </ul>
+ * Results are emitted on the thread of the handler passed in, normally the main thread. The pool
+ * threads end when idle; {@link #shutdown()} ends the subscriptions and the pool for good.
+ */
+public final class LiveQueries {
+
+    private static final String LOG_TAG = LiveQueries.class.getSimpleName ();
+
+    /**
+     * Quiet time after the last change notification before a query is re-run
+     */
+    static final long DEBOUNCE_MILLIS = 50;
+
+    /**
+     * Longest time a query waits for a burst of notifications to end
+     */
+    static final long MAX_DELAY_MILLIS = 250;
+
+    /**
+     * Threads and queue length of the query pool. A query is queued at most once at a time, so
+     * the queue only fills up with as many distinct queries.
+     */
+    private static final int QUERY_THREADS = 2;
+    private static final int MAX_QUEUED_QUERIES = 32;
+
+    /**
+     * Time an idle pool thread is kept for the next query
+     */
+    private static final long IDLE_THREAD_MILLIS = 30000;
+
+    /**
+     * Receives the results of a query.
+     */
+    public interface Listener {
+        /**
+         * Called with the current result of the query. Call {@link CursorSnapshot#newCursor()}
+         * for a cursor over it.
+         */
+        void onResult(CursorSnapshot result);
+    }
+
+    /**
+     * A subscription to a query. Unsubscribe when the results are no longer needed.
+     */
+    public interface Subscription {
+        void unsubscribe();
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final Executor mExecutor;
+
+    /**
+     * Shared queries keyed by {@link QueryCache#keyFor}
+     */
+    private final Map<String, SharedQuery> mQueries = new HashMap<> ();
+
+    /**
+     * Number of queries run, and of those that found the result unchanged
+     */
+    private int mQueryCount;
+    private int mUnchangedCount;
+
+    /**
+     * Create observable queries emitting on the thread of the given handler.
+     */
+    public LiveQueries(ContentResolver resolver, Handler handler) {
+        this (resolver, handler, newQueryPool ());
+    }
+
+    LiveQueries(ContentResolver resolver, Handler handler, Executor executor) {
+        mResolver = resolver;
+        mHandler = handler;
+        mExecutor = executor;
+    }
+
+    /**
+     * Subscribe to the result of a query. The listener is called with the current result as soon
+     * as it's known, then whenever it changes.
+     */
+    public Subscription subscribe(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, final Listener listener) {
+        String key = QueryCache.keyFor (uri, projection, selection, selectionArgs, sortOrder);
+        final SharedQuery query;
+        final CursorSnapshot current;
+        synchronized (mQueries) {
+            SharedQuery existing = mQueries.get (key);
+            if (existing == null) {
+                existing = new SharedQuery (key, uri, projection, selection, selectionArgs, sortOrder);
+                mQueries.put (key, existing);
+                mResolver.registerContentObserver (uri, true, existing.mObserver);
+                existing.schedule (0);
+            }
+            query = existing;
+            query.mListeners.add (listener);
+            current = query.mResult;
+        }
+        // A late subscriber gets the shared result right away
+        if (current != null) {
+            mHandler.post (new Runnable () {
+                @Override
+                public void run() {
+                    listener.onResult (current);
+                }
+            });
+        }
+        return new Subscription () {
+            @Override
+            public void unsubscribe() {
+                synchronized (mQueries) {
+                    if (query.mListeners.remove (listener) && query.mListeners.isEmpty ()) {
+                        mQueries.remove (query.mKey);
+                        mResolver.unregisterContentObserver (query.mObserver);
+                        mHandler.removeCallbacks (query.mDebounced);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Unsubscribe every subscriber and stop the query pool. A query running now still finishes,
+     * but emits nothing.
+     */
+    public void shutdown() {
+        synchronized (mQueries) {
+            for (SharedQuery query : mQueries.values ()) {
+                query.mListeners.clear ();
+                mResolver.unregisterContentObserver (query.mObserver);
+                mHandler.removeCallbacks (query.mDebounced);
+            }
+            mQueries.clear ();
+        }
+        if (mExecutor instanceof ExecutorService) {
+            ((ExecutorService) mExecutor).shutdown ();
+        }
+    }
+
+    /**
+     * Bounded query pool whose threads all end when idle.
+     */
+    private static ThreadPoolExecutor newQueryPool() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor (QUERY_THREADS, QUERY_THREADS, IDLE_THREAD_MILLIS, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable> (MAX_QUEUED_QUERIES));
+        pool.allowCoreThreadTimeOut (true);
+        return pool;
+    }
+
+    /**
+     * Number of queries run so far.
+     */
+    synchronized int getQueryCount() {
+        return mQueryCount;
+    }
+
+    /**
+     * Number of queries run so far whose result was the same as the one before.
+     */
+    synchronized int getUnchangedCount() {
+        return mUnchangedCount;
+    }
+
+    /**
+     * Number of distinct queries with subscribers.
+     */
+    int getSharedQueryCount() {
+        synchronized (mQueries) {
+            return mQueries.size ();
+        }
+    }
+
+    /**
+     * One query and all its subscribers.
+     */
+    private final class SharedQuery {
+
+        final String mKey;
+        final Uri mUri;
+        final String[] mProjection;
+        final String mSelection;
+        final String[] mSelectionArgs;
+        final String mSortOrder;
+
+        /**
+         * Subscribers, and the latest result they were given. Guarded by mQueries.
+         */
+        final List<Listener> mListeners = new ArrayList<> ();
+        CursorSnapshot mResult;
+
+        /**
+         * Debounce state, only touched on the handler thread: the time of the first notification
+         * not yet answered by a query, or -1 if there is none.
+         */
+        long mFirstChangeMillis = -1;
+
+        /**
+         * Run state, guarded by this: whether a run is queued or running, and whether another
+         * run is needed once it's done.
+         */
+        boolean mRunning;
+        boolean mDirty;
+
+        final ContentObserver mObserver;
+
+        final Runnable mDebounced = new Runnable () {
+            @Override
+            public void run() {
+                mFirstChangeMillis = -1;
+                submit ();
+            }
+        };
+
+        final Runnable mRun = new Runnable () {
+            @Override
+            public void run() {
+                runQuery ();
+            }
+        };
+
+        SharedQuery(String key, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            mKey = key;
+            mUri = uri;
+            mProjection = projection;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+            mObserver = new ContentObserver (mHandler) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    onChanged ();
+                }
+
+                @Override
+                public boolean deliverSelfNotifications() {
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Re-run the query once notifications quiet down, or once the first unanswered one is
+         * {@link #MAX_DELAY_MILLIS} old. Called on the handler thread.
+         */
+        void onChanged() {
+            long now = SystemClock.uptimeMillis ();
+            if (mFirstChangeMillis < 0) {
+                mFirstChangeMillis = now;
+            }
+            mHandler.removeCallbacks (mDebounced);
+            schedule (Math.max (0, Math.min (DEBOUNCE_MILLIS, mFirstChangeMillis + MAX_DELAY_MILLIS - now)));
+        }
+
+        void schedule(long delayMillis) {
+            mHandler.postDelayed (mDebounced, delayMillis);
+        }
+
+        /**
+         * Hand the query to the pool, unless it's already there; then it runs once more when done.
+         */
+        void submit() {
+            synchronized (this) {
+                if (mRunning) {
+                    mDirty = true;
+                    return;
+                }
+                mRunning = true;
+            }
+            try {
+                mExecutor.execute (mRun);
+            } catch (RejectedExecutionException e) {
+                // The pool is full of other queries; try again after a quiet period, unless the
+                // pool was shut down
+                synchronized (this) {
+                    mRunning = false;
+                }
+                synchronized (mQueries) {
+                    if (mQueries.get (mKey) == this) {
+                        schedule (DEBOUNCE_MILLIS);
+                    }
+                }
+            }
+        }
+
+        void runQuery() {
+            CursorSnapshot result = null;
+            try {
+                Cursor cursor = mResolver.query (mUri, mProjection, mSelection, mSelectionArgs, mSortOrder);
+                if (cursor != null) {
+                    try {
+                        result = CursorSnapshot.of (cursor, Integer.MAX_VALUE);
+                    } finally {
+                        cursor.close ();
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.e (LOG_TAG, "Query failed for " + mUri, e);
+            }
+
+            boolean again;
+            synchronized (this) {
+                again = mDirty;
+                mDirty = false;
+                mRunning = false;
+            }
+            if (result != null) {
+                publish (result);
+            }
+            if (again) {
+                submit ();
+            }
+        }
+
+        /**
+         * Emit the result to every subscriber, unless it's the same as the last one.
+         */
+        void publish(final CursorSnapshot result) {
+            final List<Listener> listeners;
+            synchronized (mQueries) {
+                boolean unchanged = result.equals (mResult);
+                synchronized (LiveQueries.this) {
+                    mQueryCount++;
+                    if (unchanged) {
+                        mUnchangedCount++;
+                    }
+                }
+                if (unchanged || mQueries.get (mKey) != this) {
+                    return;
+                }
+                mResult = result;
+                listeners = new ArrayList<> (mListeners);
+            }
+            mHandler.post (new Runnable () {
+                @Override
+                public void run() {
+                    for (Listener listener : listeners) {
+                        // Skip subscribers that left since the result was read
+                        synchronized (mQueries) {
+                            if (!mListeners.contains (listener)) {
+                                continue;
+                            }
+                        }
+                        listener.onResult (result);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.support.v4.util.LongSparseArray;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+/**
+ * Inventory cursor showing the quantity of every row with its pending write-behind delta (see
+ * {@link DeltaBuffer}) added. The quantity never shows below 0, as a flush would clamp it there.
+ */
+final class PendingQuantityCursor extends CursorWrapper {
+
+    private final LongSparseArray<Integer> mDeltas;
+    private final int mIdColumn;
+    private final int mQuantityColumn;
+
+    /**
+     * Wrap a cursor holding both the _id and the quantity column.
+     */
+    PendingQuantityCursor(Cursor cursor, LongSparseArray<Integer> deltas) {
+        super (cursor);
+        mDeltas = deltas;
+        mIdColumn = cursor.getColumnIndexOrThrow (InventoryEntry._ID);
+        mQuantityColumn = cursor.getColumnIndexOrThrow (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
+    }
+
+    private long quantity() {
+        long quantity = super.getLong (mQuantityColumn);
+        Integer delta = mDeltas.get (super.getLong (mIdColumn));
+        return delta == null ? quantity : Math.max (0, quantity + delta);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return columnIndex == mQuantityColumn ? (int) quantity () : super.getInt (columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        return columnIndex == mQuantityColumn ? quantity () : super.getLong (columnIndex);
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return columnIndex == mQuantityColumn ? (short) quantity () : super.getShort (columnIndex);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return columnIndex == mQuantityColumn ? quantity () : super.getFloat (columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return columnIndex == mQuantityColumn ? quantity () : super.getDouble (columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return columnIndex == mQuantityColumn && !isNull (columnIndex) ? String.valueOf (quantity ()) : super.getString (columnIndex);
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Small LRU cache of query results used by {@link InventoryProvider}.
+ * <p>
+ * Every entry remembers the table generation it was read at. Any write bumps the generation, so
+ * an entry is only ever served while the table is exactly as it was when the entry was read.
+ * <p>
+ * The cache is bounded by the heap its results take, estimated by
+ * {@link CursorSnapshot#getByteCount()}, rather than by rows: a catalog row takes a few hundred
+ * bytes, so a 10,000 product catalog fits the budget of a 64 MB heap. A result over the whole
+ * budget is not cached.
+ */
+final class QueryCache {
+
+    /**
+     * Maximum number of distinct queries kept in the cache
+     */
+    private static final int MAX_ENTRIES = 8;
+
+    /**
+     * Share of the heap the cached results may take together
+     */
+    private static final int HEAP_FRACTION = 16;
+
+    /**
+     * Most bytes the cached results may take together
+     */
+    static final long MAX_BYTES = Runtime.getRuntime ().maxMemory () / HEAP_FRACTION;
+    private final long mMaxBytes;
+
+    /**
+     * Cached snapshots keyed by {@link #keyFor}, least recently used first, and the bytes they
+     * take
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<> (MAX_ENTRIES, 0.75f, true);
+    private long mBytes;
+
+    /**
+     * Table generation, incremented on every write
+     */
+    private long mGeneration;
+
+    QueryCache() {
+        this (MAX_BYTES);
+    }
+
+    /**
+     * Create a cache whose results take at most the given bytes together.
+     */
+    QueryCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Build the cache key for a query.
+     */
+    static String keyFor(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return uri + "|" + Arrays.toString (projection) + "|" + selection + "|" + Arrays.toString (selectionArgs) + "|" + sortOrder;
+    }
+
+    /**
+     * Current table generation. Read it before running a query and pass it to {@link #put}.
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Mark every cached result as stale. Called after each write to the table.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mEntries.clear ();
+        mBytes = 0;
+    }
+
+    /**
+     * Return a new cursor over the cached result for the given key, or null on a miss.
+     */
+    synchronized Cursor get(String key) {
+        Entry entry = mEntries.get (key);
+        if (entry == null || entry.generation != mGeneration) {
+            return null;
+        }
+        return entry.snapshot.newCursor ();
+    }
+
+    /**
+     * Cache a result that was read at the given generation, evicting the least recently used
+     * results over the budget. Results read before the latest write are dropped.
+     */
+    synchronized void put(String key, long generation, CursorSnapshot snapshot) {
+        if (generation != mGeneration || snapshot.getByteCount () > mMaxBytes) {
+            return;
+        }
+        Entry replaced = mEntries.put (key, new Entry (generation, snapshot));
+        if (replaced != null) {
+            mBytes -= replaced.snapshot.getByteCount ();
+        }
+        mBytes += snapshot.getByteCount ();
+        Iterator<Entry> eldest = mEntries.values ().iterator ();
+        while (mBytes > mMaxBytes || mEntries.size () > MAX_ENTRIES) {
+            mBytes -= eldest.next ().snapshot.getByteCount ();
+            eldest.remove ();
+        }
+    }
+
+    /**
+     * Bytes the cached results take.
+     */
+    synchronized long byteCount() {
+        return mBytes;
+    }
+
+    private static final class Entry {
+        final long generation;
+        final CursorSnapshot snapshot;
+
+        Entry(long generation, CursorSnapshot snapshot) {
+            this.generation = generation;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.android.inventoryappstageone.data;
+
+/**
+ * Sales velocity of a product, in units per day, as an exponentially weighted moving average
+ * over time. Each sale adds its units, spread over {@link #TIME_CONSTANT_DAYS}, and the weight
+ * of everything sold before decays by e for every time constant that passes. So a velocity is
+ * kept as a value and the time it was last updated, and it's updated with every sale alone,
+ * without looking back at the history.
+ */
+public final class SalesVelocity {
+
+    /**
+     * Time constant of the average. Sales older than a few of these hardly count any more.
+     */
+    public static final double TIME_CONSTANT_DAYS = 14;
+
+    private static final double DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    private SalesVelocity() {
+    }
+
+    /**
+     * Return the velocity that was the given value at updatedMillis, as of nowMillis.
+     */
+    public static double decay(double velocity, long updatedMillis, long nowMillis) {
+        if (nowMillis <= updatedMillis) {
+            return velocity;
+        }
+        return velocity * Math.exp (-(nowMillis - updatedMillis) / DAY_MILLIS / TIME_CONSTANT_DAYS);
+    }
+
+    /**
+     * Return the velocity after a sale of the given units at nowMillis, given its value at
+     * updatedMillis.
+     */
+    public static double recordSale(double velocity, long updatedMillis, int units, long nowMillis) {
+        return decay (velocity, updatedMillis, nowMillis) + units / TIME_CONSTANT_DAYS;
+    }
+}
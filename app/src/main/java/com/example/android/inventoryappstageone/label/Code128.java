@@ -0,0 +1,129 @@
+package com.example.android.inventoryappstageone.label;
+
+/**
+ * Encodes text as a Code 128 barcode. Any printable ASCII text can be encoded; runs of digits,
+ * like the numeric SKUs, are packed two to a symbol in code set C, which keeps the barcode short
+ * enough to print with wide bars on a small label.
+ */
+public final class Code128 {
+
+    /**
+     * Bar and space widths of every symbol value, in modules. The stop pattern has a final bar.
+     */
+    private static final String[] PATTERNS = {
+            "212222", "222122", "222221", "121223", "121322", "131222", "122213", "122312", "132212", "221213",
+            "221312", "231212", "112232", "122132", "122231", "113222", "123122", "123221", "223211", "221132",
+            "221231", "213212", "223112", "312131", "311222", "321122", "321221", "312212", "322112", "322211",
+            "212123", "212321", "232121", "111323", "131123", "131321", "112313", "132113", "132311", "211313",
+            "231113", "231311", "112133", "112331", "132131", "113123", "113321", "133121", "313121", "211331",
+            "231131", "213113", "213311", "213131", "311123", "311321", "331121", "312113", "312311", "332111",
+            "314111", "221411", "431111", "111224", "111422", "121124", "121421", "141122", "141221", "112214",
+            "112412", "122114", "122411", "142112", "142211", "241211", "221114", "413111", "241112", "134111",
+            "111242", "121142", "121241", "114212", "124112", "124211", "411212", "421112", "421211", "212141",
+            "214121", "412121", "111143", "111341", "131141", "114113", "114311", "411113", "411311", "113141",
+            "114131", "311141", "411131", "211412", "211214", "211232", "2331112"};
+
+    private static final int CODE_C = 99;
+    private static final int CODE_B = 100;
+    private static final int START_B = 104;
+    private static final int START_C = 105;
+    private static final int STOP = 106;
+
+    /**
+     * Shortest run of digits worth switching to code set C for
+     */
+    private static final int MIN_DIGITS_FOR_SET_C = 4;
+
+    /**
+     * Modules of blank space a scanner needs on each side of the barcode
+     */
+    public static final int QUIET_ZONE = 10;
+
+    private Code128() {
+    }
+
+    /**
+     * Return the widths of the bars and spaces of the barcode of the given text, in modules,
+     * starting with a bar. Return null if the text is empty or has characters other than
+     * printable ASCII.
+     */
+    public static int[] encode(String text) {
+        if (text == null || text.isEmpty ()) {
+            return null;
+        }
+        int length = text.length ();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt (i);
+            if (c < ' ' || c > '~') {
+                return null;
+            }
+        }
+
+        // Symbol values, without the check symbol and stop
+        int[] values = new int[length + length / MIN_DIGITS_FOR_SET_C * 2 + 2];
+        int count = 0;
+        int set = 0;
+        for (int i = 0; i < length; ) {
+            int digits = digitRun (text, i);
+            if (digits >= MIN_DIGITS_FOR_SET_C) {
+                if (set != START_C) {
+                    values[count++] = set == 0 ? START_C : CODE_C;
+                    set = START_C;
+                }
+                // An odd digit left over is encoded in set B
+                for (int pairs = digits / 2; pairs > 0; pairs--) {
+                    values[count++] = (text.charAt (i) - '0') * 10 + text.charAt (i + 1) - '0';
+                    i += 2;
+                }
+            } else {
+                if (set != START_B) {
+                    values[count++] = set == 0 ? START_B : CODE_B;
+                    set = START_B;
+                }
+                values[count++] = text.charAt (i++) - ' ';
+            }
+        }
+
+        int checksum = values[0];
+        for (int i = 1; i < count; i++) {
+            checksum += values[i] * i;
+        }
+
+        int[] widths = new int[(count + 1) * 6 + PATTERNS[STOP].length ()];
+        int element = 0;
+        for (int i = 0; i <= count; i++) {
+            element = appendPattern (widths, element, PATTERNS[i < count ? values[i] : checksum % 103]);
+        }
+        appendPattern (widths, element, PATTERNS[STOP]);
+        return widths;
+    }
+
+    /**
+     * Return the total width of the given bars and spaces, in modules.
+     */
+    public static int moduleCount(int[] widths) {
+        int modules = 0;
+        for (int width : widths) {
+            modules += width;
+        }
+        return modules;
+    }
+
+    private static int appendPattern(int[] widths, int element, String pattern) {
+        for (int i = 0; i < pattern.length (); i++) {
+            widths[element++] = pattern.charAt (i) - '0';
+        }
+        return element;
+    }
+
+    /**
+     * Return the number of digits in a row starting at the given index.
+     */
+    private static int digitRun(String text, int start) {
+        int end = start;
+        while (end < text.length () && text.charAt (end) >= '0' && text.charAt (end) <= '9') {
+            end++;
+        }
+        return end - start;
+    }
+}
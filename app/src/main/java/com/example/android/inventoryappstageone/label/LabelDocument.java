@@ -0,0 +1,191 @@
+package com.example.android.inventoryappstageone.label;
+
+import android.database.Cursor;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Renders shelf labels to a PDF document: the product name, its price, and a Code 128 barcode
+ * of its SKU. Labels are laid out on A4 sheets of 24 (3 across, 8 down, 63.5 x 33.9 mm), like
+ * Avery L7159.
+ * <p>
+ * Each page is written out as soon as its last label is added and only one page content buffer
+ * is kept, which is reused for every page, so the document can have any number of labels.
+ */
+public final class LabelDocument {
+
+    /**
+     * Columns a label is rendered from, in the order {@link #addLabels} reads them
+     */
+    public static final String[] PROJECTION = {InventoryEntry.COLUMN_PRODUCT_NAME, InventoryEntry.COLUMN_PRODUCT_PRICE, InventoryEntry.COLUMN_PRODUCT_SKU};
+
+    private static final float POINTS_PER_MM = 72 / 25.4f;
+
+    /**
+     * Layout of the sheet
+     */
+    private static final float PAGE_WIDTH = 210 * POINTS_PER_MM;
+    private static final float PAGE_HEIGHT = 297 * POINTS_PER_MM;
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 8;
+    public static final int LABELS_PER_PAGE = COLUMNS * ROWS;
+    private static final float LABEL_WIDTH = 63.5f * POINTS_PER_MM;
+    private static final float LABEL_HEIGHT = 33.9f * POINTS_PER_MM;
+    private static final float LEFT_MARGIN = 7.25f * POINTS_PER_MM;
+    private static final float TOP_MARGIN = 12.9f * POINTS_PER_MM;
+    private static final float HORIZONTAL_PITCH = 66 * POINTS_PER_MM;
+
+    /**
+     * Layout of a label, from its top left corner
+     */
+    private static final float PADDING = 3 * POINTS_PER_MM;
+    private static final float NAME_SIZE = 9;
+    private static final float PRICE_SIZE = 16;
+    private static final float PRICE_BASELINE = PADDING + NAME_SIZE + PRICE_SIZE;
+    private static final float SKU_SIZE = 7;
+    private static final float BARCODE_HEIGHT = 10 * POINTS_PER_MM;
+
+    /**
+     * Widest a barcode module is drawn, wide enough for any scanner
+     */
+    private static final float MAX_MODULE_WIDTH = 0.4f * POINTS_PER_MM;
+
+    private static final String ELLIPSIS = "…";
+
+    private final PdfWriter mWriter;
+    private final PdfWriter.Content mContent = new PdfWriter.Content ();
+    private final String mPriceUnit;
+    private int mLabelsOnPage;
+
+    /**
+     * Start a document written to the given stream. The stream should be buffered.
+     *
+     * @param priceUnit unit printed after the price, e.g. "zł."
+     */
+    public LabelDocument(OutputStream out, String priceUnit) throws IOException {
+        mWriter = new PdfWriter (out, PAGE_WIDTH, PAGE_HEIGHT);
+        mPriceUnit = priceUnit;
+    }
+
+    /**
+     * Add the label of a product.
+     *
+     * @param name  product name, may be null
+     * @param price product price
+     * @param sku   SKU of the product, may be null. A SKU that can't be encoded is printed
+     *              without a barcode.
+     */
+    public void add(String name, int price, String sku) throws IOException {
+        float left = LEFT_MARGIN + mLabelsOnPage % COLUMNS * HORIZONTAL_PITCH;
+        float top = PAGE_HEIGHT - TOP_MARGIN - mLabelsOnPage / COLUMNS * LABEL_HEIGHT;
+        float right = left + LABEL_WIDTH;
+        float bottom = top - LABEL_HEIGHT;
+        float width = LABEL_WIDTH - 2 * PADDING;
+
+        // Clip to the label, so a long text never runs onto its neighbours
+        mContent.op ("q").num (left).num (bottom).num (LABEL_WIDTH).num (LABEL_HEIGHT).op ("re W n");
+
+        if (name != null) {
+            drawText (PdfWriter.FONT_REGULAR, NAME_SIZE, left + PADDING, top - PADDING - NAME_SIZE, truncate (name, NAME_SIZE, width));
+        }
+        drawText (PdfWriter.FONT_BOLD, PRICE_SIZE, left + PADDING, top - PRICE_BASELINE, price + " " + mPriceUnit);
+
+        if (sku != null) {
+            float skuBaseline = bottom + PADDING;
+            drawText (PdfWriter.FONT_REGULAR, SKU_SIZE, (left + right - PdfWriter.textWidth (sku, SKU_SIZE)) / 2, skuBaseline, sku);
+            int[] widths = Code128.encode (sku);
+            if (widths != null) {
+                int modules = Code128.moduleCount (widths);
+                float moduleWidth = Math.min (MAX_MODULE_WIDTH, width / (modules + 2 * Code128.QUIET_ZONE));
+                float x = (left + right - modules * moduleWidth) / 2;
+                float y = skuBaseline + SKU_SIZE;
+                // Even elements are bars, odd ones spaces
+                for (int i = 0; i < widths.length; i++) {
+                    if (i % 2 == 0) {
+                        mContent.num (x).num (y).num (widths[i] * moduleWidth).num (BARCODE_HEIGHT).op ("re");
+                    }
+                    x += widths[i] * moduleWidth;
+                }
+                mContent.op ("f");
+            }
+        }
+        mContent.op ("Q");
+
+        if (++mLabelsOnPage == LABELS_PER_PAGE) {
+            endPage ();
+        }
+    }
+
+    /**
+     * Add the labels of up to the given number of the rows after the current position of the
+     * cursor, which has the {@link #PROJECTION} columns. Return the number of labels added,
+     * fewer than asked for once the cursor runs out of rows.
+     */
+    public int addLabels(Cursor cursor, int count) throws IOException {
+        int added = 0;
+        while (added < count && cursor.moveToNext ()) {
+            add (cursor.getString (0), cursor.getInt (1), cursor.getString (2));
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * End the current page, even if it has room for more labels. The next label starts a new
+     * page.
+     */
+    public void endPage() throws IOException {
+        if (mLabelsOnPage > 0) {
+            mWriter.addPage (mContent);
+            mContent.reset ();
+            mLabelsOnPage = 0;
+        }
+    }
+
+    /**
+     * Number of pages written so far.
+     */
+    public int getPageCount() {
+        return mWriter.getPageCount ();
+    }
+
+    /**
+     * End the document. Doesn't close the output stream.
+     */
+    public void finish() throws IOException {
+        endPage ();
+        mWriter.finish ();
+    }
+
+    /**
+     * Return the page count of a document of the given number of labels.
+     */
+    public static int pageCount(int labels) {
+        return (labels + LABELS_PER_PAGE - 1) / LABELS_PER_PAGE;
+    }
+
+    private void drawText(String font, float size, float x, float baseline, String text) {
+        mContent.op ("BT").name (font).num (size).op ("Tf").num (x).num (baseline).op ("Td").text (text).op ("Tj ET");
+    }
+
+    /**
+     * Return the text, shortened with an ellipsis if it's wider than the given width.
+     */
+    private static String truncate(String text, float size, float width) {
+        if (PdfWriter.textWidth (text, size) <= width) {
+            return text;
+        }
+        float available = width - PdfWriter.textWidth (ELLIPSIS, size);
+        int end = 0;
+        for (float used = 0; end < text.length (); end++) {
+            used += PdfWriter.charWidth (text.charAt (end), size);
+            if (used > available) {
+                break;
+            }
+        }
+        return text.substring (0, end) + ELLIPSIS;
+    }
+}
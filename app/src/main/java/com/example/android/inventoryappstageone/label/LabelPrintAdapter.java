@@ -0,0 +1,178 @@
+package com.example.android.inventoryappstageone.label;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.ParcelFileDescriptor;
+import android.print.PageRange;
+import android.print.PrintAttributes;
+import android.print.PrintDocumentAdapter;
+import android.print.PrintDocumentInfo;
+import android.util.Log;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Prints the shelf labels of the products a content URI lists, like the catalog URI, through
+ * the print framework. The labels are rendered on a background thread, streamed from the
+ * provider straight into the print file, and only the pages the print framework asks for are
+ * rendered, so a preview of the first pages of thousands of labels is quick.
+ */
+@TargetApi(Build.VERSION_CODES.KITKAT)
+public class LabelPrintAdapter extends PrintDocumentAdapter {
+
+    private static final String LOG_TAG = LabelPrintAdapter.class.getSimpleName ();
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final String mJobName;
+    private final String mPriceUnit;
+    private final Handler mMainHandler = new Handler (Looper.getMainLooper ());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor ();
+
+    /**
+     * Page count of the last layout, or -1 before the first one. Only used on the main thread.
+     */
+    private int mPageCount = -1;
+
+    /**
+     * @param uri       URI listing the products to print the labels of, in order
+     * @param priceUnit unit printed after the prices
+     */
+    public LabelPrintAdapter(ContentResolver resolver, Uri uri, String jobName, String priceUnit) {
+        mResolver = resolver;
+        mUri = uri;
+        mJobName = jobName;
+        mPriceUnit = priceUnit;
+    }
+
+    @Override
+    public void onLayout(PrintAttributes oldAttributes, PrintAttributes newAttributes, final CancellationSignal cancellationSignal, final LayoutResultCallback callback, Bundle extras) {
+        // The labels fit a fixed sheet, so the layout only changes when the products do
+        mExecutor.execute (new Runnable () {
+            @Override
+            public void run() {
+                final int pageCount = LabelDocument.pageCount (countLabels ());
+                mMainHandler.post (new Runnable () {
+                    @Override
+                    public void run() {
+                        if (cancellationSignal.isCanceled ()) {
+                            callback.onLayoutCancelled ();
+                            return;
+                        }
+                        PrintDocumentInfo info = new PrintDocumentInfo.Builder (mJobName)
+                                .setContentType (PrintDocumentInfo.CONTENT_TYPE_DOCUMENT)
+                                .setPageCount (pageCount)
+                                .build ();
+                        callback.onLayoutFinished (info, pageCount != mPageCount);
+                        mPageCount = pageCount;
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void onWrite(final PageRange[] pages, final ParcelFileDescriptor destination, final CancellationSignal cancellationSignal, final WriteResultCallback callback) {
+        mExecutor.execute (new Runnable () {
+            @Override
+            public void run() {
+                Runnable result;
+                try {
+                    OutputStream out = new BufferedOutputStream (new FileOutputStream (destination.getFileDescriptor ()));
+                    Cursor cursor = mResolver.query (mUri, LabelDocument.PROJECTION, null, null, null);
+                    try {
+                        write (cursor, out, mPriceUnit, pages, cancellationSignal);
+                    } finally {
+                        if (cursor != null) {
+                            cursor.close ();
+                        }
+                        // Doesn't close the descriptor, which belongs to the print framework
+                        out.close ();
+                    }
+                    result = new Runnable () {
+                        @Override
+                        public void run() {
+                            callback.onWriteFinished (pages);
+                        }
+                    };
+                } catch (OperationCanceledException e) {
+                    result = new Runnable () {
+                        @Override
+                        public void run() {
+                            callback.onWriteCancelled ();
+                        }
+                    };
+                } catch (final IOException e) {
+                    Log.e (LOG_TAG, "Cannot write the labels", e);
+                    result = new Runnable () {
+                        @Override
+                        public void run() {
+                            callback.onWriteFailed (e.getMessage ());
+                        }
+                    };
+                }
+                mMainHandler.post (result);
+            }
+        });
+    }
+
+    @Override
+    public void onFinish() {
+        mExecutor.shutdownNow ();
+    }
+
+    /**
+     * Write the labels of the given pages to the output stream, as a PDF document of just those
+     * pages. The cursor has the {@link LabelDocument#PROJECTION} columns; the labels of pages
+     * that weren't asked for are skipped without being read. Return the number of pages written.
+     *
+     * @throws OperationCanceledException if the signal is canceled before the document is done
+     */
+    static int write(Cursor cursor, OutputStream out, String priceUnit, PageRange[] pages, CancellationSignal cancellationSignal) throws IOException {
+        LabelDocument document = new LabelDocument (out, priceUnit);
+        if (cursor != null) {
+            for (PageRange range : pages) {
+                cursor.moveToPosition (range.getStart () * LabelDocument.LABELS_PER_PAGE - 1);
+                for (int page = range.getStart (); page <= range.getEnd (); page++) {
+                    cancellationSignal.throwIfCanceled ();
+                    if (document.addLabels (cursor, LabelDocument.LABELS_PER_PAGE) < LabelDocument.LABELS_PER_PAGE) {
+                        break;
+                    }
+                }
+                document.endPage ();
+            }
+        }
+        document.finish ();
+        return document.getPageCount ();
+    }
+
+    /**
+     * Return the number of products the URI lists.
+     */
+    private int countLabels() {
+        Cursor cursor = mResolver.query (mUri, new String[]{InventoryEntry._ID}, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.getCount ();
+        } finally {
+            cursor.close ();
+        }
+    }
+}
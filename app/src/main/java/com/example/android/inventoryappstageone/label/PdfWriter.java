@@ -0,0 +1,328 @@
+package com.example.android.inventoryappstageone.label;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a PDF document one page at a time, straight to an output stream. Each page is written
+ * and forgotten as soon as it's added; all that's kept until the end is the offset of every
+ * object, so memory doesn't grow with the page content however many pages there are.
+ * <p>
+ * Pages are drawn with the standard Helvetica fonts, which every PDF reader has, so no font is
+ * embedded. Text is encoded in WinAnsi, extended with Ł and ł; other accented letters are
+ * printed without their accents.
+ */
+final class PdfWriter {
+
+    /**
+     * Font resource names of Helvetica and Helvetica Bold
+     */
+    static final String FONT_REGULAR = "/F1";
+    static final String FONT_BOLD = "/F2";
+
+    /**
+     * Ids of the objects written before the pages. Pages take two objects each from FIRST_PAGE_ID.
+     */
+    private static final int CATALOG_ID = 1;
+    private static final int PAGES_ID = 2;
+    private static final int FONT_REGULAR_ID = 3;
+    private static final int FONT_BOLD_ID = 4;
+    private static final int RESOURCES_ID = 5;
+    private static final int FIRST_PAGE_ID = 6;
+
+    /**
+     * Codes left undefined by WinAnsi that the fonts map to Ł and ł
+     */
+    private static final int CODE_LSLASH_UPPER = 0x81;
+    private static final int CODE_LSLASH = 0x8d;
+    private static final String ENCODING = "<< /Type /Encoding /BaseEncoding /WinAnsiEncoding /Differences [" + CODE_LSLASH_UPPER + " /Lslash " + CODE_LSLASH + " /lslash] >>";
+
+    /**
+     * Widths of the printable ASCII characters in Helvetica, in thousandths of the font size
+     */
+    private static final short[] HELVETICA_WIDTHS = {
+            278, 278, 355, 556, 556, 889, 667, 191, 333, 333, 389, 584, 278, 333, 278, 278,
+            556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 278, 278, 584, 584, 584, 556,
+            1015, 667, 667, 722, 722, 667, 611, 778, 722, 278, 500, 667, 556, 833, 722, 778,
+            667, 778, 722, 667, 611, 722, 667, 944, 667, 667, 611, 278, 278, 278, 469, 556,
+            333, 556, 556, 500, 556, 556, 278, 556, 556, 222, 222, 500, 222, 833, 556, 556,
+            556, 556, 333, 500, 278, 556, 500, 722, 500, 500, 500, 334, 260, 334, 584};
+
+    /**
+     * Width assumed for any other character, the width of most letters
+     */
+    private static final int DEFAULT_WIDTH = 556;
+    private static final int ELLIPSIS_WIDTH = 1000;
+
+    private final OutputStream mOut;
+    private final String mMediaBox;
+
+    /**
+     * Bytes written so far, and the offset of every object by id
+     */
+    private long mOffset;
+    private long[] mObjectOffsets = new long[64];
+    private int mPageCount;
+
+    /**
+     * Compresses the page content, reused for every page along with its output buffer
+     */
+    private final Deflater mDeflater = new Deflater (Deflater.BEST_SPEED);
+    private byte[] mCompressed = new byte[16 * 1024];
+
+    /**
+     * Content stream of a page being drawn: PDF operators and their operands. Meant to be reset
+     * and reused for every page.
+     */
+    static final class Content {
+        private byte[] mBytes = new byte[16 * 1024];
+        private int mLength;
+
+        void reset() {
+            mLength = 0;
+        }
+
+        /**
+         * Append an operator, or anything else that's plain ASCII.
+         */
+        Content op(String operator) {
+            for (int i = 0; i < operator.length (); i++) {
+                put (operator.charAt (i));
+            }
+            put ('\n');
+            return this;
+        }
+
+        /**
+         * Append a number operand, with at most two decimals.
+         */
+        Content num(float value) {
+            int hundredths = Math.round (value * 100);
+            if (hundredths < 0) {
+                put ('-');
+                hundredths = -hundredths;
+            }
+            putInt (hundredths / 100);
+            int fraction = hundredths % 100;
+            if (fraction != 0) {
+                put ('.');
+                put ((char) ('0' + fraction / 10));
+                if (fraction % 10 != 0) {
+                    put ((char) ('0' + fraction % 10));
+                }
+            }
+            put (' ');
+            return this;
+        }
+
+        /**
+         * Append a name operand, like a font resource name.
+         */
+        Content name(String name) {
+            for (int i = 0; i < name.length (); i++) {
+                put (name.charAt (i));
+            }
+            put (' ');
+            return this;
+        }
+
+        /**
+         * Append a string operand in the encoding of the fonts.
+         */
+        Content text(String text) {
+            put ('(');
+            for (int i = 0; i < text.length (); i++) {
+                int code = encode (text.charAt (i));
+                if (code == '(' || code == ')' || code == '\\') {
+                    put ('\\');
+                }
+                put ((char) code);
+            }
+            put (')');
+            put (' ');
+            return this;
+        }
+
+        private void putInt(int value) {
+            if (value >= 10) {
+                putInt (value / 10);
+            }
+            put ((char) ('0' + value % 10));
+        }
+
+        private void put(char c) {
+            if (mLength == mBytes.length) {
+                mBytes = Arrays.copyOf (mBytes, mLength * 2);
+            }
+            mBytes[mLength++] = (byte) c;
+        }
+    }
+
+    /**
+     * Start a document whose pages are the given size, in points, by writing its header.
+     */
+    PdfWriter(OutputStream out, float pageWidth, float pageHeight) throws IOException {
+        mOut = out;
+        mMediaBox = "[0 0 " + pageWidth + " " + pageHeight + "]";
+        // The binary comment tells transfer programs the file isn't text
+        write ("%PDF-1.4\n%âãÏÓ\n");
+        writeObject (CATALOG_ID, "<< /Type /Catalog /Pages " + PAGES_ID + " 0 R >>");
+        writeObject (FONT_REGULAR_ID, "<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica /Encoding " + ENCODING + " >>");
+        writeObject (FONT_BOLD_ID, "<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica-Bold /Encoding " + ENCODING + " >>");
+        writeObject (RESOURCES_ID, "<< /Font << " + FONT_REGULAR + " " + FONT_REGULAR_ID + " 0 R " + FONT_BOLD + " " + FONT_BOLD_ID + " 0 R >> >>");
+    }
+
+    /**
+     * Write a page with the given content.
+     */
+    void addPage(Content content) throws IOException {
+        mDeflater.reset ();
+        mDeflater.setInput (content.mBytes, 0, content.mLength);
+        mDeflater.finish ();
+        int compressedLength = 0;
+        while (!mDeflater.finished ()) {
+            if (compressedLength == mCompressed.length) {
+                mCompressed = Arrays.copyOf (mCompressed, compressedLength * 2);
+            }
+            compressedLength += mDeflater.deflate (mCompressed, compressedLength, mCompressed.length - compressedLength);
+        }
+
+        int contentId = FIRST_PAGE_ID + mPageCount * 2;
+        beginObject (contentId);
+        write ("<< /Length " + compressedLength + " /Filter /FlateDecode >>\nstream\n");
+        mOut.write (mCompressed, 0, compressedLength);
+        mOffset += compressedLength;
+        write ("\nendstream\nendobj\n");
+        writeObject (contentId + 1, "<< /Type /Page /Parent " + PAGES_ID + " 0 R /MediaBox " + mMediaBox + " /Resources " + RESOURCES_ID + " 0 R /Contents " + contentId + " 0 R >>");
+        mPageCount++;
+    }
+
+    /**
+     * Number of pages written so far.
+     */
+    int getPageCount() {
+        return mPageCount;
+    }
+
+    /**
+     * Write the page tree and the cross-reference table that end the document. Doesn't close
+     * the output stream.
+     */
+    void finish() throws IOException {
+        StringBuilder pages = new StringBuilder ("<< /Type /Pages /Kids [");
+        for (int page = 0; page < mPageCount; page++) {
+            pages.append (FIRST_PAGE_ID + page * 2 + 1).append (" 0 R ");
+        }
+        pages.append ("] /Count ").append (mPageCount).append (" >>");
+        writeObject (PAGES_ID, pages.toString ());
+
+        int objectCount = FIRST_PAGE_ID + mPageCount * 2;
+        long xrefOffset = mOffset;
+        StringBuilder xref = new StringBuilder ("xref\n0 ").append (objectCount).append ("\n0000000000 65535 f \n");
+        for (int id = 1; id < objectCount; id++) {
+            String offset = String.valueOf (mObjectOffsets[id]);
+            for (int pad = offset.length (); pad < 10; pad++) {
+                xref.append ('0');
+            }
+            xref.append (offset).append (" 00000 n \n");
+        }
+        xref.append ("trailer\n<< /Size ").append (objectCount).append (" /Root ").append (CATALOG_ID).append (" 0 R >>\nstartxref\n").append (xrefOffset).append ("\n%%EOF\n");
+        write (xref.toString ());
+        mOut.flush ();
+        mDeflater.end ();
+    }
+
+    /**
+     * Return the width of the given text in Helvetica of the given size, in points.
+     */
+    static float textWidth(String text, float fontSize) {
+        float width = 0;
+        for (int i = 0; i < text.length (); i++) {
+            width += charWidth (text.charAt (i), fontSize);
+        }
+        return width;
+    }
+
+    /**
+     * Return the width of the given character in Helvetica of the given size, in points.
+     */
+    static float charWidth(char c, float fontSize) {
+        int width;
+        if (c >= ' ' && c <= '~') {
+            width = HELVETICA_WIDTHS[c - ' '];
+        } else {
+            width = c == '…' ? ELLIPSIS_WIDTH : DEFAULT_WIDTH;
+        }
+        return width * fontSize / 1000;
+    }
+
+    /**
+     * Return the code of the given character in the encoding of the fonts. Letters the encoding
+     * lacks lose their accents, and anything else becomes a question mark.
+     */
+    static int encode(char c) {
+        if ((c >= ' ' && c <= '~') || (c >= '\u00a0' && c <= '\u00ff')) {
+            return c;
+        }
+        switch (c) {
+            case 'Ł':
+                return CODE_LSLASH_UPPER;
+            case 'ł':
+                return CODE_LSLASH;
+            case '€':
+                return 0x80;
+            case '…':
+                return 0x85;
+            case '‘':
+                return 0x91;
+            case '’':
+                return 0x92;
+            case '“':
+                return 0x93;
+            case '”':
+                return 0x94;
+            case '–':
+                return 0x96;
+            case '—':
+                return 0x97;
+            case 'Š':
+                return 0x8a;
+            case 'š':
+                return 0x9a;
+            case 'Ž':
+                return 0x8e;
+            case 'ž':
+                return 0x9e;
+        }
+        char base = Normalizer.normalize (String.valueOf (c), Normalizer.Form.NFD).charAt (0);
+        return base != c && base >= ' ' && base <= '~' ? base : '?';
+    }
+
+    private void writeObject(int id, String dictionary) throws IOException {
+        beginObject (id);
+        write (dictionary);
+        write ("\nendobj\n");
+    }
+
+    private void beginObject(int id) throws IOException {
+        if (id >= mObjectOffsets.length) {
+            mObjectOffsets = Arrays.copyOf (mObjectOffsets, Math.max (id + 1, mObjectOffsets.length * 2));
+        }
+        mObjectOffsets[id] = mOffset;
+        write (id + " 0 obj\n");
+    }
+
+    /**
+     * Write text whose characters are all single bytes.
+     */
+    private void write(String text) throws IOException {
+        int length = text.length ();
+        for (int i = 0; i < length; i++) {
+            mOut.write (text.charAt (i));
+        }
+        mOffset += length;
+    }
+}
@@ -0,0 +1,516 @@
+package com.example.android.inventoryappstageone.report;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.v4.util.LongSparseArray;
+
+import com.example.android.inventoryappstageone.data.InventoryContract;
+import com.example.android.inventoryappstageone.data.InventoryContract.ChangeEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.DemandEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory, column-oriented copy of the inventory table for the reporting screens. Each
+ * attribute a report needs is kept in its own primitive array, and supplier names are
+ * dictionary-encoded as small ints, so an aggregation scans a few dense arrays instead of
+ * every row of the table.
+ * <p>
+ * The snapshot is kept current from the change feed (see {@link ChangeEntry}): on every change
+ * notification only the rows changed since the last refresh are re-read. When the feed can't
+ * tell what changed, because it was pruned or the change came from the sync adapter, the
+ * snapshot is reloaded instead. While auto refreshing, the snapshot acknowledges how far it read
+ * the feed (see {@link InventoryContract#METHOD_ACKNOWLEDGE_CHANGES}), so maintenance keeps the
+ * changes its next refresh needs. The time of each product's last sale comes from its sales
+ * velocity (see {@link DemandEntry}), which only real sales update.
+ */
+public final class ColumnarSnapshot {
+
+    /**
+     * Columns the snapshot keeps
+     */
+    private static final String[] PROJECTION = {InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_PRICE, InventoryEntry.COLUMN_PRODUCT_QUANTITY, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME};
+    private static final String[] DEMAND_PROJECTION = {DemandEntry.COLUMN_INVENTORY_ID, DemandEntry.COLUMN_UPDATED_AT};
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Name snapshots read the change feed under. They share it, since the reports have one
+     * auto refreshing snapshot at a time.
+     */
+    private static final String FEED_READER = "report_snapshot";
+
+    /**
+     * Aggregations hold the read lock, refreshes the write lock
+     */
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock ();
+
+    /**
+     * The columns. Row i of the snapshot is at index i of every array; rows are in no particular order.
+     */
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private int[] mPrices = new int[INITIAL_CAPACITY];
+    private int[] mQuantities = new int[INITIAL_CAPACITY];
+    private int[] mSupplierIds = new int[INITIAL_CAPACITY];
+    private long[] mLastSaleMillis = new long[INITIAL_CAPACITY];
+    private int mSize;
+
+    /**
+     * Row index of every inventory id
+     */
+    private final LongSparseArray<Integer> mRowOfId = new LongSparseArray<> ();
+
+    /**
+     * Supplier dictionary: the supplier name of every supplier id, and back
+     */
+    private final List<String> mSupplierNames = new ArrayList<> ();
+    private final Map<String, Integer> mSupplierIdOfName = new HashMap<> ();
+
+    /**
+     * Sequence number of the last change feed entry applied
+     */
+    private long mSequence;
+
+    /**
+     * Observer of the inventory table and the thread it refreshes the snapshot on, while auto refreshing
+     */
+    private ContentObserver mObserver;
+    private ExecutorService mRefreshExecutor;
+
+    /**
+     * Load a snapshot of the whole inventory table. Does a full table scan, so never call it on
+     * the main thread.
+     */
+    public static ColumnarSnapshot load(ContentResolver resolver) {
+        ColumnarSnapshot snapshot = new ColumnarSnapshot ();
+        snapshot.reload (resolver);
+        return snapshot;
+    }
+
+    /**
+     * Number of rows in the snapshot.
+     */
+    public int size() {
+        mLock.readLock ().lock ();
+        try {
+            return mSize;
+        } finally {
+            mLock.readLock ().unlock ();
+        }
+    }
+
+    /**
+     * Replace the content of the snapshot with the current inventory table.
+     */
+    public void reload(ContentResolver resolver) {
+        mLock.writeLock ().lock ();
+        try {
+            // Read the feed position first: changes made while the table is read are applied
+            // again by the next refresh, which is harmless since it re-reads whole rows.
+            long sequence = latestSequence (resolver);
+
+            mSize = 0;
+            mRowOfId.clear ();
+            Cursor cursor = resolver.query (InventoryEntry.CONTENT_URI, PROJECTION, null, null, null);
+            if (cursor == null) {
+                return;
+            }
+            try {
+                while (cursor.moveToNext ()) {
+                    put (cursor.getLong (0), cursor.getInt (1), cursor.getInt (2), cursor.getString (3));
+                }
+            } finally {
+                cursor.close ();
+            }
+
+            // The last sale of every product that ever sold
+            cursor = resolver.query (DemandEntry.CONTENT_URI, DEMAND_PROJECTION, null, null, null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext ()) {
+                        Integer row = mRowOfId.get (cursor.getLong (0));
+                        if (row != null) {
+                            mLastSaleMillis[row] = cursor.getLong (1);
+                        }
+                    }
+                } finally {
+                    cursor.close ();
+                }
+            }
+            mSequence = sequence;
+        } finally {
+            mLock.writeLock ().unlock ();
+        }
+    }
+
+    /**
+     * Apply the changes recorded in the change feed since the last refresh, re-reading only the
+     * changed rows. Falls back to {@link #reload} when changes were pruned from the feed before
+     * they could be applied.
+     */
+    public void refresh(ContentResolver resolver) {
+        mLock.writeLock ().lock ();
+        try {
+            Cursor cursor = resolver.query (ChangeEntry.buildChangesSinceUri (mSequence), new String[]{ChangeEntry._ID, ChangeEntry.COLUMN_INVENTORY_ID}, null, null, null);
+            if (cursor == null) {
+                return;
+            }
+            try {
+                // Sequence numbers have no gaps, so a gap means the feed was pruned under us
+                if (cursor.moveToFirst () && cursor.getLong (0) != mSequence + 1) {
+                    reload (resolver);
+                    return;
+                }
+
+                // Each changed row is re-read once, however often it changed
+                LongSparseArray<Boolean> changed = new LongSparseArray<> ();
+                for (; !cursor.isAfterLast (); cursor.moveToNext ()) {
+                    changed.put (cursor.getLong (1), Boolean.TRUE);
+                    mSequence = cursor.getLong (0);
+                }
+                for (int i = 0; i < changed.size (); i++) {
+                    reread (resolver, changed.keyAt (i));
+                }
+            } finally {
+                cursor.close ();
+            }
+        } finally {
+            mLock.writeLock ().unlock ();
+        }
+    }
+
+    /**
+     * Keep the snapshot current by refreshing it on a background thread whenever the inventory
+     * table changes. Notifications arriving while a refresh is pending are coalesced into it.
+     *
+     * @param handler handler to receive the change notifications on, or null for any thread
+     */
+    public void startAutoRefresh(final ContentResolver resolver, Handler handler) {
+        if (mObserver != null) {
+            return;
+        }
+        final ExecutorService executor = Executors.newSingleThreadExecutor ();
+        mRefreshExecutor = executor;
+        final AtomicBoolean pending = new AtomicBoolean ();
+        final AtomicBoolean needsReload = new AtomicBoolean ();
+        mObserver = new ContentObserver (handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange (selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                // The sync adapter's changes aren't recorded in the feed
+                if (uri != null && Boolean.parseBoolean (uri.getQueryParameter (InventoryContract.CALLER_IS_SYNC_ADAPTER))) {
+                    needsReload.set (true);
+                }
+                if (!pending.compareAndSet (false, true)) {
+                    return;
+                }
+                executor.execute (new Runnable () {
+                    @Override
+                    public void run() {
+                        pending.set (false);
+                        if (needsReload.getAndSet (false)) {
+                            reload (resolver);
+                        } else {
+                            refresh (resolver);
+                        }
+                        acknowledge (resolver, sequence ());
+                    }
+                });
+            }
+
+            @Override
+            public boolean deliverSelfNotifications() {
+                return true;
+            }
+        };
+        resolver.registerContentObserver (InventoryEntry.CONTENT_URI, true, mObserver);
+        executor.execute (new Runnable () {
+            @Override
+            public void run() {
+                acknowledge (resolver, sequence ());
+            }
+        });
+    }
+
+    /**
+     * Stop refreshing the snapshot.
+     */
+    public void stopAutoRefresh(final ContentResolver resolver) {
+        if (mObserver != null) {
+            resolver.unregisterContentObserver (mObserver);
+            // The feed no longer needs to be kept for this snapshot
+            mRefreshExecutor.execute (new Runnable () {
+                @Override
+                public void run() {
+                    acknowledge (resolver, -1);
+                }
+            });
+            mRefreshExecutor.shutdown ();
+            mObserver = null;
+            mRefreshExecutor = null;
+        }
+    }
+
+    /**
+     * Total stock value (price times quantity) per supplier, most valuable supplier first.
+     */
+    public Map<String, Long> stockValueBySupplier(ParallelAggregator aggregator) {
+        mLock.readLock ().lock ();
+        try {
+            final int suppliers = mSupplierNames.size ();
+            long[] values = aggregator.aggregate (mSize, new ParallelAggregator.Aggregation<long[]> () {
+                @Override
+                public long[] aggregate(int from, int to) {
+                    long[] partial = new long[suppliers];
+                    for (int row = from; row < to; row++) {
+                        partial[mSupplierIds[row]] += (long) mPrices[row] * mQuantities[row];
+                    }
+                    return partial;
+                }
+
+                @Override
+                public long[] merge(long[] left, long[] right) {
+                    for (int supplier = 0; supplier < suppliers; supplier++) {
+                        left[supplier] += right[supplier];
+                    }
+                    return left;
+                }
+            });
+
+            // Decode the supplier ids, skipping suppliers that no longer have any stock
+            Integer[] order = new Integer[suppliers];
+            for (int supplier = 0; supplier < suppliers; supplier++) {
+                order[supplier] = supplier;
+            }
+            final long[] sortValues = values;
+            Arrays.sort (order, new Comparator<Integer> () {
+                @Override
+                public int compare(Integer left, Integer right) {
+                    // Long.compare needs API 19
+                    long difference = sortValues[right] - sortValues[left];
+                    return difference < 0 ? -1 : (difference == 0 ? 0 : 1);
+                }
+            });
+            Map<String, Long> bySupplier = new LinkedHashMap<> ();
+            for (int supplier : order) {
+                if (values[supplier] != 0) {
+                    bySupplier.put (mSupplierNames.get (supplier), values[supplier]);
+                }
+            }
+            return bySupplier;
+        } finally {
+            mLock.readLock ().unlock ();
+        }
+    }
+
+    /**
+     * Number of products per price bucket. Bucket i holds the prices up to and including
+     * upperBounds[i]; the last bucket, one past the bounds, holds every higher price.
+     *
+     * @param upperBounds ascending upper bounds of the buckets
+     */
+    public long[] priceHistogram(ParallelAggregator aggregator, final int[] upperBounds) {
+        mLock.readLock ().lock ();
+        try {
+            return aggregator.aggregate (mSize, new ParallelAggregator.Aggregation<long[]> () {
+                @Override
+                public long[] aggregate(int from, int to) {
+                    long[] partial = new long[upperBounds.length + 1];
+                    for (int row = from; row < to; row++) {
+                        int bucket = Arrays.binarySearch (upperBounds, mPrices[row]);
+                        partial[bucket < 0 ? -bucket - 1 : bucket]++;
+                    }
+                    return partial;
+                }
+
+                @Override
+                public long[] merge(long[] left, long[] right) {
+                    for (int bucket = 0; bucket < left.length; bucket++) {
+                        left[bucket] += right[bucket];
+                    }
+                    return left;
+                }
+            });
+        } finally {
+            mLock.readLock ().unlock ();
+        }
+    }
+
+    /**
+     * Ids of the products in stock that haven't sold since the given time. A product that never
+     * sold counts as dead stock.
+     */
+    public long[] deadStock(ParallelAggregator aggregator, final long unsoldSinceMillis) {
+        mLock.readLock ().lock ();
+        try {
+            return aggregator.aggregate (mSize, new ParallelAggregator.Aggregation<long[]> () {
+                @Override
+                public long[] aggregate(int from, int to) {
+                    long[] ids = new long[to - from];
+                    int count = 0;
+                    for (int row = from; row < to; row++) {
+                        if (mQuantities[row] > 0 && mLastSaleMillis[row] < unsoldSinceMillis) {
+                            ids[count++] = mIds[row];
+                        }
+                    }
+                    return Arrays.copyOf (ids, count);
+                }
+
+                @Override
+                public long[] merge(long[] left, long[] right) {
+                    long[] merged = Arrays.copyOf (left, left.length + right.length);
+                    System.arraycopy (right, 0, merged, left.length, right.length);
+                    return merged;
+                }
+            });
+        } finally {
+            mLock.readLock ().unlock ();
+        }
+    }
+
+    /**
+     * Insert or replace the row of the given inventory. The caller holds the write lock.
+     */
+    void put(long id, int price, int quantity, String supplierName) {
+        Integer row = mRowOfId.get (id);
+        if (row == null) {
+            ensureCapacity (mSize + 1);
+            row = mSize++;
+            mRowOfId.put (id, row);
+            mLastSaleMillis[row] = 0;
+        }
+        mIds[row] = id;
+        mPrices[row] = price;
+        mQuantities[row] = quantity;
+        mSupplierIds[row] = supplierId (supplierName);
+    }
+
+    /**
+     * Remove the row of the given inventory by moving the last row into its place. The caller
+     * holds the write lock.
+     */
+    void remove(long id) {
+        Integer row = mRowOfId.get (id);
+        if (row == null) {
+            return;
+        }
+        mRowOfId.remove (id);
+        int last = --mSize;
+        if (row != last) {
+            mIds[row] = mIds[last];
+            mPrices[row] = mPrices[last];
+            mQuantities[row] = mQuantities[last];
+            mSupplierIds[row] = mSupplierIds[last];
+            mLastSaleMillis[row] = mLastSaleMillis[last];
+            mRowOfId.put (mIds[row], row);
+        }
+    }
+
+    /**
+     * Re-read a single inventory and the time of its last sale, removing it from the snapshot if
+     * it was deleted.
+     */
+    private void reread(ContentResolver resolver, long id) {
+        Cursor cursor = resolver.query (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id), PROJECTION, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst ()) {
+                remove (id);
+                return;
+            }
+            put (id, cursor.getInt (1), cursor.getInt (2), cursor.getString (3));
+        } finally {
+            cursor.close ();
+        }
+
+        cursor = resolver.query (DemandEntry.CONTENT_URI, DEMAND_PROJECTION, DemandEntry.COLUMN_INVENTORY_ID + "=?", new String[]{String.valueOf (id)}, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (cursor.moveToFirst ()) {
+                mLastSaleMillis[mRowOfId.get (id)] = cursor.getLong (1);
+            }
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    /**
+     * Return the dictionary id of a supplier name, adding it to the dictionary if it's new.
+     */
+    private int supplierId(String supplierName) {
+        Integer id = mSupplierIdOfName.get (supplierName);
+        if (id == null) {
+            id = mSupplierNames.size ();
+            mSupplierNames.add (supplierName);
+            mSupplierIdOfName.put (supplierName, id);
+        }
+        return id;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max (capacity, mIds.length * 2);
+        mIds = Arrays.copyOf (mIds, newCapacity);
+        mPrices = Arrays.copyOf (mPrices, newCapacity);
+        mQuantities = Arrays.copyOf (mQuantities, newCapacity);
+        mSupplierIds = Arrays.copyOf (mSupplierIds, newCapacity);
+        mLastSaleMillis = Arrays.copyOf (mLastSaleMillis, newCapacity);
+    }
+
+    /**
+     * Sequence number of the last change feed entry applied, read under the lock.
+     */
+    private long sequence() {
+        mLock.readLock ().lock ();
+        try {
+            return mSequence;
+        } finally {
+            mLock.readLock ().unlock ();
+        }
+    }
+
+    private static void acknowledge(ContentResolver resolver, long sequence) {
+        resolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ACKNOWLEDGE_CHANGES, null, InventoryContract.buildAcknowledgeChangesExtras (FEED_READER, sequence));
+    }
+
+    /**
+     * Return the sequence number of the latest change in the feed, or 0 if it's empty.
+     */
+    private static long latestSequence(ContentResolver resolver) {
+        Cursor cursor = resolver.query (ChangeEntry.CONTENT_URI, new String[]{"MAX(" + ChangeEntry._ID + ")"}, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst () ? cursor.getLong (0) : 0;
+        } finally {
+            cursor.close ();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.inventoryappstageone.report;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs an aggregation over the rows of a {@link ColumnarSnapshot} on several threads. The rows
+ * are split into contiguous partitions, each partition is aggregated on its own thread, and the
+ * partial results are merged in partition order.
+ * <p>
+ * This is a fixed thread pool rather than a ForkJoinPool, which needs API 21: the partitions
+ * are equal in size and never split further, so work stealing would buy nothing here.
+ */
+public final class ParallelAggregator {
+
+    /**
+     * Smallest partition worth handing to another thread. Smaller inputs are aggregated on the
+     * calling thread.
+     */
+    private static final int MIN_ROWS_PER_PARTITION = 16384;
+
+    /**
+     * An aggregation of a range of rows, and how to merge two partial results.
+     */
+    public interface Aggregation<T> {
+
+        /**
+         * Aggregate the rows from (inclusive) to (exclusive).
+         */
+        T aggregate(int from, int to);
+
+        /**
+         * Merge the partial results of two adjacent partitions, left before right.
+         */
+        T merge(T left, T right);
+    }
+
+    private final int mParallelism;
+    private final ExecutorService mExecutor;
+
+    /**
+     * Constructs a new {@link ParallelAggregator} using one thread per available processor.
+     */
+    public ParallelAggregator() {
+        this (Runtime.getRuntime ().availableProcessors ());
+    }
+
+    public ParallelAggregator(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException ("Parallelism must be at least 1");
+        }
+        mParallelism = parallelism;
+        mExecutor = Executors.newFixedThreadPool (parallelism);
+    }
+
+    /**
+     * Aggregate the rows 0..size-1. The calling thread aggregates the last partition itself.
+     */
+    public <T> T aggregate(int size, final Aggregation<T> aggregation) {
+        int partitions = Math.max (1, Math.min (mParallelism, size / MIN_ROWS_PER_PARTITION));
+        if (partitions == 1) {
+            return aggregation.aggregate (0, size);
+        }
+
+        int partitionSize = (size + partitions - 1) / partitions;
+        List<Future<T>> futures = new ArrayList<> (partitions - 1);
+        for (int partition = 0; partition < partitions - 1; partition++) {
+            final int from = partition * partitionSize;
+            final int to = from + partitionSize;
+            futures.add (mExecutor.submit (new Callable<T> () {
+                @Override
+                public T call() {
+                    return aggregation.aggregate (from, to);
+                }
+            }));
+        }
+        T last = aggregation.aggregate ((partitions - 1) * partitionSize, size);
+
+        try {
+            T result = futures.get (0).get ();
+            for (int partition = 1; partition < futures.size (); partition++) {
+                result = aggregation.merge (result, futures.get (partition).get ());
+            }
+            return aggregation.merge (result, last);
+        } catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+            throw new IllegalStateException ("Interrupted while aggregating", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException ("Aggregation failed", e.getCause ());
+        }
+    }
+
+    /**
+     * Stop the aggregation threads.
+     */
+    public void shutdown() {
+        mExecutor.shutdown ();
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.android.inventoryappstageone.report;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.DemandEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.SalesVelocity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Suggests how much to reorder of every product, grouped per supplier, from the sales
+ * velocities the provider keeps (see {@link SalesVelocity}). A product is reordered up to what it
+ * is expected to sell over the cover period.
+ * <p>
+ * The velocities are kept current with every sale, so planning never looks at the sales history:
+ * it's one pass over the products held in primitive arrays, like {@link ColumnarSnapshot}.
+ */
+public final class ReorderPlanner {
+
+    /**
+     * Days of sales a reorder covers by default: the time until the next order plus the delivery time
+     */
+    public static final int DEFAULT_COVER_DAYS = 14;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The columns. Row i holds the inventory mIds[i]; its velocity is 0 if it never sold.
+     */
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private int[] mQuantities = new int[INITIAL_CAPACITY];
+    private int[] mSupplierIds = new int[INITIAL_CAPACITY];
+    private double[] mVelocities = new double[INITIAL_CAPACITY];
+    private long[] mUpdatedMillis = new long[INITIAL_CAPACITY];
+    private int mSize;
+
+    /**
+     * Supplier dictionary: the supplier name of every supplier id, and back
+     */
+    private final List<String> mSupplierNames = new ArrayList<> ();
+    private final Map<String, Integer> mSupplierIdOfName = new HashMap<> ();
+
+    /**
+     * The reorder of one supplier: the products to order and how many of each.
+     */
+    public static final class SupplierOrder {
+        public final String supplierName;
+        public final long[] inventoryIds;
+        public final int[] quantities;
+        public final long totalUnits;
+
+        SupplierOrder(String supplierName, long[] inventoryIds, int[] quantities, long totalUnits) {
+            this.supplierName = supplierName;
+            this.inventoryIds = inventoryIds;
+            this.quantities = quantities;
+            this.totalUnits = totalUnits;
+        }
+    }
+
+    ReorderPlanner() {
+    }
+
+    /**
+     * Load the quantity, supplier and sales velocity of every inventory. Reads the whole inventory
+     * table, so never call it on the main thread.
+     */
+    public static ReorderPlanner load(ContentResolver resolver) {
+        ReorderPlanner planner = new ReorderPlanner ();
+
+        // Both come sorted by inventory id, so they're merged in one pass
+        Cursor inventories = resolver.query (InventoryEntry.CONTENT_URI, new String[]{InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_QUANTITY, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME}, null, null, InventoryEntry._ID + " ASC");
+        Cursor demand = resolver.query (DemandEntry.CONTENT_URI, new String[]{DemandEntry.COLUMN_INVENTORY_ID, DemandEntry.COLUMN_VELOCITY, DemandEntry.COLUMN_UPDATED_AT}, null, null, DemandEntry.COLUMN_INVENTORY_ID + " ASC");
+        try {
+            if (inventories == null || demand == null) {
+                return planner;
+            }
+            boolean hasDemand = demand.moveToFirst ();
+            while (inventories.moveToNext ()) {
+                long id = inventories.getLong (0);
+                while (hasDemand && demand.getLong (0) < id) {
+                    hasDemand = demand.moveToNext ();
+                }
+                if (hasDemand && demand.getLong (0) == id) {
+                    planner.add (id, inventories.getInt (1), inventories.getString (2), demand.getDouble (1), demand.getLong (2));
+                } else {
+                    planner.add (id, inventories.getInt (1), inventories.getString (2), 0, 0);
+                }
+            }
+        } finally {
+            if (inventories != null) {
+                inventories.close ();
+            }
+            if (demand != null) {
+                demand.close ();
+            }
+        }
+        return planner;
+    }
+
+    /**
+     * Number of products in the planner.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Return the reorder quantity of a product that sells velocityPerDay units and holds the
+     * given quantity: what it's expected to sell over the cover period, less what it holds.
+     */
+    public static int suggestedQuantity(double velocityPerDay, int quantity, int coverDays) {
+        return (int) Math.max (0, Math.ceil (velocityPerDay * coverDays) - quantity);
+    }
+
+    /**
+     * Plan the reorders as of the given time, one per supplier with anything to order, largest
+     * order first.
+     */
+    public List<SupplierOrder> plan(long nowMillis, int coverDays) {
+        int suppliers = mSupplierNames.size ();
+        int[] suggested = new int[mSize];
+        int[] productsPerSupplier = new int[suppliers];
+        long[] unitsPerSupplier = new long[suppliers];
+        for (int row = 0; row < mSize; row++) {
+            if (mVelocities[row] == 0) {
+                continue;
+            }
+            int quantity = suggestedQuantity (SalesVelocity.decay (mVelocities[row], mUpdatedMillis[row], nowMillis), mQuantities[row], coverDays);
+            if (quantity > 0) {
+                suggested[row] = quantity;
+                productsPerSupplier[mSupplierIds[row]]++;
+                unitsPerSupplier[mSupplierIds[row]] += quantity;
+            }
+        }
+
+        // Second pass: fill each supplier's order
+        long[][] ids = new long[suppliers][];
+        int[][] quantities = new int[suppliers][];
+        int[] filled = new int[suppliers];
+        for (int supplier = 0; supplier < suppliers; supplier++) {
+            ids[supplier] = new long[productsPerSupplier[supplier]];
+            quantities[supplier] = new int[productsPerSupplier[supplier]];
+        }
+        for (int row = 0; row < mSize; row++) {
+            if (suggested[row] > 0) {
+                int supplier = mSupplierIds[row];
+                ids[supplier][filled[supplier]] = mIds[row];
+                quantities[supplier][filled[supplier]++] = suggested[row];
+            }
+        }
+
+        List<SupplierOrder> orders = new ArrayList<> ();
+        for (int supplier = 0; supplier < suppliers; supplier++) {
+            if (productsPerSupplier[supplier] > 0) {
+                orders.add (new SupplierOrder (mSupplierNames.get (supplier), ids[supplier], quantities[supplier], unitsPerSupplier[supplier]));
+            }
+        }
+        Collections.sort (orders, new Comparator<SupplierOrder> () {
+            @Override
+            public int compare(SupplierOrder left, SupplierOrder right) {
+                // Long.compare needs API 19
+                long difference = right.totalUnits - left.totalUnits;
+                return difference < 0 ? -1 : (difference == 0 ? 0 : 1);
+            }
+        });
+        return orders;
+    }
+
+    /**
+     * Add a product.
+     */
+    void add(long id, int quantity, String supplierName, double velocity, long updatedMillis) {
+        if (mSize == mIds.length) {
+            int capacity = mSize * 2;
+            mIds = Arrays.copyOf (mIds, capacity);
+            mQuantities = Arrays.copyOf (mQuantities, capacity);
+            mSupplierIds = Arrays.copyOf (mSupplierIds, capacity);
+            mVelocities = Arrays.copyOf (mVelocities, capacity);
+            mUpdatedMillis = Arrays.copyOf (mUpdatedMillis, capacity);
+        }
+        mIds[mSize] = id;
+        mQuantities[mSize] = quantity;
+        mSupplierIds[mSize] = supplierId (supplierName);
+        mVelocities[mSize] = velocity;
+        mUpdatedMillis[mSize] = updatedMillis;
+        mSize++;
+    }
+
+    private int supplierId(String supplierName) {
+        Integer supplierId = mSupplierIdOfName.get (supplierName);
+        if (supplierId == null) {
+            supplierId = mSupplierNames.size ();
+            mSupplierNames.add (supplierName);
+            mSupplierIdOfName.put (supplierName, supplierId);
+        }
+        return supplierId;
+    }
+}
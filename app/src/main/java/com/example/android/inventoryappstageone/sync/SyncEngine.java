@@ -0,0 +1,458 @@
+package com.example.android.inventoryappstageone.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.example.android.inventoryappstageone.data.InventoryContract;
+import com.example.android.inventoryappstageone.data.InventoryContract.ChangeEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shares inventory changes between the tills of a store through a {@link SyncServer}.
+ * <p>
+ * Only deltas travel: a push sends the changes recorded in the change feed since the last
+ * acknowledged push, a pull fetches what other devices pushed since the last pull. Quantities
+ * are exchanged as deltas, so sales made on different tills at the same time add up instead of
+ * overwriting each other. An update carries only the other columns it set, so edits of different
+ * columns on different tills both survive; each column is last-writer-wins in server order.
+ * <p>
+ * Each device numbers its rows on its own, so changes name the inventory by its uid
+ * ({@link InventoryEntry#COLUMN_PRODUCT_UID}) and every device maps it to its local row. A
+ * product created on two tills before they synced has two uids; if it has a SKU, the tills
+ * recognize it by the SKU once they sync, and both keep the smaller uid. Changes made under the
+ * larger uid before that are lost on the tills that never had it.
+ * <p>
+ * The engine reads the change feed from its first sync on: until then the feed may be pruned,
+ * and the products it held reach the other tills only once they change again.
+ */
+public final class SyncEngine {
+
+    /**
+     * Maximum number of changes per pushed or pulled batch
+     */
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * Keys of the sync state in the shared preferences
+     */
+    private static final String KEY_LAST_PUSHED_SEQUENCE = "last_pushed_sequence";
+    private static final String KEY_LAST_PULLED_SEQUENCE = "last_pulled_sequence";
+
+    /**
+     * Name the engine reads the change feed under, see InventoryContract.METHOD_ACKNOWLEDGE_CHANGES
+     */
+    private static final String FEED_READER = "sync";
+
+    private static final String UID_SELECTION = InventoryEntry.COLUMN_PRODUCT_UID + "=?";
+
+    /**
+     * Columns of the inventories table read for a push. All but the _id and the uid are sent
+     * along with an insert or update.
+     */
+    private static final String[] SYNCED_COLUMNS = {InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_UID, InventoryEntry.COLUMN_PRODUCT_NAME, InventoryEntry.COLUMN_PRODUCT_PRICE, InventoryEntry.COLUMN_PRODUCT_QUANTITY, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, InventoryEntry.COLUMN_PRODUCT_SKU};
+
+    private final ContentResolver mResolver;
+    private final SyncServer mServer;
+    private final SharedPreferences mState;
+    private final String mDeviceId;
+
+    /**
+     * Constructs a new {@link SyncEngine}.
+     *
+     * @param resolver resolver to read and apply changes through
+     * @param server   server to exchange changes with
+     * @param state    preferences the sync progress is kept in
+     * @param deviceId id of this device, unique among the tills of the store
+     */
+    public SyncEngine(ContentResolver resolver, SyncServer server, SharedPreferences state, String deviceId) {
+        mResolver = resolver;
+        mServer = server;
+        mState = state;
+        mDeviceId = deviceId;
+    }
+
+    /**
+     * Push local changes, then pull remote ones.
+     */
+    public Result sync() throws IOException, RemoteException, OperationApplicationException {
+        Result result = new Result ();
+        long start = SystemClock.elapsedRealtime ();
+        push (result);
+        pull (result);
+        result.elapsedMillis = SystemClock.elapsedRealtime () - start;
+        return result;
+    }
+
+    /**
+     * Push the changes recorded since the last acknowledged push, in batches. Each batch the
+     * server accepted is acknowledged to the change feed, so maintenance can prune it.
+     */
+    private void push(Result result) throws IOException {
+        long lastPushed = mState.getLong (KEY_LAST_PUSHED_SEQUENCE, 0);
+        // The first sync starts reading the feed; until then it isn't kept for the engine
+        acknowledge (lastPushed);
+        Cursor cursor = mResolver.query (ChangeEntry.buildChangesSinceUri (lastPushed), new String[]{ChangeEntry._ID, ChangeEntry.COLUMN_INVENTORY_ID, ChangeEntry.COLUMN_OPERATION, ChangeEntry.COLUMN_QUANTITY_DELTA, ChangeEntry.COLUMN_UID, ChangeEntry.COLUMN_COLUMNS}, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            // Coalesce the changes of a batch per inventory, so a product sold ten times
+            // travels as a single change with a delta of -10
+            Map<Long, PendingChange> pending = new LinkedHashMap<> ();
+            long batchSequence = lastPushed;
+            int batchRows = 0;
+            while (cursor.moveToNext ()) {
+                long inventoryId = cursor.getLong (1);
+                PendingChange change = pending.get (inventoryId);
+                if (change == null) {
+                    change = new PendingChange (cursor.getInt (2));
+                    pending.put (inventoryId, change);
+                } else {
+                    change.merge (cursor.getInt (2));
+                }
+                change.quantityDelta += cursor.getInt (3);
+                change.columns |= cursor.getInt (5);
+                if (!cursor.isNull (4)) {
+                    change.uid = cursor.getString (4);
+                }
+                batchSequence = cursor.getLong (0);
+
+                if (++batchRows == BATCH_SIZE) {
+                    pushBatch (pending, batchSequence, result);
+                    pending.clear ();
+                    batchRows = 0;
+                }
+            }
+            if (batchRows > 0) {
+                pushBatch (pending, batchSequence, result);
+            }
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private void pushBatch(Map<Long, PendingChange> pending, long sequence, Result result) throws IOException {
+        Map<Long, ContentValues> rows = loadRows (pending.keySet ());
+
+        List<SyncPayload.Change> changes = new ArrayList<> (pending.size ());
+        for (Map.Entry<Long, PendingChange> entry : pending.entrySet ()) {
+            long inventoryId = entry.getKey ();
+            PendingChange change = entry.getValue ();
+            ContentValues values = rows.get (inventoryId);
+
+            String uid;
+            if (change.operation == ChangeEntry.OPERATION_DELETE) {
+                // The row is gone, the feed kept its uid. Deletes recorded before there were
+                // uids can't be told to anyone.
+                if (change.uid == null) {
+                    continue;
+                }
+                uid = change.uid;
+                values = null;
+            } else {
+                // A row that's gone by now was deleted later in the feed, which a later batch will push
+                if (values == null) {
+                    continue;
+                }
+                uid = values.getAsString (InventoryEntry.COLUMN_PRODUCT_UID);
+                values.remove (InventoryEntry._ID);
+                values.remove (InventoryEntry.COLUMN_PRODUCT_UID);
+                if (change.operation == ChangeEntry.OPERATION_UPDATE) {
+                    for (int i = 0; i < ChangeEntry.CHANGED_COLUMNS.length; i++) {
+                        if ((change.columns & 1 << i) == 0) {
+                            values.remove (ChangeEntry.CHANGED_COLUMNS[i]);
+                        }
+                    }
+                    values.remove (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
+                    // Only columns other devices don't keep changed, like the image
+                    if (values.size () == 0 && change.quantityDelta == 0) {
+                        continue;
+                    }
+                }
+            }
+            changes.add (new SyncPayload.Change (uid, change.operation, change.quantityDelta, values));
+        }
+
+        byte[] payload = SyncPayload.encode (0, changes);
+        mServer.push (mDeviceId, payload);
+        result.pushedChanges += changes.size ();
+        result.bytesSent += payload.length;
+
+        // The server has the batch, so it doesn't have to be pushed again
+        mState.edit ().putLong (KEY_LAST_PUSHED_SEQUENCE, sequence).apply ();
+        acknowledge (sequence);
+    }
+
+    private void acknowledge(long sequence) {
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ACKNOWLEDGE_CHANGES, null, InventoryContract.buildAcknowledgeChangesExtras (FEED_READER, sequence));
+    }
+
+    /**
+     * Read the current values of the given inventories, keyed by id.
+     */
+    private Map<Long, ContentValues> loadRows(Set<Long> ids) {
+        Map<Long, ContentValues> rows = new HashMap<> ();
+        if (ids.isEmpty ()) {
+            return rows;
+        }
+        String[] args = new String[ids.size ()];
+        String[] placeholders = new String[ids.size ()];
+        int i = 0;
+        for (Long id : ids) {
+            args[i] = String.valueOf (id);
+            placeholders[i] = "?";
+            i++;
+        }
+        Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, SYNCED_COLUMNS, InventoryEntry._ID + " IN (" + TextUtils.join (",", placeholders) + ")", args, null);
+        if (cursor == null) {
+            return rows;
+        }
+        try {
+            while (cursor.moveToNext ()) {
+                ContentValues values = new ContentValues ();
+                DatabaseUtils.cursorRowToContentValues (cursor, values);
+                rows.put (cursor.getLong (0), values);
+            }
+        } finally {
+            cursor.close ();
+        }
+        return rows;
+    }
+
+    /**
+     * Pull and apply the changes other devices pushed since the last pull. Each batch is applied
+     * in a single transaction without being recorded in the local change feed.
+     */
+    private void pull(Result result) throws IOException, RemoteException, OperationApplicationException {
+        long lastPulled = mState.getLong (KEY_LAST_PULLED_SEQUENCE, 0);
+        while (true) {
+            byte[] payload = mServer.pull (mDeviceId, lastPulled, BATCH_SIZE);
+            result.bytesReceived += payload.length;
+            SyncPayload.Batch batch = SyncPayload.decode (payload);
+            if (batch.changes.isEmpty ()) {
+                // Caught up, though the server may have skipped over this device's own changes
+                mState.edit ().putLong (KEY_LAST_PULLED_SEQUENCE, batch.sequence).apply ();
+                return;
+            }
+
+            LocalRows local = new LocalRows (batch.changes);
+            ArrayList<ContentProviderOperation> operations = new ArrayList<> (batch.changes.size ());
+            for (SyncPayload.Change change : batch.changes) {
+                String uid = local.uidOf (change.uid);
+                ContentValues values = change.values == null ? new ContentValues () : new ContentValues (change.values);
+                values.remove (InventoryEntry._ID);
+                values.remove (InventoryEntry.COLUMN_PRODUCT_UID);
+                switch (change.operation) {
+                    case ChangeEntry.OPERATION_INSERT:
+                        if (uid == null) {
+                            LocalRows.Row owner = local.ownerOfSku (values.getAsString (InventoryEntry.COLUMN_PRODUCT_SKU));
+                            if (owner == null) {
+                                values.put (InventoryEntry.COLUMN_PRODUCT_UID, change.uid);
+                                operations.add (ContentProviderOperation.newInsert (asSyncAdapter (InventoryEntry.CONTENT_URI)).withValues (values).build ());
+                                local.put (change.uid, change.uid);
+                                break;
+                            }
+                            // The same product was created here too, and changes under either
+                            // uid apply to the local row. Only the till with the larger uid
+                            // takes the other's uid and values, so both end up the same.
+                            uid = owner.uid;
+                            if (change.uid.compareTo (owner.uid) > 0) {
+                                local.put (change.uid, owner.uid);
+                                break;
+                            }
+                            values.put (InventoryEntry.COLUMN_PRODUCT_UID, change.uid);
+                            local.put (owner.uid, change.uid);
+                            local.put (change.uid, change.uid);
+                            owner.uid = change.uid;
+                        }
+                        // Each device keeps counting its own stock of a product it already has
+                        values.remove (InventoryEntry.COLUMN_PRODUCT_QUANTITY);
+                        if (values.size () > 0) {
+                            operations.add (ContentProviderOperation.newUpdate (asSyncAdapter (InventoryEntry.CONTENT_URI)).withSelection (UID_SELECTION, new String[]{uid}).withValues (values).build ());
+                        }
+                        break;
+                    case ChangeEntry.OPERATION_UPDATE:
+                        // A product deleted here, or never known here, has nothing to update
+                        if (uid == null) {
+                            break;
+                        }
+                        if (change.quantityDelta != 0) {
+                            values.put (InventoryEntry.QUANTITY_DELTA, change.quantityDelta);
+                        }
+                        if (values.size () > 0) {
+                            operations.add (ContentProviderOperation.newUpdate (asSyncAdapter (InventoryEntry.CONTENT_URI)).withSelection (UID_SELECTION, new String[]{uid}).withValues (values).build ());
+                        }
+                        break;
+                    case ChangeEntry.OPERATION_DELETE:
+                        if (uid != null) {
+                            operations.add (ContentProviderOperation.newDelete (asSyncAdapter (InventoryEntry.CONTENT_URI)).withSelection (UID_SELECTION, new String[]{uid}).build ());
+                            local.put (change.uid, null);
+                        }
+                        break;
+                    default:
+                        throw new IOException ("Unknown sync operation " + change.operation);
+                }
+            }
+            mResolver.applyBatch (InventoryContract.CONTENT_AUTHORITY, operations);
+
+            lastPulled = batch.sequence;
+            mState.edit ().putLong (KEY_LAST_PULLED_SEQUENCE, lastPulled).apply ();
+            result.pulledChanges += batch.changes.size ();
+            // A short batch means there's nothing more to pull
+            if (batch.changes.size () < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    private static Uri asSyncAdapter(Uri uri) {
+        return uri.buildUpon ().appendQueryParameter (InventoryContract.CALLER_IS_SYNC_ADAPTER, "true").build ();
+    }
+
+    /**
+     * The local rows of the products a pulled batch names, and of the SKUs it inserts. Kept
+     * current as the operations of the batch are built.
+     */
+    private final class LocalRows {
+
+        /**
+         * The uid the local row of every uid of the batch has once the batch is applied, or
+         * null if there's no such row
+         */
+        private final Map<String, String> mUids = new HashMap<> ();
+        private final Map<String, Row> mOwnersOfSkus = new HashMap<> ();
+
+        LocalRows(List<SyncPayload.Change> changes) {
+            List<String> uids = new ArrayList<> ();
+            List<String> skus = new ArrayList<> ();
+            for (SyncPayload.Change change : changes) {
+                uids.add (change.uid);
+                String sku = change.values == null ? null : change.values.getAsString (InventoryEntry.COLUMN_PRODUCT_SKU);
+                if (change.operation == ChangeEntry.OPERATION_INSERT && sku != null) {
+                    skus.add (sku);
+                }
+            }
+            for (Row row : query (InventoryEntry.COLUMN_PRODUCT_UID, uids)) {
+                mUids.put (row.uid, row.uid);
+            }
+            for (Row row : query (InventoryEntry.COLUMN_PRODUCT_SKU, skus)) {
+                mOwnersOfSkus.put (row.sku, row);
+            }
+        }
+
+        String uidOf(String uid) {
+            return mUids.get (uid);
+        }
+
+        void put(String uid, String localUid) {
+            mUids.put (uid, localUid);
+        }
+
+        /**
+         * Return the local row with the given SKU, or null if there's none or the SKU is null.
+         */
+        Row ownerOfSku(String sku) {
+            return sku == null ? null : mOwnersOfSkus.get (sku);
+        }
+
+        /**
+         * Read the rows whose column holds one of the given values.
+         */
+        private List<Row> query(String column, List<String> values) {
+            List<Row> rows = new ArrayList<> ();
+            if (values.isEmpty ()) {
+                return rows;
+            }
+            String[] placeholders = new String[values.size ()];
+            Arrays.fill (placeholders, "?");
+            Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, new String[]{InventoryEntry.COLUMN_PRODUCT_UID, InventoryEntry.COLUMN_PRODUCT_SKU}, column + " IN (" + TextUtils.join (",", placeholders) + ")", values.toArray (new String[values.size ()]), null);
+            if (cursor == null) {
+                return rows;
+            }
+            try {
+                while (cursor.moveToNext ()) {
+                    rows.add (new Row (cursor.getString (0), cursor.getString (1)));
+                }
+            } finally {
+                cursor.close ();
+            }
+            return rows;
+        }
+
+        final class Row {
+            String uid;
+            final String sku;
+
+            Row(String uid, String sku) {
+                this.uid = uid;
+                this.sku = sku;
+            }
+        }
+    }
+
+    /**
+     * Changes of one inventory within a batch, merged into one.
+     */
+    private static final class PendingChange {
+        int operation;
+        int quantityDelta;
+
+        /**
+         * Mask of the columns the changes set, see ChangeEntry.COLUMN_COLUMNS
+         */
+        int columns;
+
+        /**
+         * Uid of the inventory, if it was deleted
+         */
+        String uid;
+
+        PendingChange(int operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * Merge a later operation into this one. An insert stays an insert, since the row
+         * travels with its current values; anything followed by a delete is a delete.
+         */
+        void merge(int laterOperation) {
+            if (laterOperation == ChangeEntry.OPERATION_DELETE || operation != ChangeEntry.OPERATION_INSERT) {
+                operation = laterOperation;
+            }
+        }
+    }
+
+    /**
+     * Outcome of a sync.
+     */
+    public static final class Result {
+        public int pushedChanges;
+        public int pulledChanges;
+        public long bytesSent;
+        public long bytesReceived;
+        public long elapsedMillis;
+
+        @Override
+        public String toString() {
+            return "pushed " + pushedChanges + " (" + bytesSent + " bytes), pulled " + pulledChanges + " (" + bytesReceived + " bytes) in " + elapsedMillis + " ms";
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.android.inventoryappstageone.sync;
+
+import android.content.ContentValues;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Wire format of the batches exchanged with the {@link SyncServer}: gzip-compressed JSON of the
+ * form {"sequence": n, "changes": [{"uid": .., "op": .., "delta": .., "values": {..}}, ..]}.
+ */
+public final class SyncPayload {
+
+    private static final Charset UTF_8 = Charset.forName ("UTF-8");
+
+    private static final String KEY_SEQUENCE = "sequence";
+    private static final String KEY_CHANGES = "changes";
+    private static final String KEY_UID = "uid";
+    private static final String KEY_OPERATION = "op";
+    private static final String KEY_QUANTITY_DELTA = "delta";
+    private static final String KEY_VALUES = "values";
+
+    private SyncPayload() {
+    }
+
+    /**
+     * One change of one inventory.
+     */
+    public static final class Change {
+
+        /**
+         * Uid of the changed inventory, the same on every device
+         */
+        public final String uid;
+
+        /**
+         * One of the ChangeEntry.OPERATION_* values
+         */
+        public final int operation;
+
+        /**
+         * Amount the quantity changed by; ignored for inserts, whose values carry the quantity
+         */
+        public final int quantityDelta;
+
+        /**
+         * New values of the inventory's columns, or null for a delete. Updates never carry the
+         * quantity, which only travels as a delta.
+         */
+        public final ContentValues values;
+
+        public Change(String uid, int operation, int quantityDelta, ContentValues values) {
+            this.uid = uid;
+            this.operation = operation;
+            this.quantityDelta = quantityDelta;
+            this.values = values;
+        }
+    }
+
+    /**
+     * A decoded batch.
+     */
+    public static final class Batch {
+
+        /**
+         * Sequence number to resume from, or 0 for batches pushed by a device
+         */
+        public final long sequence;
+
+        public final List<Change> changes;
+
+        Batch(long sequence, List<Change> changes) {
+            this.sequence = sequence;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * Encode and compress a batch of changes.
+     */
+    public static byte[] encode(long sequence, List<Change> changes) throws IOException {
+        try {
+            JSONArray array = new JSONArray ();
+            for (Change change : changes) {
+                JSONObject object = new JSONObject ();
+                object.put (KEY_UID, change.uid);
+                object.put (KEY_OPERATION, change.operation);
+                object.put (KEY_QUANTITY_DELTA, change.quantityDelta);
+                if (change.values != null) {
+                    JSONObject values = new JSONObject ();
+                    for (Map.Entry<String, Object> value : change.values.valueSet ()) {
+                        values.put (value.getKey (), value.getValue () == null ? JSONObject.NULL : value.getValue ());
+                    }
+                    object.put (KEY_VALUES, values);
+                }
+                array.put (object);
+            }
+            JSONObject batch = new JSONObject ();
+            batch.put (KEY_SEQUENCE, sequence);
+            batch.put (KEY_CHANGES, array);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+            Writer writer = new OutputStreamWriter (new GZIPOutputStream (bytes), UTF_8);
+            try {
+                writer.write (batch.toString ());
+            } finally {
+                writer.close ();
+            }
+            return bytes.toByteArray ();
+        } catch (JSONException e) {
+            throw new IOException ("Cannot encode sync batch", e);
+        }
+    }
+
+    /**
+     * Decompress and decode a batch of changes.
+     */
+    public static Batch decode(byte[] payload) throws IOException {
+        StringBuilder json = new StringBuilder ();
+        Reader reader = new InputStreamReader (new GZIPInputStream (new ByteArrayInputStream (payload)), UTF_8);
+        try {
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read (buffer)) != -1) {
+                json.append (buffer, 0, read);
+            }
+        } finally {
+            reader.close ();
+        }
+
+        try {
+            JSONObject batch = new JSONObject (json.toString ());
+            JSONArray array = batch.getJSONArray (KEY_CHANGES);
+            List<Change> changes = new ArrayList<> (array.length ());
+            for (int i = 0; i < array.length (); i++) {
+                JSONObject object = array.getJSONObject (i);
+                ContentValues values = null;
+                JSONObject jsonValues = object.optJSONObject (KEY_VALUES);
+                if (jsonValues != null) {
+                    values = new ContentValues ();
+                    Iterator<String> keys = jsonValues.keys ();
+                    while (keys.hasNext ()) {
+                        String key = keys.next ();
+                        Object value = jsonValues.get (key);
+                        if (value == JSONObject.NULL) {
+                            values.putNull (key);
+                        } else if (value instanceof Number) {
+                            values.put (key, ((Number) value).longValue ());
+                        } else {
+                            values.put (key, value.toString ());
+                        }
+                    }
+                }
+                changes.add (new Change (object.getString (KEY_UID), object.getInt (KEY_OPERATION), object.getInt (KEY_QUANTITY_DELTA), values));
+            }
+            return new Batch (batch.getLong (KEY_SEQUENCE), changes);
+        } catch (JSONException e) {
+            throw new IOException ("Cannot decode sync batch", e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.android.inventoryappstageone.sync;
+
+import java.io.IOException;
+
+/**
+ * Server the tills of one store share their inventory changes through. Batches are exchanged in
+ * the compressed format of {@link SyncPayload}.
+ */
+public interface SyncServer {
+
+    /**
+     * Upload a batch of changes made on the given device.
+     */
+    void push(String deviceId, byte[] batch) throws IOException;
+
+    /**
+     * Download up to maxChanges changes that other devices pushed after the given server
+     * sequence number. The returned batch carries the sequence number to resume from.
+     */
+    byte[] pull(String deviceId, long sinceSequence, int maxChanges) throws IOException;
+}
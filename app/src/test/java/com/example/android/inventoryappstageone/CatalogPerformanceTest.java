@@ -0,0 +1,248 @@
+package com.example.android.inventoryappstageone;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ListView;
+
+import com.example.android.inventoryappstageone.data.InventoryContract;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryDbHelper;
+import com.example.android.inventoryappstageone.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Performance budgets for the catalog, run on the JVM with Robolectric so they need no device.
+ * Each test seeds a large dataset and counts the work the catalog does instead of timing it,
+ * which keeps the budgets stable on shared CI machines.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class CatalogPerformanceTest {
+
+    /**
+     * Number of products seeded for every test
+     */
+    private static final int SEEDED_ROWS = 10000;
+
+    /**
+     * Size of the simulated screen in pixels
+     */
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+
+    /**
+     * Number of pages scrolled in the scrolling tests
+     */
+    private static final int SCROLLED_PAGES = 20;
+
+    /**
+     * Rows that may be bound per page on top of the ones that are visible
+     */
+    private static final int EXTRA_BINDS_PER_PAGE = 2;
+
+    /**
+     * Views that may be inflated while scrolling, after the first page has been laid out
+     */
+    private static final int MAX_INFLATIONS_WHILE_SCROLLING = 2;
+
+    private CountingProvider mProvider;
+
+    @Before
+    public void setUp() {
+        seedInventories (RuntimeEnvironment.application, SEEDED_ROWS);
+        mProvider = Robolectric.buildContentProvider (CountingProvider.class).create (InventoryContract.CONTENT_AUTHORITY).get ();
+
+        // Hold back loader work so the tests can tell main thread work apart from background work
+        Robolectric.getBackgroundThreadScheduler ().pause ();
+    }
+
+    @Test
+    public void catalogDoesNotQueryDuringLifecycleCallbacks() {
+        Robolectric.buildActivity (CatalogActivity.class).setup ();
+        assertEquals ("queries run while creating the catalog", 0, mProvider.queries);
+
+        runLoaders ();
+        assertEquals ("queries run by the catalog loader", 1, mProvider.queries);
+        assertEquals ("queries run on the main thread", 0, mProvider.mainThreadQueriesOutsideLoader);
+    }
+
+    @Test
+    public void singleWriteRequeriesOnce() {
+        CatalogActivity activity = Robolectric.buildActivity (CatalogActivity.class).setup ().get ();
+        runLoaders ();
+        int queriesBefore = mProvider.queries;
+
+        ContentValues values = newInventory (SEEDED_ROWS);
+        activity.getContentResolver ().insert (InventoryEntry.CONTENT_URI, values);
+        runLoaders ();
+
+        assertEquals ("loader requeries per write", 1, mProvider.queries - queriesBefore);
+    }
+
+    @Test
+    public void reopeningCatalogDoesNotRequeryRetainedLoader() {
+        ActivityController<CatalogActivity> controller = Robolectric.buildActivity (CatalogActivity.class).setup ();
+        runLoaders ();
+        int queriesBefore = mProvider.queries;
+
+        controller.pause ().stop ().start ().resume ();
+        runLoaders ();
+
+        assertEquals ("requeries after stop and restart", 0, mProvider.queries - queriesBefore);
+    }
+
+    @Test
+    public void scrollingBindsOnlyVisibleRows() {
+        ListView listView = loadCatalogWithCountingAdapter ();
+        CountingAdapter adapter = (CountingAdapter) listView.getAdapter ();
+
+        int visibleRows = listView.getChildCount ();
+        assertTrue ("catalog shows no rows", visibleRows > 0);
+        assertTrue ("binds for the first page", adapter.binds <= visibleRows + EXTRA_BINDS_PER_PAGE);
+
+        for (int page = 0; page < SCROLLED_PAGES; page++) {
+            int bindsBefore = adapter.binds;
+            scrollOnePage (listView);
+            assertTrue ("binds for page " + page + ": " + (adapter.binds - bindsBefore), adapter.binds - bindsBefore <= visibleRows + EXTRA_BINDS_PER_PAGE);
+        }
+    }
+
+    @Test
+    public void scrollingRecyclesRowViews() {
+        ListView listView = loadCatalogWithCountingAdapter ();
+        CountingAdapter adapter = (CountingAdapter) listView.getAdapter ();
+        int inflationsAfterFirstPage = adapter.inflations;
+
+        for (int page = 0; page < SCROLLED_PAGES; page++) {
+            scrollOnePage (listView);
+        }
+
+        // Every row view inflated while scrolling is an allocation the recycler should have avoided
+        int inflationsWhileScrolling = adapter.inflations - inflationsAfterFirstPage;
+        assertTrue ("row views inflated while scrolling: " + inflationsWhileScrolling, inflationsWhileScrolling <= MAX_INFLATIONS_WHILE_SCROLLING);
+    }
+
+    /**
+     * Open the catalog, wait for its loader and swap in an adapter that counts its work.
+     */
+    private ListView loadCatalogWithCountingAdapter() {
+        CatalogActivity activity = Robolectric.buildActivity (CatalogActivity.class).setup ().get ();
+        runLoaders ();
+
+        ListView listView = activity.findViewById (R.id.list);
+        Cursor cursor = activity.mCursorAdapter.getCursor ();
+        assertEquals (SEEDED_ROWS, cursor.getCount ());
+
+        listView.setAdapter (new CountingAdapter (activity, cursor));
+        layout (listView);
+        return listView;
+    }
+
+    private static void scrollOnePage(ListView listView) {
+        listView.setSelectionFromTop (listView.getFirstVisiblePosition () + listView.getChildCount (), 0);
+        layout (listView);
+    }
+
+    private static void layout(View view) {
+        view.measure (View.MeasureSpec.makeMeasureSpec (SCREEN_WIDTH, View.MeasureSpec.EXACTLY), View.MeasureSpec.makeMeasureSpec (SCREEN_HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout (0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+    }
+
+    /**
+     * Run all pending loader work and deliver the results to the main thread.
+     */
+    private void runLoaders() {
+        mProvider.inLoader = true;
+        Robolectric.flushBackgroundThreadScheduler ();
+        mProvider.inLoader = false;
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks ();
+    }
+
+    /**
+     * Insert the given number of products straight into the database, in one transaction.
+     */
+    static void seedInventories(Context context, int count) {
+        SQLiteDatabase database = new InventoryDbHelper (context).getWritableDatabase ();
+        database.beginTransaction ();
+        try {
+            for (int i = 0; i < count; i++) {
+                database.insert (InventoryEntry.TABLE_NAME, null, newInventory (i));
+            }
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+        database.close ();
+    }
+
+    private static ContentValues newInventory(int i) {
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, i % 500);
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Supplier " + (i % 20));
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "555" + (i % 20));
+        return values;
+    }
+
+    /**
+     * {@link InventoryProvider} that counts queries, and the ones run outside of a loader.
+     */
+    public static class CountingProvider extends InventoryProvider {
+        int queries;
+        int mainThreadQueriesOutsideLoader;
+        boolean inLoader;
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            queries++;
+            // Robolectric runs background work on the main thread, so the loader flag tells them apart
+            if (!inLoader && Looper.myLooper () == Looper.getMainLooper ()) {
+                mainThreadQueriesOutsideLoader++;
+            }
+            return super.query (uri, projection, selection, selectionArgs, sortOrder);
+        }
+    }
+
+    /**
+     * {@link InventoryCursorAdapter} that counts bound and inflated rows.
+     */
+    static class CountingAdapter extends InventoryCursorAdapter {
+        int binds;
+        int inflations;
+
+        CountingAdapter(Context context, Cursor c) {
+            super (context, c);
+        }
+
+        @Override
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            inflations++;
+            return super.newView (context, cursor, parent);
+        }
+
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) {
+            binds++;
+            super.bindView (view, context, cursor);
+        }
+    }
+}
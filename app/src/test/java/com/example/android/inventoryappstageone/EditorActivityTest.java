@@ -0,0 +1,163 @@
+package com.example.android.inventoryappstageone;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.widget.TextView;
+
+import com.example.android.inventoryappstageone.data.InventoryContract;
+import com.example.android.inventoryappstageone.data.InventoryContract.CommandEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the editor filling its form from the values the catalog hands over, before its
+ * loader has read the inventory, for the loader reconciling the form afterwards, and for undoing
+ * what the editor saved.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class EditorActivityTest {
+
+    private Uri mInventoryUri;
+
+    @Before
+    public void setUp() {
+        Robolectric.buildContentProvider (InventoryProvider.class).create (InventoryContract.CONTENT_AUTHORITY);
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_NAME, "Coffee");
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 120);
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, 10);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Supplier");
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "555");
+        mInventoryUri = RuntimeEnvironment.application.getContentResolver ().insert (InventoryEntry.CONTENT_URI, values);
+
+        // Hold back loader work so the form can be checked before the loader delivers
+        Robolectric.getBackgroundThreadScheduler ().pause ();
+    }
+
+    @Test
+    public void prefetchedValuesFillTheFormBeforeTheLoader() {
+        long start = System.nanoTime ();
+        EditorActivity activity = Robolectric.buildActivity (EditorActivity.class, editIntent (100)).setup ().get ();
+        long prefilledNanos = System.nanoTime () - start;
+
+        assertEquals ("Coffee", text (activity, R.id.edit_product_name));
+        assertEquals ("100", text (activity, R.id.edit_product_price));
+        assertEquals ("10", text (activity, R.id.edit_product_quantity));
+        assertEquals ("555", text (activity, R.id.edit_supplier_phone_number));
+
+        // The loader replaces the stale price with the one in the database
+        runLoaders ();
+        long loadedNanos = System.nanoTime () - start;
+        assertEquals ("120", text (activity, R.id.edit_product_price));
+
+        System.out.println ("editor form filled from the catalog in " + prefilledNanos / 1000 + " µs, from the loader in " + loadedNanos / 1000 + " µs");
+    }
+
+    @Test
+    public void loaderKeepsEditsMadeBeforeItDelivers() {
+        EditorActivity activity = Robolectric.buildActivity (EditorActivity.class, editIntent (100)).setup ().get ();
+        ((TextView) activity.findViewById (R.id.edit_product_name)).setText ("Dark roast");
+        activity.increment (null);
+
+        runLoaders ();
+        assertEquals ("Dark roast", text (activity, R.id.edit_product_name));
+        assertEquals ("11", text (activity, R.id.edit_product_quantity));
+        // Untouched fields still follow the database
+        assertEquals ("120", text (activity, R.id.edit_product_price));
+
+        // So does a change made elsewhere while the editor is open
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_NAME, "Coffee beans");
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 130);
+        activity.getContentResolver ().update (mInventoryUri, values, null, null);
+        runLoaders ();
+        assertEquals ("Dark roast", text (activity, R.id.edit_product_name));
+        assertEquals ("130", text (activity, R.id.edit_product_price));
+    }
+
+    @Test
+    public void undoingAnEditorSaveKeepsLaterSales() {
+        EditorActivity activity = Robolectric.buildActivity (EditorActivity.class, editIntent (120)).setup ().get ();
+        runLoaders ();
+        ((TextView) activity.findViewById (R.id.edit_product_price)).setText ("150");
+        activity.increment (null);
+        activity.saveInventory ();
+
+        ContentResolver resolver = activity.getContentResolver ();
+        long id = ContentUris.parseId (mInventoryUri);
+        resolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_CHECKOUT, null, InventoryContract.buildCheckoutExtras (new long[]{id}, new int[]{-2}, false));
+        assertEquals (9, quantityOf (resolver));
+
+        // Undo takes back the price and the counted unit, not the sale made after the save
+        Bundle result = resolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_UNDO, null, null);
+        assertTrue (result.getBoolean (InventoryContract.EXTRA_COMMITTED));
+        assertEquals (CommandEntry.KIND_UPDATE, result.getInt (InventoryContract.EXTRA_COMMAND_KIND));
+        assertEquals (8, quantityOf (resolver));
+        Cursor cursor = resolver.query (mInventoryUri, new String[]{InventoryEntry.COLUMN_PRODUCT_PRICE}, null, null, null);
+        try {
+            cursor.moveToFirst ();
+            assertEquals (120, cursor.getInt (0));
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private int quantityOf(ContentResolver resolver) {
+        Cursor cursor = resolver.query (mInventoryUri, new String[]{InventoryEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            cursor.moveToFirst ();
+            return cursor.getInt (0);
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    /**
+     * Intent the catalog opens the editor of the inventory with, handing over its values with the
+     * given price.
+     */
+    private Intent editIntent(int price) {
+        ContentValues prefetched = new ContentValues ();
+        prefetched.put (InventoryEntry._ID, ContentUris.parseId (mInventoryUri));
+        prefetched.put (InventoryEntry.COLUMN_PRODUCT_NAME, "Coffee");
+        prefetched.put (InventoryEntry.COLUMN_PRODUCT_PRICE, price);
+        prefetched.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, 10);
+        prefetched.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Supplier");
+        prefetched.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "555");
+
+        Intent intent = new Intent (RuntimeEnvironment.application, EditorActivity.class);
+        intent.setData (mInventoryUri);
+        intent.putExtra (EditorActivity.EXTRA_INVENTORY_VALUES, prefetched);
+        return intent;
+    }
+
+    private static String text(EditorActivity activity, int id) {
+        return ((TextView) activity.findViewById (id)).getText ().toString ();
+    }
+
+    /**
+     * Run all pending loader work and deliver the results to the main thread.
+     */
+    private static void runLoaders() {
+        Robolectric.flushBackgroundThreadScheduler ();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks ();
+    }
+}
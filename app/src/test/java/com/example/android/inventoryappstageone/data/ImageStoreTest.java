@@ -0,0 +1,56 @@
+package com.example.android.inventoryappstageone.data;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the subsampling of {@link ImageStore}, with the heap cost of decoding typical camera
+ * pictures whole and subsampled, and of a decoded thumbnail.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ImageStoreTest {
+
+    /**
+     * Bytes per pixel of an ARGB_8888 bitmap
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    @Test
+    public void sampleSizeKeepsLongestEdgeAtLeastMaxSize() {
+        assertEquals (1, ImageStore.sampleSize (800, 600, 1280));
+        assertEquals (1, ImageStore.sampleSize (2559, 1000, 1280));
+        assertEquals (2, ImageStore.sampleSize (2560, 1000, 1280));
+        assertEquals (2, ImageStore.sampleSize (3000, 4000, 1280));
+        assertEquals (4, ImageStore.sampleSize (6000, 4000, 1280));
+        assertEquals (16, ImageStore.sampleSize (4000, 3000, ImageStore.THUMBNAIL_SIZE));
+    }
+
+    @Test
+    public void subsampledPicturesFitTheHeap() {
+        int[][] pictures = {{1600, 1200}, {3264, 2448}, {4000, 3000}, {6000, 4000}};
+        for (int[] picture : pictures) {
+            int sampleSize = ImageStore.sampleSize (picture[0], picture[1], ImageStore.MAX_IMAGE_SIZE);
+            int width = picture[0] / sampleSize;
+            int height = picture[1] / sampleSize;
+            long wholeBytes = (long) picture[0] * picture[1] * BYTES_PER_PIXEL;
+            long sampledBytes = (long) width * height * BYTES_PER_PIXEL;
+            System.out.println (picture[0] + "x" + picture[1] + ": whole " + wholeBytes / 1024 + " KB, sampled by " + sampleSize + " to " + width + "x" + height + " " + sampledBytes / 1024 + " KB");
+
+            // The longest edge stays between the maximum and twice the maximum
+            int longestEdge = Math.max (width, height);
+            assertTrue (longestEdge >= Math.min (ImageStore.MAX_IMAGE_SIZE, Math.max (picture[0], picture[1])));
+            assertTrue (longestEdge < 2 * ImageStore.MAX_IMAGE_SIZE);
+        }
+
+        // What the catalog and the editor decode, and keep in the memory cache, per product
+        long thumbnailBytes = (long) ImageStore.THUMBNAIL_SIZE * ImageStore.THUMBNAIL_SIZE * BYTES_PER_PIXEL;
+        System.out.println ("thumbnail: " + thumbnailBytes / 1024 + " KB");
+        assertEquals (100, thumbnailBytes / 1024);
+    }
+}
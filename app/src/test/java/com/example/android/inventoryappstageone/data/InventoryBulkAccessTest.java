@@ -0,0 +1,167 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the batched access of {@link InventoryProvider} meant for other apps: the bulk get
+ * and the coalesced notifications of a batch, with a benchmark of fetching 1,000 products by id
+ * in one call versus a query each. The product count can be raised with
+ * -Dbenchmark.bulkAccess.products.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryBulkAccessTest {
+
+    private static final int BENCHMARK_PRODUCTS = Integer.getInteger ("benchmark.bulkAccess.products", 10000);
+    private static final int BENCHMARK_ROUNDS = 5;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = TestInventories.createProvider ();
+    }
+
+    @Test
+    public void bulkGetReturnsRowsInRequestOrder() {
+        long coffee = insertInventory ("Coffee", 3);
+        long tea = insertInventory ("Tea", 5);
+
+        Bundle result = mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_BULK_GET, null, InventoryContract.buildBulkGetExtras (new long[]{tea, tea + coffee + 100, coffee}));
+
+        assertArrayEquals (new long[]{tea, coffee}, result.getLongArray (InventoryContract.EXTRA_INVENTORY_IDS));
+        assertArrayEquals (new String[]{"Tea", "Coffee"}, result.getStringArray (InventoryContract.EXTRA_NAMES));
+        assertArrayEquals (new int[]{5, 3}, result.getIntArray (InventoryContract.EXTRA_QUANTITIES));
+        assertArrayEquals (new int[]{100, 100}, result.getIntArray (InventoryContract.EXTRA_PRICES));
+        assertArrayEquals (new String[]{"555", "555"}, result.getStringArray (InventoryContract.EXTRA_SUPPLIER_PHONE_NUMBERS));
+    }
+
+    @Test
+    public void bulkGetShowsBufferedDeltas() {
+        long id = insertInventory ("Coffee", 3);
+        assertTrue (mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ADJUST_QUANTITY, null, InventoryContract.buildAdjustExtras (id, -2, true)).getBoolean (InventoryContract.EXTRA_COMMITTED));
+
+        Bundle result = mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_BULK_GET, null, InventoryContract.buildBulkGetExtras (new long[]{id}));
+
+        assertArrayEquals (new int[]{1}, result.getIntArray (InventoryContract.EXTRA_QUANTITIES));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulkGetIsLimited() {
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_BULK_GET, null, InventoryContract.buildBulkGetExtras (new long[InventoryContract.BULK_GET_MAX_IDS + 1]));
+    }
+
+    @Test
+    public void batchNotifiesOnce() throws Exception {
+        long coffee = insertInventory ("Coffee", 3);
+        long tea = insertInventory ("Tea", 5);
+        CountingObserver observer = new CountingObserver ();
+        mResolver.registerContentObserver (InventoryEntry.CONTENT_URI, true, observer);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<> ();
+        operations.add (ContentProviderOperation.newUpdate (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, coffee)).withValue (InventoryEntry.COLUMN_PRODUCT_PRICE, 120).build ());
+        operations.add (ContentProviderOperation.newUpdate (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, tea)).withValue (InventoryEntry.COLUMN_PRODUCT_PRICE, 80).build ());
+        operations.add (ContentProviderOperation.newInsert (InventoryEntry.CONTENT_URI).withValues (inventory ("Milk", 1)).build ());
+        mResolver.applyBatch (InventoryContract.CONTENT_AUTHORITY, operations);
+
+        assertEquals (1, observer.mChanges);
+        mResolver.unregisterContentObserver (observer);
+    }
+
+    @Test
+    public void benchmarkBulkGetVersusQueries() {
+        ContentValues[] rows = new InventoryDatasetGenerator (17, 50).next (BENCHMARK_PRODUCTS);
+        assertEquals (BENCHMARK_PRODUCTS, mResolver.bulkInsert (InventoryEntry.CONTENT_URI, rows));
+        Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, new String[]{InventoryEntry._ID}, null, null, null);
+        long[] allIds = new long[cursor.getCount ()];
+        for (int i = 0; cursor.moveToNext (); i++) {
+            allIds[i] = cursor.getLong (0);
+        }
+        cursor.close ();
+
+        Random random = new Random (17);
+        int fetched = InventoryContract.BULK_GET_MAX_IDS;
+        long queryNanos = 0;
+        long bulkNanos = 0;
+        int queryRoundTrips = 0;
+        int bulkRoundTrips = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            long[] ids = new long[fetched];
+            for (int i = 0; i < fetched; i++) {
+                ids[i] = allIds[random.nextInt (allIds.length)];
+            }
+
+            // A query per product, the way another app has to without the bulk get
+            long start = System.nanoTime ();
+            long quantities = 0;
+            for (long id : ids) {
+                Cursor row = mResolver.query (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id), InventoryEntry.CATALOG_PROJECTION, null, null, null);
+                assertTrue (row.moveToFirst ());
+                quantities += row.getInt (row.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_QUANTITY));
+                row.close ();
+                queryRoundTrips++;
+            }
+            queryNanos += System.nanoTime () - start;
+
+            start = System.nanoTime ();
+            Bundle result = mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_BULK_GET, null, InventoryContract.buildBulkGetExtras (ids));
+            bulkRoundTrips++;
+            bulkNanos += System.nanoTime () - start;
+
+            long bulkQuantities = 0;
+            for (int quantity : result.getIntArray (InventoryContract.EXTRA_QUANTITIES)) {
+                bulkQuantities += quantity;
+            }
+            assertArrayEquals (ids, result.getLongArray (InventoryContract.EXTRA_INVENTORY_IDS));
+            assertEquals (quantities, bulkQuantities);
+        }
+
+        System.out.println ("fetching " + fetched + " of " + BENCHMARK_PRODUCTS + " products: queries " + queryRoundTrips / BENCHMARK_ROUNDS + " round trips, " + queryNanos / 1000000 / BENCHMARK_ROUNDS + " ms; bulk get " + bulkRoundTrips / BENCHMARK_ROUNDS + " round trip, " + bulkNanos / 1000000 / BENCHMARK_ROUNDS + " ms");
+        assertTrue (bulkNanos < queryNanos);
+    }
+
+    /**
+     * Counts the changes it's notified of.
+     */
+    private static class CountingObserver extends ContentObserver {
+        int mChanges;
+
+        CountingObserver() {
+            super (null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChanges++;
+        }
+    }
+
+    private long insertInventory(String name, int quantity) {
+        return TestInventories.insert (mResolver, inventory (name, quantity));
+    }
+
+    private static ContentValues inventory(String name, int quantity) {
+        return TestInventories.inventory (name, 100, quantity);
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the encrypted supplier phone numbers of {@link InventoryProvider}, with a benchmark of
+ * the cost of encryption for inserts, point lookups and full scans. The benchmark size can be
+ * changed with -Dbenchmark.encryption.rows.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryEncryptionTest {
+
+    private static final int BENCHMARK_ROWS = Integer.getInteger ("benchmark.encryption.rows", 5000);
+    private static final int BENCHMARK_LOOKUPS = 2000;
+
+    private static final KeyProvider TEST_KEY = new KeyProvider () {
+        @Override
+        public byte[] getKey(Context context) {
+            byte[] key = new byte[KEY_LENGTH];
+            Arrays.fill (key, (byte) 7);
+            return key;
+        }
+    };
+
+    private InventoryProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider (InventoryProvider.class).create (InventoryContract.CONTENT_AUTHORITY).get ();
+        mResolver = RuntimeEnvironment.application.getContentResolver ();
+    }
+
+    @Test
+    public void cipherRoundTrips() {
+        FieldCipher cipher = new FieldCipher (TEST_KEY.getKey (null));
+        String first = cipher.encrypt ("555 100 200");
+        String second = cipher.encrypt ("555 100 200");
+
+        // A random IV every time, so equal numbers don't show as equal
+        assertNotEquals (first, second);
+        assertEquals ("555 100 200", cipher.decrypt (first));
+        assertEquals ("555", cipher.decrypt ("555"));
+
+        byte[] otherKey = new byte[KeyProvider.KEY_LENGTH];
+        assertNull (new FieldCipher (otherKey).decrypt (first));
+        assertNull (cipher.decrypt (first.substring (0, first.length () - 4) + "AAA="));
+    }
+
+    @Test
+    public void phoneNumbersAreStoredEncrypted() {
+        mProvider.setKeyProvider (TEST_KEY);
+        long id = insertInventory ("555100200");
+
+        String stored = storedPhoneNumber (id);
+        assertTrue (FieldCipher.isEncrypted (stored));
+        assertFalse (stored.contains ("555100200"));
+        assertEquals ("555100200", phoneNumber (id));
+
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "555300400");
+        mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id), values, null, null);
+        assertTrue (FieldCipher.isEncrypted (storedPhoneNumber (id)));
+        assertEquals ("555300400", phoneNumber (id));
+    }
+
+    @Test
+    public void maintenanceEncryptsPlaintextNumbers() {
+        long id = insertInventory ("555100200");
+        assertEquals ("555100200", storedPhoneNumber (id));
+
+        mProvider.setKeyProvider (TEST_KEY);
+        // Readable before and after the maintenance encrypted them
+        assertEquals ("555100200", phoneNumber (id));
+        while (mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_MAINTAIN, null, null).getBoolean (InventoryContract.EXTRA_MORE_WORK)) {
+            // Until every number is encrypted
+        }
+        assertTrue (FieldCipher.isEncrypted (storedPhoneNumber (id)));
+        assertEquals ("555100200", phoneNumber (id));
+    }
+
+    @Test
+    public void benchmarkEncryptionOverhead() {
+        long[] plain = runBenchmark ("plaintext");
+        mResolver.delete (InventoryEntry.CONTENT_URI, null, null);
+        mProvider.setKeyProvider (TEST_KEY);
+        long[] encrypted = runBenchmark ("encrypted");
+
+        System.out.println (String.format ("encryption cost: insert %.2fx, point lookup %.2fx, full scan %.2fx", ratio (encrypted[0], plain[0]), ratio (encrypted[1], plain[1]), ratio (encrypted[2], plain[2])));
+    }
+
+    /**
+     * Time an import, point lookups and a full scan of the phone numbers. Return the nanoseconds
+     * each took.
+     */
+    private long[] runBenchmark(String label) {
+        ContentValues[] rows = new InventoryDatasetGenerator (13, 50).next (BENCHMARK_ROWS);
+        long start = System.nanoTime ();
+        assertEquals (BENCHMARK_ROWS, mResolver.bulkInsert (InventoryEntry.CONTENT_URI, rows));
+        long insertNanos = System.nanoTime () - start;
+
+        Cursor ids = mResolver.query (InventoryEntry.CONTENT_URI, new String[]{InventoryEntry._ID}, null, null, null);
+        long[] rowIds = new long[ids.getCount ()];
+        for (int i = 0; ids.moveToNext (); i++) {
+            rowIds[i] = ids.getLong (0);
+        }
+        ids.close ();
+
+        Random random = new Random (13);
+        start = System.nanoTime ();
+        for (int i = 0; i < BENCHMARK_LOOKUPS; i++) {
+            assertEquals (9, phoneNumber (rowIds[random.nextInt (rowIds.length)]).length ());
+        }
+        long lookupNanos = System.nanoTime () - start;
+
+        start = System.nanoTime ();
+        Cursor scan = mResolver.query (InventoryEntry.CONTENT_URI, InventoryEntry.CATALOG_PROJECTION, null, null, null);
+        int column = scan.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER);
+        int digits = 0;
+        while (scan.moveToNext ()) {
+            digits += scan.getString (column).length ();
+        }
+        scan.close ();
+        long scanNanos = System.nanoTime () - start;
+        assertEquals (9 * BENCHMARK_ROWS, digits);
+
+        System.out.println (label + ": insert " + insertNanos / 1000 / BENCHMARK_ROWS + " µs per row, point lookup " + lookupNanos / 1000 / BENCHMARK_LOOKUPS + " µs, full scan of " + BENCHMARK_ROWS + " rows " + scanNanos / 1000000 + " ms");
+        return new long[]{insertNanos, lookupNanos, scanNanos};
+    }
+
+    private static double ratio(long nanos, long baselineNanos) {
+        return (double) nanos / Math.max (1, baselineNanos);
+    }
+
+    private long insertInventory(String phoneNumber) {
+        ContentValues values = TestInventories.inventory ("Product", 100, 1);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, phoneNumber);
+        return TestInventories.insert (mResolver, values);
+    }
+
+    private String phoneNumber(long id) {
+        Uri uri = ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id);
+        Cursor cursor = mResolver.query (uri, new String[]{InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER}, null, null, null);
+        try {
+            assertTrue (cursor.moveToFirst ());
+            return cursor.getString (1);
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private static String storedPhoneNumber(long id) {
+        SQLiteDatabase database = new InventoryDbHelper (RuntimeEnvironment.application).getReadableDatabase ();
+        Cursor cursor = database.query (InventoryEntry.TABLE_NAME, new String[]{InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER}, InventoryEntry._ID + "=?", new String[]{String.valueOf (id)}, null, null, null);
+        try {
+            assertTrue (cursor.moveToFirst ());
+            return cursor.getString (0);
+        } finally {
+            cursor.close ();
+        }
+    }
+}
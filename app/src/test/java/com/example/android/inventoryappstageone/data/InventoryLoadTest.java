@@ -0,0 +1,62 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link InventoryDatasetGenerator} and a short run of {@link InventoryLoadDriver}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryLoadTest {
+
+    @Test
+    public void generatorIsDeterministic() {
+        ContentValues[] first = new InventoryDatasetGenerator (7, 10).next (100);
+        ContentValues[] second = new InventoryDatasetGenerator (7, 10).next (100);
+        for (int i = 0; i < first.length; i++) {
+            assertEquals (first[i], second[i]);
+        }
+    }
+
+    @Test
+    public void generatorSkewsSupplierPopularity() {
+        Map<String, Integer> productsPerSupplier = new HashMap<> ();
+        for (ContentValues values : new InventoryDatasetGenerator (7, 50).next (10000)) {
+            String supplier = values.getAsString (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+            Integer count = productsPerSupplier.get (supplier);
+            productsPerSupplier.put (supplier, count == null ? 1 : count + 1);
+        }
+
+        // With a Zipf skew the most popular supplier delivers far more than an even share
+        int topSupplier = productsPerSupplier.get ("Supplier 1");
+        assertTrue ("products of the top supplier: " + topSupplier, topSupplier > 3 * 10000 / 50);
+    }
+
+    @Test
+    public void loadDriverRunsMixedWorkload() throws Exception {
+        Robolectric.buildContentProvider (InventoryProvider.class).create (InventoryContract.CONTENT_AUTHORITY);
+        ContentResolver resolver = RuntimeEnvironment.application.getContentResolver ();
+        resolver.bulkInsert (InventoryEntry.CONTENT_URI, new InventoryDatasetGenerator (7, 10).next (200));
+
+        InventoryLoadDriver.Report report = new InventoryLoadDriver (resolver, 7, 2, 250).run ();
+
+        assertEquals (500, report.operations);
+        assertTrue (report.p50 <= report.p95 && report.p95 <= report.p99 && report.p99 <= report.max);
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.LocationEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.StockEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the locations and per-location stock of {@link InventoryProvider}: the total
+ * quantity follows the stock, and transfers move stock atomically. The benchmark size can be
+ * raised with -Dbenchmark.locations.products, e.g. 100000 products over 20 locations.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryLocationsTest {
+
+    private static final int BENCHMARK_ROWS = Integer.getInteger ("benchmark.locations.products", 2000);
+    private static final int BENCHMARK_LOCATIONS = 20;
+    private static final int BENCHMARK_TRANSFERS = 2000;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = TestInventories.createProvider ();
+    }
+
+    @Test
+    public void newInventoryKeepsItsQuantityAtDefaultLocation() {
+        long id = insertInventory (7);
+
+        assertEquals (7, stock (id, LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals (7, totalQuantity (id));
+    }
+
+    @Test
+    public void totalFollowsStockAtEveryLocation() {
+        long id = insertInventory (5);
+        long store = insertLocation ("Store");
+
+        setStock (id, store, 12);
+        assertEquals (17, totalQuantity (id));
+
+        setStock (id, LocationEntry.DEFAULT_LOCATION_ID, 0);
+        assertEquals (12, totalQuantity (id));
+
+        // Editing the total directly adjusts the default location
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, 20);
+        mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id), values, null, null);
+        assertEquals (8, stock (id, LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals (12, stock (id, store));
+    }
+
+    @Test
+    public void saleTakesStockFromLocationsThatHoldIt() {
+        long id = insertInventory (2);
+        long store = insertLocation ("Store");
+        setStock (id, store, 5);
+
+        // More than the default location holds: the rest comes from the store
+        sell (id, 4);
+        assertEquals (0, stock (id, LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals (3, stock (id, store));
+        assertEquals (3, totalQuantity (id));
+
+        // Only the store holds any now
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_CHECKOUT, null, InventoryContract.buildCheckoutExtras (new long[]{id}, new int[]{-2}, false));
+        assertEquals (0, stock (id, LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals (1, stock (id, store));
+        assertEquals (1, totalQuantity (id));
+
+        // Deliveries still arrive at the default location
+        sell (id, -3);
+        assertEquals (3, stock (id, LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals (1, stock (id, store));
+    }
+
+    @Test
+    public void stockNeverGoesBelowZero() {
+        long id = insertInventory (1);
+        long store = insertLocation ("Store");
+        setStock (id, store, 1);
+
+        // Another till sold more than is left here
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.QUANTITY_DELTA, -5);
+        Uri syncUri = ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id).buildUpon ().appendQueryParameter (InventoryContract.CALLER_IS_SYNC_ADAPTER, "true").build ();
+        mResolver.update (syncUri, values, null, null);
+        assertEquals (0, stock (id, LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals (0, stock (id, store));
+        assertEquals (0, totalQuantity (id));
+    }
+
+    @Test(expected = SQLiteException.class)
+    public void databaseRefusesNegativeStock() {
+        long id = insertInventory (1);
+        SQLiteDatabase database = new InventoryDbHelper (RuntimeEnvironment.application).getWritableDatabase ();
+        try {
+            database.execSQL ("UPDATE " + InventoryEntry.TABLE_NAME + " SET " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + "=-1 WHERE " + InventoryEntry._ID + "=" + id);
+        } finally {
+            database.close ();
+        }
+    }
+
+    @Test
+    public void transferMovesStockWithoutChangingTotal() {
+        long id = insertInventory (10);
+        long store = insertLocation ("Store");
+
+        assertTrue (transfer (id, LocationEntry.DEFAULT_LOCATION_ID, store, 4));
+        assertEquals (6, stock (id, LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals (4, stock (id, store));
+        assertEquals (10, totalQuantity (id));
+    }
+
+    @Test
+    public void transferOfMoreThanStockChangesNothing() {
+        long id = insertInventory (3);
+        long store = insertLocation ("Store");
+
+        assertFalse (transfer (id, LocationEntry.DEFAULT_LOCATION_ID, store, 4));
+        assertEquals (3, stock (id, LocationEntry.DEFAULT_LOCATION_ID));
+        assertEquals (0, stock (id, store));
+        assertEquals (3, totalQuantity (id));
+    }
+
+    @Test
+    public void transferToUnknownLocationChangesNothing() {
+        long id = insertInventory (3);
+
+        assertFalse (transfer (id, LocationEntry.DEFAULT_LOCATION_ID, 99, 1));
+        assertEquals (3, stock (id, LocationEntry.DEFAULT_LOCATION_ID));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void locationHoldingStockCannotBeDeleted() {
+        long id = insertInventory (3);
+        long store = insertLocation ("Store");
+        setStock (id, store, 1);
+
+        mResolver.delete (ContentUris.withAppendedId (LocationEntry.CONTENT_URI, store), null, null);
+    }
+
+    @Test
+    public void benchmarkCatalogLoadAndTransfers() {
+        InventoryDatasetGenerator generator = new InventoryDatasetGenerator (11, 20);
+        for (int inserted = 0; inserted < BENCHMARK_ROWS; inserted += 1000) {
+            mResolver.bulkInsert (InventoryEntry.CONTENT_URI, generator.next (Math.min (1000, BENCHMARK_ROWS - inserted)));
+        }
+        long[] locations = new long[BENCHMARK_LOCATIONS];
+        locations[0] = LocationEntry.DEFAULT_LOCATION_ID;
+        for (int i = 1; i < BENCHMARK_LOCATIONS; i++) {
+            locations[i] = insertLocation ("Store " + i);
+        }
+
+        // Spread the stock of every product over the locations, which is what makes the total
+        // a sum over up to BENCHMARK_LOCATIONS rows
+        Random random = new Random (11);
+        long start = System.nanoTime ();
+        for (long id = 1; id <= BENCHMARK_ROWS; id++) {
+            int available = (int) stock (id, LocationEntry.DEFAULT_LOCATION_ID);
+            for (int i = 1; i < BENCHMARK_LOCATIONS && available > 0; i++) {
+                transfer (id, LocationEntry.DEFAULT_LOCATION_ID, locations[i], 1);
+                available--;
+            }
+        }
+        System.out.println ("spread: " + (System.nanoTime () - start) / 1000000 + " ms");
+
+        long catalogMicros = time (new Runnable () {
+            @Override
+            public void run() {
+                Cursor cursor = mResolver.query (InventoryEntry.buildCatalogUri (InventoryEntry.SORT_QUANTITY, true, -1, -1, null), InventoryEntry.CATALOG_PROJECTION, null, null, null);
+                cursor.getCount ();
+                cursor.close ();
+            }
+        });
+        System.out.println ("catalog load of " + BENCHMARK_ROWS + " products over " + BENCHMARK_LOCATIONS + " locations: " + catalogMicros + " µs");
+
+        start = System.nanoTime ();
+        for (int i = 0; i < BENCHMARK_TRANSFERS; i++) {
+            long id = 1 + random.nextInt (BENCHMARK_ROWS);
+            transfer (id, locations[random.nextInt (BENCHMARK_LOCATIONS)], locations[random.nextInt (BENCHMARK_LOCATIONS)], 1);
+        }
+        long nanos = System.nanoTime () - start;
+        System.out.println ("transfers: " + BENCHMARK_TRANSFERS * 1000000000L / Math.max (1, nanos) + " per second");
+
+        // Transfers never change the totals
+        Cursor sums = mResolver.query (LocationEntry.CONTENT_URI, new String[]{"(SELECT SUM(" + StockEntry.COLUMN_QUANTITY + ") FROM " + StockEntry.TABLE_NAME + ")", "(SELECT SUM(" + InventoryEntry.COLUMN_PRODUCT_QUANTITY + ") FROM " + InventoryEntry.TABLE_NAME + ")"}, LocationEntry._ID + "=" + LocationEntry.DEFAULT_LOCATION_ID, null, null);
+        assertTrue (sums.moveToFirst ());
+        assertEquals (sums.getLong (1), sums.getLong (0));
+        sums.close ();
+    }
+
+    private long insertInventory(int quantity) {
+        return TestInventories.insertInventory (mResolver, "Product", 100, quantity);
+    }
+
+    private long insertLocation(String name) {
+        ContentValues values = new ContentValues ();
+        values.put (LocationEntry.COLUMN_LOCATION_NAME, name);
+        return ContentUris.parseId (mResolver.insert (LocationEntry.CONTENT_URI, values));
+    }
+
+    private void setStock(long inventoryId, long locationId, int quantity) {
+        ContentValues values = new ContentValues ();
+        values.put (StockEntry.COLUMN_QUANTITY, quantity);
+        assertEquals (1, mResolver.update (InventoryEntry.buildStockUri (inventoryId, locationId), values, null, null));
+    }
+
+    /**
+     * Sell the given quantity of an inventory, or take a delivery for a negative one.
+     */
+    private void sell(long inventoryId, int quantity) {
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.QUANTITY_DELTA, -quantity);
+        assertEquals (1, mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, inventoryId), values, null, null));
+    }
+
+    private boolean transfer(long inventoryId, long fromLocationId, long toLocationId, int quantity) {
+        Bundle extras = InventoryContract.buildTransferExtras (inventoryId, fromLocationId, toLocationId, quantity);
+        return mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_TRANSFER, null, extras).getBoolean (InventoryContract.EXTRA_COMMITTED);
+    }
+
+    private long stock(long inventoryId, long locationId) {
+        Uri uri = InventoryEntry.buildStockUri (inventoryId, locationId);
+        Cursor cursor = mResolver.query (uri, new String[]{StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_QUANTITY}, null, null, null);
+        try {
+            return cursor.moveToFirst () ? cursor.getLong (0) : 0;
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private long totalQuantity(long inventoryId) {
+        Cursor cursor = mResolver.query (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, inventoryId), new String[]{InventoryEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            assertTrue (cursor.moveToFirst ());
+            return cursor.getLong (0);
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private static long time(Runnable runnable) {
+        long start = System.nanoTime ();
+        runnable.run ();
+        return (System.nanoTime () - start) / 1000;
+    }
+}
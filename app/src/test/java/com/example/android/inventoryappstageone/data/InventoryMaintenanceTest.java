@@ -0,0 +1,133 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.DiagnosticsEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the maintenance step and the diagnostics of {@link InventoryProvider}: the file
+ * shrinks after a large delete once maintenance has run, and the change feed is pruned as far
+ * as its readers have read it.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryMaintenanceTest {
+
+    private static final int ROWS = 4000;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.buildContentProvider (InventoryProvider.class).create (InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver ();
+    }
+
+    @Test
+    public void maintenanceShrinksDatabaseAfterHalfIsDeleted() {
+        InventoryDatasetGenerator generator = new InventoryDatasetGenerator (7, 20);
+        for (int inserted = 0; inserted < ROWS; inserted += 1000) {
+            mResolver.bulkInsert (InventoryEntry.CONTENT_URI, generator.next (1000));
+        }
+        report ("full");
+        long fullPages = diagnostic ("page_count");
+
+        mResolver.delete (InventoryEntry.CONTENT_URI, InventoryEntry._ID + "%2=0", null);
+        report ("after delete");
+        assertTrue (diagnostic ("freelist_count") > 0);
+
+        int steps = maintain ();
+        report ("after " + steps + " maintenance steps");
+
+        assertEquals (0, diagnostic ("freelist_count"));
+        assertTrue (diagnostic ("page_count") < fullPages);
+        // Nobody reads the feed, so the changes the inserts and deletes recorded are gone too
+        assertEquals (0, changes ());
+    }
+
+    @Test
+    public void maintenanceKeepsChangesReadersHaveNotRead() {
+        mResolver.bulkInsert (InventoryEntry.CONTENT_URI, new InventoryDatasetGenerator (7, 20).next (10));
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ACKNOWLEDGE_CHANGES, null, InventoryContract.buildAcknowledgeChangesExtras ("sync", 4));
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ACKNOWLEDGE_CHANGES, null, InventoryContract.buildAcknowledgeChangesExtras ("report", 7));
+
+        maintain ();
+        // Changes 5 to 10, which the slowest reader hasn't read
+        assertEquals (6, changes ());
+
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ACKNOWLEDGE_CHANGES, null, InventoryContract.buildAcknowledgeChangesExtras ("sync", 10));
+        maintain ();
+        assertEquals (3, changes ());
+
+        // Once the last reader leaves, the whole feed goes
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ACKNOWLEDGE_CHANGES, null, InventoryContract.buildAcknowledgeChangesExtras ("sync", -1));
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ACKNOWLEDGE_CHANGES, null, InventoryContract.buildAcknowledgeChangesExtras ("report", -1));
+        maintain ();
+        assertEquals (0, changes ());
+    }
+
+    /**
+     * Run maintenance steps until there's no work left. Return the number of steps.
+     */
+    private int maintain() {
+        int steps = 0;
+        Bundle result;
+        do {
+            result = mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_MAINTAIN, null, null);
+            steps++;
+        } while (result.getBoolean (InventoryContract.EXTRA_MORE_WORK) && steps < 1000);
+        return steps;
+    }
+
+    private int changes() {
+        Cursor cursor = mResolver.query (InventoryContract.ChangeEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount ();
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    /**
+     * Print the file size, page counts and the time of a full scan.
+     */
+    private void report(String label) {
+        long start = System.nanoTime ();
+        Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, new String[]{"SUM(" + InventoryEntry.COLUMN_PRODUCT_QUANTITY + ")"}, null, null, null);
+        cursor.close ();
+        long scanMicros = (System.nanoTime () - start) / 1000;
+
+        File file = RuntimeEnvironment.application.getDatabasePath ("shelter.db");
+        System.out.println (label + ": " + file.length () + " bytes, " + diagnostic ("page_count") + " pages, " + diagnostic ("freelist_count") + " free, scan " + scanMicros + " µs");
+    }
+
+    private long diagnostic(String pragma) {
+        Cursor cursor = mResolver.query (DiagnosticsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            while (cursor.moveToNext ()) {
+                if (pragma.equals (cursor.getString (cursor.getColumnIndex (DiagnosticsEntry.COLUMN_NAME)))) {
+                    return cursor.getLong (cursor.getColumnIndex (DiagnosticsEntry.COLUMN_VALUE));
+                }
+            }
+            throw new AssertionError ("No diagnostic " + pragma);
+        } finally {
+            cursor.close ();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the provider methods of {@link InventoryProvider}, with a benchmark of the checkouts
+ * per second for baskets of 1, 10 and 100 items.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryProviderTest {
+
+    private static final int BENCHMARK_PRODUCTS = 1000;
+    private static final int BENCHMARK_CHECKOUTS = 200;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = TestInventories.createProvider ();
+    }
+
+    @Test
+    public void checkoutAppliesAllLines() {
+        long coffee = insertInventory ("Coffee", 10);
+        long tea = insertInventory ("Tea", 5);
+
+        Bundle result = checkout (new long[]{coffee, tea, coffee}, new int[]{-2, -5, -1}, false);
+
+        assertTrue (result.getBoolean (InventoryContract.EXTRA_COMMITTED));
+        assertArrayEquals (new int[]{InventoryContract.LINE_APPLIED, InventoryContract.LINE_APPLIED, InventoryContract.LINE_APPLIED}, result.getIntArray (InventoryContract.EXTRA_LINE_RESULTS));
+        assertEquals (7, quantityOf (coffee));
+        assertEquals (0, quantityOf (tea));
+    }
+
+    @Test
+    public void checkoutIsAllOrNothing() {
+        long coffee = insertInventory ("Coffee", 10);
+        long tea = insertInventory ("Tea", 1);
+
+        Bundle result = checkout (new long[]{coffee, tea, 9999}, new int[]{-2, -3, -1}, false);
+
+        assertFalse (result.getBoolean (InventoryContract.EXTRA_COMMITTED));
+        assertArrayEquals (new int[]{InventoryContract.LINE_APPLIED, InventoryContract.LINE_INSUFFICIENT_STOCK, InventoryContract.LINE_NOT_FOUND}, result.getIntArray (InventoryContract.EXTRA_LINE_RESULTS));
+        assertEquals (10, quantityOf (coffee));
+        assertEquals (1, quantityOf (tea));
+    }
+
+    @Test
+    public void basketWithOneShortLineChangesNothing() {
+        long coffee = insertInventory ("Coffee", 10);
+        long tea = insertInventory ("Tea", 5);
+        long milk = insertInventory ("Milk", 1);
+
+        Bundle result = checkout (new long[]{coffee, tea, milk}, new int[]{-2, -5, -2}, false);
+
+        assertFalse (result.getBoolean (InventoryContract.EXTRA_COMMITTED));
+        assertArrayEquals (new int[]{InventoryContract.LINE_APPLIED, InventoryContract.LINE_APPLIED, InventoryContract.LINE_INSUFFICIENT_STOCK}, result.getIntArray (InventoryContract.EXTRA_LINE_RESULTS));
+        assertEquals (10, quantityOf (coffee));
+        assertEquals (5, quantityOf (tea));
+        assertEquals (1, quantityOf (milk));
+    }
+
+    @Test
+    public void partialCheckoutSkipsFailingLines() {
+        long coffee = insertInventory ("Coffee", 10);
+        long tea = insertInventory ("Tea", 1);
+
+        Bundle result = checkout (new long[]{coffee, tea}, new int[]{-2, -3}, true);
+
+        assertTrue (result.getBoolean (InventoryContract.EXTRA_COMMITTED));
+        assertArrayEquals (new int[]{InventoryContract.LINE_APPLIED, InventoryContract.LINE_INSUFFICIENT_STOCK}, result.getIntArray (InventoryContract.EXTRA_LINE_RESULTS));
+        assertEquals (8, quantityOf (coffee));
+        assertEquals (1, quantityOf (tea));
+    }
+
+    @Test
+    public void benchmarkCheckoutsPerSecond() {
+        long[] products = new long[BENCHMARK_PRODUCTS];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = insertInventory ("Product " + i, 1000000);
+        }
+
+        Random random = new Random (5);
+        for (int basketSize : new int[]{1, 10, 100}) {
+            long start = System.nanoTime ();
+            for (int i = 0; i < BENCHMARK_CHECKOUTS; i++) {
+                long[] ids = new long[basketSize];
+                int[] deltas = new int[basketSize];
+                for (int line = 0; line < basketSize; line++) {
+                    ids[line] = products[random.nextInt (products.length)];
+                    deltas[line] = -1 - random.nextInt (3);
+                }
+                assertTrue (checkout (ids, deltas, false).getBoolean (InventoryContract.EXTRA_COMMITTED));
+            }
+            long nanos = System.nanoTime () - start;
+            System.out.println ("checkout of " + basketSize + " items: " + BENCHMARK_CHECKOUTS * 1000000000L / nanos + " checkouts/s");
+        }
+    }
+
+    @Test
+    public void thumbnailIsServedAndDeletedWithItsInventory() throws Exception {
+        ImageStore imageStore = new ImageStore (RuntimeEnvironment.application);
+        File thumbnail = imageStore.thumbnailFile ("coffee.jpg");
+        thumbnail.getParentFile ().mkdirs ();
+        FileOutputStream out = new FileOutputStream (thumbnail);
+        out.write (new byte[]{1, 2, 3});
+        out.close ();
+
+        long coffee = insertInventory ("Coffee", 10);
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_IMAGE, "coffee.jpg");
+        mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, coffee), values, null, null);
+
+        ParcelFileDescriptor descriptor = mResolver.openFileDescriptor (InventoryEntry.buildThumbnailUri (coffee), "r");
+        assertEquals (3, descriptor.getStatSize ());
+        descriptor.close ();
+
+        mResolver.delete (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, coffee), null, null);
+        assertFalse (thumbnail.exists ());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void inventoryWithoutImageHasNoThumbnail() throws Exception {
+        long coffee = insertInventory ("Coffee", 10);
+        mResolver.openFileDescriptor (InventoryEntry.buildThumbnailUri (coffee), "r");
+    }
+
+    private Bundle checkout(long[] ids, int[] deltas, boolean allowPartial) {
+        return mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_CHECKOUT, null, InventoryContract.buildCheckoutExtras (ids, deltas, allowPartial));
+    }
+
+    private long insertInventory(String name, int quantity) {
+        return TestInventories.insertInventory (mResolver, name, 10, quantity);
+    }
+
+    private int quantityOf(long id) {
+        return TestInventories.quantityOf (mResolver, id);
+    }
+}
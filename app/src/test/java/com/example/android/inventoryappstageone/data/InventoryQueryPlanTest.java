@@ -0,0 +1,108 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the sorted and filtered catalog queries of
+ * {@link InventoryProvider} are answered from the catalog indexes, rather than by scanning the
+ * table or sorting it in a temporary b-tree, and that a SKU lookup searches the unique SKU index.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryQueryPlanTest {
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = new InventoryDbHelper (RuntimeEnvironment.application).getWritableDatabase ();
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close ();
+    }
+
+    @Test
+    public void sortsReadTheirIndex() {
+        assertUsesIndex ("inventory_name_idx", InventoryEntry.buildCatalogUri (InventoryEntry.SORT_NAME, false, -1, -1, null));
+        assertUsesIndex ("inventory_price_idx", InventoryEntry.buildCatalogUri (InventoryEntry.SORT_PRICE, false, -1, -1, null));
+        assertUsesIndex ("inventory_quantity_idx", InventoryEntry.buildCatalogUri (InventoryEntry.SORT_QUANTITY, false, -1, -1, null));
+        assertUsesIndex ("inventory_supplier_idx", InventoryEntry.buildCatalogUri (InventoryEntry.SORT_SUPPLIER, false, -1, -1, null));
+    }
+
+    @Test
+    public void filtersSearchTheirIndex() {
+        assertUsesIndex ("inventory_quantity_idx", InventoryEntry.buildCatalogUri (InventoryEntry.SORT_QUANTITY, true, -1, -1, null));
+        assertUsesIndex ("inventory_price_idx", InventoryEntry.buildCatalogUri (null, false, 100, 200, null));
+        assertUsesIndex ("inventory_price_idx", InventoryEntry.buildCatalogUri (InventoryEntry.SORT_PRICE, false, 100, -1, null));
+        assertUsesIndex ("inventory_supplier_idx", InventoryEntry.buildCatalogUri (null, false, -1, -1, "Supplier 1"));
+        assertUsesIndex ("inventory_supplier_idx", InventoryEntry.buildCatalogUri (InventoryEntry.SORT_NAME, false, -1, -1, "Supplier 1"));
+    }
+
+    @Test
+    public void skuLookupSearchesTheUniqueIndex() {
+        // The selection the provider builds for inventories/sku/*
+        String sql = SQLiteQueryBuilder.buildQueryString (false, InventoryEntry.TABLE_NAME, null, InventoryEntry.COLUMN_PRODUCT_SKU + "=?", null, null, null, null);
+        List<String> plan = explain (sql, new String[]{"5900000000001"});
+        assertEquals (plan.toString (), 1, plan.size ());
+        assertTrue (plan.toString (), plan.get (0).startsWith ("SEARCH TABLE " + InventoryEntry.TABLE_NAME + " USING INDEX inventory_sku_idx"));
+    }
+
+    /**
+     * Assert that the catalog query of the given URI reads the given index, and neither scans the
+     * table nor sorts its result.
+     */
+    private void assertUsesIndex(String index, Uri uri) {
+        List<String> args = new ArrayList<> ();
+        String selection = InventoryProvider.catalogSelection (uri, null, args);
+        String sql = SQLiteQueryBuilder.buildQueryString (false, InventoryEntry.TABLE_NAME, InventoryEntry.CATALOG_PROJECTION, selection, null, null, InventoryProvider.catalogSortOrder (uri), null);
+        List<String> plan = explain (sql, args.toArray (new String[args.size ()]));
+
+        String message = uri + ": " + plan;
+        boolean usesIndex = false;
+        for (String step : plan) {
+            usesIndex |= step.contains ("USING INDEX " + index) || step.contains ("USING COVERING INDEX " + index);
+            assertFalse (message, step.startsWith ("SCAN TABLE") && !step.contains ("USING"));
+            assertFalse (message, step.contains ("TEMP B-TREE"));
+        }
+        assertTrue (message, usesIndex);
+    }
+
+    /**
+     * Return the detail column of every step of the plan of the given query.
+     */
+    private List<String> explain(String sql, String[] args) {
+        List<String> plan = new ArrayList<> ();
+        Cursor cursor = mDatabase.rawQuery ("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow ("detail");
+            while (cursor.moveToNext ()) {
+                plan.add (cursor.getString (detail));
+            }
+        } finally {
+            cursor.close ();
+        }
+        return plan;
+    }
+}
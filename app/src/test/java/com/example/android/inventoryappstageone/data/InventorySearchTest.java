@@ -0,0 +1,181 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the name search of {@link InventoryProvider}, with a benchmark of the query time per
+ * keystroke while typing product names. The benchmark size can be raised with
+ * -Dbenchmark.search.products, e.g. 1000000 products.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventorySearchTest {
+
+    private static final int BENCHMARK_PRODUCTS = Integer.getInteger ("benchmark.search.products", 100000);
+    private static final int BENCHMARK_TYPED_NAMES = 50;
+
+    private static final String[] NAME_PROJECTION = {InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_NAME};
+
+    private InventoryProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider (InventoryProvider.class).create (InventoryContract.CONTENT_AUTHORITY).get ();
+        mResolver = RuntimeEnvironment.application.getContentResolver ();
+    }
+
+    @Test
+    public void searchMatchesNamePrefixIgnoringCase() {
+        for (String name : new String[]{"Coffee", "coffee beans", "COFFEE CUPS", "Cocoa", "Tea", "Cof", "X@1", "x_"}) {
+            insertInventory (name);
+        }
+
+        assertEquals (Arrays.asList ("Cof", "Coffee", "coffee beans", "COFFEE CUPS"), search ("cof", InventoryEntry.SEARCH_DEFAULT_LIMIT));
+        assertEquals (Arrays.asList ("coffee beans"), search ("COFFEE B", InventoryEntry.SEARCH_DEFAULT_LIMIT));
+        assertEquals (Arrays.asList ("Cocoa", "Cof", "Coffee", "coffee beans", "COFFEE CUPS"), search ("co", InventoryEntry.SEARCH_DEFAULT_LIMIT));
+        // The character after @ is A, which NOCASE sorts as a, past the _ of "x_"
+        assertEquals (Arrays.asList ("X@1"), search ("x@", InventoryEntry.SEARCH_DEFAULT_LIMIT));
+        assertTrue (search ("milk", InventoryEntry.SEARCH_DEFAULT_LIMIT).isEmpty ());
+    }
+
+    @Test
+    public void searchIsLimited() {
+        for (int i = 0; i < 10; i++) {
+            insertInventory ("Product " + i);
+        }
+
+        assertEquals (Arrays.asList ("Product 0", "Product 1", "Product 2"), search ("prod", 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLimitIsRejected() {
+        search ("prod", InventoryEntry.SEARCH_MAX_LIMIT + 1);
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void canceledSearchStops() {
+        insertInventory ("Coffee");
+        CancellationSignal cancellationSignal = new CancellationSignal ();
+        cancellationSignal.cancel ();
+
+        mProvider.query (InventoryEntry.buildSearchUri ("cof", 10), NAME_PROJECTION, null, null, null, cancellationSignal);
+    }
+
+    @Test
+    public void benchmarkSearchPerKeystroke() {
+        Random random = new Random (5);
+        String[] names = new String[BENCHMARK_PRODUCTS];
+        SQLiteDatabase database = new InventoryDbHelper (RuntimeEnvironment.application).getWritableDatabase ();
+        database.beginTransaction ();
+        try {
+            SQLiteStatement insert = database.compileStatement ("INSERT INTO " + InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_PRODUCT_NAME + ", " + InventoryEntry.COLUMN_PRODUCT_PRICE + ", " + InventoryEntry.COLUMN_PRODUCT_QUANTITY + ", " + InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ", " + InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER + ") VALUES (?, 100, 1, 'Supplier', '555')");
+            for (int i = 0; i < names.length; i++) {
+                names[i] = randomName (random);
+                insert.bindString (1, names[i]);
+                insert.executeInsert ();
+            }
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+
+        // Type names one character at a time, querying on every keystroke as if there was no
+        // debounce
+        List<Long> searchNanos = new ArrayList<> ();
+        long likeNanos = 0;
+        for (int i = 0; i < BENCHMARK_TYPED_NAMES; i++) {
+            String name = names[random.nextInt (names.length)];
+            for (int length = 1; length <= name.length (); length++) {
+                String prefix = name.substring (0, length);
+                long start = System.nanoTime ();
+                List<String> found = search (prefix, InventoryEntry.SEARCH_DEFAULT_LIMIT);
+                searchNanos.add (System.nanoTime () - start);
+                assertTrue (!found.isEmpty ());
+                for (String match : found) {
+                    assertTrue (match.regionMatches (true, 0, prefix, 0, length));
+                }
+            }
+
+            // The naive way for comparison: LIKE on the catalog, which scans every row
+            long start = System.nanoTime ();
+            Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, NAME_PROJECTION, InventoryEntry.COLUMN_PRODUCT_NAME + " LIKE ?", new String[]{name + "%"}, InventoryEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE ASC");
+            assertTrue (cursor.getCount () > 0);
+            cursor.close ();
+            likeNanos += System.nanoTime () - start;
+        }
+
+        long[] sorted = new long[searchNanos.size ()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = searchNanos.get (i);
+        }
+        Arrays.sort (sorted);
+        System.out.println ("search of " + BENCHMARK_PRODUCTS + " products, " + sorted.length + " keystrokes: p50 " + sorted[sorted.length / 2] / 1000 + " µs, p99 " + sorted[sorted.length * 99 / 100] / 1000 + " µs; LIKE scan " + likeNanos / 1000 / BENCHMARK_TYPED_NAMES + " µs");
+    }
+
+    /**
+     * Return a name of two or three random words, starting with an upper or lower case letter.
+     */
+    private static String randomName(Random random) {
+        StringBuilder name = new StringBuilder ();
+        int words = 2 + random.nextInt (2);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                name.append (' ');
+            }
+            int length = 3 + random.nextInt (6);
+            for (int j = 0; j < length; j++) {
+                char letter = (char) ('a' + random.nextInt (26));
+                name.append (i == 0 && j == 0 && random.nextBoolean () ? Character.toUpperCase (letter) : letter);
+            }
+        }
+        return name.toString ();
+    }
+
+    private List<String> search(String prefix, int limit) {
+        Cursor cursor = mResolver.query (InventoryEntry.buildSearchUri (prefix, limit), NAME_PROJECTION, null, null, null);
+        List<String> names = new ArrayList<> ();
+        try {
+            while (cursor.moveToNext ()) {
+                names.add (cursor.getString (1));
+            }
+        } finally {
+            cursor.close ();
+        }
+        return names;
+    }
+
+    private void insertInventory(String name) {
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_NAME, name);
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 100);
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, 1);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Supplier");
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "555");
+        mResolver.insert (InventoryEntry.CONTENT_URI, values);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the SKU lookups and the upserting import of {@link InventoryProvider}, with a
+ * benchmark of SKU lookups against selecting by name. The benchmark size can be raised with
+ * -Dbenchmark.sku.products, e.g. 1000000 products.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventorySkuTest {
+
+    private static final int BENCHMARK_PRODUCTS = Integer.getInteger ("benchmark.sku.products", 100000);
+    private static final int BENCHMARK_LOOKUPS = 200;
+
+    private static final String[] PROJECTION = {InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_NAME, InventoryEntry.COLUMN_PRODUCT_PRICE};
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.buildContentProvider (InventoryProvider.class).create (InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver ();
+    }
+
+    @Test
+    public void skuUriResolvesToItsRow() {
+        ContentValues[] products = new InventoryDatasetGenerator (7, 10).next (3);
+        mResolver.bulkInsert (InventoryEntry.CONTENT_URI, products);
+
+        String sku = products[1].getAsString (InventoryEntry.COLUMN_PRODUCT_SKU);
+        Cursor cursor = mResolver.query (InventoryEntry.buildSkuUri (sku), PROJECTION, null, null, null);
+        try {
+            assertEquals (1, cursor.getCount ());
+            cursor.moveToFirst ();
+            assertEquals (products[1].getAsString (InventoryEntry.COLUMN_PRODUCT_NAME), cursor.getString (1));
+        } finally {
+            cursor.close ();
+        }
+        assertEquals (0, count (InventoryEntry.buildSkuUri ("000")));
+    }
+
+    @Test
+    public void importUpdatesProductsWhoseSkuExists() {
+        ContentValues[] products = new InventoryDatasetGenerator (7, 10).next (3);
+        mResolver.bulkInsert (InventoryEntry.CONTENT_URI, products);
+
+        // Re-importing a product with only some of its columns updates those columns
+        ContentValues reimport = new ContentValues ();
+        reimport.put (InventoryEntry.COLUMN_PRODUCT_SKU, products[1].getAsString (InventoryEntry.COLUMN_PRODUCT_SKU));
+        reimport.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 999);
+        assertEquals (1, mResolver.bulkInsert (InventoryEntry.CONTENT_URI, new ContentValues[]{reimport}));
+
+        assertEquals (3, count (InventoryEntry.CONTENT_URI));
+        Cursor cursor = mResolver.query (InventoryEntry.buildSkuUri (reimport.getAsString (InventoryEntry.COLUMN_PRODUCT_SKU)), PROJECTION, null, null, null);
+        try {
+            cursor.moveToFirst ();
+            assertEquals (products[1].getAsString (InventoryEntry.COLUMN_PRODUCT_NAME), cursor.getString (1));
+            assertEquals (999, cursor.getInt (2));
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    @Test
+    public void benchmarkSkuAgainstNameLookup() {
+        InventoryDatasetGenerator generator = new InventoryDatasetGenerator (7, 50);
+        String[] skus = new String[BENCHMARK_PRODUCTS];
+        String[] names = new String[BENCHMARK_PRODUCTS];
+        SQLiteDatabase database = new InventoryDbHelper (RuntimeEnvironment.application).getWritableDatabase ();
+        database.beginTransaction ();
+        try {
+            for (int inserted = 0; inserted < BENCHMARK_PRODUCTS; inserted += 1000) {
+                ContentValues[] batch = generator.next (Math.min (1000, BENCHMARK_PRODUCTS - inserted));
+                for (int i = 0; i < batch.length; i++) {
+                    skus[inserted + i] = batch[i].getAsString (InventoryEntry.COLUMN_PRODUCT_SKU);
+                    names[inserted + i] = batch[i].getAsString (InventoryEntry.COLUMN_PRODUCT_NAME);
+                    database.insert (InventoryEntry.TABLE_NAME, null, batch[i]);
+                }
+            }
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+
+        // Look up the same random products by SKU, as the scanner does, and by name, as the
+        // register did before
+        Random random = new Random (5);
+        long skuNanos = 0;
+        long nameNanos = 0;
+        for (int i = 0; i < BENCHMARK_LOOKUPS; i++) {
+            int product = random.nextInt (BENCHMARK_PRODUCTS);
+
+            long start = System.nanoTime ();
+            assertEquals (1, count (InventoryEntry.buildSkuUri (skus[product])));
+            skuNanos += System.nanoTime () - start;
+
+            start = System.nanoTime ();
+            Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, PROJECTION, InventoryEntry.COLUMN_PRODUCT_NAME + "=?", new String[]{names[product]}, null);
+            assertEquals (1, cursor.getCount ());
+            cursor.close ();
+            nameNanos += System.nanoTime () - start;
+        }
+        System.out.println ("lookup among " + BENCHMARK_PRODUCTS + " products: by SKU " + skuNanos / 1000 / BENCHMARK_LOOKUPS + " µs, by name " + nameNanos / 1000 / BENCHMARK_LOOKUPS + " µs");
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mResolver.query (uri, PROJECTION, null, null, null);
+        try {
+            return cursor.getCount ();
+        } finally {
+            cursor.close ();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstageone.R;
+import com.example.android.inventoryappstageone.data.InventoryContract.CommandEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the undo log of {@link InventoryProvider}, with a benchmark of what logging adds to
+ * an update. The benchmark size can be changed with -Dbenchmark.undo.updates.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryUndoTest {
+
+    private static final int BENCHMARK_UPDATES = Integer.getInteger ("benchmark.undo.updates", 5000);
+    private static final int BENCHMARK_PRODUCTS = 100;
+
+    private InventoryProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider (InventoryProvider.class).create (InventoryContract.CONTENT_AUTHORITY).get ();
+        mResolver = RuntimeEnvironment.application.getContentResolver ();
+    }
+
+    @Test
+    public void updateIsUndoneAndRedone() {
+        long id = insertInventory ("Coffee", 10);
+        setPrice (id, 120);
+
+        assertEquals (CommandEntry.KIND_UPDATE, undo ());
+        assertEquals (100, intColumn (id, InventoryEntry.COLUMN_PRODUCT_PRICE));
+        assertEquals (CommandEntry.KIND_UPDATE, redo ());
+        assertEquals (120, intColumn (id, InventoryEntry.COLUMN_PRODUCT_PRICE));
+        // Nothing left to redo
+        assertEquals (0, redo ());
+    }
+
+    @Test
+    public void deleteIsUndone() {
+        long id = insertInventory ("Coffee", 10);
+        assertEquals (1, mResolver.delete (uriOf (id), null, null));
+
+        assertEquals (CommandEntry.KIND_DELETE, undo ());
+        assertEquals (10, intColumn (id, InventoryEntry.COLUMN_PRODUCT_QUANTITY));
+        Cursor cursor = mResolver.query (uriOf (id), new String[]{InventoryEntry.COLUMN_PRODUCT_NAME, InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER}, null, null, null);
+        assertTrue (cursor.moveToFirst ());
+        assertEquals ("Coffee", cursor.getString (0));
+        assertEquals ("555", cursor.getString (1));
+        cursor.close ();
+
+        assertEquals (CommandEntry.KIND_DELETE, redo ());
+        assertFalse (exists (id));
+    }
+
+    @Test
+    public void insertIsUndoneAndRedone() {
+        long id = insertInventory ("Coffee", 10);
+
+        assertEquals (CommandEntry.KIND_INSERT, undo ());
+        assertFalse (exists (id));
+        assertEquals (CommandEntry.KIND_INSERT, redo ());
+        assertEquals (10, intColumn (id, InventoryEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void undoOnlyRestoresChangedColumns() {
+        long id = insertInventory ("Coffee", 10);
+        setPrice (id, 120);
+        // A checkout isn't logged, and the undone price edit leaves it alone
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_CHECKOUT, null, InventoryContract.buildCheckoutExtras (new long[]{id}, new int[]{-3}, false));
+
+        assertEquals (CommandEntry.KIND_UPDATE, undo ());
+        assertEquals (100, intColumn (id, InventoryEntry.COLUMN_PRODUCT_PRICE));
+        assertEquals (7, intColumn (id, InventoryEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void adjustmentIsUndoneByTheOppositeDelta() {
+        long id = insertInventory ("Coffee", 10);
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ADJUST_QUANTITY, null, InventoryContract.buildAdjustExtras (id, -4, false));
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_CHECKOUT, null, InventoryContract.buildCheckoutExtras (new long[]{id}, new int[]{-1}, false));
+
+        assertEquals (CommandEntry.KIND_ADJUST, undo ());
+        assertEquals (9, intColumn (id, InventoryEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void newChangeDropsTheRedo() {
+        long id = insertInventory ("Coffee", 10);
+        setPrice (id, 120);
+        undo ();
+        setPrice (id, 130);
+
+        assertEquals (0, redo ());
+        assertEquals (CommandEntry.KIND_UPDATE, undo ());
+        assertEquals (100, intColumn (id, InventoryEntry.COLUMN_PRODUCT_PRICE));
+        // The insert is next, not the undone edit to 120
+        assertEquals (CommandEntry.KIND_INSERT, undo ());
+    }
+
+    @Test
+    public void undoOfDeletedRowIsNotCommitted() {
+        long id = insertInventory ("Coffee", 10);
+        setPrice (id, 120);
+        // A sync adapter's delete isn't logged
+        mResolver.delete (uriOf (id).buildUpon ().appendQueryParameter (InventoryContract.CALLER_IS_SYNC_ADAPTER, "true").build (), null, null);
+
+        Bundle result = mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_UNDO, null, null);
+        assertFalse (result.getBoolean (InventoryContract.EXTRA_COMMITTED));
+        assertEquals (CommandEntry.KIND_UPDATE, result.getInt (InventoryContract.EXTRA_COMMAND_KIND));
+        assertFalse (exists (id));
+    }
+
+    @Test
+    public void logIsBounded() {
+        int capacity = RuntimeEnvironment.application.getResources ().getInteger (R.integer.command_log_size);
+        long id = insertInventory ("Coffee", 10);
+        for (int i = 1; i <= capacity * 3; i++) {
+            setPrice (id, 100 + i);
+        }
+
+        long commands = DatabaseUtils.queryNumEntries (new InventoryDbHelper (RuntimeEnvironment.application).getReadableDatabase (), CommandEntry.TABLE_NAME);
+        assertTrue (commands >= capacity && commands < 2 * capacity);
+        for (int i = 0; i < capacity; i++) {
+            assertEquals (CommandEntry.KIND_UPDATE, undo ());
+        }
+        assertEquals (100 + capacity * 2, intColumn (id, InventoryEntry.COLUMN_PRODUCT_PRICE));
+    }
+
+    @Test
+    public void benchmarkLoggingOverhead() {
+        long[] ids = new long[BENCHMARK_PRODUCTS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = insertInventory ("Product " + i, 10);
+        }
+
+        // Warm up both paths, then alternate them so neither gets the warmer caches
+        mProvider.setCommandLogging (false);
+        timeUpdates (ids, BENCHMARK_UPDATES / 10);
+        mProvider.setCommandLogging (true);
+        timeUpdates (ids, BENCHMARK_UPDATES / 10);
+        long plainNanos = 0;
+        long loggedNanos = 0;
+        for (int round = 0; round < 2; round++) {
+            mProvider.setCommandLogging (false);
+            plainNanos += timeUpdates (ids, BENCHMARK_UPDATES / 2);
+            mProvider.setCommandLogging (true);
+            loggedNanos += timeUpdates (ids, BENCHMARK_UPDATES / 2);
+        }
+
+        long plainMicros = plainNanos / 1000 / BENCHMARK_UPDATES;
+        long loggedMicros = loggedNanos / 1000 / BENCHMARK_UPDATES;
+        System.out.println ("update: " + plainMicros + " µs without the undo log, " + loggedMicros + " µs with it (" + String.format ("%.0f%%", 100.0 * (loggedNanos - plainNanos) / Math.max (1, plainNanos)) + " overhead)");
+
+        // Still undoable after all that
+        assertEquals (CommandEntry.KIND_UPDATE, undo ());
+    }
+
+    /**
+     * Update the price of the products in turn, the given number of times. Return the
+     * nanoseconds it took.
+     */
+    private long timeUpdates(long[] ids, int updates) {
+        ContentValues values = new ContentValues ();
+        long start = System.nanoTime ();
+        for (int i = 0; i < updates; i++) {
+            values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 100 + i % 50);
+            mResolver.update (uriOf (ids[i % ids.length]), values, null, null);
+        }
+        return System.nanoTime () - start;
+    }
+
+    private int undo() {
+        return mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_UNDO, null, null).getInt (InventoryContract.EXTRA_COMMAND_KIND);
+    }
+
+    private int redo() {
+        return mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_REDO, null, null).getInt (InventoryContract.EXTRA_COMMAND_KIND);
+    }
+
+    private void setPrice(long id, int price) {
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, price);
+        assertEquals (1, mResolver.update (uriOf (id), values, null, null));
+    }
+
+    private long insertInventory(String name, int quantity) {
+        return TestInventories.insertInventory (mResolver, name, 100, quantity);
+    }
+
+    private boolean exists(long id) {
+        Cursor cursor = mResolver.query (uriOf (id), new String[]{InventoryEntry._ID}, null, null, null);
+        try {
+            return cursor.moveToFirst ();
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private int intColumn(long id, String column) {
+        Cursor cursor = mResolver.query (uriOf (id), new String[]{InventoryEntry._ID, column}, null, null, null);
+        try {
+            assertTrue (cursor.moveToFirst ());
+            return cursor.getInt (1);
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private static Uri uriOf(long id) {
+        return ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link InventoryValidator} and how {@link InventoryProvider} applies it, with a
+ * benchmark of the validation cost per row of a 1M row import. The validated rows can be changed
+ * with -Dbenchmark.validator.rows.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryValidatorTest {
+
+    private static final int BENCHMARK_ROWS = Integer.getInteger ("benchmark.validator.rows", 1000000);
+    private static final int BENCHMARK_DISTINCT_ROWS = 10000;
+    private static final int BENCHMARK_IMPORT_ROWS = 10000;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = TestInventories.createProvider ();
+    }
+
+    @Test
+    public void validValuesHaveNoErrors() {
+        ContentValues values = inventory ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, "120");
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "+1 (555) 100-200");
+
+        assertTrue (InventoryValidator.forInventory ().validate (values, false).isEmpty ());
+    }
+
+    @Test
+    public void everyInvalidColumnIsReported() {
+        ContentValues values = inventory ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_NAME, "  ");
+        values.put (InventoryEntry.COLUMN_PRODUCT_SKU, new String (new char[InventoryValidator.MAX_SKU_LENGTH + 1]).replace ('\0', '9'));
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, "12a");
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, -1);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "call 555");
+
+        Map<String, Integer> errors = errorsOf (InventoryValidator.forInventory ().validate (values, false));
+
+        assertEquals (5, errors.size ());
+        assertEquals (InventoryContract.ERROR_REQUIRED, (int) errors.get (InventoryEntry.COLUMN_PRODUCT_NAME));
+        assertEquals (InventoryContract.ERROR_TOO_LONG, (int) errors.get (InventoryEntry.COLUMN_PRODUCT_SKU));
+        assertEquals (InventoryContract.ERROR_NOT_A_NUMBER, (int) errors.get (InventoryEntry.COLUMN_PRODUCT_PRICE));
+        assertEquals (InventoryContract.ERROR_OUT_OF_RANGE, (int) errors.get (InventoryEntry.COLUMN_PRODUCT_QUANTITY));
+        assertEquals (InventoryContract.ERROR_INVALID_PHONE_NUMBER, (int) errors.get (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER));
+    }
+
+    @Test
+    public void updateOnlyChecksItsColumns() {
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 5);
+        values.put (InventoryEntry.QUANTITY_DELTA, -3);
+
+        assertTrue (InventoryValidator.forInventory ().validate (values, true).isEmpty ());
+        // As an insert it misses the required columns
+        assertEquals (4, InventoryValidator.forInventory ().validate (values, false).size ());
+
+        values.putNull (InventoryEntry.QUANTITY_DELTA);
+        assertEquals (InventoryContract.ERROR_REQUIRED, (int) errorsOf (InventoryValidator.forInventory ().validate (values, true)).get (InventoryEntry.QUANTITY_DELTA));
+    }
+
+    @Test
+    public void providerNeverWritesInvalidValues() {
+        ContentValues invalid = inventory ();
+        invalid.put (InventoryEntry.COLUMN_PRODUCT_PRICE, -5);
+        assertNull (mResolver.insert (InventoryEntry.CONTENT_URI, invalid));
+
+        long id = ContentUris.parseId (mResolver.insert (InventoryEntry.CONTENT_URI, inventory ()));
+        ContentValues update = new ContentValues ();
+        update.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "none");
+        assertEquals (0, mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id), update, null, null));
+
+        // An import skips the invalid rows only
+        assertEquals (2, mResolver.bulkInsert (InventoryEntry.CONTENT_URI, new ContentValues[]{inventory (), invalid, inventory ()}));
+        Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, new String[]{InventoryEntry._ID}, null, null, null);
+        assertEquals (3, cursor.getCount ());
+        cursor.close ();
+    }
+
+    @Test
+    public void providerReportsErrors() {
+        ContentValues values = inventory ();
+        values.remove (InventoryEntry.COLUMN_PRODUCT_NAME);
+
+        Bundle result = mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_VALIDATE, null, InventoryContract.buildValidateExtras (values, false));
+
+        assertArrayEquals (new String[]{InventoryEntry.COLUMN_PRODUCT_NAME}, result.getStringArray (InventoryContract.EXTRA_ERROR_COLUMNS));
+        assertArrayEquals (new int[]{InventoryContract.ERROR_REQUIRED}, result.getIntArray (InventoryContract.EXTRA_ERROR_CODES));
+    }
+
+    @Test
+    public void benchmarkValidationPerImportedRow() {
+        ContentValues[] rows = new InventoryDatasetGenerator (11, 50).next (BENCHMARK_DISTINCT_ROWS);
+        InventoryValidator validator = InventoryValidator.forInventory ();
+
+        // Warm up, then validate the rows over and over, as an import of BENCHMARK_ROWS would
+        int invalid = 0;
+        for (ContentValues row : rows) {
+            invalid += validator.validate (row, false).size ();
+        }
+        long start = System.nanoTime ();
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            invalid += validator.validate (rows[i % rows.length], false).size ();
+        }
+        long validateNanos = System.nanoTime () - start;
+        assertEquals (0, invalid);
+
+        // The whole import path for comparison: validation, the upsert and the change feed
+        start = System.nanoTime ();
+        int imported = mResolver.bulkInsert (InventoryEntry.CONTENT_URI, new InventoryDatasetGenerator (12, 50).next (BENCHMARK_IMPORT_ROWS));
+        long importNanos = System.nanoTime () - start;
+        assertEquals (BENCHMARK_IMPORT_ROWS, imported);
+
+        long validateNanosPerRow = validateNanos / BENCHMARK_ROWS;
+        long importNanosPerRow = importNanos / BENCHMARK_IMPORT_ROWS;
+        System.out.println ("validated " + BENCHMARK_ROWS + " rows in " + validateNanos / 1000000 + " ms: " + validateNanosPerRow + " ns per row, " + importNanosPerRow + " ns per imported row");
+        assertTrue (validateNanosPerRow < importNanosPerRow);
+    }
+
+    private static ContentValues inventory() {
+        return TestInventories.inventory ("Product", 100, 1);
+    }
+
+    private static Map<String, Integer> errorsOf(List<InventoryValidator.FieldError> errors) {
+        Map<String, Integer> errorOfColumn = new HashMap<> ();
+        for (InventoryValidator.FieldError error : errors) {
+            errorOfColumn.put (error.column, error.error);
+        }
+        return errorOfColumn;
+    }
+}
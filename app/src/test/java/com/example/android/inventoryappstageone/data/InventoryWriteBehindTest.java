@@ -0,0 +1,171 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.DiagnosticsEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the write-behind mode of {@link InventoryContract#METHOD_ADJUST_QUANTITY}: buffered
+ * deltas show in queries at once and are written together. The benchmark size can be changed
+ * with -Dbenchmark.writeBehind.adjustments.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryWriteBehindTest {
+
+    private static final int BENCHMARK_ADJUSTMENTS = Integer.getInteger ("benchmark.writeBehind.adjustments", 5000);
+    private static final int BENCHMARK_PRODUCTS = 50;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = TestInventories.createProvider ();
+    }
+
+    @Test
+    public void bufferedDeltasShowBeforeTheyAreWritten() {
+        long id = insertInventory (10);
+        int flushes = diagnostic ("write_behind_flushes");
+
+        assertTrue (adjust (id, -1, true));
+        assertTrue (adjust (id, -2, true));
+
+        assertEquals (7, quantityOf (id));
+        Cursor catalog = mResolver.query (InventoryEntry.CONTENT_URI, InventoryEntry.CATALOG_PROJECTION, null, null, null);
+        assertTrue (catalog.moveToFirst ());
+        assertEquals (7, catalog.getInt (catalog.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_QUANTITY)));
+        catalog.close ();
+
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_FLUSH, null, null);
+        assertEquals (0, diagnostic ("write_behind_pending"));
+        assertEquals (flushes + 1, diagnostic ("write_behind_flushes"));
+        assertEquals (7, quantityOf (id));
+    }
+
+    @Test
+    public void bufferedDeltasAreStockChecked() {
+        long id = insertInventory (3);
+
+        assertTrue (adjust (id, -2, true));
+        assertFalse (adjust (id, -2, true));
+        assertFalse (adjust (9999, 1, true));
+        assertEquals (1, quantityOf (id));
+    }
+
+    @Test
+    public void stockCheckIsRepeatedAfterAFlush() {
+        DeltaBuffer buffer = new DeltaBuffer ();
+        long generation = buffer.awaitGeneration ();
+        assertEquals (1, buffer.addIfInStock (generation, 1, -2, 3));
+        assertEquals (0, buffer.addIfInStock (generation, 1, -2, 3));
+
+        // A quantity read before a flush wrote the pending delta would count it twice
+        buffer.endFlush (buffer.beginFlush (), true);
+        assertEquals (-1, buffer.addIfInStock (generation, 1, -1, 3));
+        assertEquals (1, buffer.addIfInStock (buffer.awaitGeneration (), 1, -1, 1));
+    }
+
+    @Test
+    public void quantityFilterWritesBufferedDeltasFirst() {
+        long id = insertInventory (1);
+        adjust (id, -1, true);
+
+        Cursor inStock = mResolver.query (InventoryEntry.buildCatalogUri (null, true, -1, -1, null), InventoryEntry.CATALOG_PROJECTION, null, null, null);
+        assertEquals (0, inStock.getCount ());
+        inStock.close ();
+        assertEquals (0, diagnostic ("write_behind_pending"));
+    }
+
+    @Test
+    public void updateAppliesBufferedDeltasFirst() {
+        long id = insertInventory (10);
+        adjust (id, 5, true);
+
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, 2);
+        mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id), values, null, null);
+
+        assertEquals (2, quantityOf (id));
+        assertEquals (0, diagnostic ("write_behind_pending"));
+    }
+
+    @Test
+    public void benchmarkDirectVersusWriteBehind() {
+        long[] ids = new long[BENCHMARK_PRODUCTS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = insertInventory (1000000);
+        }
+
+        long start = System.nanoTime ();
+        for (int i = 0; i < BENCHMARK_ADJUSTMENTS; i++) {
+            adjust (ids[i % ids.length], -1, false);
+        }
+        long directNanos = System.nanoTime () - start;
+
+        int flushes = diagnostic ("write_behind_flushes");
+        start = System.nanoTime ();
+        for (int i = 0; i < BENCHMARK_ADJUSTMENTS; i++) {
+            adjust (ids[i % ids.length], -1, true);
+        }
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_FLUSH, null, null);
+        long writeBehindNanos = System.nanoTime () - start;
+        int transactions = diagnostic ("write_behind_flushes") - flushes;
+
+        report ("direct", directNanos, BENCHMARK_ADJUSTMENTS);
+        report ("write-behind", writeBehindNanos, transactions);
+
+        assertTrue (transactions < BENCHMARK_ADJUSTMENTS / 10);
+        for (long id : ids) {
+            assertEquals (1000000 - 2 * BENCHMARK_ADJUSTMENTS / ids.length, quantityOf (id));
+        }
+    }
+
+    /**
+     * Print the update rate and the commits (each an fsync on a device) per second.
+     */
+    private static void report(String label, long nanos, int transactions) {
+        double seconds = Math.max (1, nanos) / 1e9;
+        System.out.println (label + ": " + (long) (BENCHMARK_ADJUSTMENTS / seconds) + " updates/s, " + transactions + " transactions, " + (long) (transactions / seconds) + " commits/s");
+    }
+
+    private long insertInventory(int quantity) {
+        return TestInventories.insertInventory (mResolver, "Product", 100, quantity);
+    }
+
+    private boolean adjust(long id, int delta, boolean writeBehind) {
+        return mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ADJUST_QUANTITY, null, InventoryContract.buildAdjustExtras (id, delta, writeBehind)).getBoolean (InventoryContract.EXTRA_COMMITTED);
+    }
+
+    private int quantityOf(long id) {
+        return TestInventories.quantityOf (mResolver, id);
+    }
+
+    private int diagnostic(String name) {
+        Cursor cursor = mResolver.query (DiagnosticsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            while (cursor.moveToNext ()) {
+                if (name.equals (cursor.getString (cursor.getColumnIndex (DiagnosticsEntry.COLUMN_NAME)))) {
+                    return cursor.getInt (cursor.getColumnIndex (DiagnosticsEntry.COLUMN_VALUE));
+                }
+            }
+            throw new AssertionError ("No diagnostic " + name);
+        } finally {
+            cursor.close ();
+        }
+    }
+}
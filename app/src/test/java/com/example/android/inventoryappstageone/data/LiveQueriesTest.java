@@ -0,0 +1,200 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LiveQueries}. Queries run on the test thread and time is the main looper's
+ * clock, so the benchmark at 1000 writes per second is deterministic.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class LiveQueriesTest {
+
+    private static final Executor DIRECT = new Executor () {
+        @Override
+        public void execute(Runnable command) {
+            command.run ();
+        }
+    };
+
+    private ContentResolver mResolver;
+    private LiveQueries mQueries;
+
+    @Before
+    public void setUp() {
+        mResolver = TestInventories.createProvider ();
+        mQueries = new LiveQueries (mResolver, new Handler (Looper.getMainLooper ()), DIRECT);
+    }
+
+    @Test
+    public void identicalSubscriptionsShareOneQuery() {
+        insertInventory ("Coffee", 10);
+        RecordingListener first = new RecordingListener ();
+        RecordingListener second = new RecordingListener ();
+
+        mQueries.subscribe (InventoryEntry.CONTENT_URI, InventoryEntry.CATALOG_PROJECTION, null, null, null, first);
+        mQueries.subscribe (InventoryEntry.CONTENT_URI, InventoryEntry.CATALOG_PROJECTION, null, null, null, second);
+        ShadowLooper.idleMainLooper ();
+
+        assertEquals (1, mQueries.getSharedQueryCount ());
+        assertEquals (1, mQueries.getQueryCount ());
+        assertEquals (1, first.results.size ());
+        assertEquals (1, second.results.size ());
+        assertEquals (1, first.results.get (0).getCount ());
+    }
+
+    @Test
+    public void burstOfWritesEmitsOnce() {
+        long id = insertInventory ("Coffee", 10);
+        RecordingListener listener = new RecordingListener ();
+        mQueries.subscribe (InventoryEntry.CONTENT_URI, InventoryEntry.CATALOG_PROJECTION, null, null, null, listener);
+        ShadowLooper.idleMainLooper ();
+
+        for (int quantity = 11; quantity < 20; quantity++) {
+            setQuantity (id, quantity);
+        }
+        ShadowLooper.idleMainLooper (LiveQueries.DEBOUNCE_MILLIS);
+
+        assertEquals (2, mQueries.getQueryCount ());
+        assertEquals (2, listener.results.size ());
+    }
+
+    @Test
+    public void unchangedResultIsNotEmitted() {
+        long id = insertInventory ("Coffee", 10);
+        RecordingListener listener = new RecordingListener ();
+        mQueries.subscribe (InventoryEntry.CONTENT_URI, new String[]{InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_NAME}, null, null, null, listener);
+        ShadowLooper.idleMainLooper ();
+
+        // The quantity isn't part of the result
+        setQuantity (id, 11);
+        ShadowLooper.idleMainLooper (LiveQueries.DEBOUNCE_MILLIS);
+
+        assertEquals (2, mQueries.getQueryCount ());
+        assertEquals (1, mQueries.getUnchangedCount ());
+        assertEquals (1, listener.results.size ());
+    }
+
+    @Test
+    public void unsubscribeStopsQuerying() {
+        long id = insertInventory ("Coffee", 10);
+        RecordingListener listener = new RecordingListener ();
+        LiveQueries.Subscription subscription = mQueries.subscribe (InventoryEntry.CONTENT_URI, InventoryEntry.CATALOG_PROJECTION, null, null, null, listener);
+        ShadowLooper.idleMainLooper ();
+
+        subscription.unsubscribe ();
+        setQuantity (id, 11);
+        ShadowLooper.idleMainLooper (LiveQueries.DEBOUNCE_MILLIS);
+
+        assertEquals (0, mQueries.getSharedQueryCount ());
+        assertEquals (1, mQueries.getQueryCount ());
+        assertEquals (1, listener.results.size ());
+    }
+
+    @Test
+    public void shutdownEndsSubscriptionsAndThePool() {
+        long id = insertInventory ("Coffee", 10);
+        ExecutorService pool = Executors.newSingleThreadExecutor ();
+        LiveQueries queries = new LiveQueries (mResolver, new Handler (Looper.getMainLooper ()), pool);
+        RecordingListener listener = new RecordingListener ();
+        queries.subscribe (InventoryEntry.CONTENT_URI, InventoryEntry.CATALOG_PROJECTION, null, null, null, listener);
+
+        queries.shutdown ();
+        setQuantity (id, 11);
+        ShadowLooper.idleMainLooper (LiveQueries.MAX_DELAY_MILLIS);
+
+        assertTrue (pool.isShutdown ());
+        assertEquals (0, queries.getSharedQueryCount ());
+        assertEquals (0, queries.getQueryCount ());
+        assertTrue (listener.results.isEmpty ());
+    }
+
+    @Test
+    public void benchmarkThousandWritesPerSecond() {
+        int writes = 5000;
+        long id = insertInventory ("Coffee", 0);
+        final List<Long> pendingWriteMillis = new ArrayList<> ();
+        final List<Long> latencies = new ArrayList<> ();
+        LiveQueries.Listener listener = new LiveQueries.Listener () {
+            @Override
+            public void onResult(CursorSnapshot result) {
+                // Latency of the oldest write this emission answers
+                if (!pendingWriteMillis.isEmpty ()) {
+                    latencies.add (SystemClock.uptimeMillis () - pendingWriteMillis.get (0));
+                    pendingWriteMillis.clear ();
+                }
+            }
+        };
+        // Three screens watching the same catalog
+        for (int i = 0; i < 3; i++) {
+            mQueries.subscribe (InventoryEntry.CONTENT_URI, InventoryEntry.CATALOG_PROJECTION, null, null, null, listener);
+        }
+        ShadowLooper.idleMainLooper ();
+        int initialQueries = mQueries.getQueryCount ();
+
+        for (int i = 1; i <= writes; i++) {
+            setQuantity (id, i);
+            pendingWriteMillis.add (SystemClock.uptimeMillis ());
+            ShadowLooper.idleMainLooper (1);
+        }
+        ShadowLooper.idleMainLooper (LiveQueries.MAX_DELAY_MILLIS);
+
+        int queries = mQueries.getQueryCount () - initialQueries;
+        long maxLatency = 0;
+        long totalLatency = 0;
+        for (long latency : latencies) {
+            maxLatency = Math.max (maxLatency, latency);
+            totalLatency += latency;
+        }
+        System.out.println (writes + " writes at 1000/s: " + queries + " queries, " + mQueries.getUnchangedCount () + " unchanged, latency avg " + totalLatency / Math.max (1, latencies.size ()) + " ms, max " + maxLatency + " ms");
+
+        // Far fewer queries than writes, every write answered within the maximum delay
+        assertTrue (queries <= writes / LiveQueries.MAX_DELAY_MILLIS + 2);
+        assertTrue (maxLatency <= LiveQueries.MAX_DELAY_MILLIS);
+        assertTrue (pendingWriteMillis.isEmpty ());
+    }
+
+    private long insertInventory(String name, int quantity) {
+        return TestInventories.insertInventory (mResolver, name, 100, quantity);
+    }
+
+    private void setQuantity(long id, int quantity) {
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        Uri uri = ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id);
+        mResolver.update (uri, values, null, null);
+    }
+
+    private static final class RecordingListener implements LiveQueries.Listener {
+        final List<CursorSnapshot> results = new ArrayList<> ();
+
+        @Override
+        public void onResult(CursorSnapshot result) {
+            results.add (result);
+        }
+    }
+}
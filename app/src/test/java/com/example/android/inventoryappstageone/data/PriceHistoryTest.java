@@ -0,0 +1,179 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.PriceHistoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the price history of {@link InventoryProvider}: prices are recorded on every change,
+ * and the rollups agree with the recorded prices. The benchmark size can be raised with
+ * -Dbenchmark.priceHistory.products, e.g. 10000 products.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class PriceHistoryTest {
+
+    private static final int BENCHMARK_PRODUCTS = Integer.getInteger ("benchmark.priceHistory.products", 40);
+    private static final int BENCHMARK_YEARS = 5;
+    private static final int BENCHMARK_QUERIES = 200;
+
+    /**
+     * Monday 2018-01-01 00:00 UTC
+     */
+    private static final long MONDAY = 1514764800000L;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = TestInventories.createProvider ();
+    }
+
+    @Test
+    public void everyPriceChangeIsRecorded() {
+        long id = insertInventory (100);
+        setPrice (id, 120);
+        setPrice (id, 120);
+        setPrice (id, 90);
+
+        Cursor cursor = mResolver.query (InventoryEntry.buildPriceHistoryUri (id, PriceHistoryEntry.RESOLUTION_RAW, -1, -1), null, null, null, null);
+        assertEquals (3, cursor.getCount ());
+        cursor.moveToLast ();
+        assertEquals (90, cursor.getInt (cursor.getColumnIndex (PriceHistoryEntry.COLUMN_MIN_PRICE)));
+        cursor.close ();
+
+        Cursor day = mResolver.query (InventoryEntry.buildPriceHistoryUri (id, PriceHistoryEntry.RESOLUTION_DAY, -1, -1), null, null, null, null);
+        assertTrue (day.getCount () >= 1);
+        day.moveToLast ();
+        assertEquals (120, day.getInt (day.getColumnIndex (PriceHistoryEntry.COLUMN_MAX_PRICE)));
+        day.close ();
+    }
+
+    @Test
+    public void rollupsMatchRecordedPrices() {
+        long id = insertInventory (100);
+        SQLiteDatabase database = new InventoryDbHelper (RuntimeEnvironment.application).getWritableDatabase ();
+        // Sunday evening and Monday morning fall into different weeks
+        recordPrice (database, id, 200, MONDAY - 3600000);
+        recordPrice (database, id, 300, MONDAY + 3600000);
+        recordPrice (database, id, 500, MONDAY + 7200000);
+
+        Cursor weeks = mResolver.query (InventoryEntry.buildPriceHistoryUri (id, PriceHistoryEntry.RESOLUTION_WEEK, MONDAY - PriceHistoryEntry.WEEK_MILLIS, MONDAY + PriceHistoryEntry.WEEK_MILLIS), null, null, null, null);
+        assertEquals (2, weeks.getCount ());
+        weeks.moveToLast ();
+        assertEquals (MONDAY, weeks.getLong (weeks.getColumnIndex (PriceHistoryEntry.COLUMN_BUCKET_START)));
+        assertEquals (300, weeks.getInt (weeks.getColumnIndex (PriceHistoryEntry.COLUMN_MIN_PRICE)));
+        assertEquals (500, weeks.getInt (weeks.getColumnIndex (PriceHistoryEntry.COLUMN_MAX_PRICE)));
+        assertEquals (400.0, weeks.getDouble (weeks.getColumnIndex (PriceHistoryEntry.COLUMN_AVG_PRICE)), 0.001);
+        assertEquals (2, weeks.getInt (weeks.getColumnIndex (PriceHistoryEntry.COLUMN_PRICE_COUNT)));
+        weeks.close ();
+    }
+
+    @Test
+    public void deletingInventoryDeletesItsHistory() {
+        long id = insertInventory (100);
+        mResolver.delete (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id), null, null);
+
+        Cursor cursor = mResolver.query (InventoryEntry.buildPriceHistoryUri (id, PriceHistoryEntry.RESOLUTION_WEEK, -1, -1), null, null, null, null);
+        assertEquals (0, cursor.getCount ());
+        cursor.close ();
+    }
+
+    @Test
+    public void benchmarkRangeQueriesOverFiveYears() {
+        Random random = new Random (3);
+        long[] ids = new long[BENCHMARK_PRODUCTS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = insertInventory (1000);
+        }
+
+        // A price change every one to three days for five years
+        long start = MONDAY - BENCHMARK_YEARS * 365 * PriceHistoryEntry.DAY_MILLIS;
+        SQLiteDatabase database = new InventoryDbHelper (RuntimeEnvironment.application).getWritableDatabase ();
+        long loadStart = System.nanoTime ();
+        int recorded = 0;
+        database.beginTransaction ();
+        try {
+            SQLiteStatement insert = database.compileStatement ("INSERT INTO " + PriceHistoryEntry.TABLE_NAME + " (" + PriceHistoryEntry.COLUMN_INVENTORY_ID + ", " + PriceHistoryEntry.COLUMN_PRICE + ", " + PriceHistoryEntry.COLUMN_CHANGED_AT + ") VALUES (?, ?, ?)");
+            for (long id : ids) {
+                int price = 1000;
+                for (long time = start; time < MONDAY; time += (1 + random.nextInt (3)) * PriceHistoryEntry.DAY_MILLIS) {
+                    price = Math.max (1, price + random.nextInt (101) - 50);
+                    insert.bindLong (1, id);
+                    insert.bindLong (2, price);
+                    insert.bindLong (3, time + random.nextInt (86400000));
+                    insert.executeInsert ();
+                    recorded++;
+                }
+            }
+            insert.close ();
+            database.setTransactionSuccessful ();
+        } finally {
+            database.endTransaction ();
+        }
+        System.out.println (recorded + " prices for " + ids.length + " products recorded in " + (System.nanoTime () - loadStart) / 1000000 + " ms");
+
+        report ("5 years, weekly", ids, random, start, MONDAY, PriceHistoryEntry.RESOLUTION_WEEK);
+        report ("1 year, daily", ids, random, MONDAY - 365 * PriceHistoryEntry.DAY_MILLIS, MONDAY, PriceHistoryEntry.RESOLUTION_DAY);
+        report ("1 month, raw", ids, random, MONDAY - 30 * PriceHistoryEntry.DAY_MILLIS, MONDAY, PriceHistoryEntry.RESOLUTION_RAW);
+
+        // The same 5 year weekly chart computed from the recorded prices
+        long scanStart = System.nanoTime ();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            long id = ids[random.nextInt (ids.length)];
+            Cursor cursor = database.rawQuery ("SELECT (" + PriceHistoryEntry.COLUMN_CHANGED_AT + "+" + 3 * PriceHistoryEntry.DAY_MILLIS + ")/" + PriceHistoryEntry.WEEK_MILLIS + " AS week, MIN(price), MAX(price), AVG(price), COUNT(*) FROM " + PriceHistoryEntry.TABLE_NAME + " WHERE " + PriceHistoryEntry.COLUMN_INVENTORY_ID + "=? GROUP BY week", new String[]{String.valueOf (id)});
+            cursor.getCount ();
+            cursor.close ();
+        }
+        System.out.println ("5 years, weekly from recorded prices: " + (System.nanoTime () - scanStart) / 1000 / BENCHMARK_QUERIES + " µs per query");
+    }
+
+    private void report(String label, long[] ids, Random random, long from, long to, String resolution) {
+        int points = 0;
+        long start = System.nanoTime ();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            Uri uri = InventoryEntry.buildPriceHistoryUri (ids[random.nextInt (ids.length)], resolution, from, to);
+            Cursor cursor = mResolver.query (uri, null, null, null, null);
+            points += cursor.getCount ();
+            cursor.close ();
+        }
+        System.out.println (label + ": " + (System.nanoTime () - start) / 1000 / BENCHMARK_QUERIES + " µs per query, " + points / BENCHMARK_QUERIES + " points");
+    }
+
+    private static void recordPrice(SQLiteDatabase database, long id, int price, long changedAt) {
+        ContentValues values = new ContentValues ();
+        values.put (PriceHistoryEntry.COLUMN_INVENTORY_ID, id);
+        values.put (PriceHistoryEntry.COLUMN_PRICE, price);
+        values.put (PriceHistoryEntry.COLUMN_CHANGED_AT, changedAt);
+        database.insert (PriceHistoryEntry.TABLE_NAME, null, values);
+    }
+
+    private long insertInventory(int price) {
+        return TestInventories.insertInventory (mResolver, "Product", price, 1);
+    }
+
+    private void setPrice(long id, int price) {
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, price);
+        mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id), values, null, null);
+    }
+}
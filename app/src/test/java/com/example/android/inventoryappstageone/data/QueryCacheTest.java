@@ -0,0 +1,169 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the catalog query cache of {@link InventoryProvider}, with a benchmark of a cached
+ * catalog query against an uncached one at the size of a real store's catalog. The benchmark
+ * size can be changed with -Dbenchmark.queryCache.products.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class QueryCacheTest {
+
+    private static final int BENCHMARK_PRODUCTS = Integer.getInteger ("benchmark.queryCache.products", 10000);
+    private static final int BENCHMARK_QUERIES = 200;
+
+    private static final Uri CATALOG_URI = InventoryEntry.buildCatalogUri (null, false, -1, -1, null);
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = TestInventories.createProvider ();
+    }
+
+    @Test
+    public void writesInvalidateTheCache() {
+        long coffee = insertInventory ("Coffee", 100);
+        assertEquals (100, catalogPrice (coffee));
+        // Served from the cache now
+        assertEquals (100, catalogPrice (coffee));
+
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 120);
+        mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, coffee), values, null, null);
+        assertEquals (120, catalogPrice (coffee));
+
+        long tea = insertInventory ("Tea", 80);
+        assertEquals (2, catalogCount ());
+        mResolver.delete (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, coffee), null, null);
+        assertEquals (1, catalogCount ());
+
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_CHECKOUT, null, InventoryContract.buildCheckoutExtras (new long[]{tea}, new int[]{-1}, false));
+        Cursor cursor = mResolver.query (CATALOG_URI, InventoryEntry.CATALOG_PROJECTION, null, null, null);
+        assertTrue (cursor.moveToFirst ());
+        assertEquals (9, cursor.getInt (cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_QUANTITY)));
+        cursor.close ();
+    }
+
+    @Test
+    public void cacheIsBoundedByBytes() {
+        CursorSnapshot snapshot = snapshot (1000);
+        long bytes = snapshot.getByteCount ();
+        QueryCache cache = new QueryCache (bytes * 2);
+        cache.put ("a", cache.generation (), snapshot);
+        cache.put ("b", cache.generation (), snapshot (1000));
+        assertEquals (2 * bytes, cache.byteCount ());
+
+        // Least recently used goes first
+        cache.get ("a").close ();
+        cache.put ("c", cache.generation (), snapshot (1000));
+        assertEquals (2 * bytes, cache.byteCount ());
+        assertNull (cache.get ("b"));
+        assertNotNull (cache.get ("a"));
+
+        // A result over the whole budget isn't cached
+        cache.put ("d", cache.generation (), snapshot (3000));
+        assertNull (cache.get ("d"));
+        assertNotNull (cache.get ("c"));
+    }
+
+    @Test
+    public void benchmarkCachedCatalogQuery() {
+        assertEquals (BENCHMARK_PRODUCTS, mResolver.bulkInsert (InventoryEntry.CONTENT_URI, new InventoryDatasetGenerator (23, 50).next (BENCHMARK_PRODUCTS)));
+        Cursor catalog = mResolver.query (CATALOG_URI, InventoryEntry.CATALOG_PROJECTION, InventoryEntry._ID + ">?", new String[]{"-1"}, null);
+        long catalogBytes = CursorSnapshot.of (catalog, Integer.MAX_VALUE).getByteCount ();
+        catalog.close ();
+        System.out.println ("catalog of " + BENCHMARK_PRODUCTS + " products: " + catalogBytes / 1024 + " KB cached, " + catalogBytes / BENCHMARK_PRODUCTS + " bytes per product, cache budget " + QueryCache.MAX_BYTES / 1024 + " KB");
+
+        // Warm up both paths
+        readCatalog (null, null);
+        readCatalog (InventoryEntry._ID + ">?", new String[]{"-1"});
+
+        // A query the cache has never seen, since its argument differs every time
+        long start = System.nanoTime ();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            assertEquals (BENCHMARK_PRODUCTS, readCatalog (InventoryEntry._ID + ">?", new String[]{String.valueOf (-2 - i)}));
+        }
+        long uncachedNanos = System.nanoTime () - start;
+
+        start = System.nanoTime ();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            assertEquals (BENCHMARK_PRODUCTS, readCatalog (null, null));
+        }
+        long cachedNanos = System.nanoTime () - start;
+
+        System.out.println ("catalog of " + BENCHMARK_PRODUCTS + " products: miss " + uncachedNanos / 1000 / BENCHMARK_QUERIES + " µs, hit " + cachedNanos / 1000 / BENCHMARK_QUERIES + " µs per query");
+        assertTrue (cachedNanos < uncachedNanos);
+    }
+
+    /**
+     * Query the catalog and read every row, the way the list does. Return the row count.
+     */
+    private int readCatalog(String selection, String[] selectionArgs) {
+        Cursor cursor = mResolver.query (CATALOG_URI, InventoryEntry.CATALOG_PROJECTION, selection, selectionArgs, null);
+        int rows = 0;
+        try {
+            while (cursor.moveToNext ()) {
+                cursor.getString (1);
+                cursor.getInt (2);
+                rows++;
+            }
+        } finally {
+            cursor.close ();
+        }
+        return rows;
+    }
+
+    /**
+     * Snapshot of the given number of rows of one string column.
+     */
+    private static CursorSnapshot snapshot(int rows) {
+        MatrixCursor cursor = new MatrixCursor (new String[]{InventoryEntry.COLUMN_PRODUCT_NAME});
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow (new Object[]{"Product"});
+        }
+        return CursorSnapshot.of (cursor, Integer.MAX_VALUE);
+    }
+
+    private int catalogCount() {
+        return readCatalog (null, null);
+    }
+
+    private int catalogPrice(long id) {
+        Cursor cursor = mResolver.query (CATALOG_URI, InventoryEntry.CATALOG_PROJECTION, null, null, null);
+        try {
+            while (cursor.moveToNext ()) {
+                if (cursor.getLong (0) == id) {
+                    return cursor.getInt (cursor.getColumnIndex (InventoryEntry.COLUMN_PRODUCT_PRICE));
+                }
+            }
+            throw new AssertionError ("Inventory " + id + " is not in the catalog");
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private long insertInventory(String name, int price) {
+        return TestInventories.insertInventory (mResolver, name, price, 10);
+    }
+}
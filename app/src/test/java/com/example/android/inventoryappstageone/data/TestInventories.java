@@ -0,0 +1,77 @@
+package com.example.android.inventoryappstageone.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fixtures the provider tests share: a fresh {@link InventoryProvider}, and inventories that
+ * pass validation, differing only in what a test looks at.
+ */
+public final class TestInventories {
+
+    /**
+     * Supplier of every inventory built here, unless a test sets its own
+     */
+    public static final String SUPPLIER_NAME = "Supplier";
+    public static final String SUPPLIER_PHONE_NUMBER = "555";
+
+    private TestInventories() {
+    }
+
+    /**
+     * Create the provider on an empty database, and return the resolver to reach it.
+     */
+    public static ContentResolver createProvider() {
+        Robolectric.buildContentProvider (InventoryProvider.class).create (InventoryContract.CONTENT_AUTHORITY);
+        return RuntimeEnvironment.application.getContentResolver ();
+    }
+
+    /**
+     * Values of a valid inventory with the given name, price and quantity.
+     */
+    public static ContentValues inventory(String name, int price, int quantity) {
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_NAME, name);
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, SUPPLIER_NAME);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, SUPPLIER_PHONE_NUMBER);
+        return values;
+    }
+
+    /**
+     * Insert the given values and return the id of the new inventory.
+     */
+    public static long insert(ContentResolver resolver, ContentValues values) {
+        return ContentUris.parseId (resolver.insert (InventoryEntry.CONTENT_URI, values));
+    }
+
+    /**
+     * Insert a valid inventory with the given name, price and quantity, and return its id.
+     */
+    public static long insertInventory(ContentResolver resolver, String name, int price, int quantity) {
+        return insert (resolver, inventory (name, price, quantity));
+    }
+
+    /**
+     * Quantity of the given inventory, as queries show it.
+     */
+    public static int quantityOf(ContentResolver resolver, long id) {
+        Cursor cursor = resolver.query (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id), new String[]{InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            assertTrue (cursor.moveToFirst ());
+            return cursor.getInt (1);
+        } finally {
+            cursor.close ();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.android.inventoryappstageone.label;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.print.PageRange;
+
+import com.example.android.inventoryappstageone.data.InventoryContract;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryDatasetGenerator;
+import com.example.android.inventoryappstageone.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the shelf labels of {@link LabelDocument} and {@link LabelPrintAdapter}, with a
+ * benchmark of the pages per second and the peak heap of rendering 10k labels from the provider.
+ * The label count can be changed with -Dbenchmark.labels.count.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class LabelDocumentTest {
+
+    private static final int BENCHMARK_LABELS = Integer.getInteger ("benchmark.labels.count", 10000);
+
+    private static final Charset LATIN_1 = Charset.forName ("ISO-8859-1");
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.buildContentProvider (InventoryProvider.class).create (InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver ();
+    }
+
+    @Test
+    public void code128PacksDigitsInSetC() {
+        // Start C, 12, 34, check symbol 82, stop
+        assertArrayEquals (new int[]{2, 1, 1, 2, 3, 2, 1, 1, 2, 2, 3, 2, 1, 3, 1, 1, 2, 3, 1, 2, 1, 2, 4, 1, 2, 3, 3, 1, 1, 1, 2}, Code128.encode ("1234"));
+        // Start B, A, B, check symbol 102, stop
+        assertArrayEquals (new int[]{2, 1, 1, 2, 1, 4, 1, 1, 1, 3, 2, 3, 1, 3, 1, 1, 2, 3, 4, 1, 1, 1, 3, 1, 2, 3, 3, 1, 1, 1, 2}, Code128.encode ("AB"));
+        // A 13 digit SKU is 6 pairs in set C and its last digit in set B: 10 symbols and the stop
+        assertEquals (10 * 11 + 13, Code128.moduleCount (Code128.encode ("5900000000001")));
+
+        assertNull (Code128.encode (""));
+        assertNull (Code128.encode ("Zółw"));
+    }
+
+    @Test
+    public void documentIsWellFormed() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        LabelDocument document = new LabelDocument (out, "zł.");
+        for (int i = 0; i < 50; i++) {
+            document.add ("Product (" + i + ")", 100 + i, i % 2 == 0 ? "590" + i : null);
+        }
+        document.finish ();
+
+        assertEquals (3, document.getPageCount ());
+        String pdf = new String (out.toByteArray (), LATIN_1);
+        assertTrue (pdf.startsWith ("%PDF-1.4"));
+        assertTrue (pdf.endsWith ("%%EOF\n"));
+        assertTrue (pdf.contains ("/Count 3"));
+
+        // Every cross-reference points at its object
+        int xref = Integer.parseInt (pdf.substring (pdf.lastIndexOf ("startxref") + 10, pdf.lastIndexOf ("\n%%EOF")));
+        String[] entries = pdf.substring (xref, pdf.indexOf ("trailer", xref)).split ("\n");
+        for (int id = 1; id + 2 < entries.length; id++) {
+            int offset = Integer.parseInt (entries[id + 2].substring (0, 10));
+            assertTrue (pdf.startsWith (id + " 0 obj", offset));
+        }
+
+        String firstPage = pageContents (out.toByteArray ()).get (0);
+        assertTrue (firstPage.contains ("(Product \\(0\\)) Tj"));
+        assertTrue (firstPage.contains ("(100 z\u008d.) Tj"));
+        assertFalse (firstPage.contains ("(Product \\(24\\))"));
+    }
+
+    @Test
+    public void onlyRequestedPagesAreWritten() throws IOException {
+        for (int i = 0; i < 60; i++) {
+            insertInventory ("Product " + i);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        assertEquals (1, write (out, new PageRange[]{new PageRange (1, 1)}, new CancellationSignal ()));
+        String page = pageContents (out.toByteArray ()).get (0);
+        assertTrue (page.contains ("(Product 24)"));
+        assertTrue (page.contains ("(Product 47)"));
+        assertFalse (page.contains ("(Product 23)"));
+        assertFalse (page.contains ("(Product 48)"));
+
+        // Page ranges past the last label are cut short
+        out.reset ();
+        assertEquals (2, write (out, new PageRange[]{new PageRange (0, 0), new PageRange (2, 5)}, new CancellationSignal ()));
+        assertTrue (pageContents (out.toByteArray ()).get (1).contains ("(Product 59)"));
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void canceledWriteStops() throws IOException {
+        insertInventory ("Coffee");
+        CancellationSignal cancellationSignal = new CancellationSignal ();
+        cancellationSignal.cancel ();
+
+        write (new ByteArrayOutputStream (), new PageRange[]{PageRange.ALL_PAGES}, cancellationSignal);
+    }
+
+    @Test
+    public void benchmarkLabels() throws IOException {
+        ContentValues[] rows = new InventoryDatasetGenerator (19, 50).next (BENCHMARK_LABELS);
+        assertEquals (BENCHMARK_LABELS, mResolver.bulkInsert (InventoryEntry.CONTENT_URI, rows));
+
+        // Warm up on the first pages
+        write (new HeapSamplingOutputStream (), new PageRange[]{new PageRange (0, 9)}, new CancellationSignal ());
+
+        Runtime runtime = Runtime.getRuntime ();
+        System.gc ();
+        long heapBefore = runtime.totalMemory () - runtime.freeMemory ();
+        HeapSamplingOutputStream out = new HeapSamplingOutputStream ();
+        long start = System.nanoTime ();
+        int pages = write (new BufferedOutputStream (out), new PageRange[]{PageRange.ALL_PAGES}, new CancellationSignal ());
+        long nanos = System.nanoTime () - start;
+
+        assertEquals (LabelDocument.pageCount (BENCHMARK_LABELS), pages);
+        System.out.println (BENCHMARK_LABELS + " labels: " + pages + " pages in " + nanos / 1000000 + " ms, " + String.format ("%.0f", pages * 1e9 / nanos) + " pages/s, " + out.mBytes / 1024 + " KB of PDF, peak heap " + (out.mPeakHeap - heapBefore) / 1024 + " KB above the " + heapBefore / 1024 / 1024 + " MB before");
+    }
+
+    /**
+     * Write the labels of every inventory, in id order, the way the print adapter does.
+     */
+    private int write(OutputStream out, PageRange[] pages, CancellationSignal cancellationSignal) throws IOException {
+        Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, LabelDocument.PROJECTION, null, null, InventoryEntry._ID + " ASC");
+        try {
+            return LabelPrintAdapter.write (cursor, out, "zł.", pages, cancellationSignal);
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    /**
+     * Return the decompressed content streams of the pages of the given PDF document.
+     */
+    private static List<String> pageContents(byte[] pdf) {
+        List<String> pages = new ArrayList<> ();
+        Matcher matcher = Pattern.compile ("/Length (\\d+) /Filter /FlateDecode >>\nstream\n").matcher (new String (pdf, LATIN_1));
+        while (matcher.find ()) {
+            Inflater inflater = new Inflater ();
+            inflater.setInput (pdf, matcher.end (), Integer.parseInt (matcher.group (1)));
+            ByteArrayOutputStream content = new ByteArrayOutputStream ();
+            byte[] buffer = new byte[8192];
+            try {
+                while (!inflater.finished ()) {
+                    content.write (buffer, 0, inflater.inflate (buffer));
+                }
+            } catch (DataFormatException e) {
+                throw new AssertionError (e);
+            }
+            inflater.end ();
+            pages.add (new String (content.toByteArray (), LATIN_1));
+        }
+        return pages;
+    }
+
+    /**
+     * Discards what's written to it, keeping the byte count and the highest heap use seen
+     * while writing.
+     */
+    private static class HeapSamplingOutputStream extends OutputStream {
+        long mBytes;
+        long mPeakHeap;
+
+        @Override
+        public void write(int b) {
+            mBytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mBytes += len;
+            Runtime runtime = Runtime.getRuntime ();
+            mPeakHeap = Math.max (mPeakHeap, runtime.totalMemory () - runtime.freeMemory ());
+        }
+    }
+
+    private void insertInventory(String name) {
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_NAME, name);
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 100);
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, 1);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Supplier");
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "555");
+        mResolver.insert (InventoryEntry.CONTENT_URI, values);
+    }
+}
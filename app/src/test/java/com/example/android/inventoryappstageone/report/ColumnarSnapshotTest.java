@@ -0,0 +1,194 @@
+package com.example.android.inventoryappstageone.report;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryappstageone.data.InventoryContract;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryDatasetGenerator;
+import com.example.android.inventoryappstageone.data.InventoryProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ColumnarSnapshot}, and a benchmark of its aggregations against the
+ * equivalent SQL through {@link InventoryProvider}. Run the benchmark at full size with
+ * ./gradlew testDebugUnitTest -Dbenchmark.columnarSnapshot.rows=1000000
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ColumnarSnapshotTest {
+
+    private static final int SUPPLIERS = 20;
+
+    private ContentResolver mResolver;
+    private ParallelAggregator mAggregator;
+
+    @Before
+    public void setUp() {
+        Robolectric.buildContentProvider (InventoryProvider.class).create (InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver ();
+        mAggregator = new ParallelAggregator (4);
+    }
+
+    @After
+    public void tearDown() {
+        mAggregator.shutdown ();
+    }
+
+    @Test
+    public void refreshMatchesReload() {
+        mResolver.bulkInsert (InventoryEntry.CONTENT_URI, new InventoryDatasetGenerator (7, SUPPLIERS).next (200));
+        ColumnarSnapshot snapshot = ColumnarSnapshot.load (mResolver);
+        long before = System.currentTimeMillis ();
+
+        // Sell, restock, delete and add products behind the snapshot's back
+        Uri sold = firstInStock ();
+        ContentValues sale = new ContentValues ();
+        sale.put (InventoryEntry.QUANTITY_DELTA, -1);
+        mResolver.update (sold, sale, null, null);
+        ContentValues restock = new ContentValues ();
+        restock.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, 50);
+        mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, 2), restock, null, null);
+        mResolver.delete (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, 3), null, null);
+        mResolver.bulkInsert (InventoryEntry.CONTENT_URI, new InventoryDatasetGenerator (8, SUPPLIERS).next (10));
+
+        snapshot.refresh (mResolver);
+        ColumnarSnapshot reloaded = ColumnarSnapshot.load (mResolver);
+
+        assertEquals (reloaded.size (), snapshot.size ());
+        assertEquals (reloaded.stockValueBySupplier (mAggregator), snapshot.stockValueBySupplier (mAggregator));
+        for (long id : snapshot.deadStock (mAggregator, before)) {
+            assertFalse (id == ContentUris.parseId (sold));
+        }
+    }
+
+    @Test
+    public void deadStockKnowsSalesMadeBeforeLoad() {
+        mResolver.bulkInsert (InventoryEntry.CONTENT_URI, new InventoryDatasetGenerator (7, SUPPLIERS).next (50));
+        List<Long> inStock = inStock ();
+        long before = System.currentTimeMillis ();
+        ContentValues sale = new ContentValues ();
+        sale.put (InventoryEntry.QUANTITY_DELTA, -1);
+        mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, inStock.get (0)), sale, null, null);
+
+        ColumnarSnapshot snapshot = ColumnarSnapshot.load (mResolver);
+        long[] dead = snapshot.deadStock (mAggregator, before);
+        assertEquals (inStock.size () - 1, dead.length);
+        assertFalse (contains (dead, inStock.get (0)));
+
+        // Correcting the quantity in the editor isn't a sale
+        ContentValues correction = new ContentValues ();
+        correction.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, 1);
+        mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, inStock.get (1)), correction, null, null);
+        snapshot.refresh (mResolver);
+        assertTrue (contains (snapshot.deadStock (mAggregator, before), inStock.get (1)));
+    }
+
+    @Test
+    public void stockValueMatchesSql() {
+        mResolver.bulkInsert (InventoryEntry.CONTENT_URI, new InventoryDatasetGenerator (7, SUPPLIERS).next (500));
+        ColumnarSnapshot snapshot = ColumnarSnapshot.load (mResolver);
+
+        Map<String, Long> bySupplier = snapshot.stockValueBySupplier (mAggregator);
+        for (Map.Entry<String, Long> supplier : bySupplier.entrySet ()) {
+            assertEquals (supplier.getKey (), sqlStockValue (supplier.getKey ()), (long) supplier.getValue ());
+        }
+
+        long products = 0;
+        for (long count : snapshot.priceHistogram (mAggregator, new int[]{10, 20, 50, 100})) {
+            products += count;
+        }
+        assertEquals (500, products);
+    }
+
+    @Test
+    public void aggregationBenchmark() {
+        int rows = Integer.getInteger ("benchmark.columnarSnapshot.rows", 20000);
+        InventoryDatasetGenerator generator = new InventoryDatasetGenerator (7, SUPPLIERS);
+        for (int inserted = 0; inserted < rows; inserted += 10000) {
+            mResolver.bulkInsert (InventoryEntry.CONTENT_URI, generator.next (Math.min (10000, rows - inserted)));
+        }
+
+        long start = System.nanoTime ();
+        ColumnarSnapshot snapshot = ColumnarSnapshot.load (mResolver);
+        long loadMicros = (System.nanoTime () - start) / 1000;
+
+        // Warm up once, then time the columnar aggregation
+        Map<String, Long> bySupplier = snapshot.stockValueBySupplier (mAggregator);
+        start = System.nanoTime ();
+        snapshot.stockValueBySupplier (mAggregator);
+        long columnarMicros = (System.nanoTime () - start) / 1000;
+
+        // The same report in SQL: one indexed SUM per supplier through the provider
+        start = System.nanoTime ();
+        for (String supplier : bySupplier.keySet ()) {
+            sqlStockValue (supplier);
+        }
+        long sqlMicros = (System.nanoTime () - start) / 1000;
+
+        System.out.println ("Stock value by supplier over " + rows + " rows: columnar " + columnarMicros + " µs, SQL " + sqlMicros + " µs (snapshot load " + loadMicros + " µs)");
+        assertEquals (rows, snapshot.size ());
+    }
+
+    private long sqlStockValue(String supplier) {
+        Uri uri = InventoryEntry.buildCatalogUri (null, false, -1, -1, supplier);
+        Cursor cursor = mResolver.query (uri, new String[]{"SUM(" + InventoryEntry.COLUMN_PRODUCT_PRICE + "*" + InventoryEntry.COLUMN_PRODUCT_QUANTITY + ")"}, null, null, null);
+        try {
+            cursor.moveToFirst ();
+            return cursor.getLong (0);
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private List<Long> inStock() {
+        Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, new String[]{InventoryEntry._ID}, InventoryEntry.COLUMN_PRODUCT_QUANTITY + ">0", null, null);
+        List<Long> ids = new ArrayList<> ();
+        try {
+            while (cursor.moveToNext ()) {
+                ids.add (cursor.getLong (0));
+            }
+        } finally {
+            cursor.close ();
+        }
+        return ids;
+    }
+
+    private static boolean contains(long[] ids, long id) {
+        for (long candidate : ids) {
+            if (candidate == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Uri firstInStock() {
+        Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, new String[]{InventoryEntry._ID}, InventoryEntry.COLUMN_PRODUCT_QUANTITY + ">0", null, null);
+        try {
+            cursor.moveToFirst ();
+            return ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, cursor.getLong (0));
+        } finally {
+            cursor.close ();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.android.inventoryappstageone.report;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.inventoryappstageone.data.InventoryContract;
+import com.example.android.inventoryappstageone.data.InventoryContract.DemandEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryProvider;
+import com.example.android.inventoryappstageone.data.SalesVelocity;
+import com.example.android.inventoryappstageone.data.TestInventories;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the sales velocities kept by {@link InventoryProvider} and for {@link ReorderPlanner},
+ * with a benchmark of planning 100k products on one thread.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ReorderPlannerTest {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int BENCHMARK_PRODUCTS = 100000;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = TestInventories.createProvider ();
+    }
+
+    @Test
+    public void salesUpdateVelocity() {
+        long coffee = insertInventory ("Coffee", "Roastery", 100);
+        long tea = insertInventory ("Tea", "Roastery", 100);
+
+        checkout (coffee, -7);
+        checkout (coffee, -7);
+        checkout (tea, 3);
+
+        assertEquals (14 / SalesVelocity.TIME_CONSTANT_DAYS, velocityOf (coffee), 0.01);
+        assertEquals (0, velocityOf (tea), 0);
+    }
+
+    @Test
+    public void onlySalesUpdateVelocity() {
+        long coffee = insertInventory ("Coffee", "Roastery", 100);
+
+        // A correction in the editor, a stock count and undoing a delivery sell nothing
+        ContentValues correction = new ContentValues ();
+        correction.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, 90);
+        mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, coffee), correction, null, null);
+        ContentValues count = new ContentValues ();
+        count.put (InventoryContract.StockEntry.COLUMN_QUANTITY, 80);
+        mResolver.update (InventoryEntry.buildStockUri (coffee, InventoryContract.LocationEntry.DEFAULT_LOCATION_ID), count, null, null);
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ADJUST_QUANTITY, null, InventoryContract.buildAdjustExtras (coffee, 10, false));
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_UNDO, null, null);
+        assertEquals (0, velocityOf (coffee), 0);
+
+        // A quantity delta and an adjustment do
+        ContentValues sale = new ContentValues ();
+        sale.put (InventoryEntry.QUANTITY_DELTA, -7);
+        mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, coffee), sale, null, null);
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_ADJUST_QUANTITY, null, InventoryContract.buildAdjustExtras (coffee, -7, false));
+        assertEquals (14 / SalesVelocity.TIME_CONSTANT_DAYS, velocityOf (coffee), 0.01);
+
+        // A delete takes the velocity with it, rather than counting as a sale
+        mResolver.delete (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, coffee), null, null);
+        assertEquals (0, velocityOf (coffee), 0);
+    }
+
+    @Test
+    public void velocityDecaysWithoutSales() {
+        double velocity = SalesVelocity.recordSale (0, 0, 14, 0);
+        assertEquals (velocity / Math.E, SalesVelocity.decay (velocity, 0, (long) (SalesVelocity.TIME_CONSTANT_DAYS * DAY_MILLIS)), 1e-9);
+    }
+
+    @Test
+    public void planGroupsSuggestionsPerSupplier() {
+        long coffee = insertInventory ("Coffee", "Roastery", 2);
+        long beans = insertInventory ("Beans", "Roastery", 1);
+        long cups = insertInventory ("Cups", "Potter", 500);
+        insertInventory ("Tea", "Garden", 5);
+        checkout (coffee, -2);
+        checkout (beans, -1);
+        checkout (cups, -10);
+
+        // An hour later the velocities have barely decayed
+        List<ReorderPlanner.SupplierOrder> orders = ReorderPlanner.load (mResolver).plan (System.currentTimeMillis () + DAY_MILLIS / 24, ReorderPlanner.DEFAULT_COVER_DAYS);
+
+        // Cups hold far more than they sell, and tea never sold
+        assertEquals (1, orders.size ());
+        assertEquals ("Roastery", orders.get (0).supplierName);
+        assertArrayEquals (new long[]{coffee, beans}, orders.get (0).inventoryIds);
+        assertArrayEquals (new int[]{2, 1}, orders.get (0).quantities);
+        assertEquals (3, orders.get (0).totalUnits);
+    }
+
+    @Test
+    public void benchmarkPlanHundredThousandProducts() {
+        Random random = new Random (5);
+        long now = System.currentTimeMillis ();
+        ReorderPlanner planner = new ReorderPlanner ();
+        for (int i = 0; i < BENCHMARK_PRODUCTS; i++) {
+            double velocity = random.nextInt (4) == 0 ? 0 : random.nextDouble () * 20;
+            planner.add (i + 1, random.nextInt (200), "Supplier " + random.nextInt (200), velocity, now - random.nextInt (30) * DAY_MILLIS);
+        }
+
+        // Warm up, then time
+        planner.plan (now, ReorderPlanner.DEFAULT_COVER_DAYS);
+        long start = System.nanoTime ();
+        List<ReorderPlanner.SupplierOrder> orders = planner.plan (now, ReorderPlanner.DEFAULT_COVER_DAYS);
+        long millis = (System.nanoTime () - start) / 1000000;
+
+        long products = 0;
+        for (ReorderPlanner.SupplierOrder order : orders) {
+            products += order.inventoryIds.length;
+        }
+        System.out.println ("planned " + BENCHMARK_PRODUCTS + " products in " + millis + " ms: " + orders.size () + " suppliers, " + products + " products to order");
+        assertTrue (millis < 1000);
+    }
+
+    private long insertInventory(String name, String supplier, int quantity) {
+        ContentValues values = TestInventories.inventory (name, 100, quantity);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplier);
+        return TestInventories.insert (mResolver, values);
+    }
+
+    private void checkout(long id, int delta) {
+        mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_CHECKOUT, null, InventoryContract.buildCheckoutExtras (new long[]{id}, new int[]{delta}, false));
+    }
+
+    private double velocityOf(long id) {
+        Cursor cursor = mResolver.query (DemandEntry.CONTENT_URI, new String[]{DemandEntry.COLUMN_VELOCITY}, DemandEntry.COLUMN_INVENTORY_ID + "=?", new String[]{String.valueOf (id)}, null);
+        try {
+            return cursor.moveToFirst () ? cursor.getDouble (0) : 0;
+        } finally {
+            cursor.close ();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.android.inventoryappstageone.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-process {@link SyncServer} that keeps every pushed change in memory, in push order.
+ */
+class FakeSyncServer implements SyncServer {
+
+    private final List<String> mDeviceIds = new ArrayList<> ();
+    private final List<SyncPayload.Change> mChanges = new ArrayList<> ();
+
+    /**
+     * Bytes received from and sent to devices
+     */
+    long bytesPushed;
+    long bytesPulled;
+
+    @Override
+    public synchronized void push(String deviceId, byte[] batch) throws IOException {
+        bytesPushed += batch.length;
+        for (SyncPayload.Change change : SyncPayload.decode (batch).changes) {
+            mDeviceIds.add (deviceId);
+            mChanges.add (change);
+        }
+    }
+
+    @Override
+    public synchronized byte[] pull(String deviceId, long sinceSequence, int maxChanges) throws IOException {
+        // The server sequence number of a change is its position in the log, starting at 1
+        List<SyncPayload.Change> changes = new ArrayList<> ();
+        long sequence = sinceSequence;
+        for (int i = (int) sinceSequence; i < mChanges.size () && changes.size () < maxChanges; i++) {
+            sequence = i + 1;
+            if (!mDeviceIds.get (i).equals (deviceId)) {
+                changes.add (mChanges.get (i));
+            }
+        }
+        byte[] batch = SyncPayload.encode (sequence, changes);
+        bytesPulled += batch.length;
+        return batch;
+    }
+
+    /**
+     * All changes pushed so far, in push order.
+     */
+    synchronized List<SyncPayload.Change> changes() {
+        return new ArrayList<> (mChanges);
+    }
+}
@@ -0,0 +1,355 @@
+package com.example.android.inventoryappstageone.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryappstageone.data.InventoryContract;
+import com.example.android.inventoryappstageone.data.InventoryContract.ChangeEntry;
+import com.example.android.inventoryappstageone.data.InventoryContract.InventoryEntry;
+import com.example.android.inventoryappstageone.data.InventoryDatasetGenerator;
+import com.example.android.inventoryappstageone.data.InventoryProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SyncEngine} against an in-process {@link FakeSyncServer}, and a benchmark of
+ * the bytes and time a sync takes. Run the benchmark at full size with
+ * ./gradlew testDebugUnitTest -Dbenchmark.sync.rows=100000
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class SyncEngineTest {
+
+    private ContentResolver mResolver;
+    private FakeSyncServer mServer;
+    private SyncEngine mEngine;
+
+    @Before
+    public void setUp() {
+        Robolectric.buildContentProvider (InventoryProvider.class).create (InventoryContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver ();
+        mServer = new FakeSyncServer ();
+        mEngine = new SyncEngine (mResolver, mServer, RuntimeEnvironment.application.getSharedPreferences ("sync", Context.MODE_PRIVATE), "till-1");
+    }
+
+    @Test
+    public void pushCoalescesChangesAndLetsFeedBePruned() throws Exception {
+        Uri uri = insertInventory (10);
+        for (int i = 0; i < 5; i++) {
+            sell (uri, 1);
+        }
+
+        SyncEngine.Result result = mEngine.sync ();
+
+        // The insert and the five sales travel as a single insert with the current quantity
+        assertEquals (1, result.pushedChanges);
+        SyncPayload.Change change = mServer.changes ().get (0);
+        assertEquals (ChangeEntry.OPERATION_INSERT, change.operation);
+        assertEquals (uidOf (uri), change.uid);
+        assertEquals (5, (int) change.values.getAsInteger (InventoryEntry.COLUMN_PRODUCT_QUANTITY));
+        // The pushed changes are acknowledged, so maintenance prunes them
+        assertEquals (6, countChanges ());
+        maintain ();
+        assertEquals (0, countChanges ());
+
+        // Changes not pushed yet are kept
+        sell (uri, 1);
+        maintain ();
+        assertEquals (1, countChanges ());
+    }
+
+    @Test
+    public void concurrentSalesOnTwoTillsAddUp() throws Exception {
+        Uri uri = insertInventory (10);
+        mEngine.sync ();
+
+        // Both tills sell the same product before syncing again
+        sell (uri, 1);
+        SyncPayload.Change remoteSale = new SyncPayload.Change (uidOf (uri), ChangeEntry.OPERATION_UPDATE, -2, new ContentValues ());
+        mServer.push ("till-2", SyncPayload.encode (0, Collections.singletonList (remoteSale)));
+
+        SyncEngine.Result result = mEngine.sync ();
+
+        assertEquals (1, result.pushedChanges);
+        assertEquals (1, result.pulledChanges);
+        assertEquals (7, quantityOf (uri));
+        // The pulled change is not recorded again, so it won't be pushed back
+        maintain ();
+        assertEquals (0, countChanges ());
+    }
+
+    @Test
+    public void editsOfDifferentColumnsOnTwoTillsBothSurvive() throws Exception {
+        Uri uri = insertInventory (10);
+        mEngine.sync ();
+
+        // This till changes the price while till 2 renames the product
+        ContentValues price = new ContentValues ();
+        price.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 30);
+        mResolver.update (uri, price, null, null);
+        ContentValues name = new ContentValues ();
+        name.put (InventoryEntry.COLUMN_PRODUCT_NAME, "Dark roast");
+        mServer.push ("till-2", SyncPayload.encode (0, Collections.singletonList (new SyncPayload.Change (uidOf (uri), ChangeEntry.OPERATION_UPDATE, 0, name))));
+
+        mEngine.sync ();
+
+        // Only the price travels, not the stale name nor the quantity
+        SyncPayload.Change update = mServer.changes ().get (mServer.changes ().size () - 1);
+        assertEquals (Collections.singleton (InventoryEntry.COLUMN_PRODUCT_PRICE), update.values.keySet ());
+        assertEquals ("Dark roast", nameOf (uri));
+        assertEquals (30, priceOf (uri));
+        assertEquals (10, quantityOf (uri));
+    }
+
+    @Test
+    public void editorSaveKeepsRenameAndSalesFromOtherTill() throws Exception {
+        Uri uri = insertInventory (10);
+        mEngine.sync ();
+
+        // The editor opens the product, then till 2 renames it and sells 3, which this till pulls
+        ContentValues loaded = newInventory (10);
+        ContentValues name = new ContentValues ();
+        name.put (InventoryEntry.COLUMN_PRODUCT_NAME, "Dark roast");
+        mServer.push ("till-2", SyncPayload.encode (0, Collections.singletonList (new SyncPayload.Change (uidOf (uri), ChangeEntry.OPERATION_UPDATE, -3, name))));
+        mEngine.sync ();
+
+        // The editor saves a new price, and one more unit counted on the shelf
+        ContentValues edited = newInventory (11);
+        edited.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 30);
+        mResolver.update (InventoryEntry.buildCorrectionUri (uri), InventoryEntry.buildEditValues (loaded, edited), null, null);
+        mEngine.sync ();
+
+        assertEquals ("Dark roast", nameOf (uri));
+        assertEquals (30, priceOf (uri));
+        assertEquals (8, quantityOf (uri));
+        // Only the price and the counted unit travel
+        SyncPayload.Change update = mServer.changes ().get (mServer.changes ().size () - 1);
+        assertEquals (Collections.singleton (InventoryEntry.COLUMN_PRODUCT_PRICE), update.values.keySet ());
+        assertEquals (1, update.quantityDelta);
+    }
+
+    @Test
+    public void pullInsertsRemoteProducts() throws Exception {
+        SyncPayload.Change remoteInsert = new SyncPayload.Change ("remote", ChangeEntry.OPERATION_INSERT, 0, newInventory (3));
+        mServer.push ("till-2", SyncPayload.encode (0, Collections.singletonList (remoteInsert)));
+
+        mEngine.sync ();
+
+        assertEquals (3, quantityOf (uriOf ("remote")));
+    }
+
+    @Test
+    public void productsAreMatchedByUidNotLocalId() throws Exception {
+        // Both tills create their first product, which gets _id 1 on each
+        Uri coffee = insertInventory (10);
+        String coffeeUid = uidOf (coffee);
+        ContentValues tea = newInventory (4);
+        tea.put (InventoryEntry._ID, ContentUris.parseId (coffee));
+        tea.put (InventoryEntry.COLUMN_PRODUCT_NAME, "Tea");
+        mServer.push ("till-2", SyncPayload.encode (0, Arrays.asList (
+                new SyncPayload.Change ("tea", ChangeEntry.OPERATION_INSERT, 0, tea),
+                new SyncPayload.Change ("tea", ChangeEntry.OPERATION_UPDATE, -1, new ContentValues ()))));
+
+        mEngine.sync ();
+
+        assertEquals ("Coffee", nameOf (coffee));
+        assertEquals (10, quantityOf (coffee));
+        assertEquals ("Tea", nameOf (uriOf ("tea")));
+        assertEquals (3, quantityOf (uriOf ("tea")));
+
+        // Till 2 deletes its tea, which is another row here
+        mServer.push ("till-2", SyncPayload.encode (0, Collections.singletonList (new SyncPayload.Change ("tea", ChangeEntry.OPERATION_DELETE, 0, null))));
+        mResolver.delete (coffee, null, null);
+        mEngine.sync ();
+
+        assertEquals (0, countInventories ());
+        SyncPayload.Change delete = mServer.changes ().get (mServer.changes ().size () - 1);
+        assertEquals (ChangeEntry.OPERATION_DELETE, delete.operation);
+        assertEquals (coffeeUid, delete.uid);
+    }
+
+    @Test
+    public void productCreatedOnBothTillsIsMergedBySku() throws Exception {
+        ContentValues values = newInventory (10);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SKU, "5901234123457");
+        Uri local = mResolver.insert (InventoryEntry.CONTENT_URI, values);
+
+        // Till 2 created the same product under a smaller uid, with another price
+        ContentValues remote = new ContentValues (values);
+        remote.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 30);
+        remote.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, 2);
+        mServer.push ("till-2", SyncPayload.encode (0, Arrays.asList (
+                new SyncPayload.Change ("0", ChangeEntry.OPERATION_INSERT, 0, remote),
+                new SyncPayload.Change ("0", ChangeEntry.OPERATION_UPDATE, -1, new ContentValues ()))));
+
+        mEngine.sync ();
+
+        // One row, now known by the smaller uid, with till 2's values but this till's stock
+        assertEquals (1, countInventories ());
+        assertEquals ("0", uidOf (local));
+        assertEquals (9, quantityOf (local));
+
+        // A till whose uid is the smaller one keeps its own uid and values
+        mResolver.delete (InventoryEntry.CONTENT_URI, null, null);
+        mEngine.sync ();
+        local = mResolver.insert (InventoryEntry.CONTENT_URI, values);
+        String localUid = uidOf (local);
+        mServer.push ("till-2", SyncPayload.encode (0, Collections.singletonList (new SyncPayload.Change (localUid + "z", ChangeEntry.OPERATION_INSERT, 0, remote))));
+        mEngine.sync ();
+
+        assertEquals (1, countInventories ());
+        assertEquals (localUid, uidOf (local));
+        assertEquals (25, priceOf (local));
+    }
+
+    @Test
+    public void syncBenchmark() throws Exception {
+        int rows = Integer.getInteger ("benchmark.sync.rows", 2000);
+        InventoryDatasetGenerator generator = new InventoryDatasetGenerator (7, 20);
+        for (int inserted = 0; inserted < rows; inserted += 10000) {
+            mResolver.bulkInsert (InventoryEntry.CONTENT_URI, generator.next (Math.min (10000, rows - inserted)));
+        }
+        SyncEngine.Result initial = mEngine.sync ();
+        assertEquals (rows, initial.pushedChanges);
+
+        // A delivery of every product here, and the same on another till
+        List<Long> ids = new ArrayList<> (rows);
+        List<SyncPayload.Change> remote = new ArrayList<> (rows);
+        Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, new String[]{InventoryEntry._ID, InventoryEntry.COLUMN_PRODUCT_UID}, null, null, null);
+        try {
+            while (cursor.moveToNext ()) {
+                ids.add (cursor.getLong (0));
+                remote.add (new SyncPayload.Change (cursor.getString (1), ChangeEntry.OPERATION_UPDATE, 1, new ContentValues ()));
+            }
+        } finally {
+            cursor.close ();
+        }
+        ContentValues delivery = new ContentValues ();
+        delivery.put (InventoryEntry.QUANTITY_DELTA, 1);
+        for (long id : ids) {
+            mResolver.update (ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, id), delivery, null, null);
+        }
+        mServer.push ("till-2", SyncPayload.encode (0, remote));
+        SyncEngine.Result deltas = mEngine.sync ();
+        assertEquals (rows, deltas.pushedChanges);
+        assertEquals (rows, deltas.pulledChanges);
+
+        System.out.println ("initial sync of " + rows + " products: " + initial + ", " + initial.bytesSent / rows + " bytes per product");
+        System.out.println ("delta sync of " + rows + " changes each way: " + deltas + ", " + (deltas.bytesSent + deltas.bytesReceived) / (2 * rows) + " bytes per change");
+    }
+
+    private String uidOf(Uri uri) {
+        Cursor cursor = mResolver.query (uri, new String[]{InventoryEntry.COLUMN_PRODUCT_UID}, null, null, null);
+        try {
+            cursor.moveToFirst ();
+            return cursor.getString (0);
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    /**
+     * Return the URI of the local row of the product with the given uid.
+     */
+    private Uri uriOf(String uid) {
+        Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, new String[]{InventoryEntry._ID}, InventoryEntry.COLUMN_PRODUCT_UID + "=?", new String[]{uid}, null);
+        try {
+            assertTrue ("No product with uid " + uid, cursor.moveToFirst ());
+            return ContentUris.withAppendedId (InventoryEntry.CONTENT_URI, cursor.getLong (0));
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private String nameOf(Uri uri) {
+        Cursor cursor = mResolver.query (uri, new String[]{InventoryEntry.COLUMN_PRODUCT_NAME}, null, null, null);
+        try {
+            cursor.moveToFirst ();
+            return cursor.getString (0);
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private int priceOf(Uri uri) {
+        Cursor cursor = mResolver.query (uri, new String[]{InventoryEntry.COLUMN_PRODUCT_PRICE}, null, null, null);
+        try {
+            cursor.moveToFirst ();
+            return cursor.getInt (0);
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private int countInventories() {
+        Cursor cursor = mResolver.query (InventoryEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount ();
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private Uri insertInventory(int quantity) {
+        return mResolver.insert (InventoryEntry.CONTENT_URI, newInventory (quantity));
+    }
+
+    private void sell(Uri uri, int quantity) {
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.QUANTITY_DELTA, -quantity);
+        mResolver.update (uri, values, null, null);
+    }
+
+    private int quantityOf(Uri uri) {
+        Cursor cursor = mResolver.query (uri, new String[]{InventoryEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            cursor.moveToFirst ();
+            return cursor.getInt (0);
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private void maintain() {
+        while (mResolver.call (InventoryEntry.CONTENT_URI, InventoryContract.METHOD_MAINTAIN, null, null).getBoolean (InventoryContract.EXTRA_MORE_WORK)) {
+            // Until every pushed change is pruned
+        }
+    }
+
+    private int countChanges() {
+        Cursor cursor = mResolver.query (ChangeEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount ();
+        } finally {
+            cursor.close ();
+        }
+    }
+
+    private static ContentValues newInventory(int quantity) {
+        ContentValues values = new ContentValues ();
+        values.put (InventoryEntry.COLUMN_PRODUCT_NAME, "Coffee");
+        values.put (InventoryEntry.COLUMN_PRODUCT_PRICE, 25);
+        values.put (InventoryEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Supplier 1");
+        values.put (InventoryEntry.COLUMN_PRODUCT_SUPPLIER_PHONE_NUMBER, "555100200");
+        return values;
+    }
+}
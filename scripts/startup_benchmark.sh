@@ -0,0 +1,28 @@
+#!/bin/sh
+# Cold start benchmark of the catalog on a connected device or emulator.
+#
+# Each run force-stops the app, starts CatalogActivity and
+# records the launch time reported by the activity manager, plus the StartupTrace markers
+# up to the first catalog row being drawn (see StartupTrace.java).
+#
+# Usage: scripts/startup_benchmark.sh [runs]
+#
+# Install the app and add some inventory first; an empty catalog never draws a row.
+
+set -e
+
+PACKAGE=com.example.android.inventoryappstageone
+ACTIVITY=$PACKAGE/.CatalogActivity
+RUNS=${1:-10}
+
+run=1
+while [ "$run" -le "$RUNS" ]; do
+    adb shell am force-stop "$PACKAGE"
+    adb logcat -c
+    total=$(adb shell am start -W -n "$ACTIVITY" | tr -d '\r' | sed -n 's/^TotalTime: //p')
+    # Give the loader time to deliver and the list to draw
+    sleep 2
+    markers=$(adb logcat -d -s StartupTrace:I | tr -d '\r' | sed -n 's/.*StartupTrace: //p' | tr '\n' ' ')
+    echo "run $run: TotalTime ${total} ms; $markers"
+    run=$((run + 1))
+done